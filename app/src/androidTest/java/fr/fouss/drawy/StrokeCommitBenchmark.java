@@ -0,0 +1,75 @@
+package fr.fouss.drawy;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.os.SystemClock;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+import android.view.MotionEvent;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.*;
+
+/**
+ * Measures the onDraw cost of a live stroke against its length, with and without segmented strokes.
+ * Results are written to logcat under the "StrokeCommitBenchmark" tag.
+ */
+@RunWith(AndroidJUnit4.class)
+public class StrokeCommitBenchmark {
+
+    private static final String TAG = "StrokeCommitBenchmark";
+    private static final int[] STROKE_LENGTHS = {100, 500, 1000, 2000, 5000};
+    private static final int MEASURED_FRAMES = 50;
+
+    @Test
+    public void frameCostAgainstStrokeLength() throws Exception {
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(() -> {
+            for (int color : new int[]{0xff000000, 0x80ff0000}) {
+                for (int length : STROKE_LENGTHS) {
+                    double full = measure(false, color, length);
+                    double segmented = measure(true, color, length);
+                    Log.i(TAG, String.format("color=%08x points=%d full=%.3fms segmented=%.3fms",
+                            color, length, full, segmented));
+                }
+            }
+        });
+    }
+
+    // average onDraw time in ms over the last MEASURED_FRAMES moves of a stroke of the given length
+    private static double measure(boolean segmented, int color, int length) {
+        DrawView view = new DrawView(InstrumentationRegistry.getTargetContext(), null);
+        view.setSegmentedStrokes(segmented);
+        view.setBrushColor(color);
+        Bitmap target = Bitmap.createBitmap(view.getDrawingWidth(), view.getDrawingHeight(),
+                Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(target);
+
+        long downTime = SystemClock.uptimeMillis();
+        dispatch(view, downTime, MotionEvent.ACTION_DOWN, 0);
+        long total = 0;
+        for (int i = 1; i < length; i++) {
+            dispatch(view, downTime, MotionEvent.ACTION_MOVE, i);
+            if (i >= length - MEASURED_FRAMES) {
+                long start = System.nanoTime();
+                view.onDraw(canvas);
+                total += System.nanoTime() - start;
+            }
+        }
+        dispatch(view, downTime, MotionEvent.ACTION_UP, length);
+        assertTrue(total > 0);
+        target.recycle();
+        return total / 1e6 / MEASURED_FRAMES;
+    }
+
+    // zig-zag scribble covering most of the screen
+    private static void dispatch(DrawView view, long downTime, int action, int i) {
+        float x = 50 + (i * 7) % 900;
+        float y = 50 + (i / 128) * 15 % 1500 + (i % 2) * 6;
+        MotionEvent event = MotionEvent.obtain(downTime, downTime + i * 8, action, x, y, 0);
+        view.onTouchEventBrush(event);
+        event.recycle();
+    }
+}
@@ -0,0 +1,193 @@
+package fr.fouss.drawy;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.Path;
+import android.graphics.Rect;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Replays a {@link DrawingLog} onto an Android canvas, building strokes the same way DrawView does.
+ * Each layer gets its own canvas when {@link Layers} are given, blending them is up to the caller.
+ */
+class CanvasReplayTarget implements ReplayCanvas {
+
+    interface Layers {
+        // canvas of layer, added empty if it is new, blended with opacity and mode
+        Canvas selectLayer(int layer, int opacity, int mode);
+
+        // drops every layer but the first one, whose canvas is returned
+        Canvas clearLayers();
+    }
+
+    private final Layers layers;
+    private Canvas canvas;
+    private final List<Bitmap> images;
+    private final Path path = new Path();
+    private final Paint paint = new Paint();
+    private final Paint imagePaint = new Paint();
+    private final Matrix imageTransform = new Matrix();
+    private final ImageTransform imageTransformValues = new ImageTransform();
+    private final StampBrush stampBrush = new StampBrush();
+    private int[] stampPixels = new int[0];
+    private Bitmap stampBitmap = null;
+    private final Rect stampSrc = new Rect();
+    private final Rect stampDst = new Rect();
+    private final Matrix deviceMatrix = new Matrix();
+    private final float[] deviceValues = new float[9];
+    private final FillMask fillMask = new FillMask();
+
+    // every layer is drawn on canvas, without its opacity nor blend mode
+    CanvasReplayTarget(Canvas canvas, List<Bitmap> images) {
+        this.layers = null;
+        this.canvas = canvas;
+        this.images = images;
+        paint.setStyle(Paint.Style.STROKE);
+    }
+
+    // starts on the first layer, the others being dropped
+    CanvasReplayTarget(Layers layers, List<Bitmap> images) {
+        this.layers = layers;
+        this.canvas = layers.clearLayers();
+        this.images = images;
+        paint.setStyle(Paint.Style.STROKE);
+    }
+
+    // back on the first layer with the others dropped, e.g. for the next band of an export
+    void restart() {
+        if (layers != null) {
+            canvas = layers.clearLayers();
+        }
+    }
+
+    // the buffers kept between operations
+    void recycle() {
+        if (stampBitmap != null) {
+            stampBitmap.recycle();
+            stampBitmap = null;
+        }
+        stampPixels = new int[0];
+        fillMask.recycle();
+    }
+
+    @Override
+    public void clear(int color) {
+        if (layers != null) {
+            canvas = layers.clearLayers();
+        }
+        canvas.drawColor(color);
+    }
+
+    @Override
+    public void selectLayer(int layer, int opacity, int mode) {
+        if (layers != null) {
+            canvas = layers.selectLayer(layer, opacity, mode);
+        }
+    }
+
+    @Override
+    public void drawBackground(int imageId) {
+        canvas.drawBitmap(images.get(imageId), 0, 0, imagePaint);
+    }
+
+    @Override
+    public void drawStroke(float[] points, int pointCount, int color, float width, int cap, int join) {
+        paint.setColor(color);
+        paint.setStrokeWidth(width);
+        paint.setStrokeCap(Paint.Cap.values()[cap]);
+        paint.setStrokeJoin(Paint.Join.values()[join]);
+        if (pointCount == 1) {
+            canvas.drawPoint(points[0], points[1], paint);
+            return;
+        }
+        buildStrokePath(path, points, pointCount);
+        canvas.drawPath(path, paint);
+    }
+
+    @Override
+    public void drawImage(int imageId, float x, float y, float scale, float degrees) {
+        Bitmap image = images.get(imageId);
+        setImageTransform(imageTransform, imageTransformValues, image.getWidth(), image.getHeight(),
+                x, y, scale, degrees);
+        canvas.drawBitmap(image, imageTransform, imagePaint);
+    }
+
+    /**
+     * The dabs are blended over transparent pixels, then drawn over the canvas in one go. They are
+     * rasterized at the resolution of the canvas and only within it, e.g. a band of a scaled export,
+     * the canvases replayed onto being only ever scaled and translated.
+     */
+    @Override
+    public void drawStamps(float[] points, int pointCount, int color, float size) {
+        stampBrush.begin(color, size);
+        for (int p = 0; p < pointCount; p++) {
+            stampBrush.stampTo(points[3 * p], points[3 * p + 1], points[3 * p + 2]);
+        }
+        canvas.getMatrix(deviceMatrix);
+        deviceMatrix.getValues(deviceValues);
+        float scaleX = deviceValues[Matrix.MSCALE_X];
+        float scaleY = deviceValues[Matrix.MSCALE_Y];
+        float dx = deviceValues[Matrix.MTRANS_X];
+        float dy = deviceValues[Matrix.MTRANS_Y];
+        DirtyRect bounds = stampBrush.getBounds();
+        int left = Math.max(0, (int) Math.floor(bounds.left * scaleX + dx));
+        int top = Math.max(0, (int) Math.floor(bounds.top * scaleY + dy));
+        int right = Math.min(canvas.getWidth(), (int) Math.ceil(bounds.right * scaleX + dx));
+        int bottom = Math.min(canvas.getHeight(), (int) Math.ceil(bounds.bottom * scaleY + dy));
+        if (left >= right || top >= bottom) {
+            stampBrush.clearDabs();
+            return;
+        }
+        int width = right - left;
+        int height = bottom - top;
+        if (stampPixels.length < width * height) {
+            stampPixels = new int[width * height];
+        } else {
+            Arrays.fill(stampPixels, 0, width * height, 0);
+        }
+        // both scales only differ by the rounding of the export size
+        stampBrush.rasterize(stampPixels, left, top, width, height, (scaleX + scaleY) / 2, dx, dy);
+        StampBrush.unpremultiply(stampPixels, width * height);
+        if (stampBitmap == null || stampBitmap.getWidth() < width || stampBitmap.getHeight() < height) {
+            int bitmapWidth = Math.max(width, stampBitmap == null ? 0 : stampBitmap.getWidth());
+            int bitmapHeight = Math.max(height, stampBitmap == null ? 0 : stampBitmap.getHeight());
+            if (stampBitmap != null) {
+                stampBitmap.recycle();
+            }
+            stampBitmap = Bitmap.createBitmap(bitmapWidth, bitmapHeight, Bitmap.Config.ARGB_8888);
+        }
+        stampBitmap.setPixels(stampPixels, 0, width, 0, 0, width, height);
+        stampSrc.set(0, 0, width, height);
+        stampDst.set(left, top, right, bottom);
+        canvas.save();
+        canvas.setMatrix(null);
+        canvas.drawBitmap(stampBitmap, stampSrc, stampDst, imagePaint);
+        canvas.restore();
+    }
+
+    @Override
+    public void drawFill(int[] mask, int offset, int left, int top, int width, int height, int color) {
+        fillMask.draw(canvas, mask, offset, left, top, width, height, color);
+    }
+
+    // each point is the control of a quad ending halfway to the next one
+    static void buildStrokePath(Path path, float[] points, int pointCount) {
+        path.rewind();
+        path.moveTo(points[0], points[1]);
+        for (int p = 1; p < pointCount; p++) {
+            float lastX = points[2 * p - 2];
+            float lastY = points[2 * p - 1];
+            path.quadTo(lastX, lastY, (points[2 * p] + lastX)/2, (points[2 * p + 1] + lastY)/2);
+        }
+    }
+
+    static void setImageTransform(Matrix transform, ImageTransform values, int width, int height,
+                                  float x, float y, float scale, float degrees) {
+        values.set(width, height, x, y, scale, degrees);
+        transform.setValues(values.values);
+    }
+}
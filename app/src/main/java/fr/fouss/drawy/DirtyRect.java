@@ -0,0 +1,68 @@
+package fr.fouss.drawy;
+
+/**
+ * Integer pixel bounds of the area touched by brush segments, padded by the stroke half width.
+ * Kept free of android.graphics so it can be checked on the JVM.
+ */
+class DirtyRect {
+
+    // extra pixel around the stroke to cover anti-aliasing
+    private static final int AA_MARGIN = 1;
+
+    int left;
+    int top;
+    int right;
+    int bottom;
+
+    DirtyRect() {
+        setEmpty();
+    }
+
+    boolean isEmpty() {
+        return left >= right || top >= bottom;
+    }
+
+    void setEmpty() {
+        left = Integer.MAX_VALUE;
+        top = Integer.MAX_VALUE;
+        right = Integer.MIN_VALUE;
+        bottom = Integer.MIN_VALUE;
+    }
+
+    void set(int left, int top, int right, int bottom) {
+        this.left = left;
+        this.top = top;
+        this.right = right;
+        this.bottom = bottom;
+    }
+
+    void union(float l, float t, float r, float b, float halfWidth) {
+        left = Math.min(left, (int) Math.floor(l - halfWidth) - AA_MARGIN);
+        top = Math.min(top, (int) Math.floor(t - halfWidth) - AA_MARGIN);
+        right = Math.max(right, (int) Math.ceil(r + halfWidth) + AA_MARGIN);
+        bottom = Math.max(bottom, (int) Math.ceil(b + halfWidth) + AA_MARGIN);
+    }
+
+    void union(DirtyRect rect) {
+        left = Math.min(left, rect.left);
+        top = Math.min(top, rect.top);
+        right = Math.max(right, rect.right);
+        bottom = Math.max(bottom, rect.bottom);
+    }
+
+    void unionPoint(float x, float y, float halfWidth) {
+        union(x, y, x, y, halfWidth);
+    }
+
+    // a quadratic segment always lies inside the hull of its three control points
+    void unionQuad(float x0, float y0, float cx, float cy, float x1, float y1, float halfWidth) {
+        union(Math.min(x0, Math.min(cx, x1)), Math.min(y0, Math.min(cy, y1)),
+                Math.max(x0, Math.max(cx, x1)), Math.max(y0, Math.max(cy, y1)),
+                halfWidth);
+    }
+
+    @Override
+    public String toString() {
+        return "(" + left + ";" + top + ";" + right + ";" + bottom + ")";
+    }
+}
@@ -2,54 +2,104 @@ package fr.fouss.drawy;
 
 import android.Manifest;
 import android.annotation.SuppressLint;
+import android.content.Context;
 import android.content.Intent;
 import android.content.pm.PackageManager;
 import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
 import android.net.Uri;
 import android.os.Bundle;
 import android.os.Environment;
-import android.provider.MediaStore;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.ParcelFileDescriptor;
 import android.support.annotation.NonNull;
 import android.support.v4.app.ActivityCompat;
 import android.support.v7.app.AlertDialog;
 import android.support.v7.app.AppCompatActivity;
 import android.support.v7.widget.Toolbar;
+import android.text.InputType;
+import android.util.Log;
 import android.util.TypedValue;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
+import android.widget.EditText;
 import android.widget.LinearLayout;
 import android.widget.SeekBar;
+import android.widget.TextView;
 import android.widget.Toast;
 
 import com.flask.colorpicker.ColorPickerView;
 import com.flask.colorpicker.builder.ColorPickerDialogBuilder;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.channels.FileChannel;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 
-public class DrawActivity extends AppCompatActivity {
+public class DrawActivity extends AppCompatActivity implements SaveQueue.Listener {
 
     private static final int FILE_SELECTION_CODE = 1337;
 
     private static final int WRITE_EXTERNAL_STORAGE_PERMISSION_RETURN_CODE = 7357;
 
+    static final String EXTRA_RESTORE_SESSION = "restoreSession";
+
+    private static final long JOURNAL_FLUSH_DELAY_MS = 1000;
+
+    private static final long STATS_REFRESH_MS = 500;
+
+    // largest exported PNG side, a band of rows of this width is kept in memory
+    private static final int MAX_EXPORT_SIZE = 32768;
+
     private DrawView drawView;
 
+    private MenuItem toolbarUndoButton;
+    private MenuItem toolbarRedoButton;
     private MenuItem toolbarColorButton;
     private MenuItem toolbarThicknessButton;
     private MenuItem toolbarInsertImageButton;
     private MenuItem toolbarSaveImageButton;
     private MenuItem toolbarCancelImageButton;
     private MenuItem toolbarConfirmImageButton;
+    private MenuItem toolbarFillButton;
     private LinearLayout thicknessContainer;
+    private TextView statsOverlay;
 
     private Boolean writeExternalStoragePermission;
 
+    private Handler mainHandler = new Handler(Looper.getMainLooper());
+    private ExecutorService saveExecutor;
+    private SaveQueue saveQueue;
+    private ExecutorService importExecutor;
+    private ImageImporter imageImporter;
+    // shared by the instances, so that a recreated activity reads the journal once the last one closed it
+    private static ScheduledExecutorService journalExecutor;
+    private ExecutorService fillExecutor;
+    private ExecutorService tileExecutor;
+    private SessionJournal journal;
+    private final Runnable statsRefresh = new Runnable() {
+        @Override
+        public void run() {
+            DrawStats stats = drawView.getStats();
+            if (stats != null) {
+                statsOverlay.setText(stats.dump());
+                mainHandler.postDelayed(this, STATS_REFRESH_MS);
+            }
+        }
+    };
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -64,19 +114,44 @@ public class DrawActivity extends AppCompatActivity {
                 Manifest.permission.WRITE_EXTERNAL_STORAGE) == PackageManager.PERMISSION_GRANTED;
 
         drawView = findViewById(R.id.drawView);
+        drawView.setStaticLayer(findViewById(R.id.drawingLayer));
+        drawView.setStrokeSurface(findViewById(R.id.strokeSurface));
+
+        saveExecutor = Executors.newSingleThreadExecutor();
+        saveQueue = new SaveQueue(saveExecutor, command -> mainHandler.post(command));
+        importExecutor = Executors.newSingleThreadExecutor();
+        imageImporter = new ImageImporter(getContentResolver(), importExecutor,
+                command -> mainHandler.post(command));
+        int cores = Runtime.getRuntime().availableProcessors();
+        fillExecutor = Executors.newFixedThreadPool(cores);
+        drawView.setFillWorkers(fillExecutor, cores);
+        drawView.setImageWorker(importExecutor);
+        tileExecutor = Executors.newSingleThreadExecutor();
+        drawView.setTileWorker(tileExecutor);
 
         thicknessContainer = findViewById(R.id.thicknessContainer);
+        statsOverlay = findViewById(R.id.statsOverlay);
+
+        if (journalExecutor == null) {
+            journalExecutor = Executors.newSingleThreadScheduledExecutor();
+        }
+        File sessionDirectory = getSessionDirectory(this);
+        // also restore when the activity is recreated, e.g. after a rotation or a process kill
+        boolean restore = getIntent().getBooleanExtra(EXTRA_RESTORE_SESSION, false)
+                || (savedInstanceState != null && SessionJournal.exists(sessionDirectory));
 
         String imageUriString = getIntent().getStringExtra("imageUri");
-        if (imageUriString != null) {
-            try {
-                Uri imageUri = Uri.parse(imageUriString);
-                drawView.resetCanvas(MediaStore.Images.Media.getBitmap(getContentResolver(), imageUri));
-            } catch (FileNotFoundException e) {
-                Toast.makeText(this, "File not found", Toast.LENGTH_SHORT).show();
-            } catch (IOException e) {
-                Toast.makeText(this, "I/O error", Toast.LENGTH_SHORT).show();
-            }
+        if (restore) {
+            restoreSession(sessionDirectory);
+        } else {
+            SessionJournal.delete(sessionDirectory);
+            openJournal(sessionDirectory);
+        }
+
+        if (restore) {
+            // the canvas comes from the journal
+        } else if (imageUriString != null) {
+            openDrawing(Uri.parse(imageUriString));
         } else {
             drawView.resetCanvas(getResources().getColor(R.color.canvasDefaultColor));
         }
@@ -107,19 +182,32 @@ public class DrawActivity extends AppCompatActivity {
         // Inflate the menu; this adds items to the action bar if it is present.
         getMenuInflater().inflate(R.menu.draw_menu, menu);
 
+        toolbarUndoButton = menu.findItem(R.id.undoButton);
+        toolbarRedoButton = menu.findItem(R.id.redoButton);
         toolbarColorButton = menu.findItem(R.id.colorButton);
         toolbarThicknessButton = menu.findItem(R.id.thicknessButton);
         toolbarInsertImageButton = menu.findItem(R.id.insertImageButton);
         toolbarSaveImageButton = menu.findItem(R.id.saveImageButton);
         toolbarCancelImageButton = menu.findItem(R.id.cancelImageButton);
         toolbarConfirmImageButton = menu.findItem(R.id.confirmImageButton);
+        toolbarFillButton = menu.findItem(R.id.fillButton);
 
         return true;
     }
 
     @Override
     public boolean onOptionsItemSelected(MenuItem item) {
+        // nothing to act on until the restored drawing is shown
+        if (!drawView.isEnabled() && item.getItemId() != android.R.id.home) {
+            return true;
+        }
         switch (item.getItemId()) {
+            case R.id.undoButton:
+                drawView.undo();
+                return true;
+            case R.id.redoButton:
+                drawView.redo();
+                return true;
             case R.id.colorButton :
                 ColorPickerDialogBuilder
                         .with(this)
@@ -153,43 +241,58 @@ public class DrawActivity extends AppCompatActivity {
                     return true;
                 }
 
-                if (!saveImage()) {
-                    Toast.makeText(this, "Something bad happened while saving the image...", Toast.LENGTH_SHORT).show();
-                } else {
-                    AlertDialog.Builder builder = new AlertDialog.Builder(this);
-                    builder.setMessage(getString(R.string.dialog_content_quit_on_save))
-                            .setTitle(getString(R.string.dialog_title_quit_on_save));
-                    builder.setPositiveButton("Yes", (dialog, id) -> finish());
-                    builder.setNegativeButton("No", (dialog, id) -> {
-                    });
-                    AlertDialog dialog = builder.create();
-                    dialog.show();
-                }
+                showExportDialog();
 
                 return true;
             case R.id.cancelImageButton:
                 drawView.setMode(DrawView.Mode.BRUSH);
+                showBrushToolbar(true);
 
-                toolbarColorButton.setVisible(true);
-                toolbarThicknessButton.setVisible(true);
-                toolbarInsertImageButton.setVisible(true);
-                toolbarSaveImageButton.setVisible(true);
-
-                toolbarCancelImageButton.setVisible(false);
-                toolbarConfirmImageButton.setVisible(false);
-
+                return true;
+            case R.id.fillButton:
+                item.setChecked(!item.isChecked());
+                drawView.setMode(item.isChecked() ? DrawView.Mode.FILL : DrawView.Mode.BRUSH);
+                return true;
+            case R.id.threadedStrokesButton:
+                item.setChecked(!item.isChecked());
+                drawView.setThreadedStrokes(item.isChecked());
+                return true;
+            case R.id.stampStrokesButton:
+                item.setChecked(!item.isChecked());
+                drawView.setStampStrokes(item.isChecked());
+                return true;
+            case R.id.predictStrokesButton:
+                item.setChecked(!item.isChecked());
+                drawView.setPredictionHorizon(item.isChecked() ? MotionPredictor.DEFAULT_HORIZON_MS : 0);
+                return true;
+            case R.id.layersButton:
+                showLayersDialog();
+                return true;
+            case R.id.layerOpacityButton:
+                if (drawView.getActiveLayer() == 0) {
+                    Toast.makeText(this, "The first layer is the background, add a layer above it", Toast.LENGTH_SHORT).show();
+                } else {
+                    showLayerOpacityDialog();
+                }
+                return true;
+            case R.id.layerModeButton:
+                if (drawView.getActiveLayer() == 0) {
+                    Toast.makeText(this, "The first layer is the background, add a layer above it", Toast.LENGTH_SHORT).show();
+                } else {
+                    showLayerModeDialog();
+                }
+                return true;
+            case R.id.resetZoomButton:
+                drawView.resetViewport();
+                return true;
+            case R.id.statsButton:
+                item.setChecked(!item.isChecked());
+                showStats(item.isChecked());
                 return true;
             case R.id.confirmImageButton:
                 drawView.anchorImage();
                 drawView.setMode(DrawView.Mode.BRUSH);
-
-                toolbarColorButton.setVisible(true);
-                toolbarThicknessButton.setVisible(true);
-                toolbarInsertImageButton.setVisible(true);
-                toolbarSaveImageButton.setVisible(true);
-
-                toolbarCancelImageButton.setVisible(false);
-                toolbarConfirmImageButton.setVisible(false);
+                showBrushToolbar(true);
 
                 return true;
             default :
@@ -209,7 +312,151 @@ public class DrawActivity extends AppCompatActivity {
         }
     }
 
-    private Boolean saveImage() {
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        // queued saves still complete
+        saveExecutor.shutdown();
+        importExecutor.shutdownNow();
+        mainHandler.removeCallbacks(statsRefresh);
+
+        fillExecutor.shutdown();
+        tileExecutor.shutdownNow();
+        // leaving the drawing normally, there is nothing to recover
+        if (isFinishing()) {
+            SessionJournal.delete(getSessionDirectory(this));
+        }
+        if (journal != null) {
+            // flushed and closed on its worker, whatever it can't write is lost with the process
+            journal.closeAsync();
+        }
+    }
+
+    private void showExportDialog() {
+        AlertDialog.Builder builder = new AlertDialog.Builder(this);
+        builder.setTitle(getString(R.string.dialog_title_export))
+                .setItems(R.array.export_formats, (dialog, which) -> {
+                    switch (which) {
+                        case 0:
+                            exportPng(1);
+                            break;
+                        case 1:
+                            exportPng(2);
+                            break;
+                        case 2:
+                            exportPng(4);
+                            break;
+                        case 3:
+                            showExportWidthDialog();
+                            break;
+                        case 4:
+                            exportSvg();
+                            break;
+                        case 5:
+                            exportProject();
+                            break;
+                    }
+                });
+        builder.create().show();
+    }
+
+    private void showExportWidthDialog() {
+        EditText widthInput = new EditText(this);
+        widthInput.setInputType(InputType.TYPE_CLASS_NUMBER);
+        widthInput.setText(String.valueOf(drawView.getDrawingWidth() * 2));
+        AlertDialog.Builder builder = new AlertDialog.Builder(this);
+        builder.setTitle(getString(R.string.dialog_title_export_width))
+                .setView(widthInput)
+                .setPositiveButton("Ok", (dialog, id) -> {
+                    int width;
+                    try {
+                        width = Integer.parseInt(widthInput.getText().toString());
+                    } catch (NumberFormatException e) {
+                        width = 0;
+                    }
+                    exportPng((float) width / drawView.getDrawingWidth());
+                })
+                .setNegativeButton("Cancel", (dialog, id) -> {
+                });
+        builder.create().show();
+    }
+
+    private void showLayersDialog() {
+        String[] names = new String[drawView.getLayerCount()];
+        for (int layer = 0; layer < names.length; layer++) {
+            names[layer] = getString(R.string.dialog_layer_name, layer + 1);
+        }
+        AlertDialog.Builder builder = new AlertDialog.Builder(this);
+        builder.setTitle(getString(R.string.dialog_title_layers))
+                .setSingleChoiceItems(names, drawView.getActiveLayer(), (dialog, which) -> {
+                    drawView.selectLayer(which);
+                    dialog.dismiss();
+                })
+                .setPositiveButton(getString(R.string.dialog_new_layer), (dialog, id) -> drawView.addLayer())
+                .setNegativeButton("Cancel", (dialog, id) -> {
+                });
+        builder.create().show();
+    }
+
+    private void showLayerOpacityDialog() {
+        SeekBar opacityBar = new SeekBar(this);
+        opacityBar.setMax(255);
+        opacityBar.setProgress(drawView.getLayerOpacity());
+        AlertDialog.Builder builder = new AlertDialog.Builder(this);
+        builder.setTitle(getString(R.string.dialog_title_layer_opacity))
+                .setView(opacityBar)
+                .setPositiveButton("Ok", (dialog, id) ->
+                        drawView.setLayerBlending(opacityBar.getProgress(), drawView.getLayerMode()))
+                .setNegativeButton("Cancel", (dialog, id) -> {
+                });
+        builder.create().show();
+    }
+
+    private void showLayerModeDialog() {
+        AlertDialog.Builder builder = new AlertDialog.Builder(this);
+        builder.setTitle(getString(R.string.dialog_title_layer_mode))
+                .setSingleChoiceItems(R.array.layer_modes, drawView.getLayerMode(), (dialog, which) -> {
+                    drawView.setLayerBlending(drawView.getLayerOpacity(), which);
+                    dialog.dismiss();
+                });
+        builder.create().show();
+    }
+
+    // renders the drawing again at scale times its size, in bands streamed to the file
+    private void exportPng(float scale) {
+        DrawingExport export = drawView.export();
+        int width = DrawingExport.scaledSize(export.getWidth(), scale);
+        int height = DrawingExport.scaledSize(export.getHeight(), scale);
+        if (scale <= 0 || width > MAX_EXPORT_SIZE || height > MAX_EXPORT_SIZE) {
+            Toast.makeText(this, "Images can't be larger than " + MAX_EXPORT_SIZE + " pixels", Toast.LENGTH_SHORT).show();
+            return;
+        }
+        if (!saveImage("png", out -> export.writePng(out, scale))) {
+            Toast.makeText(this, "Something bad happened while saving the image...", Toast.LENGTH_SHORT).show();
+        }
+    }
+
+    private void exportSvg() {
+        DrawingExport export = drawView.export();
+        boolean started = saveImage("svg", out -> {
+            Writer writer = new OutputStreamWriter(out, "UTF-8");
+            export.writeSvg(writer);
+            writer.flush();
+        });
+        if (!started) {
+            Toast.makeText(this, "Something bad happened while saving the image...", Toast.LENGTH_SHORT).show();
+        }
+    }
+
+    private void exportProject() {
+        DrawingExport export = drawView.exportProject();
+        if (!saveImage(DrawyFile.EXTENSION, export::writeDrawy)) {
+            Toast.makeText(this, "Something bad happened while saving the project...", Toast.LENGTH_SHORT).show();
+        }
+    }
+
+    // queues the save of the drawing, returns false if it can't be started
+    private Boolean saveImage(String extension, SaveQueue.Encoder encoder) {
         File storageDirectory = new File(Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_PICTURES), "Drawy");
 
         if (!storageDirectory.exists()) {
@@ -218,23 +465,257 @@ public class DrawActivity extends AppCompatActivity {
         }
 
         @SuppressLint("SimpleDateFormat")
-        String timestamp = new SimpleDateFormat("yyyyMMdd_HHmm").format(new Date());
+        String timestamp = new SimpleDateFormat("yyyyMMdd_HHmmss").format(new Date());
 
         File mediaFile;
-        String imageName = "drawy_" + timestamp + ".png";
+        String imageName = "drawy_" + timestamp + "." + extension;
         mediaFile = new File(storageDirectory.getPath() + File.separator + imageName);
 
-        try (FileOutputStream fos = new FileOutputStream(mediaFile)) {
-            drawView.getDrawing().compress(Bitmap.CompressFormat.PNG, 90, fos);
-        } catch (FileNotFoundException e) {
-            return false;
+        saveQueue.save(mediaFile, encoder, this);
+        updateSaveSubtitle(0);
+
+        return true;
+    }
+
+    @Override
+    public void onSaveProgress(File file, long bytesWritten) {
+        updateSaveSubtitle(bytesWritten);
+    }
+
+    @Override
+    public void onSaveFinished(File file, boolean success) {
+        updateSaveSubtitle(0);
+        if (!success) {
+            Toast.makeText(this, "Something bad happened while saving the image...", Toast.LENGTH_SHORT).show();
+            return;
+        }
+
+        Toast.makeText(this, "Drawing saved at " + file.getPath(), Toast.LENGTH_LONG).show();
+
+        if (saveQueue.getPendingCount() == 0 && !isFinishing()) {
+            AlertDialog.Builder builder = new AlertDialog.Builder(this);
+            builder.setMessage(getString(R.string.dialog_content_quit_on_save))
+                    .setTitle(getString(R.string.dialog_title_quit_on_save));
+            builder.setPositiveButton("Yes", (dialog, id) -> finish());
+            builder.setNegativeButton("No", (dialog, id) -> {
+            });
+            AlertDialog dialog = builder.create();
+            dialog.show();
+        }
+    }
+
+    private void updateSaveSubtitle(long bytesWritten) {
+        assert getSupportActionBar() != null;
+        int pending = saveQueue.getPendingCount();
+        if (pending == 0) {
+            getSupportActionBar().setSubtitle(null);
+        } else {
+            getSupportActionBar().setSubtitle("Saving (" + pending + ")... " + bytesWritten / 1024 + " KB");
+        }
+    }
+
+    // brush tools, or the buttons placing an image
+    private void showBrushToolbar(boolean brush) {
+        toolbarUndoButton.setVisible(brush);
+        toolbarRedoButton.setVisible(brush);
+        toolbarColorButton.setVisible(brush);
+        toolbarThicknessButton.setVisible(brush);
+        toolbarInsertImageButton.setVisible(brush);
+        toolbarSaveImageButton.setVisible(brush);
+        toolbarFillButton.setVisible(brush);
+        // placing an image leaves the fill tool, the brush is back afterwards
+        toolbarFillButton.setChecked(false);
+
+        toolbarCancelImageButton.setVisible(!brush);
+        toolbarConfirmImageButton.setVisible(!brush);
+    }
+
+    // the overlay refreshes while shown, the last numbers are dumped to the log when it's hidden
+    private void showStats(boolean show) {
+        DrawStats stats = drawView.getStats();
+        if (!show && stats != null) {
+            Log.i("DrawStats", stats.dump());
+        }
+        drawView.setStatsEnabled(show);
+        statsOverlay.setVisibility(show ? View.VISIBLE : View.GONE);
+        mainHandler.removeCallbacks(statsRefresh);
+        if (show) {
+            mainHandler.post(statsRefresh);
+        }
+    }
+
+    static File getSessionDirectory(Context context) {
+        return new File(context.getFilesDir(), "session");
+    }
+
+    private void openJournal(File sessionDirectory) {
+        try {
+            journal = new SessionJournal(sessionDirectory, journalExecutor, JOURNAL_FLUSH_DELAY_MS);
+            drawView.setJournal(journal);
         } catch (IOException e) {
-            return false;
+            Toast.makeText(this, "Autosave is unavailable", Toast.LENGTH_SHORT).show();
         }
+    }
 
-        Toast.makeText(this, "Drawing saved at " + mediaFile.getPath(), Toast.LENGTH_LONG).show();
+    /**
+     * Reads the journal on its worker, once the previous activity closed it, then replays it and
+     * keeps appending to it. The drawing takes no input meanwhile, the replay would overwrite it.
+     */
+    private void restoreSession(File sessionDirectory) {
+        drawView.setEnabled(false);
+        journalExecutor.execute(() -> {
+            DrawingLog log = new DrawingLog();
+            List<Bitmap> images = new ArrayList<>();
+            boolean success = true;
+            try {
+                SessionJournal.read(sessionDirectory, log);
+                for (File image = SessionJournal.getImageFile(sessionDirectory, images.size());
+                     image.exists();
+                     image = SessionJournal.getImageFile(sessionDirectory, images.size())) {
+                    Bitmap bitmap = BitmapFactory.decodeFile(image.getPath());
+                    if (bitmap == null) {
+                        throw new IOException("Cannot decode " + image);
+                    }
+                    images.add(bitmap);
+                }
+            } catch (IOException e) {
+                success = false;
+            }
+            final boolean restored = success;
+            mainHandler.post(() -> {
+                if (isFinishing()) {
+                    return;
+                }
+                drawView.setEnabled(true);
+                if (restored) {
+                    drawView.restoreFromLog(log, images);
+                    openJournal(sessionDirectory);
+                } else {
+                    Toast.makeText(this, "The previous drawing could not be restored", Toast.LENGTH_SHORT).show();
+                    SessionJournal.delete(sessionDirectory);
+                    openJournal(sessionDirectory);
+                    drawView.resetCanvas(getResources().getColor(R.color.canvasDefaultColor));
+                }
+            });
+        });
+    }
 
-        return true;
+    /**
+     * Opens a drawy project with its layers on a worker, else imports the image at uri as the
+     * canvas. The drawing takes no input meanwhile, it would be replaced along with its history.
+     */
+    private void openDrawing(Uri uri) {
+        drawView.setEnabled(false);
+        importExecutor.execute(() -> {
+            DrawyFile file;
+            try {
+                file = readProject(uri);
+            } catch (IOException e) {
+                mainHandler.post(() -> {
+                    drawView.setEnabled(true);
+                    showImportError(e);
+                });
+                return;
+            }
+            if (file == null) {
+                mainHandler.post(() -> importImage(uri));
+                return;
+            }
+            if (!drawView.canOpen(file)) {
+                mainHandler.post(() -> {
+                    drawView.setEnabled(true);
+                    Toast.makeText(this, "This project was drawn on another screen size", Toast.LENGTH_SHORT).show();
+                });
+                return;
+            }
+            DrawingLog log = null;
+            List<Bitmap> images = new ArrayList<>();
+            try {
+                if (file.hasLog()) {
+                    log = new DrawingLog();
+                    file.readLog(log);
+                    for (int image = 0; image < file.getImageCount(); image++) {
+                        byte[] png = file.readImage(image);
+                        Bitmap bitmap = BitmapFactory.decodeByteArray(png, 0, png.length);
+                        if (bitmap == null) {
+                            throw new IOException("Cannot decode image " + image);
+                        }
+                        images.add(bitmap);
+                    }
+                }
+            } catch (IOException e) {
+                // the layers alone can still be edited
+                log = null;
+                mainHandler.post(() -> Toast.makeText(this, "The history of this project is lost",
+                        Toast.LENGTH_SHORT).show());
+            }
+            if (log == null) {
+                // the drawing goes on from the flattened image
+                images.clear();
+                images.add(TiledDrawing.readBitmap(DrawView.flattenedLayer(file)));
+            }
+            final DrawingLog projectLog = log;
+            mainHandler.post(() -> {
+                if (isFinishing()) {
+                    return;
+                }
+                drawView.setEnabled(true);
+                drawView.openProject(file, projectLog, images);
+            });
+        });
+    }
+
+    // maps the file at uri when it is a drawy project, null for any other file
+    private DrawyFile readProject(Uri uri) throws IOException {
+        ParcelFileDescriptor descriptor = getContentResolver().openFileDescriptor(uri, "r");
+        if (descriptor == null) {
+            throw new FileNotFoundException("Cannot open " + uri);
+        }
+        // the descriptor owns the file, whose mapping stays valid once it is closed
+        try {
+            FileChannel channel = new FileInputStream(descriptor.getFileDescriptor()).getChannel();
+            try {
+                if (!DrawyFile.isDrawyFile(channel)) {
+                    return null;
+                }
+            } catch (IOException e) {
+                // not seekable, e.g. streamed through a pipe, which is left to the image decoder
+                return null;
+            }
+            return DrawyFile.open(channel);
+        } finally {
+            descriptor.close();
+        }
+    }
+
+    // same as openDrawing, the drawing takes no input until the image replaces it
+    private void importImage(Uri uri) {
+        drawView.setEnabled(false);
+        imageImporter.importImage(uri, drawView.getDrawingWidth(), drawView.getDrawingHeight(), 1,
+                new ImageImporter.Callback() {
+                    @Override
+                    public void onImageImported(Bitmap image) {
+                        if (isFinishing()) {
+                            return;
+                        }
+                        drawView.setEnabled(true);
+                        drawView.resetCanvas(image);
+                    }
+
+                    @Override
+                    public void onImportFailed(IOException e) {
+                        drawView.setEnabled(true);
+                        showImportError(e);
+                    }
+                });
+    }
+
+    private void showImportError(IOException e) {
+        if (e instanceof FileNotFoundException) {
+            Toast.makeText(this, "File not found", Toast.LENGTH_SHORT).show();
+        } else {
+            Toast.makeText(this, "I/O error", Toast.LENGTH_SHORT).show();
+        }
     }
 
     private void showFileChooser() {
@@ -260,22 +741,24 @@ public class DrawActivity extends AppCompatActivity {
         switch (requestCode) {
             case FILE_SELECTION_CODE:
                 if (resultCode == RESULT_OK && data.getData() != null) {
-                    try {
-                        Bitmap image = MediaStore.Images.Media.getBitmap(getContentResolver(), data.getData());
-                        drawView.setImage(image);
-                    } catch (IOException e) {
-                        return;
-                    }
-
-                    drawView.setMode(DrawView.Mode.IMAGE);
-
-                    toolbarColorButton.setVisible(false);
-                    toolbarThicknessButton.setVisible(false);
-                    toolbarInsertImageButton.setVisible(false);
-                    toolbarSaveImageButton.setVisible(false);
-
-                    toolbarCancelImageButton.setVisible(true);
-                    toolbarConfirmImageButton.setVisible(true);
+                    // decoded for the drawing size, setMode(IMAGE) fits it in the drawing
+                    imageImporter.importImage(data.getData(), drawView.getDrawingWidth(),
+                            drawView.getDrawingHeight(), 1, new ImageImporter.Callback() {
+                                @Override
+                                public void onImageImported(Bitmap image) {
+                                    if (isFinishing()) {
+                                        return;
+                                    }
+                                    drawView.setImage(image);
+                                    drawView.setMode(DrawView.Mode.IMAGE);
+                                    showBrushToolbar(false);
+                                }
+
+                                @Override
+                                public void onImportFailed(IOException e) {
+                                    showImportError(e);
+                                }
+                            });
                 }
                 break;
         }
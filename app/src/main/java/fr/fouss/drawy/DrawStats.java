@@ -0,0 +1,39 @@
+package fr.fouss.drawy;
+
+/**
+ * Timings of DrawView, recorded on the UI thread when enabled. Times are in nanoseconds.
+ */
+class DrawStats {
+
+    static final int SAMPLES = 1024;
+
+    private static final double NANOS_PER_MILLI = 1e6;
+
+    // onDraw, from its start to the end of the blit
+    final StatsHistogram drawTime = new StatsHistogram("draw", "ms", NANOS_PER_MILLI, SAMPLES);
+    // from the time of a touch event to the invalidation its handling requested
+    final StatsHistogram inputLatency = new StatsHistogram("input to invalidate", "ms", NANOS_PER_MILLI, SAMPLES);
+    // from the oldest touch event not yet shown to the onDraw showing it
+    final StatsHistogram inputToDraw = new StatsHistogram("input to draw", "ms", NANOS_PER_MILLI, SAMPLES);
+    final StatsHistogram strokePoints = new StatsHistogram("points per stroke", "points", 1, SAMPLES);
+    // drawing a stroke, or a chunk of it, into the drawing canvas
+    final StatsHistogram commitTime = new StatsHistogram("stroke commit", "ms", NANOS_PER_MILLI, SAMPLES);
+
+    void reset() {
+        drawTime.reset();
+        inputLatency.reset();
+        inputToDraw.reset();
+        strokePoints.reset();
+        commitTime.reset();
+    }
+
+    String dump() {
+        StringBuilder out = new StringBuilder();
+        drawTime.appendSummary(out);
+        inputLatency.appendSummary(out);
+        inputToDraw.appendSummary(out);
+        strokePoints.appendSummary(out);
+        commitTime.appendSummary(out);
+        return out.toString();
+    }
+}
@@ -3,33 +3,233 @@ package fr.fouss.drawy;
 import android.content.Context;
 import android.graphics.Bitmap;
 import android.graphics.Canvas;
+import android.graphics.Color;
 import android.graphics.Matrix;
 import android.graphics.Paint;
 import android.graphics.Path;
+import android.graphics.PorterDuff;
+import android.graphics.Rect;
+import android.graphics.RectF;
 import android.util.AttributeSet;
 import android.util.DisplayMetrics;
 import android.view.MotionEvent;
 import android.view.ScaleGestureDetector;
 import android.view.View;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+
 public class DrawView extends View {
 
     ///// FIELDS /////
 
     ///// GENERAL /////
 
-    private Bitmap drawing;
+    // shown drawing: the first layer while it is alone, else the composite of the layers
+    private TiledDrawing drawing;
+    // of the active layer
     private Canvas drawingCanvas;
     private Paint paint;
     private Mode mode = Mode.BRUSH;
     private float lastX = -1;
     private float lastY = -1;
+    private Rect clipBounds = new Rect();
+
+    ///// LOG /////
+
+    private static final int DEFAULT_CANVAS_COLOR = 0xffffffff;
+    private DrawingLog drawingLog = new DrawingLog();
+    private List<Bitmap> logImages = new ArrayList<>();
+    // bounds of the committed operations, only stored: nothing redraws from it, exports index their own copy of the log
+    private StrokeIndex strokeIndex;
+    private StrokeIndex.ImageSizes logImageSizes = new StrokeIndex.ImageSizes() {
+        @Override
+        public int getImageWidth(int imageId) {
+            return logImages.get(imageId).getWidth();
+        }
+
+        @Override
+        public int getImageHeight(int imageId) {
+            return logImages.get(imageId).getHeight();
+        }
+    };
+
+    ///// JOURNAL /////
+
+    private SessionJournal journal = null;
+    private int journaledImages = 0;
+
+    ///// LAYER STACK /////
+
+    private LayerStack<TiledDrawing> layerStack;
+    // the layers flattened, only drawn into while there is more than one
+    private TiledDrawing composite;
+    private TiledDrawing activeDrawing;
+    private int activeLayer = 0;
+    private DirtyRect layerBounds = new DirtyRect();
+    private int[] layerWords = new int[4];
+    private final CanvasReplayTarget.Layers replayedLayers = new CanvasReplayTarget.Layers() {
+        @Override
+        public Canvas selectLayer(int layer, int opacity, int mode) {
+            applyLayer(layer, opacity, mode);
+            return drawingCanvas;
+        }
+
+        @Override
+        public Canvas clearLayers() {
+            resetLayers();
+            return drawingCanvas;
+        }
+    };
+
+    ///// LAYERS /////
+
+    // committed drawing shown by a view under this one when hardware accelerated
+    private DrawingLayerView staticLayer = null;
+    private boolean layeredRendering = true;
+    private LayerDirtiness layers = new LayerDirtiness();
+    private LayerDirtiness.Target layerTarget = new LayerDirtiness.Target() {
+        @Override
+        public void invalidateStatic(DirtyRect rect) {
+            if (rect == null) {
+                staticLayer.invalidate();
+            } else {
+                viewport.toScreen(rect, screenDirty);
+                staticLayer.invalidate(screenDirty.left, screenDirty.top, screenDirty.right, screenDirty.bottom);
+            }
+        }
+
+        @Override
+        public void invalidateDynamic(DirtyRect rect) {
+            if (rect == null) {
+                invalidate();
+            } else {
+                viewport.toScreen(rect, screenDirty);
+                invalidate(screenDirty.left, screenDirty.top, screenDirty.right, screenDirty.bottom);
+            }
+        }
+    };
+
+    ///// VIEWPORT /////
+
+    private Viewport viewport;
+    // pre-scaled tiles when zoomed out
+    private ScaledDrawing scaledDrawing;
+    // touches are mapped to the drawing, the layers are invalidated in screen pixels
+    private Matrix screenToDrawing = new Matrix();
+    private DirtyRect screenDirty = new DirtyRect();
+    private ScaleGestureDetector zoomDetector;
+    private boolean navigating = false;
+    private float focusX;
+    private float focusY;
+
+    ///// INPUT /////
+
+    private boolean ignoringGesture = false;
+
+    ///// RENDER THREAD /////
+
+    // draws the live stroke from its own thread while threaded strokes are on
+    private StrokeSurfaceView strokeSurface = null;
+    private boolean threadedStrokes = false;
+    // the stroke goes through the brush as usual but only the surface draws it live
+    private boolean surfaceStroke = false;
+    // strokes committed since the last frame, then the ones drawn in it
+    private int pendingCommits = 0;
+    private int drawnCommits = 0;
+    private boolean flushPosted = false;
+    private final Runnable notifyCommits = () -> {
+        for (; drawnCommits > 0; drawnCommits--) {
+            pushSurfaceSample(StrokeSurfaceView.ACTION_COMMITTED, 0, 0);
+        }
+    };
+    private final Runnable flushSamples = new Runnable() {
+        @Override
+        public void run() {
+            flushPosted = !strokeSurface.flush() && strokeSurface.isRendering();
+            if (flushPosted) {
+                postOnAnimation(this);
+            }
+        }
+    };
+
+    ///// STATS /////
+
+    // null while disabled, which leaves a single check on each path
+    private DrawStats stats = null;
+    // uptime of the oldest touch event not drawn yet, in nanoseconds
+    private long pendingInputNanos = 0;
+    private int strokePointCount = 0;
+
+    ///// HISTORY /////
+
+    private UndoHistory history;
+    private RectF imageBounds = new RectF();
+    private DirtyRect imageDirty = new DirtyRect();
 
     ///// BRUSH /////
 
     private Path brushPath = new Path();
-    private static final float TOUCH_TOLERANCE = 4;
+    private QuadStroke.Segments brushSegments = brushPath::quadTo;
+    private QuadStroke quadStroke = new QuadStroke();
+    static final float TOUCH_TOLERANCE = 4;
+    static final float TOUCH_SMOOTHING = 0.2f;
+    private StrokeInput strokeInput = new StrokeInput(TOUCH_TOLERANCE, TOUCH_SMOOTHING);
+    // only the points needed within a fraction of the width are logged
+    private StrokeSimplifier strokeSimplifier = new StrokeSimplifier();
     private boolean validPath = false;
+    // the stamp brush fills these too
+    private DirtyRect segmentDirty = quadStroke.segmentDirty;
+    private DirtyRect strokeDirty = quadStroke.strokeDirty;
+    private boolean stroking = false;
+    // part of the stroke not baked into the drawing yet
+    private DirtyRect chunkDirty = new DirtyRect();
+    private Rect strokeBounds = new Rect();
+
+    ///// PREDICTION /////
+
+    // a finger at rest sends no event, its predicted tail is dropped after that long
+    private static final long PREDICTION_TIMEOUT_MS = 50;
+    private MotionPredictor motionPredictor = new MotionPredictor();
+    // 0 disables the prediction
+    private float predictionHorizon = MotionPredictor.DEFAULT_HORIZON_MS;
+    // where the live stroke should be by the next frame, drawn after it but never committed
+    private Path predictedPath = new Path();
+    private DirtyRect predictedDirty = new DirtyRect();
+    private DirtyRect liveDirty = new DirtyRect();
+    private final Runnable dropPrediction = () -> {
+        clearPrediction();
+        layers.flush(layerTarget);
+    };
+
+    ///// STAMP BRUSH /////
+
+    // strokes are dabs following the pen pressure, blended in software into the drawing pixels
+    private boolean stampStrokes = false;
+    private boolean stampStroke = false;
+    private StampBrush stampBrush = new StampBrush();
+    // pressures of the samples strokeInput accepted from the current batch
+    private float[] stampPressures = new float[16];
+    // pixels under the dabs of a batch, premultiplied while the dabs are blended
+    private int[] stampPixels = new int[0];
+    private Bitmap stampBitmap = null;
+    private Rect stampSrc = new Rect();
+    private Rect stampDst = new Rect();
+
+    ///// SEGMENTED STROKES /////
+
+    private static final int SEGMENTS_PER_CHUNK = 32;
+    private boolean segmentedStrokes = true;
+    private boolean translucentStroke = false;
+    private int liveSegments = 0;
+    private Bitmap strokeMask = null;
+    private Canvas strokeMaskCanvas;
+    private Paint opaquePaint = new Paint();
+    private Paint maskPaint = new Paint();
 
     ///// IMAGE /////
 
@@ -39,18 +239,35 @@ public class DrawView extends View {
     private float imageScale = 1;
     private int pointer1Id = -1;
     private int pointer2Id = -1;
-    private Vector2D initPointer1 = new Vector2D();
-    private Vector2D currPointer1 = new Vector2D();
-    private Vector2D initPointer2 = new Vector2D();
-    private Vector2D currPointer2 = new Vector2D();
+    private ImageGesture imageGesture = new ImageGesture();
     private float initAngle = 0;
     private float currAngle = 0;
     private boolean scaling = false;
     private ScaleGestureDetector scaleDetector;
+    private Paint imagePaint = new Paint();
+    private Matrix imageTransform = new Matrix();
+    private ImageTransform imageTransformValues = new ImageTransform();
+    // downsampled copies of currImage, the first being currImage itself, null until built
+    private Bitmap[] imageLevels = null;
+    private Executor imageWorker = null;
+    private Paint previewPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+
+    ///// FILL /////
+
+    // largest channel difference with the touched color still filled, absorbs anti-aliased edges
+    public static final int DEFAULT_FILL_TOLERANCE = 32;
+    private int fillTolerance = DEFAULT_FILL_TOLERANCE;
+    private FloodFill floodFill = null;
+    // the drawing as shown, read again on each fill into the same buffer
+    private int[] fillPixels = new int[0];
+    private final FillMask fillMask = new FillMask();
+    private ExecutorService fillWorkers = null;
+    private int fillParallelism = 1;
+    private DirtyRect fillDirty = new DirtyRect();
 
     ///// ENUMS /////
 
-    public enum Mode {BRUSH, IMAGE}
+    public enum Mode {BRUSH, IMAGE, FILL}
 
     ///// CONSTRUCTOR /////
 
@@ -64,8 +281,16 @@ public class DrawView extends View {
         int width = metrics.widthPixels;
         int height = metrics.heightPixels;
 
-        drawing = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_4444);
-        drawing.eraseColor(0xffffffff);
+        TiledDrawing background = new TiledDrawing(width, height, DEFAULT_CANVAS_COLOR);
+        composite = new TiledDrawing(width, height, Color.TRANSPARENT);
+        layerStack = new LayerStack<>(composite, composite.getGrid());
+        layerStack.addLayer(background);
+        layerBounds.set(0, 0, width, height);
+        drawing = background;
+        activeDrawing = background;
+        drawingLog.clear(DEFAULT_CANVAS_COLOR);
+        strokeIndex = new StrokeIndex(width, height, StrokeIndex.DEFAULT_CELL_SIZE);
+        strokeIndex.reset(0, 1);
 
         paint = new Paint();
         paint.setColor(0xff000000);
@@ -74,27 +299,514 @@ public class DrawView extends View {
         paint.setStrokeJoin(Paint.Join.ROUND);
         paint.setStyle(Paint.Style.STROKE);
 
-        drawingCanvas = new Canvas(drawing);
+        drawingCanvas = background.getCanvas();
+        viewport = new Viewport(width, height);
+        scaledDrawing = new ScaledDrawing(drawing, Runtime.getRuntime().maxMemory() / 16);
+        history = new UndoHistory(background, UndoHistory.DEFAULT_TILE_SIZE,
+                Runtime.getRuntime().maxMemory() / 8, true);
 
         imageX = width/2;
         imageY = height/2;
 
         scaleDetector = new ScaleGestureDetector(context, new ScaleListener());
+        zoomDetector = new ScaleGestureDetector(context, new ZoomListener());
     }
 
     ///// GENERAL /////
 
 
+    // flattened copy of the drawing, all layers blended
     public Bitmap getDrawing() {
-        return drawing;
+        return drawing.snapshot().toBitmap();
+    }
+
+    // cheap copy-on-write view of the drawing, readable from any thread
+    DrawingSnapshot snapshot() {
+        return drawing.snapshot();
+    }
+
+    // copy of the recorded operations, to render the drawing at any size from any thread
+    DrawingExport export() {
+        return new DrawingExport(drawingLog.copy(), new ArrayList<>(logImages), drawing.snapshot());
+    }
+
+    // same, keeping the layers too, to save the drawing as a project
+    DrawingExport exportProject() {
+        int count = layerStack.getLayerCount();
+        List<DrawingSnapshot> layers = new ArrayList<>(count);
+        int[] opacities = new int[count];
+        int[] modes = new int[count];
+        for (int layer = 0; layer < count; layer++) {
+            layers.add(layerStack.getLayer(layer).snapshot());
+            opacities[layer] = layerStack.getOpacity(layer);
+            modes[layer] = layerStack.getMode(layer);
+        }
+        return new DrawingExport(drawingLog.copy(), new ArrayList<>(logImages), drawing.snapshot(),
+                layers, opacities, modes);
+    }
+
+    // whether file has the size and tiles of the drawing
+    boolean canOpen(DrawyFile file) {
+        TileGrid grid = file.getGrid();
+        return grid.width == composite.getWidth() && grid.height == composite.getHeight()
+                && grid.tileSize == composite.getGrid().tileSize;
+    }
+
+    /**
+     * Replaces the drawing by the layers of file, whose tiles are only decoded once shown or
+     * drawn on, and goes on with log, which file was saved with. Without a log, the drawing
+     * is continued from its flattened image, the only one of images, read by the caller with
+     * {@link TiledDrawing#readBitmap} off the UI thread.
+     */
+    void openProject(DrawyFile file, DrawingLog log, List<Bitmap> images) {
+        resetLayers();
+        history.clear();
+        if (log == null) {
+            Bitmap background = images.get(0);
+            // its tiles come from the image rather than being decoded again
+            activeDrawing.load(TiledDrawing.bitmapSource(flattenedLayer(file), background));
+            drawingLog = new DrawingLog();
+            drawingLog.clear(Color.TRANSPARENT);
+            logImages = new ArrayList<>();
+            drawingLog.background(addLogImage(background));
+        } else {
+            drawingLog = log;
+            logImages = images;
+            for (int layer = 0; layer < file.getLayerCount(); layer++) {
+                applyLayer(layer, file.getOpacity(layer), file.getMode(layer));
+                activeDrawing.load(file.getLayer(layer));
+            }
+            // the layer the log was left drawing on
+            syncLayers();
+            if (file.hasComposite()) {
+                composite.load(file.getComposite());
+                layerStack.markClean();
+            }
+        }
+        strokeIndex.rebuild(drawingLog, logImageSizes);
+        journaledImages = 0;
+        journalOps(0);
+        invalidateDrawing();
+    }
+
+    static TileSource flattenedLayer(DrawyFile file) {
+        return file.hasComposite() ? file.getComposite() : file.getLayer(0);
+    }
+
+    public int getDrawingWidth() {
+        return drawing.getWidth();
+    }
+
+    public int getDrawingHeight() {
+        return drawing.getHeight();
     }
 
     public void resetCanvas(int color) {
-        drawing.eraseColor(color);
+        resetLayers();
+        activeDrawing.eraseColor(color);
+        drawingLog.clear(color);
+        journalOps(drawingLog.size() - 1);
+        strokeIndex.reset(drawingLog.size() - 1, drawingLog.size());
+        history.clear();
+        invalidateDrawing();
     }
 
     public void resetCanvas(Bitmap bitmap) {
-        drawing = bitmap;
+        resetLayers();
+        activeDrawing.eraseColor(DEFAULT_CANVAS_COLOR);
+        drawingCanvas.drawBitmap(bitmap, 0, 0, null);
+        drawingLog.clear(DEFAULT_CANVAS_COLOR);
+        drawingLog.background(addLogImage(bitmap));
+        journalOps(drawingLog.size() - 2);
+        strokeIndex.reset(drawingLog.size() - 2, drawingLog.size());
+        history.clear();
+        invalidateDrawing();
+    }
+
+    public boolean undo() {
+        if (!history.undo()) {
+            return false;
+        }
+        // each change has its operation in the log, they move together
+        if (!drawingLog.undo()) {
+            throw new IllegalStateException("Drawing log out of sync with the undo history");
+        }
+        if (drawingLog.getType(drawingLog.size()) == DrawingLog.OP_LAYER) {
+            syncLayers();
+        }
+        if (journal != null) {
+            journal.appendUndo();
+        }
+        restored();
+        return true;
+    }
+
+    public boolean redo() {
+        if (!history.redo()) {
+            return false;
+        }
+        // each change has its operation in the log, they move together
+        if (!drawingLog.redo()) {
+            throw new IllegalStateException("Drawing log out of sync with the undo history");
+        }
+        if (drawingLog.getType(drawingLog.size() - 1) == DrawingLog.OP_LAYER) {
+            syncLayers();
+        }
+        if (journal != null) {
+            journal.appendRedo();
+        }
+        restored();
+        return true;
+    }
+
+    // the pixels of a layer were put back as they were
+    private void restored() {
+        DirtyRect rect = history.getRestored();
+        if (!rect.isEmpty()) {
+            layerStack.markDirty(rect.left, rect.top, rect.right, rect.bottom);
+        }
+        invalidateDrawing();
+    }
+
+    public boolean canUndo() {
+        return history.canUndo();
+    }
+
+    public boolean canRedo() {
+        return history.canRedo();
+    }
+
+    public void setUndoBudget(long bytes) {
+        history.setByteBudget(bytes);
+    }
+
+    /**
+     * Lets layer show the committed drawing, this view then only draws the live stroke and image.
+     * Layers are only used when the window is hardware accelerated.
+     */
+    void setStaticLayer(DrawingLayerView layer) {
+        staticLayer = layer;
+        if (layer != null) {
+            layer.setDrawing(scaledDrawing, viewport);
+        }
+        updateLayers();
+    }
+
+    public void setLayeredRendering(boolean layeredRendering) {
+        this.layeredRendering = layeredRendering;
+        updateLayers();
+    }
+
+    public boolean isLayeredRendering() {
+        return layers.isLayered();
+    }
+
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+        updateLayers();
+    }
+
+    private void updateLayers() {
+        boolean layered = layeredRendering && staticLayer != null && isHardwareAccelerated();
+        if (staticLayer != null) {
+            staticLayer.setVisibility(layered ? VISIBLE : INVISIBLE);
+        }
+        layers.setLayered(layered);
+        layers.flush(layerTarget);
+    }
+
+    private void invalidateDrawing() {
+        updateComposite();
+        scaledDrawing.drawingReplaced();
+        layers.drawingReplaced();
+        layers.flush(layerTarget);
+    }
+
+    // the scaled tiles under rect are outdated too
+    private void drawingChanged(DirtyRect rect) {
+        layerStack.markDirty(rect.left, rect.top, rect.right, rect.bottom);
+        updateComposite();
+        scaledDrawing.drawingChanged(rect);
+        layers.drawingChanged(rect);
+    }
+
+    ///// LAYER STACK /////
+
+    public int getLayerCount() {
+        return layerStack.getLayerCount();
+    }
+
+    public int getActiveLayer() {
+        return activeLayer;
+    }
+
+    public int getLayerOpacity() {
+        return layerStack.getOpacity(activeLayer);
+    }
+
+    public int getLayerMode() {
+        return layerStack.getMode(activeLayer);
+    }
+
+    // adds a transparent layer on top of the others and draws into it
+    public void addLayer() {
+        changeLayer(layerStack.getLayerCount(), 255, LayerStack.MODE_NORMAL);
+    }
+
+    public void selectLayer(int layer) {
+        if (layer != activeLayer) {
+            changeLayer(layer, layerStack.getOpacity(layer), layerStack.getMode(layer));
+        }
+    }
+
+    /**
+     * Blends the active layer over the ones under it with opacity, from 0 to 255, and a
+     * LayerStack mode. The first layer is the background and is always opaque.
+     * @return false on the first layer
+     */
+    public boolean setLayerBlending(int opacity, int mode) {
+        if (activeLayer == 0) {
+            return false;
+        }
+        if (opacity != getLayerOpacity() || mode != getLayerMode()) {
+            changeLayer(activeLayer, opacity, mode);
+        }
+        return true;
+    }
+
+    // logged with an empty change in the history, for undo and redo to go through it too
+    private void changeLayer(int layer, int opacity, int mode) {
+        history.beginChange();
+        history.endChange();
+        applyLayer(layer, opacity, mode);
+        drawingLog.layer(layer, opacity, mode);
+        indexLastOp(layerBounds);
+        journalOps(drawingLog.size() - 1);
+        invalidateDrawing();
+    }
+
+    // draws into layer from now on, added on top when it is new
+    private void applyLayer(int layer, int opacity, int mode) {
+        if (layer == layerStack.getLayerCount()) {
+            if (layerStack.getDroppedLayerCount() > 0) {
+                // left transparent by the undo that dropped it
+                layerStack.setLayerCount(layer + 1);
+            } else {
+                layerStack.addLayer(new TiledDrawing(composite.getWidth(), composite.getHeight(),
+                        Color.TRANSPARENT));
+            }
+        }
+        layerStack.setOpacity(layer, opacity);
+        layerStack.setMode(layer, mode);
+        activeLayer = layer;
+        activeDrawing = layerStack.getLayer(layer);
+        drawingCanvas = activeDrawing.getCanvas();
+        history.setSurface(activeDrawing);
+    }
+
+    // the first layer alone again, the others are let go
+    private void resetLayers() {
+        layerStack.setLayerCount(1);
+        layerStack.removeDroppedLayers();
+        applyLayer(0, 255, LayerStack.MODE_NORMAL);
+    }
+
+    // the layers as the logged operations leave them, once a layer change was undone or redone
+    private void syncLayers() {
+        layerStack.setLayerCount(1);
+        applyLayer(0, 255, LayerStack.MODE_NORMAL);
+        for (int op = 0; op < drawingLog.size(); op++) {
+            int type = drawingLog.getType(op);
+            if (type == DrawingLog.OP_CLEAR) {
+                layerStack.setLayerCount(1);
+                applyLayer(0, 255, LayerStack.MODE_NORMAL);
+            } else if (type == DrawingLog.OP_LAYER) {
+                drawingLog.getWords(op, layerWords, 0);
+                applyLayer(layerWords[1], layerWords[2], layerWords[3]);
+            }
+        }
+    }
+
+    // blends the outdated tiles of the composite again, and shows it instead of the first layer when needed
+    private void updateComposite() {
+        TiledDrawing shown = layerStack.isFlat() ? layerStack.getLayer(0) : composite;
+        if (shown != drawing) {
+            drawing = shown;
+            scaledDrawing.setDrawing(shown);
+            layers.drawingReplaced();
+            if (shown != composite) {
+                // frees its tiles
+                composite.eraseColor(Color.TRANSPARENT);
+            }
+        }
+        layerStack.update();
+    }
+
+    ///// VIEWPORT /////
+
+    @Override
+    protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+        super.onSizeChanged(w, h, oldw, oldh);
+        viewport.setViewSize(w, h);
+    }
+
+    /**
+     * @param worker renders the pre-scaled tiles shown while zoomed out, null to draw the
+     *               drawing itself at any zoom
+     */
+    void setTileWorker(Executor worker) {
+        scaledDrawing.setWorker(worker, this::post, () -> {
+            layers.drawingReplaced();
+            layers.flush(layerTarget);
+        });
+    }
+
+    public void resetViewport() {
+        viewport.reset();
+        viewportChanged();
+    }
+
+    public float getZoom() {
+        return viewport.getScale();
+    }
+
+    ///// RENDER THREAD /////
+
+    /**
+     * Lets surface draw the live stroke from a dedicated thread, once threaded strokes are on.
+     */
+    void setStrokeSurface(StrokeSurfaceView surface) {
+        strokeSurface = surface;
+        updateStrokeSurface();
+    }
+
+    public void setThreadedStrokes(boolean threadedStrokes) {
+        this.threadedStrokes = threadedStrokes;
+        updateStrokeSurface();
+    }
+
+    public boolean isThreadedStrokes() {
+        return threadedStrokes && strokeSurface != null;
+    }
+
+    private void updateStrokeSurface() {
+        if (strokeSurface != null) {
+            strokeSurface.setVisibility(threadedStrokes ? VISIBLE : GONE);
+        }
+    }
+
+    // a stroke stays on the backend it began with
+    private boolean useStrokeSurface() {
+        return stroking ? surfaceStroke : isThreadedStrokes() && strokeSurface.isRendering();
+    }
+
+    // everything moved on screen, the drawing itself didn't change
+    private void viewportChanged() {
+        if (strokeSurface != null) {
+            strokeSurface.setTransform(viewport.getScale(), viewport.getOffsetX(), viewport.getOffsetY());
+        }
+        layers.drawingReplaced();
+        layers.liveReplaced();
+        layers.flush(layerTarget);
+    }
+
+    // the event in drawing coordinates, to recycle if it isn't event itself
+    private MotionEvent toDrawing(MotionEvent event) {
+        if (viewport.isIdentity()) {
+            return event;
+        }
+        screenToDrawing.setTranslate(-viewport.getOffsetX(), -viewport.getOffsetY());
+        screenToDrawing.postScale(1 / viewport.getScale(), 1 / viewport.getScale());
+        MotionEvent drawingEvent = MotionEvent.obtain(event);
+        drawingEvent.transform(screenToDrawing);
+        return drawingEvent;
+    }
+
+    void setStatsEnabled(boolean enabled) {
+        if (enabled && stats == null) {
+            stats = new DrawStats();
+        } else if (!enabled) {
+            stats = null;
+            pendingInputNanos = 0;
+        }
+    }
+
+    // null while disabled
+    DrawStats getStats() {
+        return stats;
+    }
+
+    DrawingLog getDrawingLog() {
+        return drawingLog;
+    }
+
+    List<Bitmap> getLogImages() {
+        return logImages;
+    }
+
+    /**
+     * Operations committed from now on are appended to journal, images already in the log are
+     * expected to be in it.
+     */
+    void setJournal(SessionJournal journal) {
+        this.journal = journal;
+        journaledImages = logImages.size();
+    }
+
+    // replaces the drawing by the replay of log, e.g. read back from a journal
+    void restoreFromLog(DrawingLog log, List<Bitmap> images) {
+        drawingLog = log;
+        logImages = images;
+        resetLayers();
+        activeDrawing.eraseColor(DEFAULT_CANVAS_COLOR);
+        history.clear();
+        rebuildFromLog();
+    }
+
+    // appends the operations from the given one to the last one to the journal
+    private void journalOps(int from) {
+        if (journal == null) {
+            return;
+        }
+        while (journaledImages < logImages.size()) {
+            final Bitmap image = logImages.get(journaledImages);
+            journal.appendImage(journaledImages, out -> {
+                if (!image.compress(Bitmap.CompressFormat.PNG, 100, out)) {
+                    throw new IOException("PNG encoding failed");
+                }
+            });
+            journaledImages++;
+        }
+        for (int op = from; op < drawingLog.size(); op++) {
+            journal.appendOp(drawingLog, op);
+        }
+    }
+
+    // redraws the whole drawing from the recorded operations
+    public void rebuildFromLog() {
+        CanvasReplayTarget target = new CanvasReplayTarget(replayedLayers, logImages);
+        drawingLog.replay(target);
+        target.recycle();
+        strokeIndex.rebuild(drawingLog, logImageSizes);
+        layerStack.markAllDirty();
+        invalidateDrawing();
+    }
+
+    // a new operation replaces the undone ones in the log
+    private void indexLastOp(DirtyRect bounds) {
+        int op = drawingLog.size() - 1;
+        strokeIndex.truncate(op);
+        strokeIndex.add(op, bounds);
+    }
+
+    private int addLogImage(Bitmap image) {
+        int last = logImages.size() - 1;
+        if (last >= 0 && logImages.get(last) == image) {
+            return last;
+        }
+        logImages.add(image);
+        return last + 1;
     }
 
     public void setBrushColor(int color) {
@@ -113,22 +825,115 @@ public class DrawView extends View {
         return (int) paint.getStrokeWidth();
     }
 
+    public void setSegmentedStrokes(boolean segmentedStrokes) {
+        this.segmentedStrokes = segmentedStrokes;
+    }
+
+    public boolean isSegmentedStrokes() {
+        return segmentedStrokes;
+    }
+
+    public void setStampStrokes(boolean stampStrokes) {
+        this.stampStrokes = stampStrokes;
+    }
+
+    public boolean isStampStrokes() {
+        return stampStrokes;
+    }
+
+    /**
+     * @param horizon how far ahead of the last touch sample the live stroke is extended, in
+     *                milliseconds, 0 to draw the samples only
+     */
+    public void setPredictionHorizon(float horizon) {
+        predictionHorizon = horizon;
+        if (horizon <= 0) {
+            dropPrediction.run();
+        }
+    }
+
+    public float getPredictionHorizon() {
+        return predictionHorizon;
+    }
+
     public Bitmap getImage() {
         return currImage;
     }
 
     public void setImage(Bitmap image) {
         this.currImage = image;
+        recycleImageLevels(imageLevels);
+        imageLevels = null;
+        if (image != null && imageWorker != null) {
+            buildImageLevels(image);
+        }
         invalidate();
     }
 
+    /**
+     * @param worker builds the downsampled levels the floating image is shown from
+     */
+    void setImageWorker(Executor worker) {
+        imageWorker = worker;
+    }
+
+    // the levels replace the full image on screen once built, if it is still the one placed
+    private void buildImageLevels(final Bitmap image) {
+        imageWorker.execute(() -> {
+            Bitmap[] levels = new Bitmap[ImagePyramid.levelCount(image.getWidth(), image.getHeight())];
+            levels[0] = image;
+            int[] block = new int[ImagePyramid.BLOCK_SIZE * ImagePyramid.BLOCK_SIZE];
+            int[] half = new int[ImagePyramid.BLOCK_SIZE * ImagePyramid.BLOCK_SIZE];
+            int[] band = new int[ImagePyramid.halfSize(image.getWidth()) * ImagePyramid.BLOCK_SIZE / 2];
+            for (int level = 1; level < levels.length; level++) {
+                levels[level] = halveImage(levels[level - 1], block, half, band);
+            }
+            post(() -> {
+                if (currImage == image && imageLevels == null) {
+                    imageLevels = levels;
+                    invalidate();
+                } else {
+                    recycleImageLevels(levels);
+                }
+            });
+        });
+    }
+
+    // the next level of source, read by bands of blocks so that the whole image is never copied
+    private static Bitmap halveImage(Bitmap source, int[] block, int[] half, int[] band) {
+        int width = source.getWidth();
+        int height = source.getHeight();
+        int halfWidth = ImagePyramid.halfSize(width);
+        Bitmap level = Bitmap.createBitmap(halfWidth, ImagePyramid.halfSize(height), Bitmap.Config.ARGB_8888);
+        for (int y = 0; y < height; y += ImagePyramid.BLOCK_SIZE) {
+            int rows = Math.min(ImagePyramid.BLOCK_SIZE, height - y);
+            ImagePyramid.downsampleRegion((dst, x, top, w, h) -> source.getPixels(dst, 0, w, x, top, w, h),
+                    0, y, width, rows, 1, band, block, half);
+            level.setPixels(band, 0, halfWidth, 0, y / 2, halfWidth, ImagePyramid.halfSize(rows));
+        }
+        return level;
+    }
+
+    // the first level is the image itself, left alone
+    private static void recycleImageLevels(Bitmap[] levels) {
+        if (levels == null) {
+            return;
+        }
+        for (int level = 1; level < levels.length; level++) {
+            levels[level].recycle();
+        }
+    }
+
     public void setMode(Mode mode) {
         this.mode = mode;
         if (mode == Mode.IMAGE) {
-            imageScale = 1;
+            // as large as the drawing at most, which ImageImporter decoded it for
+            imageScale = currImage == null ? 1 : ImageSampling.fitScale(currImage.getWidth(),
+                    currImage.getHeight(), drawing.getWidth(), drawing.getHeight());
             initAngle = 0;
-            imageX = drawingCanvas.getWidth()/2;
-            imageY = drawingCanvas.getHeight()/2;
+            // centered on the part of the drawing on screen
+            imageX = viewport.toDrawingX(getWidth()/2);
+            imageY = viewport.toDrawingY(getHeight()/2);
         }
         invalidate();
     }
@@ -140,86 +945,685 @@ public class DrawView extends View {
     ///// DRAW METHODS /////
 
     public void anchorImage() {
-        if (mode == Mode.IMAGE) {
+        if (mode == Mode.IMAGE && currImage != null) {
+            imageBounds.set(0, 0, currImage.getWidth(), currImage.getHeight());
+            CanvasReplayTarget.setImageTransform(imageTransform, imageTransformValues,
+                    currImage.getWidth(), currImage.getHeight(),
+                    imageX, imageY, imageScale, (float)Math.toDegrees(currAngle + initAngle));
+            imageTransform.mapRect(imageBounds);
+            history.beginChange();
+            history.capture((int) Math.floor(imageBounds.left), (int) Math.floor(imageBounds.top),
+                    (int) Math.ceil(imageBounds.right), (int) Math.ceil(imageBounds.bottom));
             drawImage(drawingCanvas);
+            history.endChange();
+            imageDirty.setEmpty();
+            imageDirty.union(imageBounds.left, imageBounds.top, imageBounds.right, imageBounds.bottom, 0);
+            drawingChanged(imageDirty);
+            layers.flush(layerTarget);
+            drawingLog.image(addLogImage(currImage), imageX, imageY, imageScale,
+                    (float)Math.toDegrees(currAngle + initAngle));
+            indexLastOp(imageDirty);
+            journalOps(drawingLog.size() - 1);
+        }
+    }
+
+    /**
+     * Fills the area of similar color around (x;y) with the brush color. The filled pixels are
+     * logged as a 1 bit mask, a fill depending on the pixels under it couldn't be replayed by area.
+     * The area is found on the layers as shown and filled on the active one.
+     */
+    public void fillAt(int x, int y) {
+        int width = drawing.getWidth();
+        int height = drawing.getHeight();
+        if (x < 0 || y < 0 || x >= width || y >= height) {
+            return;
+        }
+        long commitStart = stats != null ? System.nanoTime() : 0;
+        if (floodFill == null) {
+            floodFill = new FloodFill(width, height);
+        }
+        floodFill.setWorkers(fillWorkers, fillParallelism);
+        if (fillPixels.length != width * height) {
+            fillPixels = new int[width * height];
+        }
+        drawing.getPixels(fillPixels, 0, 0, width, height);
+        if (floodFill.fill(fillPixels, x, y, fillTolerance) == 0) {
+            return;
         }
+        int left = floodFill.getLeft();
+        int top = floodFill.getTop();
+        int fillWidth = floodFill.getRight() - left;
+        int fillHeight = floodFill.getBottom() - top;
+        int[] mask = new int[fillHeight * DrawingLog.maskWordsPerRow(fillWidth)];
+        floodFill.writeMaskBits(mask, 0);
+
+        history.beginChange();
+        history.capture(left, top, left + fillWidth, top + fillHeight);
+        fillMask.draw(drawingCanvas, mask, 0, left, top, fillWidth, fillHeight, paint.getColor());
+        fillMask.recycle();
+        history.endChange();
+        fillDirty.set(left, top, left + fillWidth, top + fillHeight);
+        drawingChanged(fillDirty);
+        layers.flush(layerTarget);
+        drawingLog.fill(paint.getColor(), left, top, fillWidth, fillHeight, mask, 0);
+        indexLastOp(fillDirty);
+        journalOps(drawingLog.size() - 1);
+        if (stats != null) {
+            stats.commitTime.record(System.nanoTime() - commitStart);
+        }
+    }
+
+    public void setFillTolerance(int fillTolerance) {
+        this.fillTolerance = fillTolerance;
+    }
+
+    public int getFillTolerance() {
+        return fillTolerance;
+    }
+
+    /**
+     * @param workers classifies the pixels of large fills in parallel, null to fill on the main thread only
+     */
+    void setFillWorkers(ExecutorService workers, int parallelism) {
+        fillWorkers = workers;
+        fillParallelism = parallelism;
     }
 
     @Override
     public void onDraw(Canvas canvas) {
+        long drawStart = stats != null ? System.nanoTime() : 0;
         super.onDraw(canvas);
-        canvas.drawBitmap(drawing, 0, 0, null);
-        canvas.drawPath(brushPath, paint);
-        drawImage(canvas);
+        // only blit the part of the drawing that was invalidated, unless the static layer shows it
+        if (canvas.getClipBounds(clipBounds) && !layers.isLayered()) {
+            scaledDrawing.draw(canvas, viewport, clipBounds);
+        }
+        // the live stroke and the image are in drawing coordinates, as is the clip from now on
+        canvas.save();
+        canvas.translate(viewport.getOffsetX(), viewport.getOffsetY());
+        canvas.scale(viewport.getScale(), viewport.getScale());
+        canvas.getClipBounds(clipBounds);
+        liveDirty.set(strokeDirty.left, strokeDirty.top, strokeDirty.right, strokeDirty.bottom);
+        if (!predictedDirty.isEmpty()) {
+            liveDirty.union(predictedDirty.left, predictedDirty.top, predictedDirty.right, predictedDirty.bottom, 0);
+        }
+        // the stroke surface draws its own stroke live
+        if (!surfaceStroke && !strokeDirty.isEmpty() && clipBounds.intersects(liveDirty.left, liveDirty.top,
+                liveDirty.right, liveDirty.bottom)) {
+            if (translucentStroke) {
+                // mask, tail and prediction share one layer so their overlap blends like a single path
+                int saveCount = canvas.saveLayerAlpha(liveDirty.left, liveDirty.top,
+                        liveDirty.right, liveDirty.bottom, paint.getAlpha(), Canvas.ALL_SAVE_FLAG);
+                maskPaint.setColor(opaquePaint.getColor());
+                canvas.drawBitmap(strokeMask, 0, 0, maskPaint);
+                canvas.drawPath(brushPath, opaquePaint);
+                canvas.drawPath(predictedPath, opaquePaint);
+                canvas.restoreToCount(saveCount);
+            } else {
+                canvas.drawPath(brushPath, paint);
+                canvas.drawPath(predictedPath, paint);
+            }
+        }
+        drawImagePreview(canvas);
+        canvas.restore();
+        if (pendingCommits > 0) {
+            // the surface lets go of the strokes once this frame shows them
+            drawnCommits += pendingCommits;
+            pendingCommits = 0;
+            postOnAnimation(notifyCommits);
+        }
+        if (stats != null) {
+            long drawEnd = System.nanoTime();
+            stats.drawTime.record(drawEnd - drawStart);
+            if (pendingInputNanos != 0) {
+                stats.inputToDraw.record(drawEnd - pendingInputNanos);
+                pendingInputNanos = 0;
+            }
+        }
     }
 
     private void drawImage(Canvas canvas) {
-        Paint tmpPaint = new Paint();
         if (mode == Mode.IMAGE && currImage != null) {
-            Matrix transform = new Matrix();
-            transform.postTranslate(imageX -currImage.getWidth()/2,
-                    imageY -currImage.getHeight()/2);
-            transform.postRotate((float)Math.toDegrees(currAngle + initAngle), imageX, imageY);
-            transform.postScale(imageScale, imageScale, imageX, imageY);
-            canvas.drawBitmap(currImage, transform, tmpPaint);
+            CanvasReplayTarget.setImageTransform(imageTransform, imageTransformValues,
+                    currImage.getWidth(), currImage.getHeight(),
+                    imageX, imageY, imageScale, (float)Math.toDegrees(currAngle + initAngle));
+            canvas.drawBitmap(currImage, imageTransform, imagePaint);
         }
     }
 
+    // on screen the image is filtered from the level closest to its scale, committing uses drawImage
+    private void drawImagePreview(Canvas canvas) {
+        if (mode != Mode.IMAGE || currImage == null) {
+            return;
+        }
+        int level = imageLevels == null ? 0
+                : ImagePyramid.levelForScale(imageScale * viewport.getScale(), imageLevels.length);
+        Bitmap source = level == 0 ? currImage : imageLevels[level];
+        CanvasReplayTarget.setImageTransform(imageTransform, imageTransformValues,
+                source.getWidth(), source.getHeight(),
+                imageX, imageY, imageScale * (1 << level), (float)Math.toDegrees(currAngle + initAngle));
+        canvas.drawBitmap(source, imageTransform, previewPaint);
+    }
+
     ///// EVENTS /////
 
     @Override
     public boolean onTouchEvent(MotionEvent event) {
-        if (mode == Mode.BRUSH) {
-            return onTouchEventBrush(event);
-        } else if (mode == Mode.IMAGE) {
-            return onTouchEventShapeAndImage(event);
+        // a gesture begun while disabled, e.g. during a session restore, is dropped whole
+        if (event.getActionMasked() == MotionEvent.ACTION_DOWN) {
+            ignoringGesture = !isEnabled();
+        }
+        if (ignoringGesture) {
+            return true;
+        }
+        boolean handled;
+        if (mode != Mode.IMAGE) {
+            zoomDetector.onTouchEvent(event);
+        }
+        // two fingers move the image in image mode, the drawing otherwise
+        if (mode != Mode.IMAGE && (navigating || event.getPointerCount() > 1)) {
+            handled = onTouchEventNavigate(event);
         } else {
-            return super.onTouchEvent(event);
+            MotionEvent drawingEvent = toDrawing(event);
+            if (mode == Mode.BRUSH && (stroking ? stampStroke : stampStrokes)) {
+                handled = onTouchEventStamp(drawingEvent);
+            } else if (mode == Mode.BRUSH && useStrokeSurface()) {
+                handled = onTouchEventBrushSurface(drawingEvent);
+            } else if (mode == Mode.BRUSH) {
+                handled = onTouchEventBrush(drawingEvent);
+            } else if (mode == Mode.IMAGE) {
+                handled = onTouchEventShapeAndImage(drawingEvent);
+            } else if (mode == Mode.FILL) {
+                handled = onTouchEventFill(drawingEvent);
+            } else {
+                handled = super.onTouchEvent(drawingEvent);
+            }
+            if (drawingEvent != event) {
+                drawingEvent.recycle();
+            }
+        }
+        if (stats != null) {
+            recordInputLatency(event);
+        }
+        return handled;
+    }
+
+    // event times are uptime milliseconds, on the same monotonic clock as System.nanoTime
+    private void recordInputLatency(MotionEvent event) {
+        long eventNanos = (event.getHistorySize() > 0
+                ? event.getHistoricalEventTime(0) : event.getEventTime()) * 1000000;
+        stats.inputLatency.record(System.nanoTime() - eventNanos);
+        if (pendingInputNanos == 0) {
+            pendingInputNanos = eventNanos;
         }
     }
 
     public boolean onTouchEventBrush(MotionEvent event) {
         if (event.getAction() == MotionEvent.ACTION_DOWN) {
-            float x = event.getX();
-            float y = event.getY();
-            lastX = x;
-            lastY = y;
-            brushPath.moveTo(x, y);
-            invalidate();
+            beginStroke(event.getX(), event.getY());
+            motionPredictor.begin(event.getEventTime(), event.getX(), event.getY());
             return true;
         } else if (event.getAction() == MotionEvent.ACTION_MOVE) {
-            float x = event.getX();
-            float y = event.getY();
-            float dx = Math.abs(x - lastX);
-            float dy = Math.abs(y - lastY);
-            if (dx >= TOUCH_TOLERANCE || dy >= TOUCH_TOLERANCE) {
-                brushPath.quadTo(lastX, lastY, (x + lastX)/2, (y + lastY)/2);
-                lastX = x;
-                lastY = y;
-                validPath = true;
+            // batched samples first, the current position last
+            int historySize = event.getHistorySize();
+            strokeInput.ensureCapacity(historySize + 1);
+            for (int h = 0; h < historySize; h++) {
+                strokeInput.add(event.getHistoricalX(h), event.getHistoricalY(h));
+                motionPredictor.add(event.getHistoricalEventTime(h), event.getHistoricalX(h), event.getHistoricalY(h));
             }
-            invalidate();
+            strokeInput.add(event.getX(), event.getY());
+            motionPredictor.add(event.getEventTime(), event.getX(), event.getY());
+            extendStroke();
+            updatePrediction();
             return true;
         } else if (event.getAction() == MotionEvent.ACTION_UP) {
+            endStroke(event.getX(), event.getY());
+            return true;
+        } else if (event.getAction() == MotionEvent.ACTION_CANCEL) {
+            // e.g. a parent or a system gesture took the touch over
+            interruptStroke();
+            return true;
+        } else {
+            return super.onTouchEvent(event);
+        }
+    }
+
+    // starts a stroke at (x;y)
+    private void beginStroke(float x, float y) {
+        brushPath.moveTo(x, y);
+        quadStroke.begin(x, y, paint.getStrokeWidth() / 2);
+        strokeInput.begin(x, y);
+        drawingLog.beginStroke(paint.getColor(), paint.getStrokeWidth(),
+                paint.getStrokeCap().ordinal(), paint.getStrokeJoin().ordinal());
+        strokeSimplifier.begin(x, y, StrokeSimplifier.toleranceForWidth(paint.getStrokeWidth()));
+        logKeptPoints();
+        strokePointCount = 1;
+        stroking = true;
+        history.beginChange();
+        liveSegments = 0;
+        translucentStroke = segmentedStrokes && paint.getAlpha() < 255;
+        if (translucentStroke) {
+            prepareStrokeMask();
+        }
+        chunkDirty.setEmpty();
+        chunkDirty.union(segmentDirty);
+        if (!surfaceStroke) {
+            layers.liveChanged(segmentDirty);
+        }
+        layers.flush(layerTarget);
+    }
+
+    // draws and logs the points accepted by strokeInput
+    private void extendStroke() {
+        if (strokeInput.size() == 0) {
+            return;
+        }
+        quadStroke.clearSegments();
+        for (int i = 0; i < strokeInput.size(); i++) {
+            float x = strokeInput.getX(i);
+            float y = strokeInput.getY(i);
+            quadStroke.add(x, y, brushSegments);
+            strokeSimplifier.add(x, y);
+            strokePointCount++;
+            chunkDirty.union(quadStroke.quadDirty);
+            validPath = true;
+            if (segmentedStrokes && ++liveSegments >= SEGMENTS_PER_CHUNK) {
+                bakeBrushPath();
+            }
+        }
+        strokeInput.clear();
+        logKeptPoints();
+        if (!surfaceStroke) {
+            layers.liveChanged(segmentDirty);
+        }
+        layers.flush(layerTarget);
+    }
+
+    // the live stroke continued from its end through the last point to the predicted one
+    private void updatePrediction() {
+        clearPrediction();
+        if (predictionHorizon > 0 && motionPredictor.predict(predictionHorizon)) {
+            float x = motionPredictor.getPredictedX();
+            float y = motionPredictor.getPredictedY();
+            float endX = quadStroke.getEndX();
+            float endY = quadStroke.getEndY();
+            float lastX = quadStroke.getLastX();
+            float lastY = quadStroke.getLastY();
+            predictedPath.moveTo(endX, endY);
+            predictedPath.quadTo(lastX, lastY, x, y);
+            predictedDirty.unionQuad(endX, endY, lastX, lastY, x, y, paint.getStrokeWidth() / 2);
+            layers.liveChanged(predictedDirty);
+            postDelayed(dropPrediction, PREDICTION_TIMEOUT_MS);
+        }
+        layers.flush(layerTarget);
+    }
+
+    // the area is refreshed on the next flush
+    private void clearPrediction() {
+        removeCallbacks(dropPrediction);
+        if (!predictedDirty.isEmpty()) {
+            layers.liveChanged(predictedDirty);
+            predictedDirty.setEmpty();
+            predictedPath.reset();
+        }
+    }
+
+    // commits the stroke ending at (x;y)
+    private void endStroke(float x, float y) {
+        clearPrediction();
+        quadStroke.end(x, y, brushSegments);
+        captureStroke();
+        if (stats != null) {
+            // a tap keeps only the point where the finger was lifted
+            stats.strokePoints.record(validPath ? strokePointCount + 1 : 1);
+        }
+        if (validPath) {
+            strokeSimplifier.add(x, y);
+        }
+        long commitStart = stats != null ? System.nanoTime() : 0;
+        if (!validPath) {
+            drawingCanvas.drawPoint(x, y, paint);
+            // a tap is recorded as a single dot where the finger was lifted
+            drawingLog.cancelStroke();
+            drawingLog.beginStroke(paint.getColor(), paint.getStrokeWidth(),
+                    paint.getStrokeCap().ordinal(), paint.getStrokeJoin().ordinal());
+            strokeSimplifier.begin(x, y, 0);
+        } else if (translucentStroke) {
+            strokeMaskCanvas.drawPath(brushPath, opaquePaint);
+            commitStrokeMask();
+            validPath = false;
+        } else {
+            drawingCanvas.drawPath(brushPath, paint);
+            validPath = false;
+        }
+        if (stats != null) {
+            stats.commitTime.record(System.nanoTime() - commitStart);
+        }
+        strokeSimplifier.finish();
+        logKeptPoints();
+        drawingLog.endStroke();
+        indexLastOp(strokeDirty);
+        journalOps(drawingLog.size() - 1);
+        history.endChange();
+        brushPath.reset();
+        translucentStroke = false;
+        // the committed stroke replaces the live one, refresh all of it once
+        drawingChanged(strokeDirty);
+        layers.liveChanged(strokeDirty);
+        layers.flush(layerTarget);
+        strokeDirty.setEmpty();
+        stroking = false;
+    }
+
+    // a second finger or a cancelled touch ends the stroke: one barely started is dropped, a longer one kept
+    private void interruptStroke() {
+        if (!stroking) {
+            return;
+        }
+        if (surfaceStroke) {
+            interruptSurfaceStroke();
+            return;
+        }
+        // the dabs are in the drawing already
+        if (stampStroke) {
+            endStamps();
+            return;
+        }
+        if (validPath) {
+            endStroke(quadStroke.getLastX(), quadStroke.getLastY());
+            return;
+        }
+        drawingLog.cancelStroke();
+        history.cancelChange();
+        brushPath.reset();
+        strokeInput.clear();
+        clearPrediction();
+        translucentStroke = false;
+        layers.liveChanged(strokeDirty);
+        layers.flush(layerTarget);
+        strokeDirty.setEmpty();
+        stroking = false;
+    }
+
+    /**
+     * Same as onTouchEventBrush with the stamp brush: the dabs of each batch are blended into the
+     * drawing right away, there is no live stroke.
+     */
+    public boolean onTouchEventStamp(MotionEvent event) {
+        if (event.getAction() == MotionEvent.ACTION_DOWN) {
             float x = event.getX();
             float y = event.getY();
-            brushPath.quadTo(lastX, lastY, (x + lastX)/2, (y + lastY)/2);
-            if (!validPath) {
-                drawingCanvas.drawPoint(x, y, paint);
-            } else {
-                drawingCanvas.drawPath(brushPath, paint);
-                validPath = false;
+            stroking = true;
+            stampStroke = true;
+            strokePointCount = 0;
+            history.beginChange();
+            drawingLog.beginStamps(paint.getColor(), paint.getStrokeWidth());
+            stampBrush.begin(paint.getColor(), paint.getStrokeWidth());
+            strokeInput.begin(x, y);
+            strokeDirty.setEmpty();
+            addStamp(x, y, event.getPressure());
+            rasterizeStamps();
+            return true;
+        } else if (event.getAction() == MotionEvent.ACTION_MOVE) {
+            int historySize = event.getHistorySize();
+            strokeInput.ensureCapacity(historySize + 1);
+            if (stampPressures.length < historySize + 1) {
+                stampPressures = new float[Math.max(historySize + 1, stampPressures.length * 2)];
             }
-            brushPath.reset();
-            lastX = x;
-            lastY = y;
-            invalidate();
+            for (int h = 0; h < historySize; h++) {
+                addStampSample(event.getHistoricalX(h), event.getHistoricalY(h), event.getHistoricalPressure(h));
+            }
+            addStampSample(event.getX(), event.getY(), event.getPressure());
+            for (int i = 0; i < strokeInput.size(); i++) {
+                addStamp(strokeInput.getX(i), strokeInput.getY(i), stampPressures[i]);
+            }
+            strokeInput.clear();
+            rasterizeStamps();
+            return true;
+        } else if (event.getAction() == MotionEvent.ACTION_UP) {
+            addStamp(event.getX(), event.getY(), event.getPressure());
+            rasterizeStamps();
+            endStamps();
+            return true;
+        } else if (event.getAction() == MotionEvent.ACTION_CANCEL) {
+            // e.g. a parent or a system gesture took the touch over
+            interruptStroke();
+            return true;
+        } else {
+            return super.onTouchEvent(event);
+        }
+    }
+
+    private void addStampSample(float x, float y, float pressure) {
+        if (strokeInput.add(x, y)) {
+            stampPressures[strokeInput.size() - 1] = pressure;
+        }
+    }
+
+    private void addStamp(float x, float y, float pressure) {
+        stampBrush.stampTo(x, y, pressure);
+        drawingLog.addStampPoint(x, y, pressure);
+        strokePointCount++;
+    }
+
+    // blends the pending dabs over transparent pixels then draws these over the drawing, which is the
+    // same as blending each dab into it without reading back its tiles, less precise than the blending
+    private void rasterizeStamps() {
+        DirtyRect bounds = stampBrush.getBounds();
+        int left = Math.max(0, bounds.left);
+        int top = Math.max(0, bounds.top);
+        int right = Math.min(drawing.getWidth(), bounds.right);
+        int bottom = Math.min(drawing.getHeight(), bounds.bottom);
+        if (left >= right || top >= bottom) {
+            stampBrush.clearDabs();
+            return;
+        }
+        long commitStart = stats != null ? System.nanoTime() : 0;
+        int width = right - left;
+        int height = bottom - top;
+        history.capture(left, top, right, bottom);
+        if (stampPixels.length < width * height) {
+            stampPixels = new int[width * height];
+        } else {
+            Arrays.fill(stampPixels, 0, width * height, 0);
+        }
+        stampBrush.rasterize(stampPixels, left, top, width, height);
+        StampBrush.unpremultiply(stampPixels, width * height);
+        if (stampBitmap == null || stampBitmap.getWidth() < width || stampBitmap.getHeight() < height) {
+            int bitmapWidth = Math.max(width, stampBitmap == null ? 0 : stampBitmap.getWidth());
+            int bitmapHeight = Math.max(height, stampBitmap == null ? 0 : stampBitmap.getHeight());
+            stampBitmap = Bitmap.createBitmap(bitmapWidth, bitmapHeight, Bitmap.Config.ARGB_8888);
+        }
+        stampBitmap.setPixels(stampPixels, 0, width, 0, 0, width, height);
+        stampSrc.set(0, 0, width, height);
+        stampDst.set(left, top, right, bottom);
+        drawingCanvas.drawBitmap(stampBitmap, stampSrc, stampDst, imagePaint);
+        if (stats != null) {
+            stats.commitTime.record(System.nanoTime() - commitStart);
+        }
+        segmentDirty.set(left, top, right, bottom);
+        strokeDirty.union(left, top, right, bottom, 0);
+        drawingChanged(segmentDirty);
+        layers.flush(layerTarget);
+    }
+
+    private void endStamps() {
+        if (stats != null) {
+            stats.strokePoints.record(strokePointCount);
+        }
+        drawingLog.endStroke();
+        indexLastOp(strokeDirty);
+        journalOps(drawingLog.size() - 1);
+        history.endChange();
+        strokeDirty.setEmpty();
+        stroking = false;
+        stampStroke = false;
+    }
+
+    /**
+     * Same as onTouchEventBrush with the live stroke drawn by the render thread: the samples go
+     * through the brush as they come, so that lifting the finger only commits the last chunk, but
+     * only the surface draws the stroke until then.
+     */
+    public boolean onTouchEventBrushSurface(MotionEvent event) {
+        if (event.getAction() == MotionEvent.ACTION_DOWN) {
+            surfaceStroke = true;
+            strokeSurface.setBrush(paint.getColor(), paint.getStrokeWidth(),
+                    paint.getStrokeCap(), paint.getStrokeJoin());
+            strokeSurface.setTransform(viewport.getScale(), viewport.getOffsetX(), viewport.getOffsetY());
+            pushSurfaceSample(StrokeSurfaceView.ACTION_DOWN, event.getX(), event.getY());
+            beginStroke(event.getX(), event.getY());
+            return true;
+        } else if (event.getAction() == MotionEvent.ACTION_MOVE) {
+            int historySize = event.getHistorySize();
+            strokeInput.ensureCapacity(historySize + 1);
+            for (int h = 0; h < historySize; h++) {
+                pushSurfaceSample(StrokeSurfaceView.ACTION_MOVE, event.getHistoricalX(h), event.getHistoricalY(h));
+                strokeInput.add(event.getHistoricalX(h), event.getHistoricalY(h));
+            }
+            pushSurfaceSample(StrokeSurfaceView.ACTION_MOVE, event.getX(), event.getY());
+            strokeInput.add(event.getX(), event.getY());
+            extendStroke();
+            return true;
+        } else if (event.getAction() == MotionEvent.ACTION_UP) {
+            pushSurfaceSample(StrokeSurfaceView.ACTION_UP, event.getX(), event.getY());
+            endSurfaceStroke(event.getX(), event.getY());
+            return true;
+        } else if (event.getAction() == MotionEvent.ACTION_CANCEL) {
+            // e.g. a parent or a system gesture took the touch over
+            interruptStroke();
             return true;
         } else {
             return super.onTouchEvent(event);
         }
     }
 
+    // samples the ring has no room for are published again on the next frames
+    private void pushSurfaceSample(int action, float x, float y) {
+        if (!strokeSurface.push(action, x, y) && !flushPosted) {
+            flushPosted = true;
+            postOnAnimation(flushSamples);
+        }
+    }
+
+    // the surface keeps the stroke until a frame of the drawing shows it
+    private void endSurfaceStroke(float x, float y) {
+        surfaceStroke = false;
+        endStroke(x, y);
+        pendingCommits++;
+    }
+
+    // as for a stroke drawn here, it is dropped unless a point past the first one was accepted
+    private void interruptSurfaceStroke() {
+        if (validPath) {
+            float x = quadStroke.getLastX();
+            float y = quadStroke.getLastY();
+            pushSurfaceSample(StrokeSurfaceView.ACTION_UP, x, y);
+            endSurfaceStroke(x, y);
+        } else {
+            pushSurfaceSample(StrokeSurfaceView.ACTION_CANCEL, 0, 0);
+            surfaceStroke = false;
+            interruptStroke();
+        }
+    }
+
+    private void prepareStrokeMask() {
+        if (strokeMask == null || strokeMask.getWidth() != drawing.getWidth()
+                || strokeMask.getHeight() != drawing.getHeight()) {
+            strokeMask = Bitmap.createBitmap(drawing.getWidth(), drawing.getHeight(), Bitmap.Config.ALPHA_8);
+            strokeMaskCanvas = new Canvas(strokeMask);
+        }
+        opaquePaint.set(paint);
+        opaquePaint.setAlpha(255);
+    }
+
+    // Moves the finished part of the live path out of it, so each frame only rasterizes a short tail.
+    // Opaque strokes go straight into the drawing; translucent ones are accumulated as coverage in
+    // the stroke mask and blended once on ACTION_UP, so overlapping chunks don't darken.
+    private void bakeBrushPath() {
+        if (translucentStroke) {
+            strokeMaskCanvas.drawPath(brushPath, opaquePaint);
+        } else {
+            captureStroke();
+            long commitStart = stats != null ? System.nanoTime() : 0;
+            drawingCanvas.drawPath(brushPath, paint);
+            if (stats != null) {
+                stats.commitTime.record(System.nanoTime() - commitStart);
+            }
+            // flushed with the segment that triggered the bake
+            drawingChanged(chunkDirty);
+        }
+        chunkDirty.setEmpty();
+        brushPath.rewind();
+        brushPath.moveTo(quadStroke.getEndX(), quadStroke.getEndY());
+        liveSegments = 0;
+    }
+
+    private void commitStrokeMask() {
+        strokeBounds.set(strokeDirty.left, strokeDirty.top, strokeDirty.right, strokeDirty.bottom);
+        if (!strokeBounds.intersect(0, 0, strokeMask.getWidth(), strokeMask.getHeight())) {
+            return;
+        }
+        maskPaint.setColor(paint.getColor());
+        drawingCanvas.drawBitmap(strokeMask, strokeBounds, strokeBounds, maskPaint);
+        strokeMaskCanvas.save();
+        strokeMaskCanvas.clipRect(strokeBounds);
+        strokeMaskCanvas.drawColor(0, PorterDuff.Mode.CLEAR);
+        strokeMaskCanvas.restore();
+    }
+
+    private void logKeptPoints() {
+        for (int i = 0; i < strokeSimplifier.size(); i++) {
+            drawingLog.addPoint(strokeSimplifier.getX(i), strokeSimplifier.getY(i));
+        }
+        strokeSimplifier.clear();
+    }
+
+    // saves the tiles under the stroke before they are first drawn on
+    private void captureStroke() {
+        history.capture(strokeDirty.left, strokeDirty.top, strokeDirty.right, strokeDirty.bottom);
+    }
+
+    public boolean onTouchEventFill(MotionEvent event) {
+        if (event.getAction() == MotionEvent.ACTION_UP) {
+            fillAt((int) event.getX(), (int) event.getY());
+        }
+        return true;
+    }
+
+    // pans with the fingers' center and zooms with their spread, until the last one is lifted
+    public boolean onTouchEventNavigate(MotionEvent event) {
+        boolean starting = !navigating;
+        if (starting) {
+            navigating = true;
+            interruptStroke();
+        }
+        int action = event.getActionMasked();
+        // the lifted finger no longer counts
+        int lifted = action == MotionEvent.ACTION_POINTER_UP ? event.getActionIndex() : -1;
+        float sumX = 0;
+        float sumY = 0;
+        int count = 0;
+        for (int i = 0; i < event.getPointerCount(); i++) {
+            if (i != lifted) {
+                sumX += event.getX(i);
+                sumY += event.getY(i);
+                count++;
+            }
+        }
+        float x = sumX / count;
+        float y = sumY / count;
+        if (action == MotionEvent.ACTION_MOVE && !starting) {
+            viewport.pan(x - focusX, y - focusY);
+            viewportChanged();
+        }
+        focusX = x;
+        focusY = y;
+        if (action == MotionEvent.ACTION_UP || action == MotionEvent.ACTION_CANCEL) {
+            navigating = false;
+        }
+        return true;
+    }
+
     public boolean onTouchEventShapeAndImage(MotionEvent event) {
         int index = event.getActionIndex();
         int id = event.getPointerId(index);
@@ -230,16 +1634,11 @@ public class DrawView extends View {
             // retrieve 2nd finger id and position
             if (event.getActionMasked() == MotionEvent.ACTION_POINTER_DOWN && pointer2Id == -1) {
                 pointer2Id = id;
-                initPointer2.x = event.getX(pointer2Id);
-                initPointer2.y = event.getY(pointer2Id);
-                currPointer2.x = event.getX(pointer2Id);
-                currPointer2.y = event.getY(pointer2Id);
+                imageGesture.setPointer2(event.getX(pointer2Id), event.getY(pointer2Id));
             } else if (event.getActionMasked() == MotionEvent.ACTION_MOVE) {
                 // retrieve movements
-                currPointer1.x = event.getX(pointer1Id);
-                currPointer1.y = event.getY(pointer1Id);
-                currPointer2.x = event.getX(pointer2Id);
-                currPointer2.y = event.getY(pointer2Id);
+                imageGesture.movePointers(event.getX(pointer1Id), event.getY(pointer1Id),
+                        event.getX(pointer2Id), event.getY(pointer2Id));
             }
         } else if (event.getActionMasked() == MotionEvent.ACTION_UP) {
             // if the last finger is lifted update shape position/toggle false scaling
@@ -255,10 +1654,7 @@ public class DrawView extends View {
 
 
         if (scaling) {
-            currAngle = Vector2D.getSignedAngleBetween(
-                    Vector2D.getDiff(initPointer2, initPointer1),
-                    Vector2D.getDiff(currPointer2, currPointer1)
-            );
+            currAngle = imageGesture.getAngle();
             imageX = lastX;
             imageY = lastY;
             scaleDetector.onTouchEvent(event);
@@ -270,10 +1666,7 @@ public class DrawView extends View {
             pointer2Id = -1;
             float x = event.getX(pointer1Id);
             float y = event.getY(pointer1Id);
-            initPointer1.x = event.getX(pointer1Id);
-            initPointer1.y = event.getY(pointer1Id);
-            currPointer1.x = event.getX(pointer1Id);
-            currPointer1.y = event.getY(pointer1Id);
+            imageGesture.setPointer1(x, y);
             lastX = imageX;
             lastY = imageY;
             imageX = x;
@@ -292,55 +1685,20 @@ public class DrawView extends View {
         return super.onTouchEvent(event);
     }
 
-    private class ScaleListener extends ScaleGestureDetector.SimpleOnScaleGestureListener {
+    private class ZoomListener extends ScaleGestureDetector.SimpleOnScaleGestureListener {
         @Override
         public boolean onScale(ScaleGestureDetector detector) {
-            imageScale *= detector.getScaleFactor();
+            viewport.zoom(detector.getScaleFactor(), detector.getFocusX(), detector.getFocusY());
+            viewportChanged();
             return true;
         }
     }
 
-    private static class Vector2D {
-        private float x;
-        private float y;
-
-        private Vector2D(float x, float y) {
-            this.x = x;
-            this.y = y;
-        }
-
-        private Vector2D() {
-            this.x = 0;
-            this.y = 0;
-        }
-
-        // a - b
-        private static Vector2D getDiff(Vector2D a, Vector2D b) {
-            return new Vector2D(a.x - b.x, a.y - b.y);
-        }
-
-        private float getLength() {
-            return (float)Math.sqrt(x*x + y*y);
-        }
-
-        private static Vector2D getNormalized(Vector2D v) {
-            float l = v.getLength();
-            if (l == 0)
-                return new Vector2D();
-            else
-                return new Vector2D(v.x / l, v.y / l);
-        }
-
-        private static float getSignedAngleBetween(Vector2D a, Vector2D b) {
-            Vector2D na = getNormalized(a);
-            Vector2D nb = getNormalized(b);
-
-            return (float)(Math.atan2(nb.y, nb.x) - Math.atan2(na.y, na.x));
-        }
-
+    private class ScaleListener extends ScaleGestureDetector.SimpleOnScaleGestureListener {
         @Override
-        public String toString() {
-            return "(" + x + ";" + y + ")";
+        public boolean onScale(ScaleGestureDetector detector) {
+            imageScale *= detector.getScaleFactor();
+            return true;
         }
     }
 
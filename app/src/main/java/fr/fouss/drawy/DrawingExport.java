@@ -0,0 +1,290 @@
+package fr.fouss.drawy;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Matrix;
+import android.os.Build;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.Deflater;
+
+/**
+ * Copy of the recorded drawing, exported from a worker thread at any size by replaying its
+ * operations rather than scaling the screen pixels.
+ *
+ * PNGs are rendered in bands of full width rows. Each band replays the base operations and
+ * the ones the {@link StrokeIndex} finds under it, one bitmap per layer, then goes flattened
+ * straight to the {@link PngWriter}, so memory stays bounded by the band whatever the output
+ * size. At the size of the drawing, the rows are read from the flattened drawing instead, which
+ * has nothing to replay nor blend. Bands are encoded on all the cores where the platform can
+ * sync flush a deflate stream.
+ *
+ * Given its layers, the drawing is also saved as a {@link DrawyFile} to be edited again.
+ */
+class DrawingExport {
+
+    // pixels rendered at once, as many ints again to read them back
+    private static final int BAND_PIXELS = 1 << 20;
+
+    private final DrawingLog log;
+    private final List<Bitmap> images;
+    private final DrawingSnapshot composite;
+    // null unless saved as a project
+    private final List<DrawingSnapshot> layers;
+    private final int[] opacities;
+    private final int[] modes;
+    private final int width;
+    private final int height;
+
+    private final SvgWriter.Images imageSource = new SvgWriter.Images() {
+        @Override
+        public int getImageWidth(int imageId) {
+            return images.get(imageId).getWidth();
+        }
+
+        @Override
+        public int getImageHeight(int imageId) {
+            return images.get(imageId).getHeight();
+        }
+
+        @Override
+        public void writePng(int imageId, OutputStream out) throws IOException {
+            if (!images.get(imageId).compress(Bitmap.CompressFormat.PNG, 100, out)) {
+                throw new IOException("PNG encoding failed");
+            }
+        }
+    };
+
+    /**
+     * @param log not modified afterwards
+     * @param images the log images, not recycled while exporting
+     * @param composite the drawing the log replays to, with its layers flattened
+     */
+    DrawingExport(DrawingLog log, List<Bitmap> images, DrawingSnapshot composite) {
+        this(log, images, composite, null, null, null);
+    }
+
+    /**
+     * Also keeps the layers, with their opacity and LayerStack mode, to write them as a project.
+     */
+    DrawingExport(DrawingLog log, List<Bitmap> images, DrawingSnapshot composite,
+                  List<DrawingSnapshot> layers, int[] opacities, int[] modes) {
+        this.log = log;
+        this.images = images;
+        this.composite = composite;
+        this.layers = layers;
+        this.opacities = opacities;
+        this.modes = modes;
+        this.width = composite.getWidth();
+        this.height = composite.getHeight();
+    }
+
+    int getWidth() {
+        return width;
+    }
+
+    int getHeight() {
+        return height;
+    }
+
+    static int scaledSize(int size, float scale) {
+        return Math.max(1, Math.round(size * scale));
+    }
+
+    void writePng(OutputStream out, float scale) throws IOException {
+        int outWidth = scaledSize(width, scale);
+        int outHeight = scaledSize(height, scale);
+        int cores = Runtime.getRuntime().availableProcessors();
+        ExecutorService workers = cores > 1 && Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT
+                ? Executors.newFixedThreadPool(cores) : null;
+        try {
+            PngWriter png = new PngWriter(out, outWidth, outHeight, Deflater.DEFAULT_COMPRESSION, workers, cores);
+            if (outWidth == width && outHeight == height) {
+                writeComposite(png);
+            } else {
+                writeReplayed(png, outWidth, outHeight);
+            }
+            png.finish();
+        } finally {
+            if (workers != null) {
+                workers.shutdown();
+            }
+        }
+    }
+
+    private void writeComposite(PngWriter png) throws IOException {
+        int bandHeight = Math.max(1, Math.min(height, BAND_PIXELS / width));
+        int[] pixels = new int[width * bandHeight];
+        for (int top = 0; top < height; top += bandHeight) {
+            int rows = Math.min(bandHeight, height - top);
+            composite.getPixels(pixels, 0, top, width, rows);
+            png.writeRows(pixels, 0, width, rows);
+        }
+    }
+
+    private void writeReplayed(PngWriter png, int outWidth, int outHeight) throws IOException {
+        // rounding the size to whole pixels, each axis keeps the drawing edges on the image edges
+        float scaleX = (float) outWidth / width;
+        float scaleY = (float) outHeight / height;
+
+        StrokeIndex index = new StrokeIndex(width, height, StrokeIndex.DEFAULT_CELL_SIZE);
+        index.rebuild(log, imageSource);
+
+        int bandHeight = Math.max(1, Math.min(outHeight, BAND_PIXELS / outWidth));
+        BandLayers layers = new BandLayers(outWidth, bandHeight);
+        Matrix bandMatrix = new Matrix();
+        int[] pixels = new int[outWidth * bandHeight];
+        CanvasReplayTarget target = new CanvasReplayTarget(layers, images);
+        try {
+            for (int top = 0; top < outHeight; top += bandHeight) {
+                int rows = Math.min(bandHeight, outHeight - top);
+                bandMatrix.setTranslate(0, -top);
+                bandMatrix.preScale(scaleX, scaleY);
+                layers.begin(bandMatrix);
+                target.restart();
+                log.replay(target, index.getBaseFrom(), index.getBaseTo());
+                // a drawing pixel of margin for the rows split between two bands
+                int drawingTop = (int) Math.floor(top / scaleY) - 1;
+                int drawingBottom = (int) Math.ceil((top + rows) / scaleY) + 1;
+                int count = index.query(0, drawingTop, width, drawingBottom, log.size());
+                for (int i = 0; i < count; i++) {
+                    int op = index.getResult(i);
+                    log.replay(target, op, op + 1);
+                }
+                layers.flatten(pixels, rows);
+                png.writeRows(pixels, 0, outWidth, rows);
+            }
+        } finally {
+            target.recycle();
+            layers.recycle();
+        }
+    }
+
+    // the layers, flattened too when there are several, and the log with its images
+    void writeDrawy(OutputStream out) throws IOException {
+        if (layers == null) {
+            throw new IllegalStateException("The layers were not kept");
+        }
+        DrawyWriter drawy = new DrawyWriter(out, composite.getGrid());
+        for (int layer = 0; layer < layers.size(); layer++) {
+            drawy.writeLayer(layers.get(layer), opacities[layer], modes[layer]);
+        }
+        if (layers.size() > 1 || opacities[0] != 255) {
+            drawy.writeComposite(composite);
+        }
+        drawy.writeLog(log);
+        for (int image = 0; image < images.size(); image++) {
+            final int imageId = image;
+            drawy.writeImage(imageOut -> imageSource.writePng(imageId, imageOut));
+        }
+        drawy.finish();
+    }
+
+    void writeSvg(Writer out) throws IOException {
+        SvgWriter svg = new SvgWriter(out, width, height, imageSource);
+        log.replay(svg);
+        svg.finish();
+    }
+
+    // a bitmap per layer of the band being rendered, flattened the way LayerStack does
+    static final class BandLayers implements CanvasReplayTarget.Layers {
+
+        private final int width;
+        private final int height;
+        private final Matrix matrix = new Matrix();
+        private final List<Bitmap> bitmaps = new ArrayList<>();
+        private final List<Canvas> canvases = new ArrayList<>();
+        private int[] opacities = new int[4];
+        private int[] modes = new int[4];
+        private int count = 0;
+        private int[] layerPixels = null;
+
+        BandLayers(int width, int height) {
+            this.width = width;
+            this.height = height;
+        }
+
+        // erases the layers, drawn through bandMatrix from now on
+        void begin(Matrix bandMatrix) {
+            matrix.set(bandMatrix);
+            for (int layer = 0; layer < bitmaps.size(); layer++) {
+                bitmaps.get(layer).eraseColor(Color.TRANSPARENT);
+                canvases.get(layer).setMatrix(matrix);
+            }
+            count = 0;
+        }
+
+        @Override
+        public Canvas selectLayer(int layer, int opacity, int mode) {
+            while (bitmaps.size() <= layer) {
+                Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+                Canvas canvas = new Canvas(bitmap);
+                canvas.setMatrix(matrix);
+                bitmaps.add(bitmap);
+                canvases.add(canvas);
+            }
+            if (layer >= opacities.length) {
+                opacities = Arrays.copyOf(opacities, layer * 2);
+                modes = Arrays.copyOf(modes, layer * 2);
+            }
+            count = Math.max(count, layer + 1);
+            opacities[layer] = opacity;
+            modes[layer] = mode;
+            return canvases.get(layer);
+        }
+
+        @Override
+        public Canvas clearLayers() {
+            for (int layer = 1; layer < count; layer++) {
+                bitmaps.get(layer).eraseColor(Color.TRANSPARENT);
+            }
+            count = 0;
+            return selectLayer(0, 255, LayerStack.MODE_NORMAL);
+        }
+
+        // the first rows of the flattened band, unpremultiplied
+        void flatten(int[] pixels, int rows) {
+            int pixelCount = width * rows;
+            if (count == 1 && opacities[0] == 255) {
+                bitmaps.get(0).getPixels(pixels, 0, width, 0, 0, width, rows);
+                return;
+            }
+            if (layerPixels == null) {
+                layerPixels = new int[pixels.length];
+            }
+            Arrays.fill(pixels, 0, pixelCount, 0);
+            for (int layer = 0; layer < count; layer++) {
+                if (opacities[layer] == 0) {
+                    continue;
+                }
+                bitmaps.get(layer).getPixels(layerPixels, 0, width, 0, 0, width, rows);
+                StampBrush.premultiply(layerPixels, pixelCount);
+                LayerStack.blend(pixels, layerPixels, pixelCount, opacities[layer], modes[layer]);
+            }
+            StampBrush.unpremultiply(pixels, pixelCount);
+        }
+
+        // layers selected since begin
+        int getCount() {
+            return count;
+        }
+
+        Bitmap getBitmap(int layer) {
+            return bitmaps.get(layer);
+        }
+
+        void recycle() {
+            for (Bitmap bitmap : bitmaps) {
+                bitmap.recycle();
+            }
+        }
+    }
+}
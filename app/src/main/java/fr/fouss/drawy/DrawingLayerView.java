@@ -0,0 +1,37 @@
+package fr.fouss.drawy;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Rect;
+import android.util.AttributeSet;
+import android.view.View;
+
+/**
+ * Static layer under a {@link DrawView}: shows the committed drawing from a hardware layer, so
+ * frames that only change the live stroke composite it without recording it again.
+ */
+public class DrawingLayerView extends View {
+
+    private ScaledDrawing drawing;
+    private Viewport viewport;
+    private Rect clipBounds = new Rect();
+
+    public DrawingLayerView(Context context, AttributeSet attrs) {
+        super(context, attrs);
+        setLayerType(LAYER_TYPE_HARDWARE, null);
+    }
+
+    void setDrawing(ScaledDrawing drawing, Viewport viewport) {
+        this.drawing = drawing;
+        this.viewport = viewport;
+        invalidate();
+    }
+
+    @Override
+    public void onDraw(Canvas canvas) {
+        super.onDraw(canvas);
+        if (drawing != null && canvas.getClipBounds(clipBounds)) {
+            drawing.draw(canvas, viewport, clipBounds);
+        }
+    }
+}
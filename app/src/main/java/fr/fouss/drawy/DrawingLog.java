@@ -0,0 +1,353 @@
+package fr.fouss.drawy;
+
+import java.util.Arrays;
+
+/**
+ * Vector record of everything committed to the drawing, kept as a flat int array
+ * (floats stored as raw bits) so it stays compact and allocation-free while recording.
+ *
+ * Layouts, one word each:
+ * CLEAR: type, color
+ * BACKGROUND: type, imageId
+ * STROKE: type, color, width, cap, join, pointCount, then x and y for each point
+ * IMAGE: type, imageId, x, y, scale, degrees
+ * STAMPS: type, color, size, pointCount, then x, y and pressure for each point
+ * LAYER: type, layer, opacity, mode
+ * FILL: type, color, left, top, width, height, then the mask rows, one bit per pixel from the low
+ * bit, each row starting on a new word
+ *
+ * Images are referenced by id only, their pixels are kept by the caller.
+ * Undone operations stay in the arrays until a new operation overwrites them, so they can be redone.
+ * Beginning a stroke drops them even if the stroke is then cancelled, the same as
+ * {@link UndoHistory#cancelChange} does with its changes, so both can always redo the same steps.
+ */
+class DrawingLog {
+
+    static final int OP_CLEAR = 0;
+    static final int OP_BACKGROUND = 1;
+    static final int OP_STROKE = 2;
+    static final int OP_IMAGE = 3;
+    static final int OP_STAMPS = 4;
+    static final int OP_LAYER = 5;
+    static final int OP_FILL = 6;
+
+    static final int STROKE_HEADER = 6;
+    static final int STAMPS_HEADER = 4;
+    static final int FILL_HEADER = 6;
+
+    private int[] words = new int[1024];
+    private int wordCount = 0;
+    private int[] opOffsets = new int[64];
+    private int opCount = 0;
+    // opCount plus the undone operations that can be redone
+    private int opTotal = 0;
+
+    // offset of the stroke being recorded, -1 when none
+    private int strokeOffset = -1;
+
+    // replay scratch buffer
+    private float[] points = new float[64];
+
+    ///// RECORDING /////
+
+    void clear(int color) {
+        beginOp(OP_CLEAR, 2);
+        words[wordCount++] = color;
+    }
+
+    void background(int imageId) {
+        beginOp(OP_BACKGROUND, 2);
+        words[wordCount++] = imageId;
+    }
+
+    void image(int imageId, float x, float y, float scale, float degrees) {
+        beginOp(OP_IMAGE, 6);
+        words[wordCount++] = imageId;
+        words[wordCount++] = Float.floatToRawIntBits(x);
+        words[wordCount++] = Float.floatToRawIntBits(y);
+        words[wordCount++] = Float.floatToRawIntBits(scale);
+        words[wordCount++] = Float.floatToRawIntBits(degrees);
+    }
+
+    /**
+     * The operations from now on draw into layer, see {@link ReplayCanvas#selectLayer}.
+     */
+    void layer(int layer, int opacity, int mode) {
+        beginOp(OP_LAYER, 4);
+        words[wordCount++] = layer;
+        words[wordCount++] = opacity;
+        words[wordCount++] = mode;
+    }
+
+    /**
+     * Pixels of the area left, top, width, height painted with color where mask has their bit set,
+     * mask holding height rows of {@link #maskWordsPerRow} words from offset.
+     */
+    void fill(int color, int left, int top, int width, int height, int[] mask, int offset) {
+        int maskWords = height * maskWordsPerRow(width);
+        beginOp(OP_FILL, FILL_HEADER + maskWords);
+        words[wordCount++] = color;
+        words[wordCount++] = left;
+        words[wordCount++] = top;
+        words[wordCount++] = width;
+        words[wordCount++] = height;
+        System.arraycopy(mask, offset, words, wordCount, maskWords);
+        wordCount += maskWords;
+    }
+
+    static int maskWordsPerRow(int width) {
+        return (width + 31) >>> 5;
+    }
+
+    /**
+     * Appends an operation copied from {@link #getWords}, e.g. read back from a journal.
+     */
+    void appendOp(int[] opWords, int offset, int length) {
+        if (strokeOffset != -1) {
+            throw new IllegalStateException("A stroke is being recorded");
+        }
+        int type = length > 0 ? opWords[offset] : -1;
+        boolean valid;
+        switch (type) {
+            case OP_CLEAR:
+            case OP_BACKGROUND:
+                valid = length == 2;
+                break;
+            case OP_STROKE:
+                valid = length >= STROKE_HEADER && length == STROKE_HEADER + 2 * opWords[offset + 5];
+                break;
+            case OP_IMAGE:
+                valid = length == 6;
+                break;
+            case OP_STAMPS:
+                valid = length >= STAMPS_HEADER && length == STAMPS_HEADER + 3 * opWords[offset + 3];
+                break;
+            case OP_LAYER:
+                valid = length == 4;
+                break;
+            case OP_FILL:
+                valid = length >= FILL_HEADER && opWords[offset + 4] >= 0 && opWords[offset + 5] >= 0
+                        && length == FILL_HEADER
+                                + (long) opWords[offset + 5] * maskWordsPerRow(opWords[offset + 4]);
+                break;
+            default:
+                valid = false;
+        }
+        if (!valid) {
+            throw new IllegalArgumentException("Malformed operation");
+        }
+        beginOp(type, length);
+        System.arraycopy(opWords, offset + 1, words, wordCount, length - 1);
+        wordCount += length - 1;
+    }
+
+    void beginStroke(int color, float width, int cap, int join) {
+        if (strokeOffset != -1) {
+            throw new IllegalStateException("A stroke is already being recorded");
+        }
+        // after beginOp, which moves back over the operations that could be redone
+        beginOp(OP_STROKE, STROKE_HEADER);
+        strokeOffset = opOffsets[opCount - 1];
+        words[wordCount++] = color;
+        words[wordCount++] = Float.floatToRawIntBits(width);
+        words[wordCount++] = cap;
+        words[wordCount++] = join;
+        words[wordCount++] = 0;
+    }
+
+    void addPoint(float x, float y) {
+        if (strokeOffset == -1) {
+            throw new IllegalStateException("No stroke is being recorded");
+        }
+        ensureWords(2);
+        words[wordCount++] = Float.floatToRawIntBits(x);
+        words[wordCount++] = Float.floatToRawIntBits(y);
+        words[strokeOffset + 5]++;
+    }
+
+    /**
+     * Starts a stroke painted by a {@link StampBrush}, ended like the other strokes.
+     */
+    void beginStamps(int color, float size) {
+        if (strokeOffset != -1) {
+            throw new IllegalStateException("A stroke is already being recorded");
+        }
+        // after beginOp, which moves back over the operations that could be redone
+        beginOp(OP_STAMPS, STAMPS_HEADER);
+        strokeOffset = opOffsets[opCount - 1];
+        words[wordCount++] = color;
+        words[wordCount++] = Float.floatToRawIntBits(size);
+        words[wordCount++] = 0;
+    }
+
+    void addStampPoint(float x, float y, float pressure) {
+        if (strokeOffset == -1) {
+            throw new IllegalStateException("No stroke is being recorded");
+        }
+        ensureWords(3);
+        words[wordCount++] = Float.floatToRawIntBits(x);
+        words[wordCount++] = Float.floatToRawIntBits(y);
+        words[wordCount++] = Float.floatToRawIntBits(pressure);
+        words[strokeOffset + 3]++;
+    }
+
+    void endStroke() {
+        if (strokeOffset == -1) {
+            throw new IllegalStateException("No stroke is being recorded");
+        }
+        strokeOffset = -1;
+    }
+
+    // forgets the stroke being recorded, what could be redone before it stays dropped
+    void cancelStroke() {
+        if (strokeOffset == -1) {
+            return;
+        }
+        wordCount = strokeOffset;
+        opCount--;
+        opTotal = opCount;
+        strokeOffset = -1;
+    }
+
+    private void beginOp(int type, int length) {
+        if (opTotal > opCount) {
+            wordCount = opOffsets[opCount];
+        }
+        if (opCount == opOffsets.length) {
+            int[] newOffsets = new int[opOffsets.length * 2];
+            System.arraycopy(opOffsets, 0, newOffsets, 0, opCount);
+            opOffsets = newOffsets;
+        }
+        ensureWords(length);
+        opOffsets[opCount++] = wordCount;
+        opTotal = opCount;
+        words[wordCount++] = type;
+    }
+
+    private void ensureWords(int count) {
+        if (wordCount + count > words.length) {
+            int[] newWords = new int[Math.max(wordCount + count, words.length * 2)];
+            System.arraycopy(words, 0, newWords, 0, wordCount);
+            words = newWords;
+        }
+    }
+
+    ///// UNDO / REDO /////
+
+    boolean undo() {
+        if (strokeOffset != -1 || opCount == 0) {
+            return false;
+        }
+        opCount--;
+        return true;
+    }
+
+    boolean canRedo() {
+        return strokeOffset == -1 && opCount < opTotal;
+    }
+
+    boolean redo() {
+        if (strokeOffset != -1 || opCount == opTotal) {
+            return false;
+        }
+        opCount++;
+        return true;
+    }
+
+    ///// READING /////
+
+    // number of completed operations, a stroke being recorded isn't counted
+    int size() {
+        return strokeOffset == -1 ? opCount : opCount - 1;
+    }
+
+    int getType(int op) {
+        return words[opOffsets[op]];
+    }
+
+    // number of words of an operation, type included
+    int getLength(int op) {
+        int end = op + 1 < opTotal ? opOffsets[op + 1] : wordCount;
+        return end - opOffsets[op];
+    }
+
+    // copies the words of an operation into dst
+    void getWords(int op, int[] dst, int offset) {
+        System.arraycopy(words, opOffsets[op], dst, offset, getLength(op));
+    }
+
+    // independent log holding the completed operations, without the undone ones
+    DrawingLog copy() {
+        DrawingLog copy = new DrawingLog();
+        int opCount = size();
+        // a stroke being recorded starts where the completed operations end
+        int wordCount = opCount < opTotal ? opOffsets[opCount] : this.wordCount;
+        copy.words = Arrays.copyOf(words, Math.max(wordCount, 1));
+        copy.wordCount = wordCount;
+        copy.opOffsets = Arrays.copyOf(opOffsets, Math.max(opCount, 1));
+        copy.opCount = opCount;
+        copy.opTotal = opCount;
+        return copy;
+    }
+
+    // memory used by the recorded operations
+    int getByteSize() {
+        return (wordCount + opCount) * 4;
+    }
+
+    void replay(ReplayCanvas canvas) {
+        replay(canvas, 0, size());
+    }
+
+    // replays operations [from;to[
+    void replay(ReplayCanvas canvas, int from, int to) {
+        for (int op = from; op < to; op++) {
+            int i = opOffsets[op];
+            switch (words[i]) {
+                case OP_CLEAR:
+                    canvas.clear(words[i + 1]);
+                    break;
+                case OP_BACKGROUND:
+                    canvas.drawBackground(words[i + 1]);
+                    break;
+                case OP_STROKE:
+                    int pointCount = words[i + 5];
+                    if (points.length < pointCount * 2) {
+                        points = new float[pointCount * 2];
+                    }
+                    for (int p = 0; p < pointCount * 2; p++) {
+                        points[p] = Float.intBitsToFloat(words[i + STROKE_HEADER + p]);
+                    }
+                    canvas.drawStroke(points, pointCount, words[i + 1],
+                            Float.intBitsToFloat(words[i + 2]), words[i + 3], words[i + 4]);
+                    break;
+                case OP_IMAGE:
+                    canvas.drawImage(words[i + 1],
+                            Float.intBitsToFloat(words[i + 2]),
+                            Float.intBitsToFloat(words[i + 3]),
+                            Float.intBitsToFloat(words[i + 4]),
+                            Float.intBitsToFloat(words[i + 5]));
+                    break;
+                case OP_STAMPS:
+                    int stampCount = words[i + 3];
+                    if (points.length < stampCount * 3) {
+                        points = new float[stampCount * 3];
+                    }
+                    for (int p = 0; p < stampCount * 3; p++) {
+                        points[p] = Float.intBitsToFloat(words[i + STAMPS_HEADER + p]);
+                    }
+                    canvas.drawStamps(points, stampCount, words[i + 1], Float.intBitsToFloat(words[i + 2]));
+                    break;
+                case OP_LAYER:
+                    canvas.selectLayer(words[i + 1], words[i + 2], words[i + 3]);
+                    break;
+                case OP_FILL:
+                    canvas.drawFill(words, i + FILL_HEADER, words[i + 2], words[i + 3],
+                            words[i + 4], words[i + 5], words[i + 1]);
+                    break;
+                default:
+                    throw new IllegalStateException("Unknown operation " + words[i]);
+            }
+        }
+    }
+}
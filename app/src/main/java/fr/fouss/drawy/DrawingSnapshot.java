@@ -0,0 +1,101 @@
+package fr.fouss.drawy;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+
+/**
+ * Frozen state of a {@link TiledDrawing}, safe to read from a worker thread while drawing goes on.
+ * Tiles the drawing hadn't read from its source yet are read here when needed, then handed back
+ * to it so that it doesn't read them again.
+ */
+class DrawingSnapshot implements TileSource {
+
+    private final TileGrid grid;
+    private final Bitmap[] tiles;
+    private final int[] uniformColors;
+    // tiles to read from source, null when there were none
+    private final boolean[] pending;
+    private final TileSource source;
+    private final TiledDrawing drawing;
+    private int[] sourcePixels = null;
+
+    DrawingSnapshot(TileGrid grid, Bitmap[] tiles, int[] uniformColors, boolean[] pending, TileSource source,
+                    TiledDrawing drawing) {
+        this.grid = grid;
+        this.tiles = tiles;
+        this.uniformColors = uniformColors;
+        this.pending = pending;
+        this.source = source;
+        this.drawing = drawing;
+    }
+
+    int getWidth() {
+        return grid.width;
+    }
+
+    int getHeight() {
+        return grid.height;
+    }
+
+    @Override
+    public TileGrid getGrid() {
+        return grid;
+    }
+
+    @Override
+    public boolean isUniform(int tile) {
+        return tiles[tile] == null && (pending == null || !pending[tile]);
+    }
+
+    @Override
+    public int getUniformColor(int tile) {
+        return uniformColors[tile];
+    }
+
+    // copies the w*h region at (x;y) into dst, rows packed
+    @Override
+    public void getPixels(int[] dst, int x, int y, int w, int h) {
+        loadTiles(x, y, x + w, y + h);
+        TiledDrawing.getPixels(grid, tiles, uniformColors, dst, x, y, w, h);
+    }
+
+    private void loadTiles(int left, int top, int right, int bottom) {
+        if (pending == null) {
+            return;
+        }
+        int lastColumn = grid.lastColumn(right);
+        int lastRow = grid.lastRow(bottom);
+        for (int row = grid.firstRow(top); row <= lastRow; row++) {
+            for (int column = grid.firstColumn(left); column <= lastColumn; column++) {
+                int tile = grid.tile(column, row);
+                if (pending[tile]) {
+                    if (sourcePixels == null) {
+                        sourcePixels = new int[grid.tileSize * grid.tileSize];
+                    }
+                    tiles[tile] = TiledDrawing.readTile(grid, source, tile, sourcePixels);
+                    pending[tile] = false;
+                    drawing.offerReadTile(source, tile, tiles[tile]);
+                }
+            }
+        }
+    }
+
+    Bitmap toBitmap() {
+        loadTiles(0, 0, grid.width, grid.height);
+        Bitmap bitmap = Bitmap.createBitmap(grid.width, grid.height, Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(bitmap);
+        Paint fillPaint = new Paint();
+        for (int tile = 0; tile < tiles.length; tile++) {
+            int left = grid.tileLeft(tile);
+            int top = grid.tileTop(tile);
+            if (tiles[tile] != null) {
+                canvas.drawBitmap(tiles[tile], left, top, null);
+            } else {
+                fillPaint.setColor(uniformColors[tile]);
+                canvas.drawRect(left, top, left + grid.tileWidth(tile), top + grid.tileHeight(tile), fillPaint);
+            }
+        }
+        return bitmap;
+    }
+}
@@ -0,0 +1,427 @@
+package fr.fouss.drawy;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+
+/**
+ * Editable drawing saved by {@link DrawyWriter}, read through a memory-mapped file: opening
+ * only reads the index at its end, and a tile is decompressed when it is first read. Tiles of a
+ * drawing shown on screen are thus the only ones decoded.
+ *
+ * File format, big-endian: magic and version, then the data of the non-uniform tiles, of the log
+ * and of the images, then the index and the trailer. The index holds the size of the drawing,
+ * its tile size and flags, the layer count and the opacity and mode of each layer, then an
+ * entry per tile of each layer and of the composite: data offset, length and CRC32, or no
+ * offset, no length and the color of a uniform tile. With a log follow its offset, compressed
+ * and raw lengths and CRC32, then the image count and the offset, length and CRC32 of each
+ * image. The trailer holds the offset, length and CRC32 of the index and an end magic.
+ *
+ * Tiles are the bytes of their alpha, red, green then blue channels, each channel in rows, and
+ * the log is the word count and words of each operation, both compressed with {@link Lz4}.
+ * Images are stored in the format their writer encodes them in.
+ */
+class DrawyFile {
+
+    static final String EXTENSION = "drawy";
+
+    static final int MAGIC = 0x44525759; // DRWY
+    static final int END_MAGIC = 0x44594e44; // DYND
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 8;
+    static final int TRAILER_SIZE = 20;
+    static final int FLAG_COMPOSITE = 1;
+    static final int FLAG_LOG = 2;
+    static final int TILE_ENTRY_SIZE = 16;
+    // past this side, or this tile size, an index is surely corrupt
+    private static final int MAX_SIDE = 1 << 16;
+    private static final int MAX_TILE_SIZE = 4096;
+
+    private final ByteBuffer buffer;
+    private final TileGrid grid;
+    private final int[] opacities;
+    private final int[] modes;
+    private final boolean hasComposite;
+    // per tile of each layer then of the composite
+    private final long[] tileOffsets;
+    private final int[] tileLengths;
+    // CRC32 of the data, or color of a uniform tile
+    private final int[] tileChecks;
+    private final Surface[] surfaces;
+
+    private long logOffset = -1;
+    private int logLength;
+    private int logRawLength;
+    private int logCrc;
+    private long[] imageOffsets = new long[0];
+    private int[] imageLengths = new int[0];
+    private int[] imageCrcs = new int[0];
+
+    // scratch of readTile, which is synchronized
+    private final byte[] compressed;
+    private final byte[] planes;
+    private final CRC32 crc = new CRC32();
+    private int decodedTiles = 0;
+
+    /**
+     * Maps the whole file of channel and reads its index. The mapping stays valid once channel
+     * is closed.
+     * @throws IOException if it isn't a .drawy file or its index is corrupt
+     */
+    static DrawyFile open(FileChannel channel) throws IOException {
+        long size = channel.size();
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("Projects are limited to 2 GB");
+        }
+        return new DrawyFile(channel.map(FileChannel.MapMode.READ_ONLY, 0, size));
+    }
+
+    // whether channel starts like a .drawy file, its position being left as it was
+    static boolean isDrawyFile(FileChannel channel) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(4);
+        long position = channel.position();
+        try {
+            channel.position(0);
+            while (header.hasRemaining() && channel.read(header) >= 0) {
+                // short reads
+            }
+        } finally {
+            channel.position(position);
+        }
+        return !header.hasRemaining() && header.getInt(0) == MAGIC;
+    }
+
+    DrawyFile(ByteBuffer buffer) throws IOException {
+        this.buffer = buffer;
+        int size = buffer.limit();
+        if (size < HEADER_SIZE + TRAILER_SIZE || buffer.getInt(0) != MAGIC) {
+            throw new IOException("Not a .drawy file");
+        }
+        if (buffer.getInt(4) != VERSION) {
+            throw new IOException("Unsupported .drawy version " + buffer.getInt(4));
+        }
+        int trailer = size - TRAILER_SIZE;
+        long indexOffset = buffer.getLong(trailer);
+        int indexLength = buffer.getInt(trailer + 8);
+        if (buffer.getInt(trailer + 16) != END_MAGIC) {
+            throw new IOException("Truncated .drawy file");
+        }
+        if (indexOffset < HEADER_SIZE || indexLength < 0 || indexOffset + indexLength != trailer) {
+            throw new IOException("Corrupt .drawy index position");
+        }
+        byte[] indexBytes = new byte[indexLength];
+        read(indexOffset, indexBytes, indexLength);
+        crc.reset();
+        crc.update(indexBytes, 0, indexLength);
+        if ((int) crc.getValue() != buffer.getInt(trailer + 12)) {
+            throw new IOException("Corrupt .drawy index");
+        }
+        ByteBuffer index = ByteBuffer.wrap(indexBytes);
+        try {
+            int width = index.getInt();
+            int height = index.getInt();
+            int tileSize = index.getInt();
+            int flags = index.getInt();
+            int layerCount = index.getInt();
+            if (width <= 0 || height <= 0 || width > MAX_SIDE || height > MAX_SIDE
+                    || tileSize <= 0 || tileSize > MAX_TILE_SIZE || layerCount <= 0
+                    || layerCount > indexLength / 8) {
+                throw new IOException("Corrupt .drawy header");
+            }
+            grid = new TileGrid(width, height, tileSize);
+            hasComposite = (flags & FLAG_COMPOSITE) != 0;
+            opacities = new int[layerCount];
+            modes = new int[layerCount];
+            for (int layer = 0; layer < layerCount; layer++) {
+                opacities[layer] = index.getInt();
+                modes[layer] = index.getInt();
+                if (opacities[layer] < 0 || opacities[layer] > 255
+                        || modes[layer] < 0 || modes[layer] >= LayerStack.MODE_COUNT) {
+                    throw new IOException("Corrupt .drawy layer");
+                }
+            }
+            int surfaceCount = layerCount + (hasComposite ? 1 : 0);
+            int tileCount = grid.getTileCount();
+            if ((long) surfaceCount * tileCount * TILE_ENTRY_SIZE > index.remaining()) {
+                throw new IOException("Truncated .drawy index");
+            }
+            tileOffsets = new long[surfaceCount * tileCount];
+            tileLengths = new int[surfaceCount * tileCount];
+            tileChecks = new int[surfaceCount * tileCount];
+            int maxLength = Lz4.maxCompressedLength(4 * tileSize * tileSize);
+            for (int entry = 0; entry < tileOffsets.length; entry++) {
+                tileOffsets[entry] = index.getLong();
+                tileLengths[entry] = index.getInt();
+                tileChecks[entry] = index.getInt();
+                checkData(tileOffsets[entry], tileLengths[entry], indexOffset);
+                if (tileLengths[entry] > maxLength) {
+                    throw new IOException("Corrupt .drawy tile entry");
+                }
+            }
+            if ((flags & FLAG_LOG) != 0) {
+                logOffset = index.getLong();
+                logLength = index.getInt();
+                logRawLength = index.getInt();
+                logCrc = index.getInt();
+                checkData(logOffset, logLength, indexOffset);
+                if (logRawLength < 4) {
+                    throw new IOException("Corrupt .drawy log entry");
+                }
+                int imageCount = index.getInt();
+                if (imageCount < 0 || imageCount > index.remaining() / 16) {
+                    throw new IOException("Corrupt .drawy image count");
+                }
+                imageOffsets = new long[imageCount];
+                imageLengths = new int[imageCount];
+                imageCrcs = new int[imageCount];
+                for (int image = 0; image < imageCount; image++) {
+                    imageOffsets[image] = index.getLong();
+                    imageLengths[image] = index.getInt();
+                    imageCrcs[image] = index.getInt();
+                    checkData(imageOffsets[image], imageLengths[image], indexOffset);
+                }
+            }
+        } catch (java.nio.BufferUnderflowException e) {
+            throw new IOException("Truncated .drawy index");
+        }
+        compressed = new byte[Lz4.maxCompressedLength(4 * grid.tileSize * grid.tileSize)];
+        planes = new byte[4 * grid.tileSize * grid.tileSize];
+        surfaces = new Surface[opacities.length + (hasComposite ? 1 : 0)];
+        for (int surface = 0; surface < surfaces.length; surface++) {
+            surfaces[surface] = new Surface(surface);
+        }
+    }
+
+    // data is between the header and the index
+    private static void checkData(long offset, int length, long indexOffset) throws IOException {
+        if (length < 0 || (length > 0 && (offset < HEADER_SIZE || offset > indexOffset - length))) {
+            throw new IOException("Corrupt .drawy entry");
+        }
+    }
+
+    private void read(long offset, byte[] dst, int length) {
+        ByteBuffer view = buffer.duplicate();
+        view.position((int) offset);
+        view.get(dst, 0, length);
+    }
+
+    ///// LAYERS /////
+
+    TileGrid getGrid() {
+        return grid;
+    }
+
+    int getLayerCount() {
+        return opacities.length;
+    }
+
+    int getOpacity(int layer) {
+        return opacities[layer];
+    }
+
+    int getMode(int layer) {
+        return modes[layer];
+    }
+
+    // the pixels of a layer, read as they are needed
+    Surface getLayer(int layer) {
+        if (layer < 0 || layer >= opacities.length) {
+            throw new IndexOutOfBoundsException("No layer " + layer);
+        }
+        return surfaces[layer];
+    }
+
+    // whether the layers were saved flattened too, else the first one is the whole drawing
+    boolean hasComposite() {
+        return hasComposite;
+    }
+
+    Surface getComposite() {
+        if (!hasComposite) {
+            throw new IllegalStateException("No composite");
+        }
+        return surfaces[opacities.length];
+    }
+
+    // tiles decompressed since the file was opened
+    synchronized int getDecodedTileCount() {
+        return decodedTiles;
+    }
+
+    /**
+     * Decodes a tile of a surface into pixels, rows packed.
+     * @throws IOException if its data fails its check
+     */
+    private synchronized void readTile(int surface, int tile, int[] pixels) throws IOException {
+        int entry = surface * grid.getTileCount() + tile;
+        int count = grid.tileWidth(tile) * grid.tileHeight(tile);
+        int length = tileLengths[entry];
+        if (length == 0) {
+            java.util.Arrays.fill(pixels, 0, count, tileChecks[entry]);
+            return;
+        }
+        read(tileOffsets[entry], compressed, length);
+        crc.reset();
+        crc.update(compressed, 0, length);
+        if ((int) crc.getValue() != tileChecks[entry]) {
+            throw new IOException("Corrupt tile " + tile);
+        }
+        Lz4.decompress(compressed, 0, length, planes, 0, 4 * count);
+        fromPlanes(planes, pixels, count);
+        decodedTiles++;
+    }
+
+    // the channels of each pixel, alpha first, one after the other
+    static void toPlanes(int[] pixels, byte[] planes, int count) {
+        for (int i = 0; i < count; i++) {
+            int pixel = pixels[i];
+            planes[i] = (byte) (pixel >>> 24);
+            planes[count + i] = (byte) (pixel >>> 16);
+            planes[2 * count + i] = (byte) (pixel >>> 8);
+            planes[3 * count + i] = (byte) pixel;
+        }
+    }
+
+    static void fromPlanes(byte[] planes, int[] pixels, int count) {
+        for (int i = 0; i < count; i++) {
+            pixels[i] = planes[i] << 24 | (planes[count + i] & 0xff) << 16
+                    | (planes[2 * count + i] & 0xff) << 8 | (planes[3 * count + i] & 0xff);
+        }
+    }
+
+    /**
+     * Tiles of a layer or of the composite. A tile failing its check reads as transparent,
+     * readTile reports it.
+     */
+    final class Surface implements TileSource {
+
+        private final int surface;
+        private int[] tilePixels = null;
+        private int corruptTiles = 0;
+
+        private Surface(int surface) {
+            this.surface = surface;
+        }
+
+        @Override
+        public TileGrid getGrid() {
+            return grid;
+        }
+
+        @Override
+        public boolean isUniform(int tile) {
+            return tileLengths[surface * grid.getTileCount() + tile] == 0;
+        }
+
+        @Override
+        public int getUniformColor(int tile) {
+            return tileChecks[surface * grid.getTileCount() + tile];
+        }
+
+        void readTile(int tile, int[] pixels) throws IOException {
+            DrawyFile.this.readTile(surface, tile, pixels);
+        }
+
+        // tiles that read as transparent because of a failed check
+        synchronized int getCorruptTileCount() {
+            return corruptTiles;
+        }
+
+        @Override
+        public synchronized void getPixels(int[] dst, int x, int y, int w, int h) {
+            if (tilePixels == null) {
+                tilePixels = new int[grid.tileSize * grid.tileSize];
+            }
+            int lastColumn = grid.lastColumn(x + w);
+            int lastRow = grid.lastRow(y + h);
+            for (int row = grid.firstRow(y); row <= lastRow; row++) {
+                for (int column = grid.firstColumn(x); column <= lastColumn; column++) {
+                    int tile = grid.tile(column, row);
+                    int tileLeft = grid.tileLeft(tile);
+                    int tileTop = grid.tileTop(tile);
+                    int tileWidth = grid.tileWidth(tile);
+                    int left = Math.max(x, tileLeft);
+                    int top = Math.max(y, tileTop);
+                    int right = Math.min(x + w, tileLeft + tileWidth);
+                    int bottom = Math.min(y + h, tileTop + grid.tileHeight(tile));
+                    try {
+                        readTile(tile, tilePixels);
+                    } catch (IOException e) {
+                        java.util.Arrays.fill(tilePixels, 0);
+                        corruptTiles++;
+                    }
+                    for (int line = top; line < bottom; line++) {
+                        System.arraycopy(tilePixels, (line - tileTop) * tileWidth + left - tileLeft,
+                                dst, (line - y) * w + left - x, right - left);
+                    }
+                }
+            }
+        }
+    }
+
+    ///// LOG /////
+
+    // whether the operations were saved, to replay or edit the drawing further
+    boolean hasLog() {
+        return logOffset >= 0;
+    }
+
+    /**
+     * Reads the saved operations into log.
+     * @throws IOException if they fail their check or are malformed
+     */
+    void readLog(DrawingLog log) throws IOException {
+        if (!hasLog()) {
+            throw new IllegalStateException("No log");
+        }
+        byte[] data = new byte[logLength];
+        read(logOffset, data, logLength);
+        CRC32 logCheck = new CRC32();
+        logCheck.update(data, 0, logLength);
+        if ((int) logCheck.getValue() != logCrc) {
+            throw new IOException("Corrupt log");
+        }
+        byte[] raw = new byte[logRawLength];
+        Lz4.decompress(data, 0, logLength, raw, 0, logRawLength);
+        ByteBuffer words = ByteBuffer.wrap(raw);
+        int[] opWords = new int[64];
+        try {
+            int opCount = words.getInt();
+            for (int op = 0; op < opCount; op++) {
+                int length = words.getInt();
+                if (length <= 0 || length > words.remaining() / 4) {
+                    throw new IOException("Corrupt log operation " + op);
+                }
+                if (opWords.length < length) {
+                    opWords = new int[Math.max(length, opWords.length * 2)];
+                }
+                for (int i = 0; i < length; i++) {
+                    opWords[i] = words.getInt();
+                }
+                log.appendOp(opWords, 0, length);
+            }
+        } catch (java.nio.BufferUnderflowException | IllegalArgumentException e) {
+            throw new IOException("Corrupt log", e);
+        }
+    }
+
+    int getImageCount() {
+        return imageOffsets.length;
+    }
+
+    /**
+     * The bytes of an image of the log, as its encoder wrote them.
+     * @throws IOException if they fail their check
+     */
+    byte[] readImage(int image) throws IOException {
+        byte[] data = new byte[imageLengths[image]];
+        read(imageOffsets[image], data, data.length);
+        CRC32 imageCheck = new CRC32();
+        imageCheck.update(data, 0, data.length);
+        if ((int) imageCheck.getValue() != imageCrcs[image]) {
+            throw new IOException("Corrupt image " + image);
+        }
+        return data;
+    }
+}
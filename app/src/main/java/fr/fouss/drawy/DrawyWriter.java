@@ -0,0 +1,182 @@
+package fr.fouss.drawy;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Streams a drawing as a {@link DrawyFile}: the layers bottom to top, the composite when there
+ * is more than the first layer, then optionally the log and its images, and finally finish().
+ * Uniform tiles only take their color in the index, the others are compressed with {@link Lz4}.
+ */
+class DrawyWriter {
+
+    private final DataOutputStream out;
+    private final TileGrid grid;
+    private final Lz4 lz4 = new Lz4();
+    private final CRC32 crc = new CRC32();
+    private final int[] pixels;
+    private final byte[] planes;
+    private final byte[] compressed;
+
+    private final ByteArrayOutputStream layerBytes = new ByteArrayOutputStream();
+    private final DataOutputStream layerEntries = new DataOutputStream(layerBytes);
+    private final ByteArrayOutputStream tileBytes = new ByteArrayOutputStream();
+    private final DataOutputStream tileEntries = new DataOutputStream(tileBytes);
+    private final ByteArrayOutputStream imageBytes = new ByteArrayOutputStream();
+    private final DataOutputStream imageEntries = new DataOutputStream(imageBytes);
+    private int layerCount = 0;
+    private boolean composite = false;
+    private boolean log = false;
+    private long logOffset;
+    private int logLength;
+    private int logRawLength;
+    private int logCrc;
+    private int imageCount = 0;
+
+    DrawyWriter(OutputStream out, TileGrid grid) throws IOException {
+        this.out = new DataOutputStream(out);
+        this.grid = grid;
+        pixels = new int[grid.tileSize * grid.tileSize];
+        planes = new byte[4 * grid.tileSize * grid.tileSize];
+        compressed = new byte[Lz4.maxCompressedLength(planes.length)];
+        this.out.writeInt(DrawyFile.MAGIC);
+        this.out.writeInt(DrawyFile.VERSION);
+    }
+
+    // layer on top of the ones written, with its opacity and LayerStack mode
+    void writeLayer(TileSource layer, int opacity, int mode) throws IOException {
+        if (composite) {
+            throw new IllegalStateException("Layers come before the composite");
+        }
+        writeTiles(layer);
+        layerEntries.writeInt(opacity);
+        layerEntries.writeInt(mode);
+        layerCount++;
+    }
+
+    // the layers flattened
+    void writeComposite(TileSource composite) throws IOException {
+        if (layerCount == 0 || this.composite || log) {
+            throw new IllegalStateException("The composite comes once after the layers");
+        }
+        writeTiles(composite);
+        this.composite = true;
+    }
+
+    private void writeTiles(TileSource surface) throws IOException {
+        TileGrid surfaceGrid = surface.getGrid();
+        if (surfaceGrid.width != grid.width || surfaceGrid.height != grid.height
+                || surfaceGrid.tileSize != grid.tileSize) {
+            throw new IllegalArgumentException("Surfaces must share the same tiles");
+        }
+        for (int tile = 0; tile < grid.getTileCount(); tile++) {
+            if (surface.isUniform(tile)) {
+                tileEntries.writeLong(0);
+                tileEntries.writeInt(0);
+                tileEntries.writeInt(surface.getUniformColor(tile));
+                continue;
+            }
+            int width = grid.tileWidth(tile);
+            int height = grid.tileHeight(tile);
+            surface.getPixels(pixels, grid.tileLeft(tile), grid.tileTop(tile), width, height);
+            DrawyFile.toPlanes(pixels, planes, width * height);
+            int length = lz4.compress(planes, 0, 4 * width * height, compressed, 0);
+            tileEntries.writeLong(writeData(compressed, length));
+            tileEntries.writeInt(length);
+            tileEntries.writeInt((int) crc.getValue());
+        }
+    }
+
+    // appends data, returns its offset, its CRC32 being left in crc
+    private long writeData(byte[] data, int length) throws IOException {
+        long offset = out.size();
+        crc.reset();
+        crc.update(data, 0, length);
+        out.write(data, 0, length);
+        return offset;
+    }
+
+    // the operations of log, to edit the drawing further
+    void writeLog(DrawingLog log) throws IOException {
+        if (layerCount == 0 || this.log) {
+            throw new IllegalStateException("The log comes once after the layers");
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(log.getByteSize() + 4);
+        DataOutputStream words = new DataOutputStream(bytes);
+        int[] opWords = new int[64];
+        words.writeInt(log.size());
+        for (int op = 0; op < log.size(); op++) {
+            int length = log.getLength(op);
+            if (opWords.length < length) {
+                opWords = new int[Math.max(length, opWords.length * 2)];
+            }
+            log.getWords(op, opWords, 0);
+            words.writeInt(length);
+            for (int i = 0; i < length; i++) {
+                words.writeInt(opWords[i]);
+            }
+        }
+        byte[] raw = bytes.toByteArray();
+        byte[] data = new byte[Lz4.maxCompressedLength(raw.length)];
+        logLength = lz4.compress(raw, 0, raw.length, data, 0);
+        logRawLength = raw.length;
+        logOffset = writeData(data, logLength);
+        logCrc = (int) crc.getValue();
+        this.log = true;
+    }
+
+    // the next image of the log, encoded by image
+    void writeImage(SaveQueue.Encoder image) throws IOException {
+        if (!log) {
+            throw new IllegalStateException("Images come after the log");
+        }
+        long offset = out.size();
+        crc.reset();
+        CheckedOutputStream checked = new CheckedOutputStream(out, crc);
+        image.encode(checked);
+        checked.flush();
+        imageEntries.writeLong(offset);
+        imageEntries.writeInt((int) (out.size() - offset));
+        imageEntries.writeInt((int) crc.getValue());
+        imageCount++;
+    }
+
+    // writes the index, the stream is left open
+    void finish() throws IOException {
+        if (layerCount == 0) {
+            throw new IllegalStateException("No layer");
+        }
+        ByteArrayOutputStream indexBytes = new ByteArrayOutputStream();
+        DataOutputStream index = new DataOutputStream(indexBytes);
+        index.writeInt(grid.width);
+        index.writeInt(grid.height);
+        index.writeInt(grid.tileSize);
+        index.writeInt((composite ? DrawyFile.FLAG_COMPOSITE : 0) | (log ? DrawyFile.FLAG_LOG : 0));
+        index.writeInt(layerCount);
+        layerBytes.writeTo(index);
+        tileBytes.writeTo(index);
+        if (log) {
+            index.writeLong(logOffset);
+            index.writeInt(logLength);
+            index.writeInt(logRawLength);
+            index.writeInt(logCrc);
+            index.writeInt(imageCount);
+            imageBytes.writeTo(index);
+        }
+        byte[] data = indexBytes.toByteArray();
+        long offset = writeData(data, data.length);
+        // DataOutputStream stops counting there
+        if (out.size() == Integer.MAX_VALUE) {
+            throw new IOException("Projects are limited to 2 GB");
+        }
+        out.writeLong(offset);
+        out.writeInt(data.length);
+        out.writeInt((int) crc.getValue());
+        out.writeInt(DrawyFile.END_MAGIC);
+        out.flush();
+    }
+}
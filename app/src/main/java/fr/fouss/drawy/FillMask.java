@@ -0,0 +1,69 @@
+package fr.fouss.drawy;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.PorterDuff;
+import android.graphics.Rect;
+
+/**
+ * Draws the 1 bit masks of {@link DrawingLog#fill} operations: the set runs of each row are drawn
+ * into an ALPHA_8 bitmap, which is then drawn tinted with the fill color. The bitmap is kept for
+ * the next masks and only grown.
+ */
+class FillMask {
+
+    private final Paint runPaint = new Paint();
+    private final Paint tintPaint = new Paint();
+    private final Rect src = new Rect();
+    private final Rect dst = new Rect();
+    private Bitmap bitmap = null;
+    private Canvas bitmapCanvas;
+
+    void draw(Canvas canvas, int[] mask, int offset, int left, int top, int width, int height, int color) {
+        if (width == 0 || height == 0) {
+            return;
+        }
+        if (bitmap == null || bitmap.getWidth() < width || bitmap.getHeight() < height) {
+            int bitmapWidth = bitmap == null ? width : Math.max(width, bitmap.getWidth());
+            int bitmapHeight = bitmap == null ? height : Math.max(height, bitmap.getHeight());
+            recycle();
+            bitmap = Bitmap.createBitmap(bitmapWidth, bitmapHeight, Bitmap.Config.ALPHA_8);
+            bitmapCanvas = new Canvas(bitmap);
+        }
+        src.set(0, 0, width, height);
+        bitmapCanvas.save();
+        bitmapCanvas.clipRect(src);
+        bitmapCanvas.drawColor(0, PorterDuff.Mode.CLEAR);
+        bitmapCanvas.restore();
+
+        int wordsPerRow = DrawingLog.maskWordsPerRow(width);
+        for (int y = 0; y < height; y++) {
+            int row = offset + y * wordsPerRow;
+            int x = 0;
+            while (x < width) {
+                if ((mask[row + (x >>> 5)] & 1 << x) == 0) {
+                    x++;
+                    continue;
+                }
+                int runStart = x;
+                while (x < width && (mask[row + (x >>> 5)] & 1 << x) != 0) {
+                    x++;
+                }
+                bitmapCanvas.drawRect(runStart, y, x, y + 1, runPaint);
+            }
+        }
+
+        tintPaint.setColor(color);
+        dst.set(left, top, left + width, top + height);
+        canvas.drawBitmap(bitmap, src, dst, tintPaint);
+    }
+
+    void recycle() {
+        if (bitmap != null) {
+            bitmap.recycle();
+            bitmap = null;
+            bitmapCanvas = null;
+        }
+    }
+}
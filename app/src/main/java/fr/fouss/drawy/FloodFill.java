@@ -0,0 +1,328 @@
+package fr.fouss.drawy;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Scanline flood fill over a block of ARGB pixels: finds the 4-connected area around a seed
+ * whose colors are within a tolerance of the seed color.
+ *
+ * Pixels are classified into one bit each, rows padded to whole longs so that bands of rows can
+ * be classified on several threads without sharing a word. The area is then grown span by span
+ * over the bits, with a primitive int stack. Rows are only classified once the area reaches
+ * them, so small fills stay cheap on large images, and once a fill turns out large the rows left
+ * are classified ahead on the workers. The result only depends on the pixels, whatever the
+ * number of threads.
+ */
+class FloodFill {
+
+    // below this many pixels per band, threading costs more than it saves
+    private static final int MIN_BAND_PIXELS = 256 * 1024;
+    // a fill that reached this fraction of the rows is likely to cover most of the image
+    private static final int LARGE_FILL_ROWS = 4;
+
+    private final int width;
+    private final int height;
+    private final int wordsPerRow;
+    // pixels within the tolerance that aren't filled yet
+    private final long[] candidates;
+    private final long[] filled;
+    private final boolean[] classified;
+    private int classifiedRows = 0;
+    // the fill in progress, for the rows classified on the way
+    private int[] pixels;
+    private int seed;
+    private int tolerance;
+
+    // spans to look around: y, left, right (inclusive)
+    private int[] stack = new int[3 * 256];
+    private int stackSize = 0;
+
+    private int count = 0;
+    private int left;
+    private int top;
+    private int right;
+    private int bottom;
+
+    private ExecutorService workers = null;
+    private int parallelism = 1;
+
+    FloodFill(int width, int height) {
+        this.width = width;
+        this.height = height;
+        wordsPerRow = (width + 63) >>> 6;
+        candidates = new long[wordsPerRow * height];
+        filled = new long[wordsPerRow * height];
+        classified = new boolean[height];
+    }
+
+    /**
+     * @param workers classifies bands of rows for large fills, null to do it on the calling thread
+     */
+    void setWorkers(ExecutorService workers, int parallelism) {
+        this.workers = workers;
+        this.parallelism = Math.max(1, parallelism);
+    }
+
+    int getWidth() {
+        return width;
+    }
+
+    int getHeight() {
+        return height;
+    }
+
+    /**
+     * Finds the area to fill from (x;y), the pixels themselves aren't modified.
+     * @param pixels width * height non-premultiplied ARGB pixels, rows packed
+     * @param tolerance largest difference of any channel with the seed color, 0 for the exact color
+     * @return the number of pixels in the area, 0 when the seed is outside
+     */
+    int fill(int[] pixels, int x, int y, int tolerance) {
+        Arrays.fill(filled, 0);
+        count = 0;
+        left = Integer.MAX_VALUE;
+        top = Integer.MAX_VALUE;
+        right = Integer.MIN_VALUE;
+        bottom = Integer.MIN_VALUE;
+        if (x < 0 || y < 0 || x >= width || y >= height) {
+            return 0;
+        }
+
+        Arrays.fill(classified, false);
+        classifiedRows = 0;
+        this.pixels = pixels;
+        this.seed = pixels[y * width + x];
+        this.tolerance = tolerance;
+
+        stackSize = 0;
+        classifyRow(y);
+        fillSpan(y, x);
+        while (stackSize > 0) {
+            stackSize -= 3;
+            int spanY = stack[stackSize];
+            int spanLeft = stack[stackSize + 1];
+            int spanRight = stack[stackSize + 2];
+            for (int nextY = spanY - 1; nextY <= spanY + 1; nextY += 2) {
+                if (nextY < 0 || nextY >= height) {
+                    continue;
+                }
+                classifyRow(nextY);
+                int from = spanLeft;
+                while (from <= spanRight) {
+                    int candidate = nextCandidate(nextY, from, spanRight);
+                    if (candidate < 0) {
+                        break;
+                    }
+                    // the pixel after a span is never a candidate
+                    from = fillSpan(nextY, candidate) + 2;
+                }
+            }
+        }
+        this.pixels = null;
+        return count;
+    }
+
+    int getCount() {
+        return count;
+    }
+
+    // bounds of the filled area, right and bottom excluded
+    int getLeft() {
+        return left;
+    }
+
+    int getTop() {
+        return top;
+    }
+
+    int getRight() {
+        return right;
+    }
+
+    int getBottom() {
+        return bottom;
+    }
+
+    boolean isFilled(int x, int y) {
+        return (filled[y * wordsPerRow + (x >>> 6)] & 1L << x) != 0;
+    }
+
+    /**
+     * Writes the filled pixels of the bounds as one bit each, in the mask layout of
+     * {@link DrawingLog#fill}.
+     */
+    void writeMaskBits(int[] dst, int offset) {
+        int w = right - left;
+        int dstWordsPerRow = DrawingLog.maskWordsPerRow(w);
+        for (int y = top; y < bottom; y++) {
+            int row = y * wordsPerRow;
+            int dstRow = offset + (y - top) * dstWordsPerRow;
+            Arrays.fill(dst, dstRow, dstRow + dstWordsPerRow, 0);
+            for (int x = left; x < right; x++) {
+                if ((filled[row + (x >>> 6)] & 1L << x) != 0) {
+                    dst[dstRow + ((x - left) >>> 5)] |= 1 << (x - left);
+                }
+            }
+        }
+    }
+
+    private void classifyRow(int y) {
+        if (classified[y]) {
+            return;
+        }
+        classify(y, y + 1);
+        classified[y] = true;
+        classifiedRows++;
+        if (workers != null && classifiedRows == height / LARGE_FILL_ROWS) {
+            classifyAll();
+        }
+    }
+
+    // the rest of a fill this large is classified ahead in parallel bands
+    private void classifyAll() {
+        int bands = Math.min(parallelism, Math.max(1, width * (height - classifiedRows) / MIN_BAND_PIXELS));
+        if (bands < 2) {
+            return;
+        }
+        List<Callable<Void>> tasks = new ArrayList<>(bands);
+        for (int band = 0; band < bands; band++) {
+            final int firstRow = band * height / bands;
+            final int endRow = (band + 1) * height / bands;
+            tasks.add(() -> {
+                for (int y = firstRow; y < endRow; y++) {
+                    if (!classified[y]) {
+                        classify(y, y + 1);
+                    }
+                }
+                return null;
+            });
+        }
+        runAll(tasks);
+        Arrays.fill(classified, true);
+        classifiedRows = height;
+    }
+
+    private void classify(int firstRow, int endRow) {
+        int seedA = seed >>> 24;
+        int seedR = seed >> 16 & 0xff;
+        int seedG = seed >> 8 & 0xff;
+        int seedB = seed & 0xff;
+        for (int y = firstRow; y < endRow; y++) {
+            int offset = y * width;
+            int row = y * wordsPerRow;
+            for (int word = 0; word < wordsPerRow; word++) {
+                long bits = 0;
+                int end = Math.min(64, width - (word << 6));
+                for (int bit = 0; bit < end; bit++) {
+                    int color = pixels[offset++];
+                    if (color == seed
+                            || Math.abs((color >>> 24) - seedA) <= tolerance
+                            && Math.abs((color >> 16 & 0xff) - seedR) <= tolerance
+                            && Math.abs((color >> 8 & 0xff) - seedG) <= tolerance
+                            && Math.abs((color & 0xff) - seedB) <= tolerance) {
+                        bits |= 1L << bit;
+                    }
+                }
+                candidates[row + word] = bits;
+            }
+        }
+    }
+
+    // fills the candidate span through x on row y and queues it, returns its right end
+    private int fillSpan(int y, int x) {
+        int row = y * wordsPerRow;
+        int spanLeft = spanStart(row, x);
+        int spanRight = spanEnd(row, x);
+        int firstWord = spanLeft >>> 6;
+        int lastWord = spanRight >>> 6;
+        for (int word = firstWord; word <= lastWord; word++) {
+            long mask = -1L;
+            if (word == firstWord) {
+                mask &= -1L << spanLeft;
+            }
+            if (word == lastWord) {
+                mask &= -1L >>> (63 - (spanRight & 63));
+            }
+            candidates[row + word] &= ~mask;
+            filled[row + word] |= mask;
+        }
+
+        count += spanRight - spanLeft + 1;
+        left = Math.min(left, spanLeft);
+        right = Math.max(right, spanRight + 1);
+        top = Math.min(top, y);
+        bottom = Math.max(bottom, y + 1);
+
+        if (stackSize + 3 > stack.length) {
+            stack = Arrays.copyOf(stack, stack.length * 2);
+        }
+        stack[stackSize++] = y;
+        stack[stackSize++] = spanLeft;
+        stack[stackSize++] = spanRight;
+        return spanRight;
+    }
+
+    // first candidate of row y in [from;to], -1 if none
+    private int nextCandidate(int y, int from, int to) {
+        int row = y * wordsPerRow;
+        int word = from >>> 6;
+        int lastWord = to >>> 6;
+        long bits = candidates[row + word] & -1L << from;
+        while (bits == 0) {
+            if (++word > lastWord) {
+                return -1;
+            }
+            bits = candidates[row + word];
+        }
+        int x = (word << 6) + Long.numberOfTrailingZeros(bits);
+        return x <= to ? x : -1;
+    }
+
+    // first x of the run of candidates through x
+    private int spanStart(int row, int x) {
+        int word = x >>> 6;
+        long gaps = ~candidates[row + word] & -1L >>> (63 - (x & 63));
+        while (gaps == 0) {
+            if (--word < 0) {
+                return 0;
+            }
+            gaps = ~candidates[row + word];
+        }
+        return (word << 6) + 64 - Long.numberOfLeadingZeros(gaps);
+    }
+
+    // last x of the run of candidates through x, the padding bits stop it at the row end
+    private int spanEnd(int row, int x) {
+        int word = x >>> 6;
+        long gaps = ~candidates[row + word] & -1L << x;
+        while (gaps == 0) {
+            if (++word == wordsPerRow) {
+                return width - 1;
+            }
+            gaps = ~candidates[row + word];
+        }
+        return (word << 6) + Long.numberOfTrailingZeros(gaps) - 1;
+    }
+
+    private void runAll(List<Callable<Void>> tasks) {
+        try {
+            for (Future<Void> result : workers.invokeAll(tasks)) {
+                result.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Fill interrupted", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package fr.fouss.drawy;
+
+/**
+ * Two-finger rotation tracking for the floating image, reusing the same vectors on every frame.
+ */
+class ImageGesture {
+
+    private final Vector2D initPointer1 = new Vector2D();
+    private final Vector2D currPointer1 = new Vector2D();
+    private final Vector2D initPointer2 = new Vector2D();
+    private final Vector2D currPointer2 = new Vector2D();
+    private final Vector2D initDiff = new Vector2D();
+    private final Vector2D currDiff = new Vector2D();
+
+    void setPointer1(float x, float y) {
+        initPointer1.set(x, y);
+        currPointer1.set(x, y);
+    }
+
+    void setPointer2(float x, float y) {
+        initPointer2.set(x, y);
+        currPointer2.set(x, y);
+    }
+
+    void movePointers(float x1, float y1, float x2, float y2) {
+        currPointer1.set(x1, y1);
+        currPointer2.set(x2, y2);
+    }
+
+    // signed angle from the initial to the current pointer2 - pointer1 vector
+    float getAngle() {
+        initDiff.setDiff(initPointer2, initPointer1);
+        currDiff.setDiff(currPointer2, currPointer1);
+        return Vector2D.getSignedAngleBetween(initDiff, currDiff);
+    }
+}
@@ -0,0 +1,74 @@
+package fr.fouss.drawy;
+
+import android.content.ContentResolver;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.net.Uri;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.Executor;
+
+/**
+ * Decodes images picked by the user on a worker thread, reading their bounds first so that
+ * large photos are decoded subsampled to the size they will be displayed at.
+ */
+class ImageImporter {
+
+    interface Callback {
+        void onImageImported(Bitmap image);
+
+        void onImportFailed(IOException e);
+    }
+
+    private final ContentResolver resolver;
+    private final Executor worker;
+    private final Executor callbacks;
+
+    ImageImporter(ContentResolver resolver, Executor worker, Executor callbacks) {
+        this.resolver = resolver;
+        this.worker = worker;
+        this.callbacks = callbacks;
+    }
+
+    void importImage(Uri uri, int targetWidth, int targetHeight, float scale, Callback callback) {
+        worker.execute(() -> {
+            try {
+                Bitmap image = decode(uri, targetWidth, targetHeight, scale);
+                callbacks.execute(() -> callback.onImageImported(image));
+            } catch (IOException e) {
+                callbacks.execute(() -> callback.onImportFailed(e));
+            }
+        });
+    }
+
+    private Bitmap decode(Uri uri, int targetWidth, int targetHeight, float scale) throws IOException {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        try (InputStream in = open(uri)) {
+            BitmapFactory.decodeStream(in, null, options);
+        }
+
+        options.inSampleSize = ImageSampling.computeInSampleSize(options.outWidth, options.outHeight,
+                targetWidth, targetHeight, scale);
+        options.inJustDecodeBounds = false;
+        Bitmap image;
+        try (InputStream in = open(uri)) {
+            image = BitmapFactory.decodeStream(in, null, options);
+        } catch (OutOfMemoryError e) {
+            throw new IOException("Not enough memory to decode " + uri, e);
+        }
+        if (image == null) {
+            throw new IOException("Cannot decode " + uri);
+        }
+        return image;
+    }
+
+    private InputStream open(Uri uri) throws IOException {
+        InputStream in = resolver.openInputStream(uri);
+        if (in == null) {
+            throw new IOException("Cannot open " + uri);
+        }
+        return in;
+    }
+}
@@ -0,0 +1,134 @@
+package fr.fouss.drawy;
+
+/**
+ * Sizing and downsampling rules of the mipmap levels a floating image is drawn from while it is
+ * scaled down. Level n is the image halved n times, each pixel averaging the 2x2 block under it.
+ */
+final class ImagePyramid {
+
+    // levels stop once the image would get smaller than this on either side
+    static final int MIN_LEVEL_SIZE = 32;
+    // side of the blocks downsampleRegion reads, a multiple of the scale of levels up to 9
+    static final int BLOCK_SIZE = 512;
+    private static final int MAX_REGION_LEVEL = 9;
+
+    // pixels read by region, rows packed
+    interface Source {
+        void getPixels(int[] dst, int x, int y, int w, int h);
+    }
+
+    private ImagePyramid() {}
+
+    // size of a side at the next level, odd sides keeping their last pixel
+    static int halfSize(int size) {
+        return (size + 1) / 2;
+    }
+
+    // size of a side halved level times
+    static int levelSize(int size, int level) {
+        return (size + (1 << level) - 1) >> level;
+    }
+
+    // number of levels including the image itself
+    static int levelCount(int width, int height) {
+        int count = 1;
+        while (Math.min(width, height) >= 2 * MIN_LEVEL_SIZE) {
+            width = halfSize(width);
+            height = halfSize(height);
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Smallest level still having at least one pixel per screen pixel at the given scale,
+     * so that filtering it never skips source pixels.
+     */
+    static int levelForScale(float scale, int levelCount) {
+        int level = 0;
+        while (level + 1 < levelCount && scale * (2 << level) <= 1) {
+            level++;
+        }
+        return level;
+    }
+
+    /**
+     * Averages each 2x2 block of src into dst, in premultiplied space so that transparent pixels
+     * don't darken their neighbours. Both hold non-premultiplied ARGB, rows packed.
+     */
+    static void downsample(int[] src, int width, int height, int[] dst) {
+        int halfWidth = halfSize(width);
+        int halfHeight = halfSize(height);
+        for (int y = 0; y < halfHeight; y++) {
+            int y0 = 2 * y;
+            int y1 = Math.min(y0 + 1, height - 1);
+            for (int x = 0; x < halfWidth; x++) {
+                int x0 = 2 * x;
+                int x1 = Math.min(x0 + 1, width - 1);
+                int c00 = src[y0 * width + x0];
+                int c01 = src[y0 * width + x1];
+                int c10 = src[y1 * width + x0];
+                int c11 = src[y1 * width + x1];
+                if (c00 == c01 && c00 == c10 && c00 == c11) {
+                    dst[y * halfWidth + x] = c00;
+                    continue;
+                }
+                int a00 = c00 >>> 24;
+                int a01 = c01 >>> 24;
+                int a10 = c10 >>> 24;
+                int a11 = c11 >>> 24;
+                int alpha = a00 + a01 + a10 + a11;
+                if (alpha == 0) {
+                    dst[y * halfWidth + x] = 0;
+                    continue;
+                }
+                int red = (c00 >> 16 & 0xff) * a00 + (c01 >> 16 & 0xff) * a01
+                        + (c10 >> 16 & 0xff) * a10 + (c11 >> 16 & 0xff) * a11;
+                int green = (c00 >> 8 & 0xff) * a00 + (c01 >> 8 & 0xff) * a01
+                        + (c10 >> 8 & 0xff) * a10 + (c11 >> 8 & 0xff) * a11;
+                int blue = (c00 & 0xff) * a00 + (c01 & 0xff) * a01
+                        + (c10 & 0xff) * a10 + (c11 & 0xff) * a11;
+                // back to straight colors, rounded
+                dst[y * halfWidth + x] = (alpha + 2) / 4 << 24
+                        | (red + alpha / 2) / alpha << 16
+                        | (green + alpha / 2) / alpha << 8
+                        | (blue + alpha / 2) / alpha;
+            }
+        }
+    }
+
+    /**
+     * Writes the given level of the width x height region at (x;y) of source into dst, rows
+     * packed. The region is read by blocks so that memory stays bounded whatever the level, the
+     * result being the same as downsampling all of it level times.
+     * @param block holds BLOCK_SIZE * BLOCK_SIZE pixels, as does half
+     */
+    static void downsampleRegion(Source source, int x, int y, int width, int height, int level,
+                                 int[] dst, int[] block, int[] half) {
+        if (level > MAX_REGION_LEVEL) {
+            throw new IllegalArgumentException("Level " + level + " doesn't divide blocks");
+        }
+        int dstWidth = levelSize(width, level);
+        for (int blockY = 0; blockY < height; blockY += BLOCK_SIZE) {
+            for (int blockX = 0; blockX < width; blockX += BLOCK_SIZE) {
+                int w = Math.min(BLOCK_SIZE, width - blockX);
+                int h = Math.min(BLOCK_SIZE, height - blockY);
+                source.getPixels(block, x + blockX, y + blockY, w, h);
+                int[] src = block;
+                int[] next = half;
+                for (int i = 0; i < level; i++) {
+                    downsample(src, w, h, next);
+                    w = halfSize(w);
+                    h = halfSize(h);
+                    int[] swap = src;
+                    src = next;
+                    next = swap;
+                }
+                int offset = (blockY >> level) * dstWidth + (blockX >> level);
+                for (int row = 0; row < h; row++) {
+                    System.arraycopy(src, row * w, dst, offset + row * dstWidth, w);
+                }
+            }
+        }
+    }
+}
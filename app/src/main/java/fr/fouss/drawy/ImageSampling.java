@@ -0,0 +1,41 @@
+package fr.fouss.drawy;
+
+/**
+ * Sizing rules for decoding imported images no larger than they can be displayed.
+ */
+final class ImageSampling {
+
+    private ImageSampling() {}
+
+    /**
+     * Largest power of two to divide the source size by, so that the image fitted inside the
+     * target box and then scaled by scale still has at least one source pixel per screen pixel.
+     *
+     * @return 1 when the source is already small enough or its size is unknown
+     */
+    static int computeInSampleSize(int sourceWidth, int sourceHeight,
+                                   int targetWidth, int targetHeight, float scale) {
+        if (sourceWidth <= 0 || sourceHeight <= 0 || targetWidth <= 0 || targetHeight <= 0 || scale <= 0) {
+            return 1;
+        }
+        // size of the fitted image on screen, relative to the source
+        double fit = Math.min((double) targetWidth / sourceWidth, (double) targetHeight / sourceHeight) * scale;
+        int sampleSize = 1;
+        while (fit * sampleSize * 2 <= 1) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    /**
+     * Scale an image decoded with {@link #computeInSampleSize} starts at, so that it is shown at
+     * the size the sampling assumed: fitted inside the target box, never enlarged. The shown size
+     * then only depends on the source size, whatever the sample size it was decoded with.
+     */
+    static float fitScale(int width, int height, int targetWidth, int targetHeight) {
+        if (width <= 0 || height <= 0 || targetWidth <= 0 || targetHeight <= 0) {
+            return 1;
+        }
+        return (float) Math.min(1, Math.min((double) targetWidth / width, (double) targetHeight / height));
+    }
+}
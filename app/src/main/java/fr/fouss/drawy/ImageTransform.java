@@ -0,0 +1,37 @@
+package fr.fouss.drawy;
+
+/**
+ * Affine transform placing an image centered on a point, rotated then scaled around that point.
+ * Values use the android.graphics.Matrix layout so they can be handed to Matrix.setValues.
+ */
+class ImageTransform {
+
+    final float[] values = new float[9];
+
+    ImageTransform() {
+        values[8] = 1;
+    }
+
+    // same as setTranslate(x - width/2, y - height/2), postRotate(degrees, x, y), postScale(scale, scale, x, y)
+    void set(int width, int height, float x, float y, float scale, float degrees) {
+        double radians = Math.toRadians(degrees);
+        float cos = (float) Math.cos(radians) * scale;
+        float sin = (float) Math.sin(radians) * scale;
+        float halfWidth = width/2;
+        float halfHeight = height/2;
+        values[0] = cos;
+        values[1] = -sin;
+        values[2] = x - cos * halfWidth + sin * halfHeight;
+        values[3] = sin;
+        values[4] = cos;
+        values[5] = y - sin * halfWidth - cos * halfHeight;
+    }
+
+    float mapX(float x, float y) {
+        return values[0] * x + values[1] * y + values[2];
+    }
+
+    float mapY(float x, float y) {
+        return values[3] * x + values[4] * y + values[5];
+    }
+}
@@ -0,0 +1,150 @@
+package fr.fouss.drawy;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free queue of touch samples from one producer thread to one consumer thread.
+ *
+ * Samples are an int and two floats stored in primitive arrays, so nothing is allocated per
+ * sample. Each side publishes its index with an ordered write once the slots are written or
+ * read, and caches the other side's index to touch the shared ones only when it looks full or
+ * empty.
+ *
+ * When the consumer is behind and the ring is full, {@link #push} keeps the samples in an
+ * overflow on the producer side; they are published first on the next push or flush, so none
+ * is lost or reordered.
+ */
+class InputRing {
+
+    interface Sink {
+        void sample(int action, float x, float y);
+    }
+
+    private final int mask;
+    private final int[] actions;
+    private final float[] xs;
+    private final float[] ys;
+
+    // next slot to write, only written by the producer
+    private final AtomicLong tail = new AtomicLong();
+    // next slot to read, only written by the consumer
+    private final AtomicLong head = new AtomicLong();
+    private long cachedHead = 0;
+    private long cachedTail = 0;
+
+    // producer side, samples waiting for room in the ring
+    private int[] overflowActions = new int[16];
+    private float[] overflowXs = new float[16];
+    private float[] overflowYs = new float[16];
+    private int overflowStart = 0;
+    private int overflowEnd = 0;
+
+    InputRing(int capacity) {
+        if (capacity <= 0 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("Capacity must be a power of two: " + capacity);
+        }
+        mask = capacity - 1;
+        actions = new int[capacity];
+        xs = new float[capacity];
+        ys = new float[capacity];
+    }
+
+    int capacity() {
+        return mask + 1;
+    }
+
+    // samples in the ring, exact from either side when the other one is idle
+    int size() {
+        return (int) (tail.get() - head.get());
+    }
+
+    ///// PRODUCER /////
+
+    /**
+     * Publishes one sample if the ring has room.
+     * @return false when the ring is full, the sample is then left out
+     */
+    boolean offer(int action, float x, float y) {
+        long t = tail.get();
+        if (t - cachedHead > mask) {
+            cachedHead = head.get();
+            if (t - cachedHead > mask) {
+                return false;
+            }
+        }
+        int slot = (int) t & mask;
+        actions[slot] = action;
+        xs[slot] = x;
+        ys[slot] = y;
+        tail.lazySet(t + 1);
+        return true;
+    }
+
+    // publishes one sample, after the ones waiting in the overflow
+    void push(int action, float x, float y) {
+        if (!flush() || !offer(action, x, y)) {
+            addOverflow(action, x, y);
+        }
+    }
+
+    /**
+     * Publishes the overflow as far as the ring has room.
+     * @return true when nothing is left waiting
+     */
+    boolean flush() {
+        while (overflowStart < overflowEnd) {
+            if (!offer(overflowActions[overflowStart], overflowXs[overflowStart], overflowYs[overflowStart])) {
+                return false;
+            }
+            overflowStart++;
+        }
+        overflowStart = 0;
+        overflowEnd = 0;
+        return true;
+    }
+
+    int getOverflowSize() {
+        return overflowEnd - overflowStart;
+    }
+
+    private void addOverflow(int action, float x, float y) {
+        if (overflowEnd == overflowActions.length) {
+            int newCapacity = overflowActions.length * 2;
+            overflowActions = Arrays.copyOf(overflowActions, newCapacity);
+            overflowXs = Arrays.copyOf(overflowXs, newCapacity);
+            overflowYs = Arrays.copyOf(overflowYs, newCapacity);
+        }
+        overflowActions[overflowEnd] = action;
+        overflowXs[overflowEnd] = x;
+        overflowYs[overflowEnd] = y;
+        overflowEnd++;
+    }
+
+    ///// CONSUMER /////
+
+    boolean isEmpty() {
+        return head.get() == tail.get();
+    }
+
+    /**
+     * Hands the published samples to sink in order, then frees their slots at once.
+     * @return the number of samples drained
+     */
+    int drain(Sink sink) {
+        long h = head.get();
+        if (h == cachedTail) {
+            cachedTail = tail.get();
+            if (h == cachedTail) {
+                return 0;
+            }
+        }
+        long end = cachedTail;
+        for (long i = h; i < end; i++) {
+            int slot = (int) i & mask;
+            sink.sample(actions[slot], xs[slot], ys[slot]);
+        }
+        head.lazySet(end);
+        return (int) (end - h);
+    }
+}
@@ -5,6 +5,7 @@ import android.net.Uri;
 import android.os.Bundle;
 import android.support.design.widget.FloatingActionButton;
 import android.support.design.widget.Snackbar;
+import android.support.v7.app.AlertDialog;
 import android.support.v7.app.AppCompatActivity;
 import android.support.v7.widget.Toolbar;
 import android.view.View;
@@ -16,6 +17,8 @@ import java.io.File;
 public class LauncherActivity extends AppCompatActivity
         implements View.OnClickListener {
 
+    private static final int DRAWING_SELECTION_CODE = 1338;
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -25,6 +28,27 @@ public class LauncherActivity extends AppCompatActivity
 
         // Button listeners
         findViewById(R.id.newImageButton).setOnClickListener(this);
+        findViewById(R.id.openDrawingButton).setOnClickListener(this);
+
+        // a journal left behind means the last drawing was not closed normally
+        if (savedInstanceState == null && SessionJournal.exists(DrawActivity.getSessionDirectory(this))) {
+            showRestoreDialog();
+        }
+    }
+
+    private void showRestoreDialog() {
+        AlertDialog.Builder builder = new AlertDialog.Builder(this);
+        builder.setMessage(getString(R.string.dialog_content_restore))
+                .setTitle(getString(R.string.dialog_title_restore));
+        builder.setPositiveButton("Yes", (dialog, id) -> {
+            Intent intent = new Intent(LauncherActivity.this, DrawActivity.class);
+            intent.putExtra(DrawActivity.EXTRA_RESTORE_SESSION, true);
+            startActivity(intent);
+        });
+        builder.setNegativeButton("No", (dialog, id) ->
+                SessionJournal.delete(DrawActivity.getSessionDirectory(this)));
+        AlertDialog dialog = builder.create();
+        dialog.show();
     }
 
     @Override
@@ -33,6 +57,36 @@ public class LauncherActivity extends AppCompatActivity
             case R.id.newImageButton:
                 startActivity(new Intent(LauncherActivity.this, DrawActivity.class));
                 break;
+            case R.id.openDrawingButton:
+                showDrawingChooser();
+                break;
+        }
+    }
+
+    // a .drawy project, opened with its layers, or any image, opened as the canvas
+    private void showDrawingChooser() {
+        Intent intent = new Intent(Intent.ACTION_GET_CONTENT);
+        intent.setType("*/*");
+        intent.addCategory(Intent.CATEGORY_OPENABLE);
+
+        try {
+            startActivityForResult(
+                    Intent.createChooser(intent, "Select a drawing to open"),
+                    DRAWING_SELECTION_CODE);
+        } catch (android.content.ActivityNotFoundException ex) {
+            Toast.makeText(this, "Please install a file manager.",
+                    Toast.LENGTH_SHORT).show();
+        }
+    }
+
+    @Override
+    protected void onActivityResult(int requestCode, int resultCode, Intent data) {
+        super.onActivityResult(requestCode, resultCode, data);
+
+        if (requestCode == DRAWING_SELECTION_CODE && resultCode == RESULT_OK && data.getData() != null) {
+            Intent intent = new Intent(LauncherActivity.this, DrawActivity.class);
+            intent.putExtra("imageUri", data.getData().toString());
+            startActivity(intent);
         }
     }
 }
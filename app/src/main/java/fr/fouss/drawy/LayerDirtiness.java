@@ -0,0 +1,93 @@
+package fr.fouss.drawy;
+
+/**
+ * Tracks what must be redrawn when the view is split in two layers: a static one showing the
+ * committed drawing, cached between frames, and a dynamic one with the live stroke and the
+ * floating image, recorded again on every change. When layers are off a single view draws
+ * everything, so changes to the drawing are routed to the dynamic side.
+ */
+class LayerDirtiness {
+
+    interface Target {
+        /**
+         * @param rect area to redraw, null for the whole layer
+         */
+        void invalidateStatic(DirtyRect rect);
+
+        void invalidateDynamic(DirtyRect rect);
+    }
+
+    private boolean layered = false;
+    private final DirtyRect staticDirty = new DirtyRect();
+    private final DirtyRect dynamicDirty = new DirtyRect();
+    private boolean staticAll = false;
+    private boolean dynamicAll = false;
+
+    boolean isLayered() {
+        return layered;
+    }
+
+    // content moves between layers, redraw both entirely
+    void setLayered(boolean layered) {
+        if (this.layered != layered) {
+            this.layered = layered;
+            staticAll = layered;
+            dynamicAll = true;
+        }
+    }
+
+    void drawingChanged(DirtyRect rect) {
+        if (layered) {
+            union(staticDirty, rect);
+        } else {
+            union(dynamicDirty, rect);
+        }
+    }
+
+    void drawingReplaced() {
+        if (layered) {
+            staticAll = true;
+        } else {
+            dynamicAll = true;
+        }
+    }
+
+    void liveChanged(DirtyRect rect) {
+        union(dynamicDirty, rect);
+    }
+
+    void liveReplaced() {
+        dynamicAll = true;
+    }
+
+    boolean isDirty() {
+        return staticAll || dynamicAll || !staticDirty.isEmpty() || !dynamicDirty.isEmpty();
+    }
+
+    /**
+     * Hands the pending areas to target, static layer first, and forgets them.
+     */
+    void flush(Target target) {
+        if (staticAll) {
+            target.invalidateStatic(null);
+        } else if (!staticDirty.isEmpty()) {
+            target.invalidateStatic(staticDirty);
+        }
+        if (dynamicAll) {
+            target.invalidateDynamic(null);
+        } else if (!dynamicDirty.isEmpty()) {
+            target.invalidateDynamic(dynamicDirty);
+        }
+        staticAll = false;
+        dynamicAll = false;
+        staticDirty.setEmpty();
+        dynamicDirty.setEmpty();
+    }
+
+    private static void union(DirtyRect dst, DirtyRect rect) {
+        if (!rect.isEmpty()) {
+            dst.set(Math.min(dst.left, rect.left), Math.min(dst.top, rect.top),
+                    Math.max(dst.right, rect.right), Math.max(dst.bottom, rect.bottom));
+        }
+    }
+}
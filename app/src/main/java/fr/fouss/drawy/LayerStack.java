@@ -0,0 +1,381 @@
+package fr.fouss.drawy;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Layers of a drawing, flattened bottom to top into a cached composite. Changes only mark the
+ * tiles they touched and {@link #update} blends the layers again on those tiles alone, so the
+ * composite shown each frame costs the same whatever the number of layers. Tiles where every
+ * layer is uniform are blended as a single pixel.
+ *
+ * Each layer has an opacity and one of the separable blend modes of the W3C compositing spec,
+ * computed on premultiplied colors with integer arithmetic. A lone layer at full opacity is its
+ * own composite, which is then left alone.
+ */
+class LayerStack<L extends TiledSurface> {
+
+    static final int MODE_NORMAL = 0;
+    static final int MODE_MULTIPLY = 1;
+    static final int MODE_SCREEN = 2;
+    static final int MODE_OVERLAY = 3;
+    static final int MODE_DARKEN = 4;
+    static final int MODE_LIGHTEN = 5;
+    static final int MODE_ADD = 6;
+    static final int MODE_COUNT = 7;
+
+    private final PixelSurface composite;
+    private final TileGrid grid;
+    // layers past layerCount were dropped but are kept, e.g. for a redo to draw into them again
+    private final List<L> layers = new ArrayList<>();
+    private int layerCount = 0;
+    private int[] opacities = new int[4];
+    private int[] modes = new int[4];
+
+    private final long[] dirtyTiles;
+    private int dirtyCount = 0;
+    // false while the first layer is the composite, every tile is outdated once it isn't anymore
+    private boolean compositeValid = false;
+
+    private final int[] tilePixels;
+    private final int[] layerPixels;
+
+    /**
+     * @param composite receives the flattened layers, of the size of the layers
+     * @param grid the tiles of the layers
+     */
+    LayerStack(PixelSurface composite, TileGrid grid) {
+        if (composite.getWidth() != grid.width || composite.getHeight() != grid.height) {
+            throw new IllegalArgumentException("The composite must have the size of the layers");
+        }
+        this.composite = composite;
+        this.grid = grid;
+        dirtyTiles = new long[(grid.getTileCount() + 63) / 64];
+        tilePixels = new int[grid.tileSize * grid.tileSize];
+        layerPixels = new int[grid.tileSize * grid.tileSize];
+    }
+
+    ///// LAYERS /////
+
+    int getLayerCount() {
+        return layerCount;
+    }
+
+    L getLayer(int layer) {
+        checkLayer(layer);
+        return layers.get(layer);
+    }
+
+    /**
+     * Adds layer on top of the others, fully opaque in normal mode. The dropped layers are
+     * forgotten.
+     */
+    void addLayer(L layer) {
+        TileGrid layerGrid = layer.getGrid();
+        if (layerGrid.width != grid.width || layerGrid.height != grid.height
+                || layerGrid.tileSize != grid.tileSize) {
+            throw new IllegalArgumentException("Layers must share the same tiles");
+        }
+        removeDroppedLayers();
+        layers.add(layer);
+        if (layerCount == opacities.length) {
+            opacities = Arrays.copyOf(opacities, layerCount * 2);
+            modes = Arrays.copyOf(modes, layerCount * 2);
+        }
+        opacities[layerCount] = 255;
+        modes[layerCount] = MODE_NORMAL;
+        layerCount++;
+        markAllDirty();
+    }
+
+    // layers kept past the count, the first ones of them being brought back by setLayerCount
+    int getDroppedLayerCount() {
+        return layers.size() - layerCount;
+    }
+
+    /**
+     * Drops the layers from count on, or brings dropped ones back, fully opaque in normal mode.
+     * Dropped layers keep their pixels.
+     */
+    void setLayerCount(int count) {
+        if (count < 1 || count > layers.size()) {
+            throw new IllegalArgumentException("Invalid layer count " + count);
+        }
+        if (count == layerCount) {
+            return;
+        }
+        for (int layer = layerCount; layer < count; layer++) {
+            opacities[layer] = 255;
+            modes[layer] = MODE_NORMAL;
+        }
+        layerCount = count;
+        markAllDirty();
+    }
+
+    // forgets the dropped layers, e.g. once nothing can redo into them anymore
+    void removeDroppedLayers() {
+        while (layers.size() > layerCount) {
+            layers.remove(layers.size() - 1);
+        }
+    }
+
+    int getOpacity(int layer) {
+        checkLayer(layer);
+        return opacities[layer];
+    }
+
+    // from 0, hidden, to 255
+    void setOpacity(int layer, int opacity) {
+        checkLayer(layer);
+        if (opacity < 0 || opacity > 255) {
+            throw new IllegalArgumentException("Invalid opacity " + opacity);
+        }
+        if (opacities[layer] != opacity) {
+            opacities[layer] = opacity;
+            markAllDirty();
+        }
+    }
+
+    int getMode(int layer) {
+        checkLayer(layer);
+        return modes[layer];
+    }
+
+    void setMode(int layer, int mode) {
+        checkLayer(layer);
+        if (mode < 0 || mode >= MODE_COUNT) {
+            throw new IllegalArgumentException("Unknown blend mode " + mode);
+        }
+        if (modes[layer] != mode) {
+            modes[layer] = mode;
+            markAllDirty();
+        }
+    }
+
+    private void checkLayer(int layer) {
+        if (layer < 0 || layer >= layerCount) {
+            throw new IndexOutOfBoundsException("No layer " + layer);
+        }
+    }
+
+    // the first layer is the composite, any mode leaving a layer over nothing as it is
+    boolean isFlat() {
+        return layerCount == 1 && opacities[0] == 255;
+    }
+
+    ///// COMPOSITE /////
+
+    // the layers changed over [left;right[ x [top;bottom[
+    void markDirty(int left, int top, int right, int bottom) {
+        int lastColumn = grid.lastColumn(right);
+        int lastRow = grid.lastRow(bottom);
+        for (int row = grid.firstRow(top); row <= lastRow; row++) {
+            for (int column = grid.firstColumn(left); column <= lastColumn; column++) {
+                int tile = grid.tile(column, row);
+                if ((dirtyTiles[tile >> 6] & (1L << tile)) == 0) {
+                    dirtyTiles[tile >> 6] |= 1L << tile;
+                    dirtyCount++;
+                }
+            }
+        }
+    }
+
+    void markAllDirty() {
+        markDirty(0, 0, grid.width, grid.height);
+    }
+
+    int getDirtyTileCount() {
+        return dirtyCount;
+    }
+
+    // the composite already holds the blended layers, e.g. read back with them from a file
+    void markClean() {
+        Arrays.fill(dirtyTiles, 0);
+        dirtyCount = 0;
+        compositeValid = !isFlat();
+    }
+
+    /**
+     * Blends the layers again on the tiles marked since the last update.
+     * @return the number of tiles blended, none while the stack is flat
+     */
+    int update() {
+        if (isFlat()) {
+            Arrays.fill(dirtyTiles, 0);
+            dirtyCount = 0;
+            compositeValid = false;
+            return 0;
+        }
+        if (!compositeValid) {
+            markAllDirty();
+            compositeValid = true;
+        }
+        int count = 0;
+        for (int word = 0; word < dirtyTiles.length && dirtyCount > 0; word++) {
+            long bits = dirtyTiles[word];
+            dirtyTiles[word] = 0;
+            while (bits != 0) {
+                compositeTile((word << 6) + Long.numberOfTrailingZeros(bits));
+                bits &= bits - 1;
+                dirtyCount--;
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private void compositeTile(int tile) {
+        int left = grid.tileLeft(tile);
+        int top = grid.tileTop(tile);
+        int width = grid.tileWidth(tile);
+        int height = grid.tileHeight(tile);
+        int count = width * height;
+
+        int uniform = 0;
+        boolean allUniform = true;
+        for (int layer = 0; layer < layerCount && allUniform; layer++) {
+            L surface = layers.get(layer);
+            if (opacities[layer] == 0) {
+                continue;
+            }
+            if (surface.isUniform(tile)) {
+                uniform = blend(uniform, premultiply(surface.getUniformColor(tile)), opacities[layer], modes[layer]);
+            } else {
+                allUniform = false;
+            }
+        }
+        if (allUniform) {
+            Arrays.fill(tilePixels, 0, count, unpremultiply(uniform));
+            composite.setPixels(tilePixels, left, top, width, height);
+            return;
+        }
+
+        Arrays.fill(tilePixels, 0, count, 0);
+        for (int layer = 0; layer < layerCount; layer++) {
+            L surface = layers.get(layer);
+            if (opacities[layer] == 0) {
+                continue;
+            }
+            if (surface.isUniform(tile)) {
+                int color = premultiply(surface.getUniformColor(tile));
+                // a transparent source leaves the backdrop as it is in every mode
+                if (color == 0) {
+                    continue;
+                }
+                Arrays.fill(layerPixels, 0, count, color);
+            } else {
+                surface.getPixels(layerPixels, left, top, width, height);
+                StampBrush.premultiply(layerPixels, count);
+            }
+            blend(tilePixels, layerPixels, count, opacities[layer], modes[layer]);
+        }
+        StampBrush.unpremultiply(tilePixels, count);
+        composite.setPixels(tilePixels, left, top, width, height);
+    }
+
+    ///// BLENDING /////
+
+    /**
+     * Blends src over dst, both premultiplied ARGB, the result going to dst.
+     */
+    static void blend(int[] dst, int[] src, int count, int opacity, int mode) {
+        if (mode == MODE_NORMAL && opacity == 255) {
+            for (int i = 0; i < count; i++) {
+                int s = src[i];
+                int sa = s >>> 24;
+                if (sa == 255) {
+                    dst[i] = s;
+                } else if (sa != 0) {
+                    dst[i] = over(dst[i], s, sa);
+                }
+            }
+            return;
+        }
+        for (int i = 0; i < count; i++) {
+            if (src[i] != 0) {
+                dst[i] = blend(dst[i], src[i], opacity, mode);
+            }
+        }
+    }
+
+    static int blend(int dst, int src, int opacity, int mode) {
+        if (opacity != 255) {
+            src = StampBrush.div255((src >>> 24) * opacity) << 24
+                    | StampBrush.div255(((src >> 16) & 0xff) * opacity) << 16
+                    | StampBrush.div255(((src >> 8) & 0xff) * opacity) << 8
+                    | StampBrush.div255((src & 0xff) * opacity);
+        }
+        int sa = src >>> 24;
+        if (sa == 0) {
+            return dst;
+        }
+        int da = dst >>> 24;
+        if (mode == MODE_ADD) {
+            return Math.min(255, sa + da) << 24
+                    | Math.min(255, ((src >> 16) & 0xff) + ((dst >> 16) & 0xff)) << 16
+                    | Math.min(255, ((src >> 8) & 0xff) + ((dst >> 8) & 0xff)) << 8
+                    | Math.min(255, (src & 0xff) + (dst & 0xff));
+        }
+        if (mode == MODE_NORMAL) {
+            return sa == 255 ? src : over(dst, src, sa);
+        }
+        return (sa + da - StampBrush.div255(sa * da)) << 24
+                | channel(mode, (src >> 16) & 0xff, (dst >> 16) & 0xff, sa, da) << 16
+                | channel(mode, (src >> 8) & 0xff, (dst >> 8) & 0xff, sa, da) << 8
+                | channel(mode, src & 0xff, dst & 0xff, sa, da);
+    }
+
+    private static int over(int dst, int src, int sa) {
+        int inverse = 255 - sa;
+        return (sa + StampBrush.div255((dst >>> 24) * inverse)) << 24
+                | (((src >> 16) & 0xff) + StampBrush.div255(((dst >> 16) & 0xff) * inverse)) << 16
+                | (((src >> 8) & 0xff) + StampBrush.div255(((dst >> 8) & 0xff) * inverse)) << 8
+                | ((src & 0xff) + StampBrush.div255((dst & 0xff) * inverse));
+    }
+
+    // s*(1-da) + d*(1-sa) + sa*da*B(s/sa, d/da), scaled by 255*255 until the last division
+    private static int channel(int mode, int s, int d, int sa, int da) {
+        int both;
+        switch (mode) {
+            case MODE_MULTIPLY:
+                both = s * d;
+                break;
+            case MODE_SCREEN:
+                both = s * da + d * sa - s * d;
+                break;
+            case MODE_OVERLAY:
+                both = 2 * d <= da ? 2 * s * d : sa * da - 2 * (da - d) * (sa - s);
+                break;
+            case MODE_DARKEN:
+                both = Math.min(s * da, d * sa);
+                break;
+            case MODE_LIGHTEN:
+                both = Math.max(s * da, d * sa);
+                break;
+            default:
+                both = s * da;
+        }
+        return Math.min(255, StampBrush.div255(Math.min(255 * 255, s * (255 - da) + d * (255 - sa) + both)));
+    }
+
+    private static int premultiply(int color) {
+        int a = color >>> 24;
+        return a << 24
+                | StampBrush.div255(((color >> 16) & 0xff) * a) << 16
+                | StampBrush.div255(((color >> 8) & 0xff) * a) << 8
+                | StampBrush.div255((color & 0xff) * a);
+    }
+
+    private static int unpremultiply(int color) {
+        int a = color >>> 24;
+        if (a == 0) {
+            return 0;
+        }
+        int half = a / 2;
+        return a << 24
+                | Math.min(255, (((color >> 16) & 0xff) * 255 + half) / a) << 16
+                | Math.min(255, (((color >> 8) & 0xff) * 255 + half) / a) << 8
+                | Math.min(255, ((color & 0xff) * 255 + half) / a);
+    }
+}
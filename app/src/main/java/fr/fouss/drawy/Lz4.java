@@ -0,0 +1,186 @@
+package fr.fouss.drawy;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * LZ4 block format: sequences of a token, literals copied as is and a match copying up to then
+ * decoded bytes from at most 64 KB back. Compression is the greedy single-probe search of the
+ * reference fast mode, decompression is little more than array copies.
+ */
+class Lz4 {
+
+    private static final int MIN_MATCH = 4;
+    // the last literals and where the last match can start, from the end of the input
+    private static final int LAST_LITERALS = 5;
+    private static final int MATCH_FIND_LIMIT = 12;
+    private static final int MAX_OFFSET = 65535;
+    private static final int HASH_LOG = 12;
+    // misses before the search skips faster through data that doesn't compress
+    private static final int SKIP_TRIGGER = 6;
+
+    // last position of each hashed 4 bytes
+    private final int[] table = new int[1 << HASH_LOG];
+
+    static int maxCompressedLength(int length) {
+        return length + length / 255 + 16;
+    }
+
+    /**
+     * Compresses src[srcOffset;srcOffset+length[ into dst from dstOffset, which must have
+     * maxCompressedLength(length) bytes left.
+     * @return the compressed length
+     */
+    int compress(byte[] src, int srcOffset, int length, byte[] dst, int dstOffset) {
+        int srcEnd = srcOffset + length;
+        int anchor = srcOffset;
+        int dp = dstOffset;
+        if (length > MATCH_FIND_LIMIT) {
+            Arrays.fill(table, -1);
+            int matchLimit = srcEnd - LAST_LITERALS;
+            int findLimit = srcEnd - MATCH_FIND_LIMIT;
+            int sp = srcOffset;
+            int misses = 1 << SKIP_TRIGGER;
+            while (sp <= findLimit) {
+                int sequence = readInt(src, sp);
+                int hash = hash(sequence);
+                int ref = table[hash];
+                table[hash] = sp;
+                if (ref < 0 || sp - ref > MAX_OFFSET || readInt(src, ref) != sequence) {
+                    sp += misses++ >>> SKIP_TRIGGER;
+                    continue;
+                }
+                misses = 1 << SKIP_TRIGGER;
+                while (sp > anchor && ref > srcOffset && src[sp - 1] == src[ref - 1]) {
+                    sp--;
+                    ref--;
+                }
+                int matchLength = MIN_MATCH;
+                while (sp + matchLength < matchLimit && src[sp + matchLength] == src[ref + matchLength]) {
+                    matchLength++;
+                }
+                dp = writeSequence(src, anchor, sp - anchor, sp - ref, matchLength, dst, dp);
+                sp += matchLength;
+                anchor = sp;
+            }
+        }
+        // the last sequence is only literals
+        int literals = srcEnd - anchor;
+        int token = dp++;
+        dst[token] = (byte) (Math.min(literals, 15) << 4);
+        dp = writeLength(literals, dst, dp);
+        System.arraycopy(src, anchor, dst, dp, literals);
+        return dp + literals - dstOffset;
+    }
+
+    private static int writeSequence(byte[] src, int literalStart, int literals, int offset, int matchLength,
+                                     byte[] dst, int dp) {
+        int token = dp++;
+        dp = writeLength(literals, dst, dp);
+        System.arraycopy(src, literalStart, dst, dp, literals);
+        dp += literals;
+        dst[dp++] = (byte) offset;
+        dst[dp++] = (byte) (offset >>> 8);
+        int extra = matchLength - MIN_MATCH;
+        dp = writeLength(extra, dst, dp);
+        dst[token] = (byte) (Math.min(literals, 15) << 4 | Math.min(extra, 15));
+        return dp;
+    }
+
+    // the bytes of a length past the 15 its token nibble holds
+    private static int writeLength(int length, byte[] dst, int dp) {
+        if (length < 15) {
+            return dp;
+        }
+        length -= 15;
+        for (; length >= 255; length -= 255) {
+            dst[dp++] = (byte) 255;
+        }
+        dst[dp++] = (byte) length;
+        return dp;
+    }
+
+    private static int readInt(byte[] bytes, int offset) {
+        return (bytes[offset] & 0xff) | (bytes[offset + 1] & 0xff) << 8
+                | (bytes[offset + 2] & 0xff) << 16 | bytes[offset + 3] << 24;
+    }
+
+    private static int hash(int sequence) {
+        return sequence * -1640531535 >>> (32 - HASH_LOG);
+    }
+
+    /**
+     * Decompresses src[srcOffset;srcOffset+length[ into exactly decodedLength bytes of dst from
+     * dstOffset.
+     * @throws IOException if the block is malformed or doesn't decode to decodedLength bytes
+     */
+    static void decompress(byte[] src, int srcOffset, int length, byte[] dst, int dstOffset, int decodedLength)
+            throws IOException {
+        int sp = srcOffset;
+        int srcEnd = srcOffset + length;
+        int dp = dstOffset;
+        int dstEnd = dstOffset + decodedLength;
+        while (true) {
+            if (sp >= srcEnd) {
+                throw new IOException("Truncated LZ4 block");
+            }
+            int token = src[sp++] & 0xff;
+            int literals = token >>> 4;
+            if (literals == 15) {
+                int next;
+                do {
+                    if (sp >= srcEnd) {
+                        throw new IOException("Truncated LZ4 block");
+                    }
+                    next = src[sp++] & 0xff;
+                    literals += next;
+                } while (next == 255 && literals < decodedLength);
+            }
+            if (literals > srcEnd - sp || literals > dstEnd - dp) {
+                throw new IOException("LZ4 literals past the end of the block");
+            }
+            System.arraycopy(src, sp, dst, dp, literals);
+            sp += literals;
+            dp += literals;
+            if (sp == srcEnd) {
+                break;
+            }
+            if (srcEnd - sp < 2) {
+                throw new IOException("Truncated LZ4 block");
+            }
+            int offset = (src[sp] & 0xff) | (src[sp + 1] & 0xff) << 8;
+            sp += 2;
+            if (offset == 0 || offset > dp - dstOffset) {
+                throw new IOException("LZ4 match before the start of the block");
+            }
+            int matchLength = token & 15;
+            if (matchLength == 15) {
+                int next;
+                do {
+                    if (sp >= srcEnd) {
+                        throw new IOException("Truncated LZ4 block");
+                    }
+                    next = src[sp++] & 0xff;
+                    matchLength += next;
+                } while (next == 255 && matchLength < decodedLength);
+            }
+            matchLength += MIN_MATCH;
+            if (matchLength > dstEnd - dp) {
+                throw new IOException("LZ4 match past the end of the block");
+            }
+            int from = dp - offset;
+            if (offset >= matchLength) {
+                System.arraycopy(dst, from, dst, dp, matchLength);
+            } else {
+                // overlapping, e.g. a run repeating its last bytes
+                for (int i = 0; i < matchLength; i++) {
+                    dst[dp + i] = dst[from + i];
+                }
+            }
+            dp += matchLength;
+        }
+        if (dp != dstEnd) {
+            throw new IOException("LZ4 block decodes to " + (dp - dstOffset) + " bytes instead of " + decodedLength);
+        }
+    }
+}
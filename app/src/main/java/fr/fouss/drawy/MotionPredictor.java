@@ -0,0 +1,114 @@
+package fr.fouss.drawy;
+
+/**
+ * Guesses where the finger will be a few milliseconds after the last touch sample, from the
+ * velocity and acceleration of the recent samples.
+ *
+ * Both are estimated from finite differences, smoothed exponentially since touch samples jitter
+ * by a pixel or so. The acceleration term is bounded by the velocity one so that a noisy
+ * estimate can bend the prediction but never throw it away from the stroke. Samples are taken
+ * raw, before {@link StrokeInput} filters them, their timing is what the prediction relies on.
+ */
+class MotionPredictor {
+
+    // about one frame, the lag of a stroke drawn as soon as its event is handled
+    static final float DEFAULT_HORIZON_MS = 16;
+    // past that, the motion of the last few samples says little of the next ones
+    static final float MAX_HORIZON_MS = 50;
+
+    // weight of the previous estimate
+    private static final float VELOCITY_SMOOTHING = 0.5f;
+    private static final float ACCELERATION_SMOOTHING = 0.7f;
+    // largest acceleration term, relative to the velocity one
+    private static final float MAX_ACCELERATION_RATIO = 0.5f;
+
+    private long lastTime;
+    private float lastX;
+    private float lastY;
+    // in pixels per millisecond, and per millisecond squared
+    private float velocityX;
+    private float velocityY;
+    private float accelerationX;
+    private float accelerationY;
+    // velocities measured since begin, up to 2 as only the first two matter
+    private int velocityCount = 0;
+
+    private float predictedX;
+    private float predictedY;
+
+    void begin(long time, float x, float y) {
+        lastTime = time;
+        lastX = x;
+        lastY = y;
+        velocityX = 0;
+        velocityY = 0;
+        accelerationX = 0;
+        accelerationY = 0;
+        velocityCount = 0;
+    }
+
+    /**
+     * Feeds a raw sample, time in milliseconds. A sample with the time of the previous one only
+     * moves the position.
+     */
+    void add(long time, float x, float y) {
+        long dt = time - lastTime;
+        if (dt > 0) {
+            float vx = (x - lastX) / dt;
+            float vy = (y - lastY) / dt;
+            if (velocityCount == 0) {
+                velocityX = vx;
+                velocityY = vy;
+                velocityCount = 1;
+            } else {
+                float ax = (vx - velocityX) / dt;
+                float ay = (vy - velocityY) / dt;
+                if (velocityCount == 1) {
+                    accelerationX = ax;
+                    accelerationY = ay;
+                    velocityCount = 2;
+                } else {
+                    accelerationX += (ax - accelerationX) * (1 - ACCELERATION_SMOOTHING);
+                    accelerationY += (ay - accelerationY) * (1 - ACCELERATION_SMOOTHING);
+                }
+                velocityX += (vx - velocityX) * (1 - VELOCITY_SMOOTHING);
+                velocityY += (vy - velocityY) * (1 - VELOCITY_SMOOTHING);
+            }
+            lastTime = time;
+        }
+        lastX = x;
+        lastY = y;
+    }
+
+    /**
+     * Predicts the position horizon milliseconds after the last sample, capped to MAX_HORIZON_MS.
+     * @return false until a velocity is known, the predicted position is then left unchanged
+     */
+    boolean predict(float horizon) {
+        if (velocityCount == 0) {
+            return false;
+        }
+        float h = Math.min(horizon, MAX_HORIZON_MS);
+        float dx = velocityX * h;
+        float dy = velocityY * h;
+        float ax = accelerationX * h * h / 2;
+        float ay = accelerationY * h * h / 2;
+        float maxLength = (float) Math.hypot(dx, dy) * MAX_ACCELERATION_RATIO;
+        float length = (float) Math.hypot(ax, ay);
+        if (length > maxLength) {
+            ax *= maxLength / length;
+            ay *= maxLength / length;
+        }
+        predictedX = lastX + dx + ax;
+        predictedY = lastY + dy + ay;
+        return true;
+    }
+
+    float getPredictedX() {
+        return predictedX;
+    }
+
+    float getPredictedY() {
+        return predictedY;
+    }
+}
@@ -0,0 +1,16 @@
+package fr.fouss.drawy;
+
+/**
+ * Rectangular block of ARGB pixels that can be read and written by region.
+ */
+interface PixelSurface {
+
+    int getWidth();
+
+    int getHeight();
+
+    // copies the w*h region at (x;y) into dst, rows packed
+    void getPixels(int[] dst, int x, int y, int w, int h);
+
+    void setPixels(int[] src, int x, int y, int w, int h);
+}
@@ -0,0 +1,468 @@
+package fr.fouss.drawy;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Streams an 8 bit RGBA PNG a few rows at a time, so an image rendered band by band never has
+ * to be held whole, neither as pixels nor as encoded bytes.
+ *
+ * Rows are given as non-premultiplied ARGB ints, as returned by Bitmap.getPixels, and filtered
+ * straight from them with whichever of the five PNG filters gives the smallest sum of absolute
+ * values, the usual heuristic.
+ *
+ * Given workers, the rows of each call are split into slices filtered then deflated in
+ * parallel, the way pigz does: each slice is a raw deflate stream primed with the last 32 KB
+ * before it as preset dictionary and ended by a sync flush, so the streams simply follow each
+ * other inside one zlib stream. The sync flush needs Deflater.SYNC_FLUSH, API 19.
+ */
+class PngWriter {
+
+    private static final byte[] SIGNATURE = {(byte) 137, 'P', 'N', 'G', '\r', '\n', 26, '\n'};
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    private static final int FILTER_NONE = 0;
+    private static final int FILTER_SUB = 1;
+    private static final int FILTER_UP = 2;
+    private static final int FILTER_AVERAGE = 3;
+    private static final int FILTER_PAETH = 4;
+
+    // byte order of a PNG pixel: R, G, B, A
+    private static final int[] CHANNEL_SHIFTS = {16, 8, 0, 24};
+
+    // deflate window, the most a preset dictionary can be used for
+    private static final int DICTIONARY_SIZE = 32 * 1024;
+    // smallest slice worth its own stream, a few dictionaries long
+    private static final int MIN_SLICE_BYTES = 128 * 1024;
+    // zlib header for the parallel stream: deflate, 32 KB window, default level
+    private static final byte[] ZLIB_HEADER = {0x78, (byte) 0x9c};
+    // final empty fixed Huffman block ending the sync flushed slices
+    private static final byte[] DEFLATE_END = {0x03, 0x00};
+
+    private final OutputStream out;
+    private final int width;
+    private final int height;
+    private final int level;
+    private final CRC32 crc = new CRC32();
+    private final byte[] header = new byte[8];
+    private final byte[] chunk = new byte[CHUNK_SIZE];
+    private int chunkLength = 0;
+    private int rowsWritten = 0;
+    // last row of the previous call, the one above the next row
+    private final int[] lastRow;
+
+    // sequential encoding
+    private Deflater deflater;
+    private RowFilter filter;
+    private byte[] filteredRow;
+
+    // parallel encoding
+    private final ExecutorService workers;
+    private final int parallelism;
+    private Slice[] slices;
+    private final byte[] dictionary;
+    private final byte[] nextDictionary;
+    private int dictionaryLength = 0;
+    private long adler = 1;
+
+    PngWriter(OutputStream out, int width, int height) throws IOException {
+        this(out, width, height, Deflater.DEFAULT_COMPRESSION, null, 1);
+    }
+
+    /**
+     * @param workers runs the slices, null to encode on the calling thread
+     * @param parallelism most slices a call is split into
+     */
+    PngWriter(OutputStream out, int width, int height, int level,
+              ExecutorService workers, int parallelism) throws IOException {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("Empty image " + width + "x" + height);
+        }
+        this.out = out;
+        this.width = width;
+        this.height = height;
+        this.level = level;
+        this.workers = workers;
+        this.parallelism = Math.max(1, parallelism);
+        lastRow = new int[width];
+        if (workers == null) {
+            deflater = new Deflater(level);
+            filter = new RowFilter(width);
+            filteredRow = new byte[rowBytes()];
+            dictionary = null;
+            nextDictionary = null;
+        } else {
+            slices = new Slice[this.parallelism];
+            dictionary = new byte[DICTIONARY_SIZE];
+            nextDictionary = new byte[DICTIONARY_SIZE];
+        }
+
+        out.write(SIGNATURE);
+        byte[] ihdr = new byte[13];
+        putInt(ihdr, 0, width);
+        putInt(ihdr, 4, height);
+        ihdr[8] = 8; // bit depth
+        ihdr[9] = 6; // RGBA
+        writeChunk("IHDR", ihdr, ihdr.length);
+        if (workers != null) {
+            writeIdat(ZLIB_HEADER, ZLIB_HEADER.length);
+        }
+    }
+
+    /**
+     * @param argb rowCount rows of width pixels, stride ints apart, only read during the call
+     */
+    void writeRows(int[] argb, int offset, int stride, int rowCount) throws IOException {
+        if (rowsWritten + rowCount > height) {
+            throw new IllegalStateException("More than " + height + " rows");
+        }
+        if (rowCount == 0) {
+            return;
+        }
+        if (workers == null) {
+            for (int r = 0; r < rowCount; r++) {
+                filterRow(argb, offset, stride, r, filter, filteredRow, 0);
+                deflater.setInput(filteredRow, 0, filteredRow.length);
+                while (!deflater.needsInput()) {
+                    drainDeflater();
+                }
+            }
+        } else {
+            writeSlices(argb, offset, stride, rowCount);
+        }
+        System.arraycopy(argb, offset + (rowCount - 1) * stride, lastRow, 0, width);
+        rowsWritten += rowCount;
+    }
+
+    // ends the image, the output stream is left open
+    void finish() throws IOException {
+        if (rowsWritten != height) {
+            throw new IllegalStateException(rowsWritten + " rows written out of " + height);
+        }
+        if (workers == null) {
+            deflater.finish();
+            while (!deflater.finished()) {
+                drainDeflater();
+            }
+            deflater.end();
+        } else {
+            writeIdat(DEFLATE_END, DEFLATE_END.length);
+            byte[] trailer = new byte[4];
+            putInt(trailer, 0, (int) adler);
+            writeIdat(trailer, trailer.length);
+            for (Slice slice : slices) {
+                if (slice != null) {
+                    slice.deflater.end();
+                }
+            }
+        }
+        if (chunkLength > 0) {
+            writeChunk("IDAT", chunk, chunkLength);
+        }
+        writeChunk("IEND", chunk, 0);
+    }
+
+    private int rowBytes() {
+        return 1 + 4 * width;
+    }
+
+    // filters row r of the call, the row above being the previous one or the last of the previous call
+    private void filterRow(int[] argb, int offset, int stride, int r, RowFilter filter, byte[] dst, int dstOffset) {
+        int start = offset + r * stride;
+        if (r > 0) {
+            filter.filter(argb, start, argb, start - stride, dst, dstOffset);
+        } else if (rowsWritten > 0) {
+            filter.filter(argb, start, lastRow, 0, dst, dstOffset);
+        } else {
+            filter.filter(argb, start, null, 0, dst, dstOffset);
+        }
+    }
+
+    private void drainDeflater() throws IOException {
+        chunkLength += deflater.deflate(chunk, chunkLength, CHUNK_SIZE - chunkLength);
+        if (chunkLength == CHUNK_SIZE) {
+            writeChunk("IDAT", chunk, chunkLength);
+            chunkLength = 0;
+        }
+    }
+
+    ///// PARALLEL /////
+
+    // a run of rows encoded by one task, its buffers kept from one call to the next
+    private static class Slice {
+        final RowFilter filter;
+        final Deflater deflater;
+        int firstRow;
+        int rowCount;
+        byte[] filtered = new byte[0];
+        int filteredLength;
+        byte[] compressed = new byte[0];
+        int compressedLength;
+        long adler;
+
+        Slice(int width, int level) {
+            filter = new RowFilter(width);
+            deflater = new Deflater(level, true);
+        }
+    }
+
+    private void writeSlices(final int[] argb, final int offset, final int stride, int rowCount)
+            throws IOException {
+        int minRows = (MIN_SLICE_BYTES + rowBytes() - 1) / rowBytes();
+        int rowsPerSlice = Math.max(minRows, (rowCount + parallelism - 1) / parallelism);
+        int sliceCount = (rowCount + rowsPerSlice - 1) / rowsPerSlice;
+        for (int s = 0; s < sliceCount; s++) {
+            if (slices[s] == null) {
+                slices[s] = new Slice(width, level);
+            }
+            slices[s].firstRow = s * rowsPerSlice;
+            slices[s].rowCount = Math.min(rowsPerSlice, rowCount - s * rowsPerSlice);
+        }
+
+        // filtering first, each slice is deflated with the end of the one before as dictionary
+        List<Callable<Void>> tasks = new ArrayList<>(sliceCount);
+        for (int s = 0; s < sliceCount; s++) {
+            final Slice slice = slices[s];
+            tasks.add(() -> {
+                filterSlice(slice, argb, offset, stride);
+                return null;
+            });
+        }
+        runAll(tasks);
+
+        tasks.clear();
+        for (int s = 0; s < sliceCount; s++) {
+            final Slice slice = slices[s];
+            final Slice previous = s > 0 ? slices[s - 1] : null;
+            tasks.add(() -> {
+                if (previous != null) {
+                    int length = Math.min(DICTIONARY_SIZE, previous.filteredLength);
+                    deflateSlice(slice, previous.filtered, previous.filteredLength - length, length);
+                } else {
+                    deflateSlice(slice, dictionary, 0, dictionaryLength);
+                }
+                return null;
+            });
+        }
+        runAll(tasks);
+
+        for (int s = 0; s < sliceCount; s++) {
+            Slice slice = slices[s];
+            writeIdat(slice.compressed, slice.compressedLength);
+            adler = adler32Combine(adler, slice.adler, slice.filteredLength);
+        }
+        // the tail of this call primes the first slice of the next one
+        int free = DICTIONARY_SIZE;
+        for (int s = sliceCount - 1; s >= 0 && free > 0; s--) {
+            int take = Math.min(free, slices[s].filteredLength);
+            free -= take;
+            System.arraycopy(slices[s].filtered, slices[s].filteredLength - take, nextDictionary, free, take);
+        }
+        int take = Math.min(free, dictionaryLength);
+        free -= take;
+        System.arraycopy(dictionary, dictionaryLength - take, nextDictionary, free, take);
+        dictionaryLength = DICTIONARY_SIZE - free;
+        System.arraycopy(nextDictionary, free, dictionary, 0, dictionaryLength);
+    }
+
+    private void filterSlice(Slice slice, int[] argb, int offset, int stride) {
+        int length = slice.rowCount * rowBytes();
+        if (slice.filtered.length < length) {
+            slice.filtered = new byte[length];
+        }
+        for (int r = 0; r < slice.rowCount; r++) {
+            filterRow(argb, offset, stride, slice.firstRow + r, slice.filter, slice.filtered, r * rowBytes());
+        }
+        slice.filteredLength = length;
+    }
+
+    private static void deflateSlice(Slice slice, byte[] dictionary, int dictionaryOffset, int dictionaryLength) {
+        Deflater deflater = slice.deflater;
+        deflater.reset();
+        if (dictionaryLength > 0) {
+            deflater.setDictionary(dictionary, dictionaryOffset, dictionaryLength);
+        }
+        deflater.setInput(slice.filtered, 0, slice.filteredLength);
+        slice.compressedLength = 0;
+        while (!deflater.needsInput()) {
+            ensureCompressedSpace(slice);
+            slice.compressedLength += deflater.deflate(slice.compressed, slice.compressedLength,
+                    slice.compressed.length - slice.compressedLength);
+        }
+        // ends on a byte boundary without a final block, a full output buffer means more to come
+        int space;
+        int written;
+        do {
+            ensureCompressedSpace(slice);
+            space = slice.compressed.length - slice.compressedLength;
+            written = deflater.deflate(slice.compressed, slice.compressedLength, space, Deflater.SYNC_FLUSH);
+            slice.compressedLength += written;
+        } while (written == space);
+
+        Adler32 checksum = new Adler32();
+        checksum.update(slice.filtered, 0, slice.filteredLength);
+        slice.adler = checksum.getValue();
+    }
+
+    private static void ensureCompressedSpace(Slice slice) {
+        if (slice.compressed.length - slice.compressedLength < 1024) {
+            slice.compressed = Arrays.copyOf(slice.compressed,
+                    Math.max(64 * 1024, slice.compressed.length * 2));
+        }
+    }
+
+    private void runAll(List<Callable<Void>> tasks) throws IOException {
+        try {
+            for (Future<Void> result : workers.invokeAll(tasks)) {
+                result.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("PNG encoding interrupted");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+
+    // checksum of two sequences from theirs and the length of the second, as zlib's adler32_combine
+    static long adler32Combine(long adler1, long adler2, long length2) {
+        final long base = 65521;
+        long remainder = length2 % base;
+        long sum1 = adler1 & 0xffff;
+        long sum2 = remainder * sum1 % base;
+        sum1 += (adler2 & 0xffff) + base - 1;
+        sum2 += (adler1 >> 16 & 0xffff) + (adler2 >> 16 & 0xffff) + base - remainder;
+        if (sum1 >= base) {
+            sum1 -= base;
+        }
+        if (sum1 >= base) {
+            sum1 -= base;
+        }
+        if (sum2 >= base << 1) {
+            sum2 -= base << 1;
+        }
+        if (sum2 >= base) {
+            sum2 -= base;
+        }
+        return sum2 << 16 | sum1;
+    }
+
+    ///// FILTERING /////
+
+    // picks the filter of a row, holding one candidate per filter
+    private static class RowFilter {
+        private final byte[][] candidates = new byte[5][];
+        private final long[] sums = new long[5];
+
+        RowFilter(int width) {
+            for (int f = 0; f < candidates.length; f++) {
+                candidates[f] = new byte[4 * width];
+            }
+        }
+
+        /**
+         * Writes the filter type then the filtered row to dst.
+         * @param above the row above, null for the first row of the image
+         */
+        void filter(int[] row, int start, int[] above, int aboveStart, byte[] dst, int dstOffset) {
+            int length = candidates[0].length;
+            Arrays.fill(sums, 0);
+            for (int i = 0; i < length; i++) {
+                int x = i >> 2;
+                int shift = CHANNEL_SHIFTS[i & 3];
+                int raw = row[start + x] >>> shift & 0xff;
+                int left = x > 0 ? row[start + x - 1] >>> shift & 0xff : 0;
+                int up = above != null ? above[aboveStart + x] >>> shift & 0xff : 0;
+                int upLeft = above != null && x > 0 ? above[aboveStart + x - 1] >>> shift & 0xff : 0;
+
+                byte none = (byte) raw;
+                byte sub = (byte) (raw - left);
+                byte upFiltered = (byte) (raw - up);
+                byte average = (byte) (raw - ((left + up) >> 1));
+                byte paeth = (byte) (raw - paethPredictor(left, up, upLeft));
+                candidates[FILTER_NONE][i] = none;
+                candidates[FILTER_SUB][i] = sub;
+                candidates[FILTER_UP][i] = upFiltered;
+                candidates[FILTER_AVERAGE][i] = average;
+                candidates[FILTER_PAETH][i] = paeth;
+                // filtered bytes are read as signed, small in magnitude when the prediction is good
+                sums[FILTER_NONE] += Math.abs(none);
+                sums[FILTER_SUB] += Math.abs(sub);
+                sums[FILTER_UP] += Math.abs(upFiltered);
+                sums[FILTER_AVERAGE] += Math.abs(average);
+                sums[FILTER_PAETH] += Math.abs(paeth);
+            }
+            int best = FILTER_NONE;
+            for (int f = 1; f < sums.length; f++) {
+                if (sums[f] < sums[best]) {
+                    best = f;
+                }
+            }
+            dst[dstOffset] = (byte) best;
+            System.arraycopy(candidates[best], 0, dst, dstOffset + 1, length);
+        }
+    }
+
+    static int paethPredictor(int a, int b, int c) {
+        int p = a + b - c;
+        int pa = Math.abs(p - a);
+        int pb = Math.abs(p - b);
+        int pc = Math.abs(p - c);
+        if (pa <= pb && pa <= pc) {
+            return a;
+        }
+        return pb <= pc ? b : c;
+    }
+
+    ///// CHUNKS /////
+
+    // appends to the IDAT chunk being filled, written out when full
+    private void writeIdat(byte[] data, int length) throws IOException {
+        int offset = 0;
+        while (offset < length) {
+            int count = Math.min(length - offset, CHUNK_SIZE - chunkLength);
+            System.arraycopy(data, offset, chunk, chunkLength, count);
+            chunkLength += count;
+            offset += count;
+            if (chunkLength == CHUNK_SIZE) {
+                writeChunk("IDAT", chunk, chunkLength);
+                chunkLength = 0;
+            }
+        }
+    }
+
+    private void writeChunk(String type, byte[] data, int length) throws IOException {
+        putInt(header, 0, length);
+        for (int i = 0; i < 4; i++) {
+            header[4 + i] = (byte) type.charAt(i);
+        }
+        crc.reset();
+        crc.update(header, 4, 4);
+        crc.update(data, 0, length);
+        out.write(header, 0, 8);
+        out.write(data, 0, length);
+        putInt(header, 0, (int) crc.getValue());
+        out.write(header, 0, 4);
+    }
+
+    private static void putInt(byte[] dst, int offset, int value) {
+        dst[offset] = (byte) (value >>> 24);
+        dst[offset + 1] = (byte) (value >>> 16);
+        dst[offset + 2] = (byte) (value >>> 8);
+        dst[offset + 3] = (byte) value;
+    }
+}
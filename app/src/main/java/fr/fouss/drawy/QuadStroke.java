@@ -0,0 +1,93 @@
+package fr.fouss.drawy;
+
+/**
+ * Path of a brush stroke: each point adds a quadratic segment from the end of the last one to the
+ * middle between the previous point, its control, and this one. Tracks the bounds the segments
+ * dirty, padded by half the stroke width. Kept free of android.graphics so it can be checked on
+ * the JVM and replayed by the benchmarks.
+ */
+class QuadStroke {
+
+    // receives the segments, e.g. an android.graphics.Path
+    interface Segments {
+        void quadTo(float controlX, float controlY, float x, float y);
+    }
+
+    // segments added since the last clearSegments(), the last one alone, then the whole stroke
+    final DirtyRect segmentDirty = new DirtyRect();
+    final DirtyRect quadDirty = new DirtyRect();
+    final DirtyRect strokeDirty = new DirtyRect();
+    private float halfWidth;
+    private float lastX;
+    private float lastY;
+    private float endX;
+    private float endY;
+    private int quadCount = 0;
+
+    // starts at (x;y), the segments begin there
+    void begin(float x, float y, float halfWidth) {
+        this.halfWidth = halfWidth;
+        lastX = x;
+        lastY = y;
+        endX = x;
+        endY = y;
+        quadCount = 0;
+        quadDirty.setEmpty();
+        quadDirty.unionPoint(x, y, halfWidth);
+        segmentDirty.setEmpty();
+        segmentDirty.union(quadDirty);
+        strokeDirty.setEmpty();
+        strokeDirty.union(quadDirty);
+    }
+
+    void clearSegments() {
+        segmentDirty.setEmpty();
+    }
+
+    void add(float x, float y, Segments segments) {
+        float midX = (x + lastX)/2;
+        float midY = (y + lastY)/2;
+        quadTo(midX, midY, segments);
+        lastX = x;
+        lastY = y;
+    }
+
+    // the last segment, up to the middle of the last two points, the stroke ending at (x;y)
+    void end(float x, float y, Segments segments) {
+        add(x, y, segments);
+        strokeDirty.unionPoint(x, y, halfWidth);
+    }
+
+    private void quadTo(float x, float y, Segments segments) {
+        segments.quadTo(lastX, lastY, x, y);
+        quadDirty.setEmpty();
+        quadDirty.unionQuad(endX, endY, lastX, lastY, x, y, halfWidth);
+        segmentDirty.union(quadDirty);
+        strokeDirty.union(quadDirty);
+        endX = x;
+        endY = y;
+        quadCount++;
+    }
+
+    // end of the segments
+    float getEndX() {
+        return endX;
+    }
+
+    float getEndY() {
+        return endY;
+    }
+
+    // the last point, control of the next segment
+    float getLastX() {
+        return lastX;
+    }
+
+    float getLastY() {
+        return lastY;
+    }
+
+    int getQuadCount() {
+        return quadCount;
+    }
+}
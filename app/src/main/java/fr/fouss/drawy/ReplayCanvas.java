@@ -0,0 +1,38 @@
+package fr.fouss.drawy;
+
+/**
+ * Drawing operations a {@link DrawingLog} is replayed onto.
+ * Coordinates are in drawing pixels, scaling them is up to the implementation.
+ */
+interface ReplayCanvas {
+
+    void clear(int color);
+
+    void drawBackground(int imageId);
+
+    /**
+     * @param points interleaved x and y, pointCount pairs; a single point is a dot
+     */
+    void drawStroke(float[] points, int pointCount, int color, float width, int cap, int join);
+
+    void drawImage(int imageId, float x, float y, float scale, float degrees);
+
+    /**
+     * A stroke of {@link StampBrush} dabs.
+     * @param points interleaved x, y and pressure, pointCount triples
+     */
+    void drawStamps(float[] points, int pointCount, int color, float size);
+
+    /**
+     * Paints color over the pixels of the area whose bit is set in mask, see {@link DrawingLog#fill}.
+     * @param mask height rows of {@link DrawingLog#maskWordsPerRow} words from offset, not to be modified
+     */
+    void drawFill(int[] mask, int offset, int left, int top, int width, int height, int color);
+
+    /**
+     * The operations that follow draw into layer, added empty on top of the others if it is new,
+     * which is blended with opacity and mode as in {@link LayerStack}. A clear goes back to the
+     * first layer and drops the others.
+     */
+    void selectLayer(int layer, int opacity, int mode);
+}
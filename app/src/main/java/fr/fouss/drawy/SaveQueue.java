@@ -0,0 +1,110 @@
+package fr.fouss.drawy;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs file saves one after another on a worker executor. Each save streams the encoder output
+ * through a buffered file channel into a temporary file, renamed once complete, and reports
+ * progress and completion on the callback executor (typically the main thread).
+ */
+class SaveQueue {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    // minimum number of bytes between two progress reports
+    private static final long PROGRESS_STEP = 256 * 1024;
+
+    interface Encoder {
+        void encode(OutputStream out) throws IOException;
+    }
+
+    interface Listener {
+        void onSaveProgress(File file, long bytesWritten);
+
+        void onSaveFinished(File file, boolean success);
+    }
+
+    private final Executor worker;
+    private final Executor callbacks;
+    private final AtomicInteger pending = new AtomicInteger();
+
+    /**
+     * @param worker must run tasks one at a time, in order
+     */
+    SaveQueue(Executor worker, Executor callbacks) {
+        this.worker = worker;
+        this.callbacks = callbacks;
+    }
+
+    // number of saves queued or running
+    int getPendingCount() {
+        return pending.get();
+    }
+
+    void save(final File file, final Encoder encoder, final Listener listener) {
+        pending.incrementAndGet();
+        worker.execute(() -> {
+            boolean success = write(file, encoder, listener);
+            pending.decrementAndGet();
+            callbacks.execute(() -> listener.onSaveFinished(file, success));
+        });
+    }
+
+    private boolean write(File file, Encoder encoder, Listener listener) {
+        File temporary = new File(file.getPath() + ".part");
+        try (FileOutputStream fos = new FileOutputStream(temporary)) {
+            FileChannel channel = fos.getChannel();
+            OutputStream out = new ProgressOutputStream(
+                    new BufferedOutputStream(Channels.newOutputStream(channel), BUFFER_SIZE), file, listener);
+            encoder.encode(out);
+            out.flush();
+            channel.force(false);
+        } catch (IOException | RuntimeException e) {
+            temporary.delete();
+            return false;
+        }
+        return temporary.renameTo(file);
+    }
+
+    private class ProgressOutputStream extends FilterOutputStream {
+        private final File file;
+        private final Listener listener;
+        private long written = 0;
+        private long reported = 0;
+
+        ProgressOutputStream(OutputStream out, File file, Listener listener) {
+            super(out);
+            this.file = file;
+            this.listener = listener;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            progress(1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            progress(len);
+        }
+
+        private void progress(int count) {
+            written += count;
+            if (written - reported >= PROGRESS_STEP) {
+                reported = written;
+                final long bytes = written;
+                callbacks.execute(() -> listener.onSaveProgress(file, bytes));
+            }
+        }
+    }
+}
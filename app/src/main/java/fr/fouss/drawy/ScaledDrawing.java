@@ -0,0 +1,177 @@
+package fr.fouss.drawy;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * The drawing seen through a {@link Viewport}.
+ *
+ * Close to 1:1 and zoomed in, the drawing tiles are drawn scaled. Zoomed out, the drawing is
+ * drawn from tiles pre-scaled to the viewport level, kept in a {@link TileCache}, so that a
+ * frame draws about a screen of pixels whatever the zoom. Missing tiles are rendered from a
+ * snapshot on a worker and drawn from the drawing itself until they are ready.
+ */
+class ScaledDrawing {
+
+    static final int TILE_SIZE = 256;
+
+    private TiledDrawing drawing;
+    private final TileCache<Bitmap> cache;
+    private final Paint filterPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    private final DirtyRect visible = new DirtyRect();
+    private final Rect tileRect = new Rect();
+    private final Rect clipRect = new Rect();
+    private final List<Long> requests = new ArrayList<>();
+
+    private Executor worker = null;
+    private Executor mainThread;
+    private Runnable tilesReady;
+    private int lastLevel = 0;
+    // bumped when the level changes, fills queued before are given up
+    private volatile int generation = 0;
+
+    // only used on the worker
+    private final int[] tilePixels = new int[TILE_SIZE * TILE_SIZE];
+    private int[] block;
+    private int[] half;
+
+    ScaledDrawing(TiledDrawing drawing, long byteBudget) {
+        this.drawing = drawing;
+        this.cache = new TileCache<>(TILE_SIZE, byteBudget);
+    }
+
+    /**
+     * @param worker renders the missing tiles, null to draw zoomed out from the drawing itself
+     * @param mainThread runs the drawing thread side of the fills
+     * @param tilesReady run on the main thread once new tiles can be drawn
+     */
+    void setWorker(Executor worker, Executor mainThread, Runnable tilesReady) {
+        this.worker = worker;
+        this.mainThread = mainThread;
+        this.tilesReady = tilesReady;
+    }
+
+    TileCache<Bitmap> getCache() {
+        return cache;
+    }
+
+    // drops the tiles over the changed area of the drawing
+    void drawingChanged(DirtyRect rect) {
+        cache.invalidate(rect.left, rect.top, rect.right, rect.bottom);
+    }
+
+    void drawingReplaced() {
+        cache.clear();
+    }
+
+    // shows another drawing of the same size from now on
+    void setDrawing(TiledDrawing drawing) {
+        this.drawing = drawing;
+        drawingReplaced();
+    }
+
+    // draws the part of the drawing under clip, in screen pixels
+    void draw(Canvas canvas, Viewport viewport, Rect clip) {
+        viewport.toDrawing(clip.left, clip.top, clip.right, clip.bottom, visible);
+        if (visible.isEmpty()) {
+            return;
+        }
+        canvas.save();
+        canvas.translate(viewport.getOffsetX(), viewport.getOffsetY());
+        canvas.scale(viewport.getScale(), viewport.getScale());
+        int level = viewport.getLevel();
+        if (level != lastLevel) {
+            lastLevel = level;
+            generation++;
+        }
+        if (level == 0 || worker == null) {
+            clipRect.set(visible.left, visible.top, visible.right, visible.bottom);
+            drawing.draw(canvas, clipRect);
+        } else {
+            drawLevel(canvas, level);
+        }
+        canvas.restore();
+    }
+
+    private void drawLevel(Canvas canvas, int level) {
+        cache.setVisible(level, visible.left, visible.top, visible.right, visible.bottom);
+        int span = cache.getTileSpan(level);
+        for (int row = visible.top / span; row * span < visible.bottom; row++) {
+            for (int column = visible.left / span; column * span < visible.right; column++) {
+                tileRect.set(column * span, row * span,
+                        Math.min(drawing.getWidth(), (column + 1) * span),
+                        Math.min(drawing.getHeight(), (row + 1) * span));
+                long key = TileCache.key(level, column, row);
+                Bitmap tile = cache.get(key);
+                if (tile != null) {
+                    canvas.drawBitmap(tile, null, tileRect, filterPaint);
+                    continue;
+                }
+                clipRect.set(tileRect);
+                if (clipRect.intersect(visible.left, visible.top, visible.right, visible.bottom)) {
+                    canvas.save();
+                    canvas.clipRect(clipRect);
+                    drawing.draw(canvas, clipRect);
+                    canvas.restore();
+                }
+                if (cache.request(key)) {
+                    requests.add(key);
+                }
+            }
+        }
+        if (!requests.isEmpty()) {
+            fill(drawing.snapshot(), toArray(requests));
+            requests.clear();
+        }
+    }
+
+    // renders the tiles in order on the worker, each one is handed back as soon as it is ready
+    private void fill(final DrawingSnapshot snapshot, final long[] keys) {
+        final int fillGeneration = generation;
+        worker.execute(() -> {
+            for (final long key : keys) {
+                if (fillGeneration != generation) {
+                    mainThread.execute(() -> cache.cancel(key));
+                    continue;
+                }
+                final Bitmap tile = renderTile(snapshot, key);
+                mainThread.execute(() -> {
+                    if (cache.put(key, tile, tile.getRowBytes() * tile.getHeight())) {
+                        tilesReady.run();
+                    }
+                });
+            }
+        });
+    }
+
+    private Bitmap renderTile(DrawingSnapshot snapshot, long key) {
+        if (block == null) {
+            block = new int[ImagePyramid.BLOCK_SIZE * ImagePyramid.BLOCK_SIZE];
+            half = new int[ImagePyramid.BLOCK_SIZE * ImagePyramid.BLOCK_SIZE];
+        }
+        int level = TileCache.level(key);
+        int span = cache.getTileSpan(level);
+        int left = TileCache.column(key) * span;
+        int top = TileCache.row(key) * span;
+        int width = Math.min(span, snapshot.getWidth() - left);
+        int height = Math.min(span, snapshot.getHeight() - top);
+        ImagePyramid.downsampleRegion(snapshot::getPixels, left, top, width, height, level,
+                tilePixels, block, half);
+        return Bitmap.createBitmap(tilePixels, ImagePyramid.levelSize(width, level),
+                ImagePyramid.levelSize(height, level), Bitmap.Config.ARGB_8888);
+    }
+
+    private static long[] toArray(List<Long> keys) {
+        long[] array = new long[keys.size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = keys.get(i);
+        }
+        return array;
+    }
+}
@@ -0,0 +1,350 @@
+package fr.fouss.drawy;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Append-only crash-recovery journal of a drawing session, kept in its own directory.
+ *
+ * The UI thread only copies committed {@link DrawingLog} operations into a pending buffer.
+ * A worker writes the buffer to the journal file and fsyncs it at most once per flush delay,
+ * so a crash loses at most that much work. Images referenced by operations are written next
+ * to the journal as image-id files.
+ *
+ * File format, big-endian: magic, version, then records of a type byte followed by
+ * the word count and words of an operation for OP records, nothing for UNDO and REDO.
+ * Strokes are written as STROKE records instead: color, width bits, cap and join bytes,
+ * point count, then the byte count and bytes of the points in {@link StrokeEncoding}.
+ * A truncated last record, e.g. after a crash during a write, is ignored when reading.
+ */
+class SessionJournal implements Closeable {
+
+    static final String JOURNAL_FILE = "journal.bin";
+
+    private static final int MAGIC = 0x44524a4c; // DRJL
+    // 2 added STROKE records, version 1 journals are still read
+    private static final int VERSION = 2;
+    private static final byte RECORD_OP = 1;
+    private static final byte RECORD_UNDO = 2;
+    private static final byte RECORD_REDO = 3;
+    private static final byte RECORD_STROKE = 4;
+
+    private final File directory;
+    private final ScheduledExecutorService worker;
+    private final long flushDelayMillis;
+    private final FileOutputStream fileStream;
+    private final FileChannel channel;
+
+    private final ByteArrayOutputStream pending = new ByteArrayOutputStream(4096);
+    private final DataOutputStream pendingOut = new DataOutputStream(pending);
+    private int[] opWords = new int[64];
+    private float[] strokePoints = new float[64];
+    private final VarintBuffer encodedPoints = new VarintBuffer();
+    private boolean flushScheduled = false;
+    private volatile IOException failure = null;
+
+    /**
+     * Opens the journal of directory for appending, creating it if needed.
+     */
+    SessionJournal(File directory, ScheduledExecutorService worker, long flushDelayMillis) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create " + directory);
+        }
+        this.directory = directory;
+        this.worker = worker;
+        this.flushDelayMillis = flushDelayMillis;
+        File file = new File(directory, JOURNAL_FILE);
+        boolean created = !file.exists() || file.length() == 0;
+        fileStream = new FileOutputStream(file, true);
+        channel = fileStream.getChannel();
+        if (created) {
+            synchronized (pending) {
+                pendingOut.writeInt(MAGIC);
+                pendingOut.writeInt(VERSION);
+            }
+            scheduleFlush();
+        }
+    }
+
+    static boolean exists(File directory) {
+        File file = new File(directory, JOURNAL_FILE);
+        return file.length() > 8;
+    }
+
+    // removes the journal and its images
+    static void delete(File directory) {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+    }
+
+    static File getImageFile(File directory, int imageId) {
+        return new File(directory, "image-" + imageId);
+    }
+
+    // the last write error, if any; writing stops after one
+    IOException getFailure() {
+        return failure;
+    }
+
+    ///// WRITING /////
+
+    void appendOp(DrawingLog log, int op) {
+        int length = log.getLength(op);
+        if (opWords.length < length) {
+            opWords = new int[Math.max(length, opWords.length * 2)];
+        }
+        log.getWords(op, opWords, 0);
+        synchronized (pending) {
+            try {
+                if (opWords[0] == DrawingLog.OP_STROKE) {
+                    writeStroke(opWords);
+                } else {
+                    pendingOut.writeByte(RECORD_OP);
+                    pendingOut.writeInt(length);
+                    for (int i = 0; i < length; i++) {
+                        pendingOut.writeInt(opWords[i]);
+                    }
+                }
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        scheduleFlush();
+    }
+
+    private void writeStroke(int[] words) throws IOException {
+        int pointCount = words[5];
+        if (strokePoints.length < 2 * pointCount) {
+            strokePoints = new float[Math.max(2 * pointCount, strokePoints.length * 2)];
+        }
+        for (int i = 0; i < 2 * pointCount; i++) {
+            strokePoints[i] = Float.intBitsToFloat(words[DrawingLog.STROKE_HEADER + i]);
+        }
+        encodedPoints.clear();
+        StrokeEncoding.encode(strokePoints, pointCount, encodedPoints);
+        pendingOut.writeByte(RECORD_STROKE);
+        pendingOut.writeInt(words[1]);
+        pendingOut.writeInt(words[2]);
+        pendingOut.writeByte(words[3]);
+        pendingOut.writeByte(words[4]);
+        pendingOut.writeInt(pointCount);
+        pendingOut.writeInt(encodedPoints.size());
+        pendingOut.write(encodedPoints.getBytes(), 0, encodedPoints.size());
+    }
+
+    void appendUndo() {
+        appendMarker(RECORD_UNDO);
+    }
+
+    void appendRedo() {
+        appendMarker(RECORD_REDO);
+    }
+
+    /**
+     * Writes the pixels of an image on the worker. Must be called before the operations
+     * referencing it are appended.
+     */
+    void appendImage(int imageId, SaveQueue.Encoder encoder) {
+        worker.execute(() -> {
+            File file = getImageFile(directory, imageId);
+            try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file))) {
+                encoder.encode(out);
+            } catch (IOException e) {
+                failure = e;
+            }
+        });
+    }
+
+    private void appendMarker(byte type) {
+        synchronized (pending) {
+            pending.write(type);
+        }
+        scheduleFlush();
+    }
+
+    private void scheduleFlush() {
+        synchronized (pending) {
+            if (flushScheduled) {
+                return;
+            }
+            flushScheduled = true;
+        }
+        worker.schedule(this::flushPending, flushDelayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    // worker side: one write and one fsync for everything appended since the last flush
+    private void flushPending() {
+        ByteBuffer batch;
+        synchronized (pending) {
+            flushScheduled = false;
+            if (pending.size() == 0) {
+                return;
+            }
+            batch = ByteBuffer.wrap(pending.toByteArray());
+            pending.reset();
+        }
+        if (failure != null) {
+            return;
+        }
+        try {
+            while (batch.hasRemaining()) {
+                channel.write(batch);
+            }
+            channel.force(false);
+        } catch (IOException e) {
+            failure = e;
+        }
+    }
+
+    /**
+     * Flushes what is pending and closes the file, blocking until the worker is done.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            worker.submit(this::flushPending).get();
+        } catch (Exception e) {
+            throw new IOException("Journal flush failed", e);
+        } finally {
+            fileStream.close();
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Same as close() without waiting, e.g. from the UI thread: the worker flushes what is pending
+     * and closes the file after the tasks queued so far. A write error is left in getFailure().
+     */
+    void closeAsync() {
+        worker.execute(() -> {
+            flushPending();
+            try {
+                fileStream.close();
+            } catch (IOException e) {
+                failure = e;
+            }
+        });
+    }
+
+    ///// READING /////
+
+    /**
+     * Appends the operations of the journal of directory to log and applies its undos and redos.
+     * A record cut by a crash is dropped from the file so that appending can resume after it.
+     */
+    static void read(File directory, DrawingLog log) throws IOException {
+        File file = new File(directory, JOURNAL_FILE);
+        long complete = 8;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            int version;
+            if (in.readInt() != MAGIC || (version = in.readInt()) < 1 || version > VERSION) {
+                throw new IOException("Not a Drawy journal: " + file);
+            }
+            int[] words = new int[64];
+            float[] points = new float[64];
+            byte[] bytes = new byte[256];
+            VarintBuffer encoded = new VarintBuffer();
+            while (true) {
+                int type = in.read();
+                if (type == -1) {
+                    return;
+                }
+                switch (type) {
+                    case RECORD_OP:
+                        int length = in.readInt();
+                        if (length <= 0 || length > file.length() / 4) {
+                            throw new IOException("Corrupted journal record");
+                        }
+                        if (words.length < length) {
+                            words = new int[length];
+                        }
+                        for (int i = 0; i < length; i++) {
+                            words[i] = in.readInt();
+                        }
+                        try {
+                            log.appendOp(words, 0, length);
+                        } catch (IllegalArgumentException e) {
+                            throw new IOException("Corrupted journal record", e);
+                        }
+                        complete += 5 + 4L * length;
+                        break;
+                    case RECORD_STROKE:
+                        int color = in.readInt();
+                        int width = in.readInt();
+                        int cap = in.readUnsignedByte();
+                        int join = in.readUnsignedByte();
+                        int pointCount = in.readInt();
+                        int byteCount = in.readInt();
+                        // a point takes at least 2 bytes
+                        if (pointCount <= 0 || byteCount < 2 * pointCount || byteCount > file.length()) {
+                            throw new IOException("Corrupted journal record");
+                        }
+                        if (bytes.length < byteCount) {
+                            bytes = new byte[byteCount];
+                        }
+                        in.readFully(bytes, 0, byteCount);
+                        if (points.length < 2 * pointCount) {
+                            points = new float[2 * pointCount];
+                        }
+                        encoded.wrap(bytes, 0, byteCount);
+                        try {
+                            StrokeEncoding.decode(encoded, pointCount, points);
+                        } catch (IllegalStateException e) {
+                            throw new IOException("Corrupted journal record", e);
+                        }
+                        int strokeLength = DrawingLog.STROKE_HEADER + 2 * pointCount;
+                        if (words.length < strokeLength) {
+                            words = new int[strokeLength];
+                        }
+                        words[0] = DrawingLog.OP_STROKE;
+                        words[1] = color;
+                        words[2] = width;
+                        words[3] = cap;
+                        words[4] = join;
+                        words[5] = pointCount;
+                        for (int i = 0; i < 2 * pointCount; i++) {
+                            words[DrawingLog.STROKE_HEADER + i] = Float.floatToRawIntBits(points[i]);
+                        }
+                        log.appendOp(words, 0, strokeLength);
+                        complete += 19 + byteCount;
+                        break;
+                    case RECORD_UNDO:
+                        log.undo();
+                        complete++;
+                        break;
+                    case RECORD_REDO:
+                        log.redo();
+                        complete++;
+                        break;
+                    default:
+                        throw new IOException("Corrupted journal record");
+                }
+            }
+        } catch (EOFException e) {
+            try (RandomAccessFile out = new RandomAccessFile(file, "rw")) {
+                out.setLength(complete);
+            }
+        }
+    }
+}
@@ -0,0 +1,243 @@
+package fr.fouss.drawy;
+
+import java.util.Arrays;
+
+/**
+ * Brush painting a stroke as round anti-aliased dabs, the way pressure sensitive brushes do.
+ *
+ * Dabs are placed along the straight segments between the stroke points at a spacing relative
+ * to their diameter; their size and opacity follow the pressure, interpolated along each
+ * segment. They are queued in primitive arrays, then blended in one pass into a premultiplied
+ * ARGB pixel buffer with integer arithmetic. Nothing is allocated per dab once the queue is
+ * large enough.
+ */
+class StampBrush {
+
+    // distance between dabs, as a fraction of their diameter
+    static final float SPACING = 0.15f;
+    // size and opacity of a dab at zero pressure, relative to full pressure
+    static final float MIN_SIZE = 0.2f;
+    static final float MIN_OPACITY = 0.3f;
+    // so that tiny dabs don't pile up on the same pixel
+    private static final float MIN_SPACING = 0.5f;
+
+    private int color;
+    private float size;
+
+    private boolean started = false;
+    private float lastX;
+    private float lastY;
+    private float lastPressure;
+    // distance left to walk from the last point to the next dab
+    private float distanceToDab;
+
+    // dabs stamped and not rasterized yet
+    private float[] dabXs = new float[64];
+    private float[] dabYs = new float[64];
+    private float[] dabRadii = new float[64];
+    private int[] dabAlphas = new int[64];
+    private int dabCount = 0;
+    private final DirtyRect bounds = new DirtyRect();
+
+    /**
+     * @param color unpremultiplied ARGB, its alpha is the opacity at full pressure
+     * @param size dab diameter at full pressure
+     */
+    void begin(int color, float size) {
+        this.color = color;
+        this.size = size;
+        started = false;
+        clearDabs();
+    }
+
+    /**
+     * Stamps the dabs up to (x;y), the first point of a stroke gets one. Pressure is clamped
+     * to [0;1].
+     */
+    void stampTo(float x, float y, float pressure) {
+        pressure = Math.max(0, Math.min(1, pressure));
+        if (!started) {
+            addDab(x, y, pressure);
+            distanceToDab = spacing(pressure);
+            started = true;
+        } else {
+            float dx = x - lastX;
+            float dy = y - lastY;
+            float length = (float) Math.hypot(dx, dy);
+            float walked = 0;
+            while (walked + distanceToDab <= length) {
+                walked += distanceToDab;
+                float t = walked / length;
+                float dabPressure = lastPressure + (pressure - lastPressure) * t;
+                addDab(lastX + dx * t, lastY + dy * t, dabPressure);
+                distanceToDab = spacing(dabPressure);
+            }
+            distanceToDab -= length - walked;
+        }
+        lastX = x;
+        lastY = y;
+        lastPressure = pressure;
+    }
+
+    private float radius(float pressure) {
+        return size * (MIN_SIZE + (1 - MIN_SIZE) * pressure) / 2;
+    }
+
+    private float spacing(float pressure) {
+        return Math.max(MIN_SPACING, 2 * radius(pressure) * SPACING);
+    }
+
+    private void addDab(float x, float y, float pressure) {
+        if (dabCount == dabXs.length) {
+            int capacity = dabCount * 2;
+            dabXs = Arrays.copyOf(dabXs, capacity);
+            dabYs = Arrays.copyOf(dabYs, capacity);
+            dabRadii = Arrays.copyOf(dabRadii, capacity);
+            dabAlphas = Arrays.copyOf(dabAlphas, capacity);
+        }
+        float radius = radius(pressure);
+        dabXs[dabCount] = x;
+        dabYs[dabCount] = y;
+        dabRadii[dabCount] = radius;
+        dabAlphas[dabCount] = Math.round((color >>> 24) * (MIN_OPACITY + (1 - MIN_OPACITY) * pressure));
+        dabCount++;
+        bounds.unionPoint(x, y, radius);
+    }
+
+    int getDabCount() {
+        return dabCount;
+    }
+
+    float getDabX(int i) {
+        return dabXs[i];
+    }
+
+    float getDabY(int i) {
+        return dabYs[i];
+    }
+
+    float getDabRadius(int i) {
+        return dabRadii[i];
+    }
+
+    int getDabAlpha(int i) {
+        return dabAlphas[i];
+    }
+
+    // area covered by the queued dabs, empty when there are none
+    DirtyRect getBounds() {
+        return bounds;
+    }
+
+    void clearDabs() {
+        dabCount = 0;
+        bounds.setEmpty();
+    }
+
+    ///// RASTERIZING /////
+
+    /**
+     * Blends the queued dabs in order into pixels, premultiplied ARGB covering
+     * [left;left+width[ x [top;top+height[, then clears the queue. Dabs are clipped to it.
+     */
+    void rasterize(int[] pixels, int left, int top, int width, int height) {
+        rasterize(pixels, left, top, width, height, 1, 0, 0);
+    }
+
+    /**
+     * Same as {@link #rasterize(int[], int, int, int, int)} with the dabs scaled by scale, then
+     * moved by (dx;dy), e.g. into the pixels of a scaled export.
+     */
+    void rasterize(int[] pixels, int left, int top, int width, int height, float scale, float dx, float dy) {
+        for (int i = 0; i < dabCount; i++) {
+            blendDab(pixels, left, top, width, height, dabXs[i] * scale + dx, dabYs[i] * scale + dy,
+                    dabRadii[i] * scale, dabAlphas[i]);
+        }
+        clearDabs();
+    }
+
+    // a pixel is covered by the part of it within the radius, measured from its center
+    private void blendDab(int[] pixels, int left, int top, int width, int height,
+                          float cx, float cy, float radius, int alpha) {
+        float outer = radius + 0.5f;
+        float inner = Math.max(0, radius - 0.5f);
+        float outer2 = outer * outer;
+        float inner2 = inner * inner;
+        int red = (color >> 16) & 0xff;
+        int green = (color >> 8) & 0xff;
+        int blue = color & 0xff;
+        int yStart = Math.max(top, (int) Math.floor(cy - outer));
+        int yEnd = Math.min(top + height, (int) Math.ceil(cy + outer));
+        for (int y = yStart; y < yEnd; y++) {
+            float dy = y + 0.5f - cy;
+            float dy2 = dy * dy;
+            if (dy2 >= outer2) {
+                continue;
+            }
+            float span = (float) Math.sqrt(outer2 - dy2);
+            int xStart = Math.max(left, (int) Math.floor(cx - span));
+            int xEnd = Math.min(left + width, (int) Math.ceil(cx + span));
+            int row = (y - top) * width - left;
+            for (int x = xStart; x < xEnd; x++) {
+                float dx = x + 0.5f - cx;
+                float d2 = dx * dx + dy2;
+                int a;
+                if (d2 <= inner2) {
+                    a = alpha;
+                } else if (d2 < outer2) {
+                    a = (int) (alpha * (outer - (float) Math.sqrt(d2)) + 0.5f);
+                } else {
+                    continue;
+                }
+                if (a == 0) {
+                    continue;
+                }
+                int dst = pixels[row + x];
+                int inverse = 255 - a;
+                pixels[row + x] = div255(255 * a + (dst >>> 24) * inverse) << 24
+                        | div255(red * a + ((dst >> 16) & 0xff) * inverse) << 16
+                        | div255(green * a + ((dst >> 8) & 0xff) * inverse) << 8
+                        | div255(blue * a + (dst & 0xff) * inverse);
+            }
+        }
+    }
+
+    // value / 255 rounded, for value in [0;255*255]
+    static int div255(int value) {
+        value += 128;
+        return (value + (value >> 8)) >> 8;
+    }
+
+    // Android bitmaps hand out and take unpremultiplied colors
+    static void premultiply(int[] pixels, int count) {
+        for (int i = 0; i < count; i++) {
+            int pixel = pixels[i];
+            int a = pixel >>> 24;
+            if (a == 255) {
+                continue;
+            }
+            pixels[i] = a << 24
+                    | div255(((pixel >> 16) & 0xff) * a) << 16
+                    | div255(((pixel >> 8) & 0xff) * a) << 8
+                    | div255((pixel & 0xff) * a);
+        }
+    }
+
+    static void unpremultiply(int[] pixels, int count) {
+        for (int i = 0; i < count; i++) {
+            int pixel = pixels[i];
+            int a = pixel >>> 24;
+            if (a == 255) {
+                continue;
+            } else if (a == 0) {
+                pixels[i] = 0;
+                continue;
+            }
+            int half = a / 2;
+            pixels[i] = a << 24
+                    | Math.min(255, (((pixel >> 16) & 0xff) * 255 + half) / a) << 16
+                    | Math.min(255, (((pixel >> 8) & 0xff) * 255 + half) / a) << 8
+                    | Math.min(255, ((pixel & 0xff) * 255 + half) / a);
+        }
+    }
+}
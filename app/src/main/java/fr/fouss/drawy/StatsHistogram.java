@@ -0,0 +1,80 @@
+package fr.fouss.drawy;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The last samples of one measure in a ring buffer, summarized as percentiles on demand.
+ * One thread records while any thread reads: recording is a store and an ordered write of
+ * the count, it never locks nor allocates. A reader racing with the writer may see a sample
+ * that was just overwritten, which doesn't matter for statistics.
+ */
+class StatsHistogram {
+
+    private final String name;
+    private final String unit;
+    private final double unitScale;
+    private final long[] samples;
+    private final int mask;
+    private final AtomicLong count = new AtomicLong();
+
+    /**
+     * @param capacity number of samples kept, rounded up to a power of two
+     * @param unitScale recorded values are divided by it when printed
+     */
+    StatsHistogram(String name, String unit, double unitScale, int capacity) {
+        this.name = name;
+        this.unit = unit;
+        this.unitScale = unitScale;
+        int size = capacity <= 1 ? 1 : Integer.highestOneBit(capacity - 1) << 1;
+        samples = new long[size];
+        mask = size - 1;
+    }
+
+    void record(long value) {
+        long index = count.get();
+        samples[(int) (index & mask)] = value;
+        count.lazySet(index + 1);
+    }
+
+    // samples recorded since the last reset, including the ones overwritten since
+    long getCount() {
+        return count.get();
+    }
+
+    // only from the recording thread
+    void reset() {
+        count.set(0);
+    }
+
+    /**
+     * Copies the retained samples sorted in ascending order.
+     */
+    long[] getSortedSamples() {
+        int size = (int) Math.min(count.get(), samples.length);
+        long[] sorted = Arrays.copyOf(samples, size);
+        Arrays.sort(sorted);
+        return sorted;
+    }
+
+    // nearest rank percentile of sorted samples, 0 when there are none
+    static long percentile(long[] sorted, double percent) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int rank = (int) Math.ceil(percent / 100 * sorted.length);
+        return sorted[Math.max(0, Math.min(sorted.length, rank) - 1)];
+    }
+
+    void appendSummary(StringBuilder out) {
+        long[] sorted = getSortedSamples();
+        out.append(String.format(Locale.US, "%s (%s): n=%d", name, unit, count.get()));
+        if (sorted.length > 0) {
+            out.append(String.format(Locale.US, " p50=%.2f p90=%.2f p99=%.2f max=%.2f",
+                    percentile(sorted, 50) / unitScale, percentile(sorted, 90) / unitScale,
+                    percentile(sorted, 99) / unitScale, sorted[sorted.length - 1] / unitScale));
+        }
+        out.append('\n');
+    }
+}
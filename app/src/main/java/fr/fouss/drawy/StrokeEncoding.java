@@ -0,0 +1,53 @@
+package fr.fouss.drawy;
+
+/**
+ * Compact encoding of stroke points: coordinates are quantized to 1/8 px, then the first point
+ * and the delta to each next one are written as zigzag varints. Consecutive touch samples are a
+ * few pixels apart, so most points take 2 to 4 bytes instead of 8 as floats.
+ * Deltas are taken between quantized values, the error never accumulates along a stroke.
+ */
+class StrokeEncoding {
+
+    static final int STEPS_PER_PIXEL = 8;
+
+    // keeps quantized coordinates and their deltas inside an int
+    private static final float MAX_COORDINATE = (1 << 26) / STEPS_PER_PIXEL;
+
+    private StrokeEncoding() {
+    }
+
+    static int quantize(float coordinate) {
+        float clamped = Math.max(-MAX_COORDINATE, Math.min(MAX_COORDINATE, coordinate));
+        return Math.round(clamped * STEPS_PER_PIXEL);
+    }
+
+    /**
+     * Appends pointCount points of interleaved x and y to out.
+     */
+    static void encode(float[] points, int pointCount, VarintBuffer out) {
+        int lastX = 0;
+        int lastY = 0;
+        for (int p = 0; p < pointCount; p++) {
+            int x = quantize(points[2 * p]);
+            int y = quantize(points[2 * p + 1]);
+            out.writeSignedVarint(x - lastX);
+            out.writeSignedVarint(y - lastY);
+            lastX = x;
+            lastY = y;
+        }
+    }
+
+    /**
+     * Reads pointCount points from in into dst, interleaved x and y.
+     */
+    static void decode(VarintBuffer in, int pointCount, float[] dst) {
+        int x = 0;
+        int y = 0;
+        for (int p = 0; p < pointCount; p++) {
+            x += in.readSignedVarint();
+            y += in.readSignedVarint();
+            dst[2 * p] = (float) x / STEPS_PER_PIXEL;
+            dst[2 * p + 1] = (float) y / STEPS_PER_PIXEL;
+        }
+    }
+}
@@ -0,0 +1,256 @@
+package fr.fouss.drawy;
+
+import java.util.Arrays;
+
+/**
+ * Uniform grid over the bounds of the committed operations of a {@link DrawingLog}, to find
+ * the ones under a point or inside a region without walking the whole log.
+ *
+ * Operations are added in log order. Everything drawn before the base operations (the last
+ * clear and background) is hidden by them, so those are kept apart instead of being indexed.
+ * Layer selections cover the whole drawing, so that any region replays them in order with the
+ * operations drawing into the layers.
+ */
+class StrokeIndex {
+
+    static final int DEFAULT_CELL_SIZE = 64;
+
+    private final TileGrid grid;
+
+    // entries in insertion order: operation and bounds
+    private int entryCount = 0;
+    private int[] entryOps = new int[256];
+    private int[] entryBounds = new int[4 * 256];
+
+    // entry numbers per cell, increasing, allocated on first use
+    private final int[][] cellEntries;
+    private final int[] cellCounts;
+
+    private int baseFrom = 0;
+    private int baseTo = 0;
+
+    // query scratch: one bit per entry found, entries being in log order the bits come out sorted
+    private long[] found = new long[256 / 64];
+    private int[] results = new int[64];
+
+    StrokeIndex(int width, int height, int cellSize) {
+        grid = new TileGrid(width, height, cellSize);
+        cellEntries = new int[grid.getTileCount()][];
+        cellCounts = new int[grid.getTileCount()];
+    }
+
+    /**
+     * Empties the index, operations [baseFrom;baseTo[ being what any region is drawn over.
+     */
+    void reset(int baseFrom, int baseTo) {
+        this.baseFrom = baseFrom;
+        this.baseTo = baseTo;
+        entryCount = 0;
+        Arrays.fill(cellCounts, 0);
+    }
+
+    int getBaseFrom() {
+        return baseFrom;
+    }
+
+    int getBaseTo() {
+        return baseTo;
+    }
+
+    int size() {
+        return entryCount;
+    }
+
+    void add(int op, DirtyRect bounds) {
+        add(op, bounds.left, bounds.top, bounds.right, bounds.bottom);
+    }
+
+    void add(int op, int left, int top, int right, int bottom) {
+        if (entryCount > 0 && op <= entryOps[entryCount - 1]) {
+            throw new IllegalArgumentException("Operations must be added in order");
+        }
+        if (entryCount == entryOps.length) {
+            entryOps = Arrays.copyOf(entryOps, entryCount * 2);
+            entryBounds = Arrays.copyOf(entryBounds, 4 * entryCount * 2);
+            found = Arrays.copyOf(found, entryCount * 2 / 64);
+        }
+        int entry = entryCount++;
+        entryOps[entry] = op;
+        entryBounds[4 * entry] = left;
+        entryBounds[4 * entry + 1] = top;
+        entryBounds[4 * entry + 2] = right;
+        entryBounds[4 * entry + 3] = bottom;
+
+        int lastColumn = grid.lastColumn(right);
+        int lastRow = grid.lastRow(bottom);
+        for (int row = grid.firstRow(top); row <= lastRow; row++) {
+            for (int column = grid.firstColumn(left); column <= lastColumn; column++) {
+                int cell = grid.tile(column, row);
+                int[] entries = cellEntries[cell];
+                if (entries == null) {
+                    entries = cellEntries[cell] = new int[8];
+                } else if (cellCounts[cell] == entries.length) {
+                    entries = cellEntries[cell] = Arrays.copyOf(entries, entries.length * 2);
+                }
+                entries[cellCounts[cell]++] = entry;
+            }
+        }
+    }
+
+    /**
+     * Forgets the operations from opCount on, e.g. undone ones a new operation replaces.
+     */
+    void truncate(int opCount) {
+        int count = entryCount;
+        while (count > 0 && entryOps[count - 1] >= opCount) {
+            count--;
+        }
+        if (count == entryCount) {
+            return;
+        }
+        // removed entries are the last ones of every cell they are in
+        for (int entry = entryCount - 1; entry >= count; entry--) {
+            int lastColumn = grid.lastColumn(entryBounds[4 * entry + 2]);
+            int lastRow = grid.lastRow(entryBounds[4 * entry + 3]);
+            for (int row = grid.firstRow(entryBounds[4 * entry + 1]); row <= lastRow; row++) {
+                for (int column = grid.firstColumn(entryBounds[4 * entry]); column <= lastColumn; column++) {
+                    cellCounts[grid.tile(column, row)]--;
+                }
+            }
+        }
+        entryCount = count;
+    }
+
+    /**
+     * Finds the operations below opLimit whose bounds overlap [left;right[ x [top;bottom[.
+     * @return their count, read them in log order with {@link #getResult}
+     */
+    int query(int left, int top, int right, int bottom, int opLimit) {
+        int firstFound = Integer.MAX_VALUE;
+        int lastFound = -1;
+        int lastColumn = grid.lastColumn(right);
+        int lastRow = grid.lastRow(bottom);
+        for (int row = grid.firstRow(top); row <= lastRow; row++) {
+            for (int column = grid.firstColumn(left); column <= lastColumn; column++) {
+                int cell = grid.tile(column, row);
+                int[] entries = cellEntries[cell];
+                for (int i = 0; i < cellCounts[cell]; i++) {
+                    int entry = entries[i];
+                    int b = 4 * entry;
+                    if (entryOps[entry] < opLimit
+                            && entryBounds[b] < right && entryBounds[b + 2] > left
+                            && entryBounds[b + 1] < bottom && entryBounds[b + 3] > top) {
+                        // an entry in several cells just sets its bit again
+                        found[entry >>> 6] |= 1L << entry;
+                        firstFound = Math.min(firstFound, entry);
+                        lastFound = Math.max(lastFound, entry);
+                    }
+                }
+            }
+        }
+        int count = 0;
+        if (lastFound < 0) {
+            return 0;
+        }
+        for (int word = firstFound >>> 6; word <= lastFound >>> 6; word++) {
+            long bits = found[word];
+            found[word] = 0;
+            while (bits != 0) {
+                if (count == results.length) {
+                    results = Arrays.copyOf(results, count * 2);
+                }
+                results[count++] = entryOps[(word << 6) + Long.numberOfTrailingZeros(bits)];
+                bits &= bits - 1;
+            }
+        }
+        return count;
+    }
+
+    int getResult(int i) {
+        return results[i];
+    }
+
+    interface ImageSizes {
+        int getImageWidth(int imageId);
+
+        int getImageHeight(int imageId);
+    }
+
+    /**
+     * Indexes the operations of log from scratch.
+     */
+    void rebuild(DrawingLog log, ImageSizes sizes) {
+        reset(0, 0);
+        log.replay(new Indexer(sizes));
+    }
+
+    // computes the bounds of each replayed operation, in log order
+    private class Indexer implements ReplayCanvas {
+
+        private final ImageSizes sizes;
+        private final DirtyRect bounds = new DirtyRect();
+        private final ImageTransform transform = new ImageTransform();
+        private int op = 0;
+
+        Indexer(ImageSizes sizes) {
+            this.sizes = sizes;
+        }
+
+        @Override
+        public void clear(int color) {
+            reset(op, ++op);
+        }
+
+        // drawn right after its clear, both form the base
+        @Override
+        public void drawBackground(int imageId) {
+            reset(baseFrom, ++op);
+        }
+
+        @Override
+        public void drawStroke(float[] points, int pointCount, int color, float width, int cap, int join) {
+            bounds.setEmpty();
+            for (int p = 0; p < pointCount; p++) {
+                bounds.unionPoint(points[2 * p], points[2 * p + 1], width / 2);
+            }
+            add(op++, bounds);
+        }
+
+        // dabs are at most size wide
+        @Override
+        public void drawStamps(float[] points, int pointCount, int color, float size) {
+            bounds.setEmpty();
+            for (int p = 0; p < pointCount; p++) {
+                bounds.unionPoint(points[3 * p], points[3 * p + 1], size / 2);
+            }
+            add(op++, bounds);
+        }
+
+        @Override
+        public void drawImage(int imageId, float x, float y, float scale, float degrees) {
+            int width = sizes.getImageWidth(imageId);
+            int height = sizes.getImageHeight(imageId);
+            transform.set(width, height, x, y, scale, degrees);
+            bounds.setEmpty();
+            unionCorner(0, 0);
+            unionCorner(width, 0);
+            unionCorner(0, height);
+            unionCorner(width, height);
+            add(op++, bounds);
+        }
+
+        @Override
+        public void drawFill(int[] mask, int offset, int left, int top, int width, int height, int color) {
+            add(op++, left, top, left + width, top + height);
+        }
+
+        @Override
+        public void selectLayer(int layer, int opacity, int mode) {
+            add(op++, 0, 0, grid.width, grid.height);
+        }
+
+        private void unionCorner(float x, float y) {
+            bounds.unionPoint(transform.mapX(x, y), transform.mapY(x, y), 0);
+        }
+    }
+}
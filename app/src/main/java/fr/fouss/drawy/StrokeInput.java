@@ -0,0 +1,97 @@
+package fr.fouss.drawy;
+
+/**
+ * Input stage of the brush: takes every sample of a touch event batch (historical ones included),
+ * smooths and filters them, and keeps the accepted points in primitive arrays until the path
+ * builder consumes the batch. Nothing is allocated per sample once the arrays are large enough.
+ */
+class StrokeInput {
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final float tolerance;
+    // weight of the previous smoothed position, 0 disables smoothing
+    private final float smoothing;
+
+    private float[] xs = new float[INITIAL_CAPACITY];
+    private float[] ys = new float[INITIAL_CAPACITY];
+    private int size = 0;
+
+    private float smoothX;
+    private float smoothY;
+    private float lastX;
+    private float lastY;
+
+    StrokeInput(float tolerance, float smoothing) {
+        if (smoothing < 0 || smoothing >= 1) {
+            throw new IllegalArgumentException("smoothing must be in [0;1[");
+        }
+        this.tolerance = tolerance;
+        this.smoothing = smoothing;
+    }
+
+    void begin(float x, float y) {
+        smoothX = x;
+        smoothY = y;
+        lastX = x;
+        lastY = y;
+        size = 0;
+    }
+
+    void ensureCapacity(int capacity) {
+        if (xs.length < capacity) {
+            int newCapacity = Math.max(capacity, xs.length * 2);
+            float[] newXs = new float[newCapacity];
+            float[] newYs = new float[newCapacity];
+            System.arraycopy(xs, 0, newXs, 0, size);
+            System.arraycopy(ys, 0, newYs, 0, size);
+            xs = newXs;
+            ys = newYs;
+        }
+    }
+
+    /**
+     * Feeds one raw sample, returns true if it was accepted into the current batch.
+     */
+    boolean add(float x, float y) {
+        smoothX += (x - smoothX) * (1 - smoothing);
+        smoothY += (y - smoothY) * (1 - smoothing);
+        float dx = Math.abs(smoothX - lastX);
+        float dy = Math.abs(smoothY - lastY);
+        if (dx < tolerance && dy < tolerance) {
+            return false;
+        }
+        ensureCapacity(size + 1);
+        xs[size] = smoothX;
+        ys[size] = smoothY;
+        size++;
+        lastX = smoothX;
+        lastY = smoothY;
+        return true;
+    }
+
+    int size() {
+        return size;
+    }
+
+    float getX(int i) {
+        return xs[i];
+    }
+
+    float getY(int i) {
+        return ys[i];
+    }
+
+    // to be called once the path builder has consumed the batch
+    void clear() {
+        size = 0;
+    }
+
+    float getLastX() {
+        return lastX;
+    }
+
+    float getLastY() {
+        return lastY;
+    }
+}
@@ -0,0 +1,128 @@
+package fr.fouss.drawy;
+
+/**
+ * Online simplification of the stroke points before they are stored. The greedy form of
+ * Ramer-Douglas-Peucker: a point is dropped as long as every point since the last kept one
+ * stays within the tolerance of the segment from that kept point to the newest sample, so
+ * the kept polyline never strays further than the tolerance from the dropped points.
+ * Kept points are available as soon as they are decided, in primitive arrays like StrokeInput.
+ */
+class StrokeSimplifier {
+
+    // a fraction of the width the stroke covers anyway
+    static final float TOLERANCE_PER_WIDTH = 0.05f;
+    static final float MIN_TOLERANCE = 0.25f;
+
+    // points checked against each new sample, bounds the cost of long straight runs
+    static final int MAX_RUN = 64;
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private float toleranceSquared;
+
+    // kept points not consumed yet
+    private float[] xs = new float[INITIAL_CAPACITY];
+    private float[] ys = new float[INITIAL_CAPACITY];
+    private int size = 0;
+
+    // last kept point, and the samples after it; the last sample is the end of the current segment
+    private float anchorX;
+    private float anchorY;
+    private final float[] runXs = new float[MAX_RUN];
+    private final float[] runYs = new float[MAX_RUN];
+    private int runSize = 0;
+
+    static float toleranceForWidth(float width) {
+        return Math.max(MIN_TOLERANCE, width * TOLERANCE_PER_WIDTH);
+    }
+
+    // the first point is always kept
+    void begin(float x, float y, float tolerance) {
+        toleranceSquared = tolerance * tolerance;
+        size = 0;
+        runSize = 0;
+        anchorX = x;
+        anchorY = y;
+        keep(x, y);
+    }
+
+    /**
+     * Feeds one point, returns the number of kept points now available.
+     */
+    int add(float x, float y) {
+        if (runSize == MAX_RUN || (runSize > 0 && !runFits(x, y))) {
+            // the previous sample can't be dropped, it starts the next segment
+            anchorX = runXs[runSize - 1];
+            anchorY = runYs[runSize - 1];
+            keep(anchorX, anchorY);
+            runSize = 0;
+        }
+        runXs[runSize] = x;
+        runYs[runSize] = y;
+        runSize++;
+        return size;
+    }
+
+    // keeps the last point, returns the number of kept points available
+    int finish() {
+        if (runSize > 0) {
+            keep(runXs[runSize - 1], runYs[runSize - 1]);
+            runSize = 0;
+        }
+        return size;
+    }
+
+    int size() {
+        return size;
+    }
+
+    float getX(int i) {
+        return xs[i];
+    }
+
+    float getY(int i) {
+        return ys[i];
+    }
+
+    // to be called once the kept points are consumed
+    void clear() {
+        size = 0;
+    }
+
+    private void keep(float x, float y) {
+        if (size == xs.length) {
+            float[] newXs = new float[size * 2];
+            float[] newYs = new float[size * 2];
+            System.arraycopy(xs, 0, newXs, 0, size);
+            System.arraycopy(ys, 0, newYs, 0, size);
+            xs = newXs;
+            ys = newYs;
+        }
+        xs[size] = x;
+        ys[size] = y;
+        size++;
+    }
+
+    // whether all the run would stay close enough to the segment from the anchor to x, y
+    private boolean runFits(float x, float y) {
+        for (int i = 0; i < runSize; i++) {
+            if (segmentDistanceSquared(runXs[i], runYs[i], anchorX, anchorY, x, y) > toleranceSquared) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static float segmentDistanceSquared(float px, float py, float ax, float ay, float bx, float by) {
+        float dx = bx - ax;
+        float dy = by - ay;
+        float lengthSquared = dx * dx + dy * dy;
+        float t = 0;
+        if (lengthSquared > 0) {
+            t = Math.max(0, Math.min(1, ((px - ax) * dx + (py - ay) * dy) / lengthSquared));
+        }
+        float ex = px - (ax + t * dx);
+        float ey = py - (ay + t * dy);
+        return ex * ex + ey * ey;
+    }
+}
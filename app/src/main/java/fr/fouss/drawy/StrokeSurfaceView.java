@@ -0,0 +1,269 @@
+package fr.fouss.drawy;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Path;
+import android.graphics.PixelFormat;
+import android.graphics.PorterDuff;
+import android.os.Build;
+import android.util.AttributeSet;
+import android.view.SurfaceHolder;
+import android.view.SurfaceView;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Transparent surface over a {@link DrawView} on which a dedicated thread draws the live stroke.
+ *
+ * The view pushes the touch samples, in drawing coordinates, into an {@link InputRing}; the
+ * render thread drains it, builds the path the way the brush does and posts a frame, without
+ * waiting for the UI thread. The view runs the samples through its brush as they come, without
+ * drawing the live stroke, and pushes {@link #ACTION_COMMITTED} once the drawing shows the
+ * finished stroke, until then it stays on the surface.
+ */
+public class StrokeSurfaceView extends SurfaceView implements SurfaceHolder.Callback {
+
+    static final int ACTION_DOWN = 0;
+    static final int ACTION_MOVE = 1;
+    static final int ACTION_UP = 2;
+    // the stroke in progress is dropped
+    static final int ACTION_CANCEL = 3;
+    // the oldest finished stroke is in the drawing
+    static final int ACTION_COMMITTED = 4;
+
+    private static final int RING_CAPACITY = 1024;
+
+    private final InputRing ring = new InputRing(RING_CAPACITY);
+    private final Strokes strokes = new Strokes();
+    private RenderThread renderThread = null;
+
+    // read by the render thread when a stroke begins
+    private volatile int brushColor;
+    private volatile float brushWidth;
+    private volatile Paint.Cap brushCap = Paint.Cap.ROUND;
+    private volatile Paint.Join brushJoin = Paint.Join.ROUND;
+    private volatile float scale = 1;
+    private volatile float offsetX = 0;
+    private volatile float offsetY = 0;
+
+    public StrokeSurfaceView(Context context, AttributeSet attrs) {
+        super(context, attrs);
+        setZOrderOnTop(true);
+        getHolder().setFormat(PixelFormat.TRANSLUCENT);
+        getHolder().addCallback(this);
+    }
+
+    ///// PRODUCER, UI THREAD /////
+
+    // samples are only drawn while the surface exists
+    boolean isRendering() {
+        return renderThread != null;
+    }
+
+    void setBrush(int color, float width, Paint.Cap cap, Paint.Join join) {
+        brushColor = color;
+        brushWidth = width;
+        brushCap = cap;
+        brushJoin = join;
+    }
+
+    void setTransform(float scale, float offsetX, float offsetY) {
+        this.scale = scale;
+        this.offsetX = offsetX;
+        this.offsetY = offsetY;
+    }
+
+    /**
+     * Queues a sample for the render thread.
+     * @return false when some samples are still waiting for room, flush() must be called later
+     */
+    boolean push(int action, float x, float y) {
+        ring.push(action, x, y);
+        wakeRenderer();
+        return ring.getOverflowSize() == 0;
+    }
+
+    // same as push, for the samples left waiting
+    boolean flush() {
+        boolean flushed = ring.flush();
+        wakeRenderer();
+        return flushed;
+    }
+
+    private void wakeRenderer() {
+        RenderThread thread = renderThread;
+        if (thread != null) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    ///// SURFACE /////
+
+    @Override
+    public void surfaceCreated(SurfaceHolder holder) {
+        renderThread = new RenderThread(holder);
+        renderThread.start();
+    }
+
+    @Override
+    public void surfaceChanged(SurfaceHolder holder, int format, int width, int height) {
+        wakeRenderer();
+    }
+
+    @Override
+    public void surfaceDestroyed(SurfaceHolder holder) {
+        RenderThread thread = renderThread;
+        renderThread = null;
+        thread.running = false;
+        LockSupport.unpark(thread);
+        // the surface must not be drawn on once this returns
+        boolean interrupted = false;
+        while (thread.isAlive()) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    ///// RENDER THREAD /////
+
+    private class RenderThread extends Thread {
+
+        private final SurfaceHolder holder;
+        volatile boolean running = true;
+
+        RenderThread(SurfaceHolder holder) {
+            super("StrokeRenderer");
+            this.holder = holder;
+        }
+
+        @Override
+        public void run() {
+            // strokes left from a previous surface are drawn again at once
+            boolean dirty = true;
+            while (running) {
+                dirty |= ring.drain(strokes) > 0;
+                if (dirty) {
+                    Canvas canvas = Build.VERSION.SDK_INT >= Build.VERSION_CODES.M
+                            ? holder.lockHardwareCanvas() : holder.lockCanvas();
+                    if (canvas != null) {
+                        try {
+                            strokes.draw(canvas);
+                        } finally {
+                            holder.unlockCanvasAndPost(canvas);
+                        }
+                    }
+                    dirty = false;
+                } else {
+                    LockSupport.park(this);
+                }
+            }
+        }
+    }
+
+    // a stroke on the surface, kept for the next ones once the drawing shows it
+    private static class LiveStroke {
+        final Path path = new Path();
+        final Paint paint = new Paint();
+        // a tap, drawn as a point shaped by the cap like the brush does
+        boolean dot;
+        float dotX;
+        float dotY;
+
+        LiveStroke() {
+            paint.setStyle(Paint.Style.STROKE);
+        }
+    }
+
+    // only used by the render thread alive, the next one starting after it is joined
+    private class Strokes implements InputRing.Sink {
+
+        private final StrokeInput strokeInput = new StrokeInput(DrawView.TOUCH_TOLERANCE, DrawView.TOUCH_SMOOTHING);
+        private LiveStroke live = null;
+        private boolean validPath;
+        private float lastX;
+        private float lastY;
+        // finished strokes the drawing doesn't show yet, oldest first
+        private final ArrayDeque<LiveStroke> finished = new ArrayDeque<>();
+        private final ArrayDeque<LiveStroke> unused = new ArrayDeque<>();
+
+        @Override
+        public void sample(int action, float x, float y) {
+            if (action == ACTION_DOWN) {
+                if (live != null) {
+                    unused.add(live);
+                }
+                live = unused.isEmpty() ? new LiveStroke() : unused.poll();
+                live.path.rewind();
+                live.path.moveTo(x, y);
+                live.dot = false;
+                // the paint DrawView commits the stroke with
+                live.paint.setColor(brushColor);
+                live.paint.setStrokeWidth(brushWidth);
+                live.paint.setStrokeCap(brushCap);
+                live.paint.setStrokeJoin(brushJoin);
+                strokeInput.begin(x, y);
+                validPath = false;
+                lastX = x;
+                lastY = y;
+            } else if (live != null && action == ACTION_MOVE) {
+                strokeInput.add(x, y);
+                for (int i = 0; i < strokeInput.size(); i++) {
+                    quadTo(strokeInput.getX(i), strokeInput.getY(i));
+                    validPath = true;
+                }
+                strokeInput.clear();
+            } else if (live != null && action == ACTION_UP) {
+                if (validPath) {
+                    quadTo(x, y);
+                } else {
+                    // a tap is a dot where the finger was lifted
+                    live.dot = true;
+                    live.dotX = x;
+                    live.dotY = y;
+                }
+                finished.add(live);
+                live = null;
+            } else if (action == ACTION_CANCEL && live != null) {
+                unused.add(live);
+                live = null;
+            } else if (action == ACTION_COMMITTED && !finished.isEmpty()) {
+                unused.add(finished.poll());
+            }
+        }
+
+        // same smoothing as the brush: a quad through the last point to the middle of the segment
+        private void quadTo(float x, float y) {
+            live.path.quadTo(lastX, lastY, (x + lastX) / 2, (y + lastY) / 2);
+            lastX = x;
+            lastY = y;
+        }
+
+        void draw(Canvas canvas) {
+            canvas.drawColor(0, PorterDuff.Mode.CLEAR);
+            canvas.translate(offsetX, offsetY);
+            canvas.scale(scale, scale);
+            for (LiveStroke stroke : finished) {
+                draw(canvas, stroke);
+            }
+            if (live != null) {
+                draw(canvas, live);
+            }
+        }
+
+        private void draw(Canvas canvas, LiveStroke stroke) {
+            if (stroke.dot) {
+                canvas.drawPoint(stroke.dotX, stroke.dotY, stroke.paint);
+            } else {
+                canvas.drawPath(stroke.path, stroke.paint);
+            }
+        }
+    }
+}
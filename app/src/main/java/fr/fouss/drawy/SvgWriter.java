@@ -0,0 +1,333 @@
+package fr.fouss.drawy;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Writes a replayed {@link DrawingLog} as an SVG document, strokes becoming the same quadratic
+ * paths DrawView draws, stamped strokes a circle per dab, images and fills being embedded as PNG
+ * data URIs. The first layer is written as it is replayed; the layers above it are kept until the
+ * end, then written as groups carrying their opacity and blend mode.
+ *
+ * Errors of the underlying writer are collected and thrown by {@link #finish}, the replay
+ * methods can't throw them.
+ */
+class SvgWriter implements ReplayCanvas {
+
+    private static final String[] CAPS = {"butt", "round", "square"};
+    private static final String[] JOINS = {"miter", "round", "bevel"};
+    // by LayerStack mode
+    private static final String[] BLEND_MODES =
+            {"normal", "multiply", "screen", "overlay", "darken", "lighten", "plus-lighter"};
+    private static final char[] BASE64 =
+            "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray();
+
+    interface Images extends StrokeIndex.ImageSizes {
+        void writePng(int imageId, OutputStream out) throws IOException;
+    }
+
+    private final PrintWriter document;
+    // the document or the buffer of the current layer
+    private PrintWriter out;
+    private final List<StringWriter> layerBuffers = new ArrayList<>();
+    private final List<int[]> layerBlending = new ArrayList<>();
+    private final int width;
+    private final int height;
+    private final Images images;
+    private final ImageTransform transform = new ImageTransform();
+    private final StampBrush stampBrush = new StampBrush();
+    private final StringBuilder number = new StringBuilder();
+    private int[] fillRow = new int[0];
+    private IOException imageError = null;
+
+    SvgWriter(Writer out, int width, int height, Images images) {
+        this.document = new PrintWriter(out);
+        this.out = document;
+        this.width = width;
+        this.height = height;
+        this.images = images;
+        this.out.print("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+        this.out.print("<svg xmlns=\"http://www.w3.org/2000/svg\""
+                + " xmlns:xlink=\"http://www.w3.org/1999/xlink\" version=\"1.1\""
+                + " width=\"" + width + "\" height=\"" + height + "\""
+                + " viewBox=\"0 0 " + width + " " + height + "\">\n");
+    }
+
+    // closes the document and flushes it, the writer is left open
+    void finish() throws IOException {
+        out = document;
+        for (int i = 0; i < layerBuffers.size(); i++) {
+            int opacity = layerBlending.get(i)[0];
+            int mode = layerBlending.get(i)[1];
+            out.print("<g");
+            if (opacity != 255) {
+                out.print(" opacity=\"");
+                printNumber(opacity / 255f);
+                out.print("\"");
+            }
+            if (mode != LayerStack.MODE_NORMAL) {
+                out.print(" style=\"mix-blend-mode:" + BLEND_MODES[mode] + "\"");
+            }
+            out.print(">\n");
+            out.append(layerBuffers.get(i).getBuffer());
+            out.print("</g>\n");
+        }
+        out.print("</svg>\n");
+        out.flush();
+        if (imageError != null) {
+            throw imageError;
+        }
+        if (out.checkError()) {
+            throw new IOException("SVG writing failed");
+        }
+    }
+
+    @Override
+    public void clear(int color) {
+        layerBuffers.clear();
+        layerBlending.clear();
+        out = document;
+        out.print("<rect width=\"" + width + "\" height=\"" + height + "\"");
+        printPaint("fill", color);
+        out.print("/>\n");
+    }
+
+    @Override
+    public void drawBackground(int imageId) {
+        out.print("<image");
+        printImage(imageId);
+        out.print("/>\n");
+    }
+
+    @Override
+    public void drawStroke(float[] points, int pointCount, int color, float width, int cap, int join) {
+        if (pointCount == 1) {
+            // a point is a dot shaped by the cap, as Canvas.drawPoint does
+            if (CAPS[cap].equals("round")) {
+                out.print("<circle cx=\"");
+                printNumber(points[0]);
+                out.print("\" cy=\"");
+                printNumber(points[1]);
+                out.print("\" r=\"");
+                printNumber(width / 2);
+            } else {
+                out.print("<rect x=\"");
+                printNumber(points[0] - width / 2);
+                out.print("\" y=\"");
+                printNumber(points[1] - width / 2);
+                out.print("\" width=\"");
+                printNumber(width);
+                out.print("\" height=\"");
+                printNumber(width);
+            }
+            out.print("\"");
+            printPaint("fill", color);
+            out.print("/>\n");
+            return;
+        }
+
+        // mirrors CanvasReplayTarget.buildStrokePath
+        out.print("<path d=\"M");
+        printNumber(points[0]);
+        out.print(' ');
+        printNumber(points[1]);
+        for (int p = 1; p < pointCount; p++) {
+            float lastX = points[2 * p - 2];
+            float lastY = points[2 * p - 1];
+            out.print(p == 1 ? "Q" : " ");
+            printNumber(lastX);
+            out.print(' ');
+            printNumber(lastY);
+            out.print(' ');
+            printNumber((points[2 * p] + lastX) / 2);
+            out.print(' ');
+            printNumber((points[2 * p + 1] + lastY) / 2);
+        }
+        out.print("\" fill=\"none\"");
+        printPaint("stroke", color);
+        out.print(" stroke-width=\"");
+        printNumber(width);
+        out.print("\" stroke-linecap=\"" + CAPS[cap] + "\" stroke-linejoin=\"" + JOINS[join] + "\"/>\n");
+    }
+
+    // the dabs StampBrush would blend, SVG has no other way to vary a stroke's width and opacity
+    @Override
+    public void drawStamps(float[] points, int pointCount, int color, float size) {
+        stampBrush.begin(color, size);
+        for (int p = 0; p < pointCount; p++) {
+            stampBrush.stampTo(points[3 * p], points[3 * p + 1], points[3 * p + 2]);
+        }
+        out.print("<g");
+        printPaint("fill", color | 0xff000000);
+        out.print(">\n");
+        for (int i = 0; i < stampBrush.getDabCount(); i++) {
+            out.print("<circle cx=\"");
+            printNumber(stampBrush.getDabX(i));
+            out.print("\" cy=\"");
+            printNumber(stampBrush.getDabY(i));
+            out.print("\" r=\"");
+            printNumber(stampBrush.getDabRadius(i));
+            out.print("\" fill-opacity=\"");
+            printNumber(stampBrush.getDabAlpha(i) / 255f);
+            out.print("\"/>\n");
+        }
+        out.print("</g>\n");
+        stampBrush.clearDabs();
+    }
+
+    @Override
+    public void drawImage(int imageId, float x, float y, float scale, float degrees) {
+        transform.set(images.getImageWidth(imageId), images.getImageHeight(imageId), x, y, scale, degrees);
+        float[] v = transform.values;
+        out.print("<image transform=\"matrix(");
+        printNumber(v[0]);
+        out.print(' ');
+        printNumber(v[3]);
+        out.print(' ');
+        printNumber(v[1]);
+        out.print(' ');
+        printNumber(v[4]);
+        out.print(' ');
+        printNumber(v[2]);
+        out.print(' ');
+        printNumber(v[5]);
+        out.print(")\"");
+        printImage(imageId);
+        out.print("/>\n");
+    }
+
+    @Override
+    public void drawFill(int[] mask, int offset, int left, int top, int width, int height, int color) {
+        out.print("<image x=\"" + left + "\" y=\"" + top + "\" width=\"" + width + "\" height=\"" + height
+                + "\" xlink:href=\"data:image/png;base64,");
+        if (fillRow.length < width) {
+            fillRow = new int[width];
+        }
+        int wordsPerRow = DrawingLog.maskWordsPerRow(width);
+        Base64Stream encoder = new Base64Stream();
+        try {
+            PngWriter png = new PngWriter(encoder, width, height);
+            for (int y = 0; y < height; y++) {
+                int row = offset + y * wordsPerRow;
+                for (int x = 0; x < width; x++) {
+                    fillRow[x] = (mask[row + (x >>> 5)] & 1 << x) != 0 ? color : 0;
+                }
+                png.writeRows(fillRow, 0, width, 1);
+            }
+            png.finish();
+        } catch (IOException e) {
+            if (imageError == null) {
+                imageError = e;
+            }
+        }
+        encoder.close();
+        out.print("\"/>\n");
+    }
+
+    // the first layer is the background, drawn as is
+    @Override
+    public void selectLayer(int layer, int opacity, int mode) {
+        if (layer == 0) {
+            out = document;
+            return;
+        }
+        if (layer > layerBuffers.size()) {
+            layerBuffers.add(new StringWriter());
+            layerBlending.add(new int[2]);
+        }
+        layerBlending.get(layer - 1)[0] = opacity;
+        layerBlending.get(layer - 1)[1] = mode;
+        out = new PrintWriter(layerBuffers.get(layer - 1));
+    }
+
+    private void printImage(int imageId) {
+        out.print(" width=\"" + images.getImageWidth(imageId)
+                + "\" height=\"" + images.getImageHeight(imageId)
+                + "\" xlink:href=\"data:image/png;base64,");
+        Base64Stream encoder = new Base64Stream();
+        try {
+            images.writePng(imageId, encoder);
+        } catch (IOException e) {
+            if (imageError == null) {
+                imageError = e;
+            }
+        }
+        encoder.close();
+        out.print("\"");
+    }
+
+    private void printPaint(String attribute, int color) {
+        out.print(" " + attribute + "=\"#");
+        String hex = Integer.toHexString(color & 0xffffff);
+        for (int i = hex.length(); i < 6; i++) {
+            out.print('0');
+        }
+        out.print(hex);
+        out.print("\"");
+        int alpha = color >>> 24;
+        if (alpha != 0xff) {
+            out.print(" " + attribute + "-opacity=\"");
+            printNumber(alpha / 255f);
+            out.print("\"");
+        }
+    }
+
+    // two decimals are far below what can be seen, and keep the document small
+    private void printNumber(float value) {
+        long hundredths = Math.round(value * 100.0);
+        number.setLength(0);
+        if (hundredths < 0) {
+            number.append('-');
+            hundredths = -hundredths;
+        }
+        number.append(hundredths / 100);
+        int fraction = (int) (hundredths % 100);
+        if (fraction != 0) {
+            number.append('.');
+            number.append(fraction / 10);
+            if (fraction % 10 != 0) {
+                number.append(fraction % 10);
+            }
+        }
+        out.append(number);
+    }
+
+    // encodes what is written to it into the document, java.util.Base64 needing API 26
+    private class Base64Stream extends OutputStream {
+        private final byte[] pending = new byte[3];
+        private int pendingCount = 0;
+
+        @Override
+        public void write(int b) {
+            pending[pendingCount++] = (byte) b;
+            if (pendingCount == 3) {
+                printGroup(3);
+                pendingCount = 0;
+            }
+        }
+
+        @Override
+        public void close() {
+            if (pendingCount > 0) {
+                for (int i = pendingCount; i < 3; i++) {
+                    pending[i] = 0;
+                }
+                printGroup(pendingCount);
+                pendingCount = 0;
+            }
+        }
+
+        private void printGroup(int count) {
+            int bits = (pending[0] & 0xff) << 16 | (pending[1] & 0xff) << 8 | pending[2] & 0xff;
+            out.print(BASE64[bits >> 18 & 63]);
+            out.print(BASE64[bits >> 12 & 63]);
+            out.print(count > 1 ? BASE64[bits >> 6 & 63] : '=');
+            out.print(count > 2 ? BASE64[bits & 63] : '=');
+        }
+    }
+}
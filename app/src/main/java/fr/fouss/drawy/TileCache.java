@@ -0,0 +1,180 @@
+package fr.fouss.drawy;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Least recently used tiles of the drawing pre-scaled for each zoom level, within a byte budget.
+ *
+ * A level L tile is tileSize pixels a side and covers tileSize << L drawing pixels. Tiles are
+ * filled asynchronously: missing ones are marked pending when requested and put once rendered,
+ * unless the drawing changed under them meanwhile. Tiles on screen are never evicted, the
+ * budget may only be exceeded by them.
+ */
+class TileCache<T> {
+
+    private static class Entry<T> {
+        final T tile;
+        final int bytes;
+
+        Entry(T tile, int bytes) {
+            this.tile = tile;
+            this.bytes = bytes;
+        }
+    }
+
+    private final int tileSize;
+    private long byteBudget;
+    private long bytes = 0;
+    // level and drawing area on screen, kept from eviction
+    private int visibleLevel = -1;
+    private final DirtyRect visible = new DirtyRect();
+    // in access order, least recently used first
+    private final LinkedHashMap<Long, Entry<T>> entries = new LinkedHashMap<>(64, 0.75f, true);
+    // fills in progress, false once the drawing changed under them
+    private final HashMap<Long, Boolean> pending = new HashMap<>();
+
+    TileCache(int tileSize, long byteBudget) {
+        this.tileSize = tileSize;
+        this.byteBudget = byteBudget;
+    }
+
+    static long key(int level, int column, int row) {
+        return (long) level << 56 | (long) column << 28 | row;
+    }
+
+    static int level(long key) {
+        return (int) (key >>> 56);
+    }
+
+    static int column(long key) {
+        return (int) (key >>> 28 & 0xfffffff);
+    }
+
+    static int row(long key) {
+        return (int) (key & 0xfffffff);
+    }
+
+    int getTileSize() {
+        return tileSize;
+    }
+
+    // drawing pixels a side of a tile at level
+    int getTileSpan(int level) {
+        return tileSize << level;
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    long getBytes() {
+        return bytes;
+    }
+
+    void setByteBudget(long byteBudget) {
+        this.byteBudget = byteBudget;
+        trim();
+    }
+
+    /**
+     * Sets the tiles on screen, [left;right[ x [top;bottom[ in drawing pixels at level, and
+     * evicts the ones off screen over the budget.
+     */
+    void setVisible(int level, int left, int top, int right, int bottom) {
+        visibleLevel = level;
+        visible.set(left, top, right, bottom);
+        trim();
+    }
+
+    // the tile if cached, marked as the most recently used
+    T get(long key) {
+        Entry<T> entry = entries.get(key);
+        return entry != null ? entry.tile : null;
+    }
+
+    /**
+     * Marks the tile as being filled if it is neither cached nor pending.
+     * @return true when the caller should start filling it
+     */
+    boolean request(long key) {
+        if (entries.containsKey(key) || pending.containsKey(key)) {
+            return false;
+        }
+        pending.put(key, Boolean.TRUE);
+        return true;
+    }
+
+    /**
+     * Stores a filled tile, then evicts the least recently used tiles off screen over the budget.
+     * @return false when the tile is outdated and was dropped
+     */
+    boolean put(long key, T tile, int tileBytes) {
+        Boolean valid = pending.remove(key);
+        if (valid == null || !valid) {
+            return false;
+        }
+        Entry<T> old = entries.put(key, new Entry<>(tile, tileBytes));
+        if (old != null) {
+            bytes -= old.bytes;
+        }
+        bytes += tileBytes;
+        trim();
+        return true;
+    }
+
+    // gives up a requested fill
+    void cancel(long key) {
+        pending.remove(key);
+    }
+
+    // drops the tiles over [left;right[ x [top;bottom[ in drawing pixels, at all levels
+    void invalidate(int left, int top, int right, int bottom) {
+        if (left >= right || top >= bottom) {
+            return;
+        }
+        Iterator<Map.Entry<Long, Entry<T>>> it = entries.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Long, Entry<T>> entry = it.next();
+            if (overlaps(entry.getKey(), left, top, right, bottom)) {
+                bytes -= entry.getValue().bytes;
+                it.remove();
+            }
+        }
+        for (Map.Entry<Long, Boolean> fill : pending.entrySet()) {
+            if (overlaps(fill.getKey(), left, top, right, bottom)) {
+                fill.setValue(Boolean.FALSE);
+            }
+        }
+    }
+
+    void clear() {
+        entries.clear();
+        for (Map.Entry<Long, Boolean> fill : pending.entrySet()) {
+            fill.setValue(Boolean.FALSE);
+        }
+        bytes = 0;
+    }
+
+    private boolean overlaps(long key, int left, int top, int right, int bottom) {
+        int span = getTileSpan(level(key));
+        int tileLeft = column(key) * span;
+        int tileTop = row(key) * span;
+        return tileLeft < right && tileLeft + span > left && tileTop < bottom && tileTop + span > top;
+    }
+
+    private void trim() {
+        Iterator<Map.Entry<Long, Entry<T>>> it = entries.entrySet().iterator();
+        while (bytes > byteBudget && it.hasNext()) {
+            Map.Entry<Long, Entry<T>> entry = it.next();
+            long key = entry.getKey();
+            if (level(key) != visibleLevel
+                    || !overlaps(key, visible.left, visible.top, visible.right, visible.bottom)) {
+                bytes -= entry.getValue().bytes;
+                it.remove();
+            }
+        }
+    }
+}
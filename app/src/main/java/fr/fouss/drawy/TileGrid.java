@@ -0,0 +1,75 @@
+package fr.fouss.drawy;
+
+/**
+ * Geometry of a width x height area cut in square tiles, numbered row by row.
+ * Tiles on the right and bottom edges are clipped to the area.
+ */
+class TileGrid {
+
+    final int width;
+    final int height;
+    final int tileSize;
+    final int columns;
+    final int rows;
+
+    TileGrid(int width, int height, int tileSize) {
+        if (width <= 0 || height <= 0 || tileSize <= 0) {
+            throw new IllegalArgumentException("Invalid grid " + width + "x" + height + "/" + tileSize);
+        }
+        this.width = width;
+        this.height = height;
+        this.tileSize = tileSize;
+        this.columns = (width + tileSize - 1) / tileSize;
+        this.rows = (height + tileSize - 1) / tileSize;
+    }
+
+    int getTileCount() {
+        return columns * rows;
+    }
+
+    int tileLeft(int tile) {
+        return (tile % columns) * tileSize;
+    }
+
+    int tileTop(int tile) {
+        return (tile / columns) * tileSize;
+    }
+
+    int tileWidth(int tile) {
+        return Math.min(tileSize, width - tileLeft(tile));
+    }
+
+    int tileHeight(int tile) {
+        return Math.min(tileSize, height - tileTop(tile));
+    }
+
+    ///// RANGES /////
+    // For a [left;right[ x [top;bottom[ rectangle, the inclusive range of tiles it overlaps.
+    // The range is empty (first > last) when the rectangle is outside of the grid.
+
+    int firstColumn(int left) {
+        return Math.max(0, floorDiv(left, tileSize));
+    }
+
+    int lastColumn(int right) {
+        return Math.min(columns - 1, floorDiv(right - 1, tileSize));
+    }
+
+    int firstRow(int top) {
+        return Math.max(0, floorDiv(top, tileSize));
+    }
+
+    int lastRow(int bottom) {
+        return Math.min(rows - 1, floorDiv(bottom - 1, tileSize));
+    }
+
+    int tile(int column, int row) {
+        return row * columns + column;
+    }
+
+    // Math.floorDiv needs API 24
+    private static int floorDiv(int a, int b) {
+        int q = a / b;
+        return (a % b != 0 && (a < 0)) ? q - 1 : q;
+    }
+}
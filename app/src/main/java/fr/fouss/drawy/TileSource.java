@@ -0,0 +1,18 @@
+package fr.fouss.drawy;
+
+/**
+ * Pixels read tile by tile, some tiles being of a single color that can be known without
+ * reading them.
+ */
+interface TileSource {
+
+    TileGrid getGrid();
+
+    // whether every pixel of the tile is getUniformColor(tile)
+    boolean isUniform(int tile);
+
+    int getUniformColor(int tile);
+
+    // copies the w*h region at (x;y) into dst, rows packed
+    void getPixels(int[] dst, int x, int y, int w, int h);
+}
@@ -0,0 +1,168 @@
+package fr.fouss.drawy;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.Path;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.graphics.Region;
+
+/**
+ * Canvas forwarding each call to the tiles of a {@link TiledDrawing} it overlaps.
+ * Only the calls Drawy commits drawings with are supported, the other ones draw nothing.
+ */
+class TiledCanvas extends Canvas {
+
+    private final TiledDrawing drawing;
+    private final TileGrid grid;
+    private final RectF bounds = new RectF();
+    private int[] rangeTiles;
+    private final Path strokeOutline = new Path();
+    private final Region pathRegion = new Region();
+    private final Region boundsRegion = new Region();
+    private final Region tileRegion = new Region();
+
+    TiledCanvas(TiledDrawing drawing) {
+        this.drawing = drawing;
+        this.grid = drawing.getGrid();
+        this.rangeTiles = new int[grid.getTileCount()];
+    }
+
+    @Override
+    public int getWidth() {
+        return grid.width;
+    }
+
+    @Override
+    public int getHeight() {
+        return grid.height;
+    }
+
+    @Override
+    public void drawPath(Path path, Paint paint) {
+        path.computeBounds(bounds, false);
+        outsetForStroke(paint);
+        int count = keepCoveredTiles(path, paint, collectTiles());
+        for (int i = 0; i < count; i++) {
+            Canvas tile = drawing.beginTile(rangeTiles[i]);
+            tile.drawPath(path, paint);
+            tile.restore();
+        }
+    }
+
+    @Override
+    public void drawPoint(float x, float y, Paint paint) {
+        bounds.set(x, y, x, y);
+        outsetForStroke(paint);
+        int count = collectTiles();
+        for (int i = 0; i < count; i++) {
+            Canvas tile = drawing.beginTile(rangeTiles[i]);
+            tile.drawPoint(x, y, paint);
+            tile.restore();
+        }
+    }
+
+    @Override
+    public void drawBitmap(Bitmap bitmap, float left, float top, Paint paint) {
+        bounds.set(left, top, left + bitmap.getWidth(), top + bitmap.getHeight());
+        int count = collectTiles();
+        for (int i = 0; i < count; i++) {
+            Canvas tile = drawing.beginTile(rangeTiles[i]);
+            tile.drawBitmap(bitmap, left, top, paint);
+            tile.restore();
+        }
+    }
+
+    @Override
+    public void drawBitmap(Bitmap bitmap, Rect src, Rect dst, Paint paint) {
+        bounds.set(dst);
+        int count = collectTiles();
+        for (int i = 0; i < count; i++) {
+            Canvas tile = drawing.beginTile(rangeTiles[i]);
+            tile.drawBitmap(bitmap, src, dst, paint);
+            tile.restore();
+        }
+    }
+
+    @Override
+    public void drawBitmap(Bitmap bitmap, Matrix matrix, Paint paint) {
+        bounds.set(0, 0, bitmap.getWidth(), bitmap.getHeight());
+        matrix.mapRect(bounds);
+        int count = collectTiles();
+        for (int i = 0; i < count; i++) {
+            Canvas tile = drawing.beginTile(rangeTiles[i]);
+            tile.drawBitmap(bitmap, matrix, paint);
+            tile.restore();
+        }
+    }
+
+    @Override
+    public void drawColor(int color) {
+        if (Color.alpha(color) == 255) {
+            // covers everything, tiles can go back to uniform
+            drawing.eraseColor(color);
+            return;
+        }
+        for (int tile = 0; tile < grid.getTileCount(); tile++) {
+            Canvas tileCanvas = drawing.beginTile(tile);
+            tileCanvas.drawColor(color);
+            tileCanvas.restore();
+        }
+    }
+
+    private void outsetForStroke(Paint paint) {
+        if (paint.getStyle() != Paint.Style.FILL) {
+            // wide enough for any cap or join, plus anti-aliasing
+            float outset = paint.getStrokeWidth() + 1;
+            bounds.inset(-outset, -outset);
+        }
+    }
+
+    /**
+     * Keeps the first count tiles of rangeTiles that the painted path reaches, e.g. not the ones
+     * a diagonal stroke only has in its bounds, so that they aren't allocated. Returns their count.
+     */
+    private int keepCoveredTiles(Path path, Paint paint, int count) {
+        if (count <= 1 || (paint.getStyle() == Paint.Style.STROKE && paint.getStrokeWidth() == 0)) {
+            // a hairline has no outline
+            return count;
+        }
+        Path outline = path;
+        if (paint.getStyle() != Paint.Style.FILL) {
+            paint.getFillPath(path, strokeOutline);
+            outline = strokeOutline;
+        }
+        boundsRegion.set((int) Math.floor(bounds.left), (int) Math.floor(bounds.top),
+                (int) Math.ceil(bounds.right), (int) Math.ceil(bounds.bottom));
+        pathRegion.setPath(outline, boundsRegion);
+        int kept = 0;
+        for (int i = 0; i < count; i++) {
+            int tile = rangeTiles[i];
+            int left = grid.tileLeft(tile);
+            int top = grid.tileTop(tile);
+            // the region is aliased, the anti-aliased edge may reach a pixel further
+            tileRegion.set(left - 1, top - 1, left + grid.tileWidth(tile) + 1, top + grid.tileHeight(tile) + 1);
+            if (tileRegion.op(pathRegion, Region.Op.INTERSECT)) {
+                rangeTiles[kept++] = tile;
+            }
+        }
+        strokeOutline.rewind();
+        return kept;
+    }
+
+    // fills rangeTiles with the tiles overlapping bounds, returns their count
+    private int collectTiles() {
+        int lastColumn = grid.lastColumn((int) Math.ceil(bounds.right));
+        int lastRow = grid.lastRow((int) Math.ceil(bounds.bottom));
+        int count = 0;
+        for (int row = grid.firstRow((int) Math.floor(bounds.top)); row <= lastRow; row++) {
+            for (int column = grid.firstColumn((int) Math.floor(bounds.left)); column <= lastColumn; column++) {
+                rangeTiles[count++] = grid.tile(column, row);
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,403 @@
+package fr.fouss.drawy;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Drawing surface made of 256x256 tiles allocated on first draw. A tile without a bitmap is
+ * uniform and only stores its color, so a blank or erased drawing costs almost no memory,
+ * erasing doesn't touch any pixel and only painted tiles are blitted.
+ *
+ * Drawing calls go through {@link #getCanvas()}.
+ *
+ * Snapshots share the tile bitmaps; a shared tile is copied before it is drawn on again
+ * (copy-on-write), so taking one is cheap and it can be read from another thread.
+ *
+ * The tiles of a loaded {@link TileSource} are only read once drawn, read or drawn on. Those a
+ * snapshot reads first are handed back and taken on the next call, instead of being read again.
+ */
+class TiledDrawing implements TiledSurface {
+
+    static final int TILE_SIZE = 256;
+    static final Bitmap.Config CONFIG = Bitmap.Config.ARGB_4444;
+
+    private final TileGrid grid;
+    // null for uniform tiles
+    private final Bitmap[] tiles;
+    private final Canvas[] tileCanvases;
+    private final int[] uniformColors;
+    // tiles whose bitmap is referenced by a snapshot
+    private final boolean[] shared;
+    // tiles still to read from source
+    private final boolean[] pending;
+    private int pendingCount = 0;
+    private TileSource source = null;
+    private int[] sourcePixels = null;
+    // tiles read by the snapshots, from any thread
+    private final ConcurrentLinkedQueue<ReadTile> readTiles = new ConcurrentLinkedQueue<>();
+    private final TiledCanvas canvas;
+    private final Paint fillPaint = new Paint();
+
+    private static final class ReadTile {
+        final TileSource source;
+        final int tile;
+        final Bitmap bitmap;
+
+        ReadTile(TileSource source, int tile, Bitmap bitmap) {
+            this.source = source;
+            this.tile = tile;
+            this.bitmap = bitmap;
+        }
+    }
+
+    TiledDrawing(int width, int height, int color) {
+        grid = new TileGrid(width, height, TILE_SIZE);
+        tiles = new Bitmap[grid.getTileCount()];
+        tileCanvases = new Canvas[grid.getTileCount()];
+        uniformColors = new int[grid.getTileCount()];
+        shared = new boolean[grid.getTileCount()];
+        pending = new boolean[grid.getTileCount()];
+        canvas = new TiledCanvas(this);
+        eraseColor(color);
+    }
+
+    @Override
+    public int getWidth() {
+        return grid.width;
+    }
+
+    @Override
+    public int getHeight() {
+        return grid.height;
+    }
+
+    @Override
+    public TileGrid getGrid() {
+        return grid;
+    }
+
+    Canvas getCanvas() {
+        return canvas;
+    }
+
+    int getAllocatedTileCount() {
+        int count = 0;
+        for (Bitmap tile : tiles) {
+            if (tile != null) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    // the bitmap of a tile, or null when it is uniform
+    Bitmap getTile(int tile) {
+        return tiles[tile];
+    }
+
+    @Override
+    public boolean isUniform(int tile) {
+        return tiles[tile] == null && !pending[tile];
+    }
+
+    @Override
+    public int getUniformColor(int tile) {
+        return uniformColors[tile];
+    }
+
+    void eraseColor(int color) {
+        for (int tile = 0; tile < tiles.length; tile++) {
+            releaseTile(tile, color);
+        }
+    }
+
+    /**
+     * Takes the pixels of source, of the same size and tiles, which are read as they are needed.
+     */
+    void load(TileSource source) {
+        TileGrid sourceGrid = source.getGrid();
+        if (sourceGrid.width != grid.width || sourceGrid.height != grid.height
+                || sourceGrid.tileSize != grid.tileSize) {
+            throw new IllegalArgumentException("The source must have the same tiles");
+        }
+        for (int tile = 0; tile < tiles.length; tile++) {
+            releaseTile(tile, source.getUniformColor(tile));
+            if (!source.isUniform(tile)) {
+                pending[tile] = true;
+                pendingCount++;
+            }
+        }
+        this.source = pendingCount > 0 ? source : null;
+    }
+
+    // tiles of the loaded source not read yet
+    int getPendingTileCount() {
+        return pendingCount;
+    }
+
+    private void loadTile(int tile) {
+        if (sourcePixels == null) {
+            sourcePixels = new int[grid.tileSize * grid.tileSize];
+        }
+        tiles[tile] = readTile(grid, source, tile, sourcePixels);
+        tileCanvases[tile] = new Canvas(tiles[tile]);
+        pending[tile] = false;
+        if (--pendingCount == 0) {
+            dropSource();
+        }
+    }
+
+    private void dropSource() {
+        source = null;
+        sourcePixels = null;
+        readTiles.clear();
+    }
+
+    // called by a snapshot of this drawing that read a tile still pending from source, on any thread
+    void offerReadTile(TileSource source, int tile, Bitmap bitmap) {
+        readTiles.add(new ReadTile(source, tile, bitmap));
+    }
+
+    // the tiles read by the snapshots, shared with them, unless drawn, erased or loaded again since
+    private void takeReadTiles() {
+        ReadTile read;
+        while ((read = readTiles.poll()) != null) {
+            if (read.source == source && pending[read.tile]) {
+                tiles[read.tile] = read.bitmap;
+                tileCanvases[read.tile] = null;
+                shared[read.tile] = true;
+                pending[read.tile] = false;
+                if (--pendingCount == 0) {
+                    dropSource();
+                }
+            }
+        }
+    }
+
+    // shared with the snapshots, which read the tiles they still share as pending on their own
+    static Bitmap readTile(TileGrid grid, TileSource source, int tile, int[] pixels) {
+        int width = grid.tileWidth(tile);
+        int height = grid.tileHeight(tile);
+        source.getPixels(pixels, grid.tileLeft(tile), grid.tileTop(tile), width, height);
+        Bitmap bitmap = Bitmap.createBitmap(width, height, CONFIG);
+        bitmap.setPixels(pixels, 0, width, 0, 0, width, height);
+        return bitmap;
+    }
+
+    // all of source in one bitmap, read a tile at a time, e.g. on a worker
+    static Bitmap readBitmap(TileSource source) {
+        TileGrid grid = source.getGrid();
+        Bitmap bitmap = Bitmap.createBitmap(grid.width, grid.height, Bitmap.Config.ARGB_8888);
+        int[] pixels = new int[grid.tileSize * grid.tileSize];
+        for (int tile = 0; tile < grid.getTileCount(); tile++) {
+            int width = grid.tileWidth(tile);
+            int height = grid.tileHeight(tile);
+            if (source.isUniform(tile)) {
+                java.util.Arrays.fill(pixels, 0, width * height, source.getUniformColor(tile));
+            } else {
+                source.getPixels(pixels, grid.tileLeft(tile), grid.tileTop(tile), width, height);
+            }
+            bitmap.setPixels(pixels, 0, width, grid.tileLeft(tile), grid.tileTop(tile), width, height);
+        }
+        return bitmap;
+    }
+
+    // the tiles of layout with their pixels read from bitmap, the same image already read
+    static TileSource bitmapSource(final TileSource layout, final Bitmap bitmap) {
+        return new TileSource() {
+            @Override
+            public TileGrid getGrid() {
+                return layout.getGrid();
+            }
+
+            @Override
+            public boolean isUniform(int tile) {
+                return layout.isUniform(tile);
+            }
+
+            @Override
+            public int getUniformColor(int tile) {
+                return layout.getUniformColor(tile);
+            }
+
+            @Override
+            public void getPixels(int[] dst, int x, int y, int w, int h) {
+                bitmap.getPixels(dst, 0, w, x, y, w, h);
+            }
+        };
+    }
+
+    /**
+     * Canvas to draw on the given tile, in drawing coordinates. The tile is allocated if needed.
+     * Callers must restore the canvas once done.
+     */
+    Canvas beginTile(int tile) {
+        if (pendingCount > 0) {
+            takeReadTiles();
+        }
+        if (pending[tile]) {
+            loadTile(tile);
+        }
+        if (tiles[tile] == null) {
+            Bitmap bitmap = Bitmap.createBitmap(grid.tileWidth(tile), grid.tileHeight(tile), CONFIG);
+            bitmap.eraseColor(uniformColors[tile]);
+            tiles[tile] = bitmap;
+            tileCanvases[tile] = new Canvas(bitmap);
+        } else if (shared[tile]) {
+            Bitmap copy = tiles[tile].copy(CONFIG, true);
+            tiles[tile] = copy;
+            tileCanvases[tile] = new Canvas(copy);
+            shared[tile] = false;
+        }
+        Canvas tileCanvas = tileCanvases[tile];
+        tileCanvas.save();
+        tileCanvas.translate(-grid.tileLeft(tile), -grid.tileTop(tile));
+        return tileCanvas;
+    }
+
+    private void releaseTile(int tile, int color) {
+        tiles[tile] = null;
+        tileCanvases[tile] = null;
+        uniformColors[tile] = color;
+        shared[tile] = false;
+        if (pending[tile]) {
+            pending[tile] = false;
+            if (--pendingCount == 0) {
+                dropSource();
+            }
+        }
+    }
+
+    ///// RENDERING /////
+
+    // draws the tiles overlapping clip at their position on canvas
+    void draw(Canvas canvas, Rect clip) {
+        if (pendingCount > 0) {
+            takeReadTiles();
+        }
+        int lastColumn = grid.lastColumn(clip.right);
+        int lastRow = grid.lastRow(clip.bottom);
+        for (int row = grid.firstRow(clip.top); row <= lastRow; row++) {
+            for (int column = grid.firstColumn(clip.left); column <= lastColumn; column++) {
+                drawTile(canvas, grid.tile(column, row));
+            }
+        }
+    }
+
+    private void drawTile(Canvas canvas, int tile) {
+        if (pending[tile]) {
+            loadTile(tile);
+        }
+        int left = grid.tileLeft(tile);
+        int top = grid.tileTop(tile);
+        if (tiles[tile] != null) {
+            canvas.drawBitmap(tiles[tile], left, top, null);
+        } else {
+            fillPaint.setColor(uniformColors[tile]);
+            canvas.drawRect(left, top, left + grid.tileWidth(tile), top + grid.tileHeight(tile), fillPaint);
+        }
+    }
+
+    DrawingSnapshot snapshot() {
+        if (pendingCount > 0) {
+            takeReadTiles();
+        }
+        for (int tile = 0; tile < tiles.length; tile++) {
+            shared[tile] = tiles[tile] != null;
+        }
+        return new DrawingSnapshot(grid, tiles.clone(), uniformColors.clone(),
+                pendingCount > 0 ? pending.clone() : null, source, this);
+    }
+
+    ///// PIXELS /////
+
+    @Override
+    public void getPixels(int[] dst, int x, int y, int w, int h) {
+        if (pendingCount > 0) {
+            takeReadTiles();
+            loadTiles(x, y, x + w, y + h);
+        }
+        getPixels(grid, tiles, uniformColors, dst, x, y, w, h);
+    }
+
+    private void loadTiles(int left, int top, int right, int bottom) {
+        int lastColumn = grid.lastColumn(right);
+        int lastRow = grid.lastRow(bottom);
+        for (int row = grid.firstRow(top); row <= lastRow; row++) {
+            for (int column = grid.firstColumn(left); column <= lastColumn; column++) {
+                int tile = grid.tile(column, row);
+                if (pending[tile]) {
+                    loadTile(tile);
+                }
+            }
+        }
+    }
+
+    // shared with the snapshots, which hold the same tiles
+    static void getPixels(TileGrid grid, Bitmap[] tiles, int[] uniformColors,
+                          int[] dst, int x, int y, int w, int h) {
+        int lastColumn = grid.lastColumn(x + w);
+        int lastRow = grid.lastRow(y + h);
+        for (int row = grid.firstRow(y); row <= lastRow; row++) {
+            for (int column = grid.firstColumn(x); column <= lastColumn; column++) {
+                int tile = grid.tile(column, row);
+                int left = Math.max(x, grid.tileLeft(tile));
+                int top = Math.max(y, grid.tileTop(tile));
+                int right = Math.min(x + w, grid.tileLeft(tile) + grid.tileWidth(tile));
+                int bottom = Math.min(y + h, grid.tileTop(tile) + grid.tileHeight(tile));
+                int offset = (top - y) * w + (left - x);
+                if (tiles[tile] != null) {
+                    tiles[tile].getPixels(dst, offset, w, left - grid.tileLeft(tile), top - grid.tileTop(tile),
+                            right - left, bottom - top);
+                } else {
+                    for (int line = 0; line < bottom - top; line++) {
+                        int start = offset + line * w;
+                        java.util.Arrays.fill(dst, start, start + right - left, uniformColors[tile]);
+                    }
+                }
+            }
+        }
+    }
+
+    @Override
+    public void setPixels(int[] src, int x, int y, int w, int h) {
+        int lastColumn = grid.lastColumn(x + w);
+        int lastRow = grid.lastRow(y + h);
+        for (int row = grid.firstRow(y); row <= lastRow; row++) {
+            for (int column = grid.firstColumn(x); column <= lastColumn; column++) {
+                int tile = grid.tile(column, row);
+                int left = Math.max(x, grid.tileLeft(tile));
+                int top = Math.max(y, grid.tileTop(tile));
+                int right = Math.min(x + w, grid.tileLeft(tile) + grid.tileWidth(tile));
+                int bottom = Math.min(y + h, grid.tileTop(tile) + grid.tileHeight(tile));
+                int offset = (top - y) * w + (left - x);
+                boolean wholeTile = right - left == grid.tileWidth(tile) && bottom - top == grid.tileHeight(tile);
+                if (wholeTile && isUniform(src, offset, w, right - left, bottom - top)) {
+                    // e.g. undoing the first stroke over a blank tile
+                    releaseTile(tile, src[offset]);
+                    continue;
+                }
+                beginTile(tile).restore();
+                tiles[tile].setPixels(src, offset, w, left - grid.tileLeft(tile), top - grid.tileTop(tile),
+                        right - left, bottom - top);
+            }
+        }
+    }
+
+    private static boolean isUniform(int[] pixels, int offset, int stride, int w, int h) {
+        int color = pixels[offset];
+        for (int line = 0; line < h; line++) {
+            int start = offset + line * stride;
+            for (int i = start; i < start + w; i++) {
+                if (pixels[i] != color) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,8 @@
+package fr.fouss.drawy;
+
+/**
+ * {@link PixelSurface} split in tiles, some of them being of a single color that can be known
+ * without reading their pixels.
+ */
+interface TiledSurface extends PixelSurface, TileSource {
+}
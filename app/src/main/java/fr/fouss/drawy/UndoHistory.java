@@ -0,0 +1,351 @@
+package fr.fouss.drawy;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Undo/redo of a {@link PixelSurface} by tile deltas: a change only keeps a copy of the tiles
+ * it touched, captured right before they are first modified (copy-on-write). Undo and redo swap
+ * those copies with the surface content, so each entry serves both directions. Changes can be
+ * recorded on several surfaces of the same size, e.g. layers, each one being restored on its own.
+ *
+ * The history is bounded by a byte budget. Past it, the oldest entries are deflated first if
+ * compression is enabled, then dropped.
+ */
+class UndoHistory {
+
+    static final int DEFAULT_TILE_SIZE = 64;
+
+    // bookkeeping cost of an entry and of each of its tiles, besides pixels
+    private static final int ENTRY_OVERHEAD = 64;
+    private static final int TILE_OVERHEAD = 24;
+
+    // the surface the next changes are recorded on
+    private PixelSurface surface;
+    private final TileGrid grid;
+    private long byteBudget;
+    private boolean compressEvicted;
+
+    // most recent first
+    private final ArrayDeque<Entry> undoStack = new ArrayDeque<>();
+    private final ArrayDeque<Entry> redoStack = new ArrayDeque<>();
+    private long byteSize = 0;
+
+    private Entry current = null;
+    private final long[] capturedTiles;
+    private final int[] swapBuffer;
+    private final DirtyRect restored = new DirtyRect();
+
+    UndoHistory(PixelSurface surface, int tileSize, long byteBudget, boolean compressEvicted) {
+        this.surface = surface;
+        this.grid = new TileGrid(surface.getWidth(), surface.getHeight(), tileSize);
+        this.byteBudget = byteBudget;
+        this.compressEvicted = compressEvicted;
+        this.capturedTiles = new long[(grid.getTileCount() + 63) / 64];
+        this.swapBuffer = new int[tileSize * tileSize];
+    }
+
+    ///// SETTINGS /////
+
+    void setByteBudget(long byteBudget) {
+        this.byteBudget = byteBudget;
+        enforceBudget();
+    }
+
+    long getByteBudget() {
+        return byteBudget;
+    }
+
+    void setCompressEvicted(boolean compressEvicted) {
+        this.compressEvicted = compressEvicted;
+        enforceBudget();
+    }
+
+    long getByteSize() {
+        return byteSize;
+    }
+
+    ///// RECORDING /////
+
+    /**
+     * Records the next changes on surface, of the size of the first one.
+     */
+    void setSurface(PixelSurface surface) {
+        if (current != null) {
+            throw new IllegalStateException("A change is being recorded");
+        }
+        if (surface.getWidth() != grid.width || surface.getHeight() != grid.height) {
+            throw new IllegalArgumentException("The surfaces must have the same size");
+        }
+        this.surface = surface;
+    }
+
+    void beginChange() {
+        if (current != null) {
+            throw new IllegalStateException("A change is already being recorded");
+        }
+        current = new Entry(surface);
+    }
+
+    /**
+     * Saves the tiles overlapping [left;right[ x [top;bottom[ that this change didn't save yet.
+     * Must be called before those pixels are modified.
+     */
+    void capture(int left, int top, int right, int bottom) {
+        if (current == null) {
+            throw new IllegalStateException("No change is being recorded");
+        }
+        int lastColumn = grid.lastColumn(right);
+        int lastRow = grid.lastRow(bottom);
+        for (int row = grid.firstRow(top); row <= lastRow; row++) {
+            for (int column = grid.firstColumn(left); column <= lastColumn; column++) {
+                int tile = grid.tile(column, row);
+                if ((capturedTiles[tile >> 6] & (1L << tile)) != 0) {
+                    continue;
+                }
+                capturedTiles[tile >> 6] |= 1L << tile;
+                int[] pixels = new int[grid.tileWidth(tile) * grid.tileHeight(tile)];
+                current.surface.getPixels(pixels, grid.tileLeft(tile), grid.tileTop(tile),
+                        grid.tileWidth(tile), grid.tileHeight(tile));
+                current.add(tile, pixels);
+            }
+        }
+    }
+
+    void endChange() {
+        Entry entry = finishCurrent();
+        entry.updateByteSize();
+        byteSize += entry.byteSize;
+        undoStack.push(entry);
+        while (!redoStack.isEmpty()) {
+            byteSize -= redoStack.pop().byteSize;
+        }
+        enforceBudget();
+    }
+
+    /**
+     * Forgets the current change, the caller is responsible for not having modified the surface.
+     * The changes that could be redone are dropped as if the change had been ended, like
+     * {@link DrawingLog#cancelStroke} does, so the history and the log stay in step.
+     */
+    void cancelChange() {
+        finishCurrent();
+        while (!redoStack.isEmpty()) {
+            byteSize -= redoStack.pop().byteSize;
+        }
+    }
+
+    private Entry finishCurrent() {
+        if (current == null) {
+            throw new IllegalStateException("No change is being recorded");
+        }
+        Entry entry = current;
+        for (int i = 0; i < entry.tileCount; i++) {
+            int tile = entry.tiles[i];
+            capturedTiles[tile >> 6] &= ~(1L << tile);
+        }
+        current = null;
+        return entry;
+    }
+
+    ///// UNDO / REDO /////
+
+    boolean canUndo() {
+        return !undoStack.isEmpty();
+    }
+
+    boolean canRedo() {
+        return !redoStack.isEmpty();
+    }
+
+    int getUndoCount() {
+        return undoStack.size();
+    }
+
+    boolean undo() {
+        return move(undoStack, redoStack);
+    }
+
+    boolean redo() {
+        return move(redoStack, undoStack);
+    }
+
+    // pixels the last undo or redo changed, empty when it only held an empty change
+    DirtyRect getRestored() {
+        return restored;
+    }
+
+    void clear() {
+        undoStack.clear();
+        redoStack.clear();
+        byteSize = 0;
+    }
+
+    private boolean move(ArrayDeque<Entry> from, ArrayDeque<Entry> to) {
+        if (current != null || from.isEmpty()) {
+            return false;
+        }
+        Entry entry = from.pop();
+        byteSize -= entry.byteSize;
+        swap(entry);
+        entry.updateByteSize();
+        byteSize += entry.byteSize;
+        to.push(entry);
+        enforceBudget();
+        return true;
+    }
+
+    // exchanges the saved tiles with the surface content
+    private void swap(Entry entry) {
+        if (entry.compressed != null) {
+            inflate(entry);
+        }
+        restored.setEmpty();
+        for (int i = 0; i < entry.tileCount; i++) {
+            int tile = entry.tiles[i];
+            int[] saved = entry.pixels[i];
+            int x = grid.tileLeft(tile);
+            int y = grid.tileTop(tile);
+            int w = grid.tileWidth(tile);
+            int h = grid.tileHeight(tile);
+            entry.surface.getPixels(swapBuffer, x, y, w, h);
+            entry.surface.setPixels(saved, x, y, w, h);
+            System.arraycopy(swapBuffer, 0, saved, 0, w * h);
+            restored.set(Math.min(restored.left, x), Math.min(restored.top, y),
+                    Math.max(restored.right, x + w), Math.max(restored.bottom, y + h));
+        }
+    }
+
+    ///// BUDGET /////
+
+    private void enforceBudget() {
+        if (compressEvicted) {
+            Iterator<Entry> oldest = undoStack.descendingIterator();
+            while (byteSize > byteBudget && oldest.hasNext()) {
+                Entry entry = oldest.next();
+                if (entry.compressed == null) {
+                    byteSize -= entry.byteSize;
+                    deflate(entry);
+                    entry.updateByteSize();
+                    byteSize += entry.byteSize;
+                }
+            }
+        }
+        while (byteSize > byteBudget && !undoStack.isEmpty()) {
+            byteSize -= undoStack.removeLast().byteSize;
+        }
+        while (byteSize > byteBudget && !redoStack.isEmpty()) {
+            byteSize -= redoStack.removeLast().byteSize;
+        }
+    }
+
+    private void deflate(Entry entry) {
+        byte[] raw = new byte[entry.pixelCount() * 4];
+        int offset = 0;
+        for (int i = 0; i < entry.tileCount; i++) {
+            for (int pixel : entry.pixels[i]) {
+                raw[offset++] = (byte) (pixel >>> 24);
+                raw[offset++] = (byte) (pixel >>> 16);
+                raw[offset++] = (byte) (pixel >>> 8);
+                raw[offset++] = (byte) pixel;
+            }
+            entry.pixels[i] = null;
+        }
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        deflater.setInput(raw);
+        deflater.finish();
+        byte[] out = new byte[Math.max(64, raw.length / 4)];
+        int length = 0;
+        while (!deflater.finished()) {
+            if (length == out.length) {
+                byte[] bigger = new byte[out.length * 2];
+                System.arraycopy(out, 0, bigger, 0, length);
+                out = bigger;
+            }
+            length += deflater.deflate(out, length, out.length - length);
+        }
+        deflater.end();
+        entry.compressed = new byte[length];
+        System.arraycopy(out, 0, entry.compressed, 0, length);
+    }
+
+    private void inflate(Entry entry) {
+        int pixelCount = 0;
+        for (int i = 0; i < entry.tileCount; i++) {
+            pixelCount += grid.tileWidth(entry.tiles[i]) * grid.tileHeight(entry.tiles[i]);
+        }
+        byte[] raw = new byte[pixelCount * 4];
+        Inflater inflater = new Inflater();
+        inflater.setInput(entry.compressed);
+        try {
+            int length = 0;
+            while (length < raw.length && !inflater.finished()) {
+                length += inflater.inflate(raw, length, raw.length - length);
+            }
+        } catch (DataFormatException e) {
+            throw new IllegalStateException("Corrupted undo history", e);
+        } finally {
+            inflater.end();
+        }
+        int offset = 0;
+        for (int i = 0; i < entry.tileCount; i++) {
+            int[] pixels = new int[grid.tileWidth(entry.tiles[i]) * grid.tileHeight(entry.tiles[i])];
+            for (int p = 0; p < pixels.length; p++) {
+                pixels[p] = (raw[offset] & 0xff) << 24 | (raw[offset + 1] & 0xff) << 16
+                        | (raw[offset + 2] & 0xff) << 8 | (raw[offset + 3] & 0xff);
+                offset += 4;
+            }
+            entry.pixels[i] = pixels;
+        }
+        entry.compressed = null;
+    }
+
+    private static final class Entry {
+        final PixelSurface surface;
+        int[] tiles = new int[8];
+        int[][] pixels = new int[8][];
+        int tileCount = 0;
+        // all tile pixels deflated together, pixels are null while set
+        byte[] compressed = null;
+        long byteSize = 0;
+
+        Entry(PixelSurface surface) {
+            this.surface = surface;
+        }
+
+        void add(int tile, int[] tilePixels) {
+            if (tileCount == tiles.length) {
+                int[] newTiles = new int[tileCount * 2];
+                int[][] newPixels = new int[tileCount * 2][];
+                System.arraycopy(tiles, 0, newTiles, 0, tileCount);
+                System.arraycopy(pixels, 0, newPixels, 0, tileCount);
+                tiles = newTiles;
+                pixels = newPixels;
+            }
+            tiles[tileCount] = tile;
+            pixels[tileCount] = tilePixels;
+            tileCount++;
+        }
+
+        int pixelCount() {
+            int count = 0;
+            for (int i = 0; i < tileCount; i++) {
+                count += pixels[i].length;
+            }
+            return count;
+        }
+
+        void updateByteSize() {
+            long size = ENTRY_OVERHEAD + (long) TILE_OVERHEAD * tileCount;
+            if (compressed != null) {
+                size += compressed.length;
+            } else {
+                size += 4L * pixelCount();
+            }
+            byteSize = size;
+        }
+    }
+}
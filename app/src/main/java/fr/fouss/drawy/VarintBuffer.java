@@ -0,0 +1,94 @@
+package fr.fouss.drawy;
+
+import java.util.Arrays;
+
+/**
+ * Growable byte buffer of LEB128 varints, reused between encodings so it doesn't allocate
+ * once it reached its working size. Signed values are zigzag encoded so small negative
+ * deltas stay short.
+ */
+class VarintBuffer {
+
+    private byte[] bytes;
+    private int size = 0;
+    private int position = 0;
+
+    VarintBuffer() {
+        this(256);
+    }
+
+    VarintBuffer(int capacity) {
+        bytes = new byte[Math.max(16, capacity)];
+    }
+
+    void clear() {
+        size = 0;
+        position = 0;
+    }
+
+    // number of bytes written
+    int size() {
+        return size;
+    }
+
+    byte[] getBytes() {
+        return bytes;
+    }
+
+    /**
+     * Replaces the content with length bytes of src and reads from its start.
+     */
+    void wrap(byte[] src, int offset, int length) {
+        clear();
+        ensureCapacity(length);
+        System.arraycopy(src, offset, bytes, 0, length);
+        size = length;
+    }
+
+    ///// WRITING /////
+
+    void writeVarint(int value) {
+        ensureCapacity(size + 5);
+        while ((value & ~0x7f) != 0) {
+            bytes[size++] = (byte) ((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        bytes[size++] = (byte) value;
+    }
+
+    void writeSignedVarint(int value) {
+        writeVarint((value << 1) ^ (value >> 31));
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > bytes.length) {
+            bytes = Arrays.copyOf(bytes, Math.max(capacity, bytes.length * 2));
+        }
+    }
+
+    ///// READING /////
+
+    boolean hasRemaining() {
+        return position < size;
+    }
+
+    int readVarint() {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            if (position >= size) {
+                throw new IllegalStateException("Truncated varint");
+            }
+            byte b = bytes[position++];
+            value |= (b & 0x7f) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IllegalStateException("Malformed varint");
+    }
+
+    int readSignedVarint() {
+        int value = readVarint();
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
@@ -0,0 +1,46 @@
+package fr.fouss.drawy;
+
+/**
+ * Mutable 2D vector, every operation works in place so gesture handling doesn't allocate.
+ */
+class Vector2D {
+    float x;
+    float y;
+
+    Vector2D(float x, float y) {
+        this.x = x;
+        this.y = y;
+    }
+
+    Vector2D() {
+        this.x = 0;
+        this.y = 0;
+    }
+
+    void set(float x, float y) {
+        this.x = x;
+        this.y = y;
+    }
+
+    // this = a - b
+    void setDiff(Vector2D a, Vector2D b) {
+        x = a.x - b.x;
+        y = a.y - b.y;
+    }
+
+    float getLength() {
+        return (float)Math.sqrt(x*x + y*y);
+    }
+
+    // atan2 of cross and dot products, no normalization needed
+    static float getSignedAngleBetween(Vector2D a, Vector2D b) {
+        float cross = a.x * b.y - a.y * b.x;
+        float dot = a.x * b.x + a.y * b.y;
+        return (float)Math.atan2(cross, dot);
+    }
+
+    @Override
+    public String toString() {
+        return "(" + x + ";" + y + ")";
+    }
+}
@@ -0,0 +1,122 @@
+package fr.fouss.drawy;
+
+/**
+ * Zoom and pan of the drawing inside the view: a drawing point (x;y) shows at
+ * (x * scale + offsetX; y * scale + offsetY) on screen.
+ *
+ * The drawing never leaves the view: along an axis where it is smaller than the view it stays
+ * entirely visible, otherwise it covers the view.
+ */
+class Viewport {
+
+    static final float MIN_SCALE = 0.125f;
+    static final float MAX_SCALE = 8;
+    // pre-scaled levels down to MIN_SCALE, level 0 being the drawing itself
+    static final int LEVEL_COUNT = ImagePyramid.levelForScale(MIN_SCALE, Integer.MAX_VALUE) + 1;
+
+    private final int drawingWidth;
+    private final int drawingHeight;
+    private int viewWidth;
+    private int viewHeight;
+    private float scale = 1;
+    private float offsetX = 0;
+    private float offsetY = 0;
+
+    Viewport(int drawingWidth, int drawingHeight) {
+        this.drawingWidth = drawingWidth;
+        this.drawingHeight = drawingHeight;
+        viewWidth = drawingWidth;
+        viewHeight = drawingHeight;
+    }
+
+    void setViewSize(int width, int height) {
+        viewWidth = width;
+        viewHeight = height;
+        clamp();
+    }
+
+    float getScale() {
+        return scale;
+    }
+
+    float getOffsetX() {
+        return offsetX;
+    }
+
+    float getOffsetY() {
+        return offsetY;
+    }
+
+    boolean isIdentity() {
+        return scale == 1 && offsetX == 0 && offsetY == 0;
+    }
+
+    // level of pre-scaled tiles to show the drawing from
+    int getLevel() {
+        return ImagePyramid.levelForScale(scale, LEVEL_COUNT);
+    }
+
+    float toDrawingX(float screenX) {
+        return (screenX - offsetX) / scale;
+    }
+
+    float toDrawingY(float screenY) {
+        return (screenY - offsetY) / scale;
+    }
+
+    float toScreenX(float drawingX) {
+        return drawingX * scale + offsetX;
+    }
+
+    float toScreenY(float drawingY) {
+        return drawingY * scale + offsetY;
+    }
+
+    void reset() {
+        scale = 1;
+        offsetX = 0;
+        offsetY = 0;
+        clamp();
+    }
+
+    void pan(float dx, float dy) {
+        offsetX += dx;
+        offsetY += dy;
+        clamp();
+    }
+
+    // scales by factor around a screen point, which keeps showing the same drawing point
+    void zoom(float factor, float focusX, float focusY) {
+        float newScale = Math.max(MIN_SCALE, Math.min(MAX_SCALE, scale * factor));
+        offsetX = focusX - (focusX - offsetX) * newScale / scale;
+        offsetY = focusY - (focusY - offsetY) * newScale / scale;
+        scale = newScale;
+        clamp();
+    }
+
+    // screen pixels covering the drawing rect, out may be rect
+    void toScreen(DirtyRect rect, DirtyRect out) {
+        out.set((int) Math.floor(toScreenX(rect.left)), (int) Math.floor(toScreenY(rect.top)),
+                (int) Math.ceil(toScreenX(rect.right)), (int) Math.ceil(toScreenY(rect.bottom)));
+    }
+
+    // drawing pixels under the screen rect, clipped to the drawing
+    void toDrawing(int left, int top, int right, int bottom, DirtyRect out) {
+        out.set(Math.max(0, (int) Math.floor(toDrawingX(left))),
+                Math.max(0, (int) Math.floor(toDrawingY(top))),
+                Math.min(drawingWidth, (int) Math.ceil(toDrawingX(right))),
+                Math.min(drawingHeight, (int) Math.ceil(toDrawingY(bottom))));
+    }
+
+    private void clamp() {
+        offsetX = clampOffset(offsetX, drawingWidth * scale, viewWidth);
+        offsetY = clampOffset(offsetY, drawingHeight * scale, viewHeight);
+    }
+
+    private static float clampOffset(float offset, float size, int viewSize) {
+        if (size <= viewSize) {
+            return Math.max(0, Math.min(viewSize - size, offset));
+        }
+        return Math.max(viewSize - size, Math.min(0, offset));
+    }
+}
@@ -0,0 +1,51 @@
+package fr.fouss.drawy;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class DirtyRectTest {
+
+    static void assertRect(int l, int t, int r, int b, DirtyRect rect) {
+        assertEquals(l, rect.left);
+        assertEquals(t, rect.top);
+        assertEquals(r, rect.right);
+        assertEquals(b, rect.bottom);
+    }
+
+    @Test
+    public void newRect_isEmpty() throws Exception {
+        assertTrue(new DirtyRect().isEmpty());
+    }
+
+    @Test
+    public void fractionalBounds_roundOutwards() throws Exception {
+        DirtyRect rect = new DirtyRect();
+        rect.unionPoint(10.4f, 20.6f, 2.5f);
+        assertRect(6, 17, 14, 25, rect);
+    }
+
+    @Test
+    public void setEmpty_resetsUnion() throws Exception {
+        DirtyRect rect = new DirtyRect();
+        rect.unionPoint(10, 10, 1);
+        rect.setEmpty();
+        assertTrue(rect.isEmpty());
+        rect.unionPoint(50, 50, 0);
+        assertRect(49, 49, 51, 51, rect);
+    }
+
+    @Test
+    public void unionOfRects_keepsTheirBounds() throws Exception {
+        DirtyRect rect = new DirtyRect();
+        DirtyRect other = new DirtyRect();
+        other.set(10, 20, 30, 40);
+        rect.union(other);
+        assertRect(10, 20, 30, 40, rect);
+        other.set(0, 25, 20, 50);
+        rect.union(other);
+        assertRect(0, 20, 30, 50, rect);
+        rect.union(new DirtyRect());
+        assertRect(0, 20, 30, 50, rect);
+    }
+}
@@ -0,0 +1,302 @@
+package fr.fouss.drawy;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class DrawingLogTest {
+
+    // records every call as a readable line
+    private static class FakeCanvas implements ReplayCanvas {
+        final List<String> calls = new ArrayList<>();
+
+        @Override
+        public void clear(int color) {
+            calls.add("clear " + Integer.toHexString(color));
+        }
+
+        @Override
+        public void drawBackground(int imageId) {
+            calls.add("background " + imageId);
+        }
+
+        @Override
+        public void drawStroke(float[] points, int pointCount, int color, float width, int cap, int join) {
+            StringBuilder call = new StringBuilder("stroke " + Integer.toHexString(color)
+                    + " " + width + " " + cap + " " + join);
+            for (int p = 0; p < pointCount; p++) {
+                call.append(" ").append(points[2 * p]).append(",").append(points[2 * p + 1]);
+            }
+            calls.add(call.toString());
+        }
+
+        @Override
+        public void drawImage(int imageId, float x, float y, float scale, float degrees) {
+            calls.add("image " + imageId + " " + x + " " + y + " " + scale + " " + degrees);
+        }
+
+        @Override
+        public void drawStamps(float[] points, int pointCount, int color, float size) {
+            StringBuilder call = new StringBuilder("stamps " + Integer.toHexString(color) + " " + size);
+            for (int p = 0; p < pointCount; p++) {
+                call.append(" ").append(points[3 * p]).append(",").append(points[3 * p + 1])
+                        .append(",").append(points[3 * p + 2]);
+            }
+            calls.add(call.toString());
+        }
+
+        @Override
+        public void drawFill(int[] mask, int offset, int left, int top, int width, int height, int color) {
+            StringBuilder call = new StringBuilder("fill " + Integer.toHexString(color)
+                    + " " + left + "," + top + " " + width + "x" + height);
+            for (int i = 0; i < height * DrawingLog.maskWordsPerRow(width); i++) {
+                call.append(" ").append(Integer.toBinaryString(mask[offset + i]));
+            }
+            calls.add(call.toString());
+        }
+
+        @Override
+        public void selectLayer(int layer, int opacity, int mode) {
+            calls.add("layer " + layer + " " + opacity + " " + mode);
+        }
+    }
+
+    @Test
+    public void replay_rebuildsOperationsInOrder() throws Exception {
+        DrawingLog log = new DrawingLog();
+        log.clear(0xffffffff);
+        log.background(0);
+        log.beginStroke(0xff000000, 20, 1, 1);
+        log.addPoint(1, 2);
+        log.addPoint(3.5f, 4);
+        log.endStroke();
+        log.image(1, 50, 60, 0.5f, 90);
+
+        FakeCanvas canvas = new FakeCanvas();
+        log.replay(canvas);
+
+        assertEquals(4, log.size());
+        assertEquals(DrawingLog.OP_STROKE, log.getType(2));
+        assertEquals("clear ffffffff", canvas.calls.get(0));
+        assertEquals("background 0", canvas.calls.get(1));
+        assertEquals("stroke ff000000 20.0 1 1 1.0,2.0 3.5,4.0", canvas.calls.get(2));
+        assertEquals("image 1 50.0 60.0 0.5 90.0", canvas.calls.get(3));
+    }
+
+    @Test
+    public void strokeBeingRecorded_isNotReplayed() throws Exception {
+        DrawingLog log = new DrawingLog();
+        log.clear(0);
+        log.beginStroke(0xff000000, 5, 0, 0);
+        log.addPoint(1, 1);
+        assertEquals(1, log.size());
+
+        FakeCanvas canvas = new FakeCanvas();
+        log.replay(canvas);
+        assertEquals(1, canvas.calls.size());
+    }
+
+    @Test
+    public void cancelStroke_dropsIt() throws Exception {
+        DrawingLog log = new DrawingLog();
+        log.beginStroke(0xff000000, 5, 0, 0);
+        log.addPoint(1, 1);
+        log.cancelStroke();
+        log.beginStroke(0xffff0000, 5, 0, 0);
+        log.addPoint(9, 9);
+        log.endStroke();
+
+        FakeCanvas canvas = new FakeCanvas();
+        log.replay(canvas);
+        assertEquals(1, log.size());
+        assertEquals("stroke ffff0000 5.0 0 0 9.0,9.0", canvas.calls.get(0));
+    }
+
+    @Test
+    public void strokeAfterUndo_overwritesTheRedoneOps() throws Exception {
+        DrawingLog log = new DrawingLog();
+        log.beginStroke(0xff000000, 5, 0, 0);
+        log.addPoint(1, 1);
+        log.addPoint(2, 2);
+        log.endStroke();
+        assertTrue(log.undo());
+        assertTrue(log.canRedo());
+        log.beginStroke(0xffff0000, 5, 0, 0);
+        assertFalse(log.canRedo());
+        log.addPoint(9, 9);
+        log.endStroke();
+
+        FakeCanvas canvas = new FakeCanvas();
+        log.replay(canvas);
+        assertEquals(1, log.size());
+        assertEquals("stroke ffff0000 5.0 0 0 9.0,9.0", canvas.calls.get(0));
+        assertFalse(log.redo());
+    }
+
+    @Test
+    public void longStrokes_growBuffers() throws Exception {
+        DrawingLog log = new DrawingLog();
+        for (int s = 0; s < 100; s++) {
+            log.beginStroke(s, 1, 0, 0);
+            for (int p = 0; p < 1000; p++) {
+                log.addPoint(p, s);
+            }
+            log.endStroke();
+        }
+        assertEquals(100, log.size());
+        // 2 words per point plus headers and offsets
+        assertEquals(100 * (1000 * 2 + DrawingLog.STROKE_HEADER + 1) * 4, log.getByteSize());
+
+        final int[] count = new int[1];
+        log.replay(new FakeCanvas() {
+            @Override
+            public void drawStroke(float[] points, int pointCount, int color, float width, int cap, int join) {
+                assertEquals(1000, pointCount);
+                assertEquals(999, points[2 * 999], 0);
+                assertEquals(color, points[1], 0);
+                count[0]++;
+            }
+        });
+        assertEquals(100, count[0]);
+    }
+
+    @Test
+    public void undoRedo_movesCursor() throws Exception {
+        DrawingLog log = new DrawingLog();
+        log.clear(0);
+        log.image(0, 1, 1, 1, 0);
+        log.image(1, 2, 2, 1, 0);
+        assertTrue(log.undo());
+        assertEquals(2, log.size());
+        assertTrue(log.redo());
+        assertFalse(log.redo());
+        assertEquals(3, log.size());
+
+        log.undo();
+        log.undo();
+        log.image(2, 3, 3, 1, 0);
+        assertFalse(log.redo());
+
+        FakeCanvas canvas = new FakeCanvas();
+        log.replay(canvas);
+        assertEquals(2, canvas.calls.size());
+        assertEquals("image 2 3.0 3.0 1.0 0.0", canvas.calls.get(1));
+    }
+
+    @Test
+    public void copy_keepsCompletedOperationsOnly() throws Exception {
+        DrawingLog log = new DrawingLog();
+        log.clear(0);
+        log.image(0, 1, 1, 1, 0);
+        log.image(1, 2, 2, 1, 0);
+        log.undo();
+        log.beginStroke(0xff000000, 5, 0, 0);
+        log.addPoint(1, 1);
+
+        DrawingLog copy = log.copy();
+        log.endStroke();
+        assertEquals(2, copy.size());
+        assertFalse(copy.redo());
+
+        FakeCanvas canvas = new FakeCanvas();
+        copy.replay(canvas);
+        assertEquals(2, canvas.calls.size());
+        assertEquals("image 0 1.0 1.0 1.0 0.0", canvas.calls.get(1));
+
+        // the copy grows on its own
+        copy.image(2, 3, 3, 1, 0);
+        assertEquals(3, copy.size());
+        assertEquals(3, log.size());
+        assertEquals(DrawingLog.OP_STROKE, log.getType(2));
+    }
+
+    @Test
+    public void stamps_replayWithTheirPressure() throws Exception {
+        DrawingLog log = new DrawingLog();
+        log.beginStamps(0x80ff0000, 30);
+        log.addStampPoint(1, 2, 0.25f);
+        log.addStampPoint(3, 4, 1);
+        log.endStroke();
+        assertEquals(DrawingLog.OP_STAMPS, log.getType(0));
+        assertEquals(DrawingLog.STAMPS_HEADER + 6, log.getLength(0));
+
+        int[] words = new int[log.getLength(0)];
+        log.getWords(0, words, 0);
+        DrawingLog copy = new DrawingLog();
+        copy.appendOp(words, 0, words.length);
+        FakeCanvas canvas = new FakeCanvas();
+        copy.replay(canvas);
+        assertEquals("[stamps 80ff0000 30.0 1.0,2.0,0.25 3.0,4.0,1.0]", canvas.calls.toString());
+    }
+
+    @Test
+    public void layers_replayInOrder() throws Exception {
+        DrawingLog log = new DrawingLog();
+        log.clear(0xffffffff);
+        log.layer(1, 200, LayerStack.MODE_SCREEN);
+        log.beginStroke(0xff000000, 4, 1, 1);
+        log.addPoint(1, 2);
+        log.endStroke();
+        log.layer(0, 255, LayerStack.MODE_NORMAL);
+        assertEquals(DrawingLog.OP_LAYER, log.getType(1));
+
+        int[] words = new int[log.getLength(1)];
+        log.getWords(1, words, 0);
+        DrawingLog copy = new DrawingLog();
+        copy.appendOp(words, 0, words.length);
+        FakeCanvas canvas = new FakeCanvas();
+        copy.replay(canvas);
+        assertEquals("[layer 1 200 2]", canvas.calls.toString());
+
+        canvas = new FakeCanvas();
+        log.replay(canvas);
+        assertEquals("[clear ffffffff, layer 1 200 2, stroke ff000000 4.0 1 1 1.0,2.0, layer 0 255 0]",
+                canvas.calls.toString());
+    }
+
+    @Test
+    public void fills_replayTheirMask() throws Exception {
+        DrawingLog log = new DrawingLog();
+        // 33 pixels wide, each row takes two words
+        int[] mask = {-1, 0b101, 0b10, 1, 0};
+        log.fill(0xff00ff00, 3, 4, 33, 2, mask, 1);
+        assertEquals(DrawingLog.OP_FILL, log.getType(0));
+        assertEquals(DrawingLog.FILL_HEADER + 4, log.getLength(0));
+
+        int[] words = new int[log.getLength(0)];
+        log.getWords(0, words, 0);
+        DrawingLog copy = new DrawingLog();
+        copy.appendOp(words, 0, words.length);
+        FakeCanvas canvas = new FakeCanvas();
+        copy.replay(canvas);
+        assertEquals("[fill ff00ff00 3,4 33x2 101 10 1 0]", canvas.calls.toString());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void appendOp_rejectsTruncatedFill() throws Exception {
+        DrawingLog log = new DrawingLog();
+        log.fill(0xff000000, 0, 0, 40, 3, new int[6], 0);
+        int[] words = new int[log.getLength(0)];
+        log.getWords(0, words, 0);
+        new DrawingLog().appendOp(words, 0, words.length - 1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void appendOp_rejectsTruncatedStamps() throws Exception {
+        DrawingLog log = new DrawingLog();
+        log.beginStamps(0xff000000, 10);
+        log.addStampPoint(1, 2, 0.5f);
+        log.endStroke();
+        int[] words = new int[log.getLength(0)];
+        log.getWords(0, words, 0);
+        new DrawingLog().appendOp(words, 0, words.length - 1);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void addPoint_withoutStroke_throws() throws Exception {
+        new DrawingLog().addPoint(0, 0);
+    }
+}
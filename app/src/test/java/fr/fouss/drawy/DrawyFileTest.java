@@ -0,0 +1,288 @@
+package fr.fouss.drawy;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class DrawyFileTest {
+
+    private static final int WIDTH = 300;
+    private static final int HEIGHT = 200;
+    private static final int TILE_SIZE = 64;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void layersAndLog_roundTrip() throws Exception {
+        IntSurface background = sketch(new Random(1), 0xffffffff);
+        IntSurface top = sketch(new Random(2), 0);
+        IntSurface composite = new IntSurface(WIDTH, HEIGHT, 0, TILE_SIZE);
+        LayerStack<IntSurface> stack = new LayerStack<>(composite, composite.getGrid());
+        stack.addLayer(background);
+        stack.addLayer(top);
+        stack.setOpacity(1, 180);
+        stack.setMode(1, LayerStack.MODE_MULTIPLY);
+        stack.update();
+        DrawingLog log = new DrawingLog();
+        log.clear(0xffffffff);
+        log.background(0);
+        log.beginStroke(0xff102030, 12, 1, 2);
+        log.addPoint(10, 20);
+        log.addPoint(30.5f, 40.25f);
+        log.endStroke();
+        log.layer(1, 180, LayerStack.MODE_MULTIPLY);
+        log.image(1, 50, 60, 2, 45);
+
+        File file = folder.newFile("drawing.drawy");
+        try (OutputStream out = new FileOutputStream(file)) {
+            DrawyWriter writer = new DrawyWriter(out, background.getGrid());
+            writer.writeLayer(background, 255, LayerStack.MODE_NORMAL);
+            writer.writeLayer(top, 180, LayerStack.MODE_MULTIPLY);
+            writer.writeComposite(composite);
+            writer.writeLog(log);
+            writer.writeImage(image -> image.write(new byte[] {1, 2, 3}));
+            writer.writeImage(image -> image.write(new byte[0]));
+            writer.finish();
+        }
+
+        DrawyFile drawy = open(file);
+        assertEquals(WIDTH, drawy.getGrid().width);
+        assertEquals(HEIGHT, drawy.getGrid().height);
+        assertEquals(TILE_SIZE, drawy.getGrid().tileSize);
+        assertEquals(2, drawy.getLayerCount());
+        assertEquals(255, drawy.getOpacity(0));
+        assertEquals(180, drawy.getOpacity(1));
+        assertEquals(LayerStack.MODE_MULTIPLY, drawy.getMode(1));
+        assertTrue(drawy.hasComposite());
+        assertPixels(background, drawy.getLayer(0));
+        assertPixels(top, drawy.getLayer(1));
+        assertPixels(composite, drawy.getComposite());
+        // uniform tiles are known from the index
+        assertTrue(drawy.getLayer(1).isUniform(top.getGrid().getTileCount() - 1));
+
+        assertTrue(drawy.hasLog());
+        DrawingLog read = new DrawingLog();
+        drawy.readLog(read);
+        assertEquals(log.size(), read.size());
+        for (int op = 0; op < log.size(); op++) {
+            int[] expected = new int[log.getLength(op)];
+            int[] actual = new int[read.getLength(op)];
+            log.getWords(op, expected, 0);
+            read.getWords(op, actual, 0);
+            assertArrayEquals(expected, actual);
+        }
+        assertEquals(2, drawy.getImageCount());
+        assertArrayEquals(new byte[] {1, 2, 3}, drawy.readImage(0));
+        assertArrayEquals(new byte[0], drawy.readImage(1));
+    }
+
+    @Test
+    public void singleLayer_needsNeitherCompositeNorLog() throws Exception {
+        IntSurface layer = sketch(new Random(3), 0xff808080);
+        File file = write(layer);
+        DrawyFile drawy = open(file);
+        assertEquals(1, drawy.getLayerCount());
+        assertFalse(drawy.hasComposite());
+        assertFalse(drawy.hasLog());
+        assertEquals(0, drawy.getImageCount());
+        assertPixels(layer, drawy.getLayer(0));
+    }
+
+    @Test
+    public void opening_decodesNoTile() throws Exception {
+        IntSurface layer = new IntSurface(2048, 2048, 0, 256);
+        Random random = new Random(4);
+        for (int i = 0; i < layer.pixels.length; i++) {
+            layer.pixels[i] = 0xff000000 | (i % 2048 / 8) << 8 | random.nextInt(4);
+        }
+        File file = folder.newFile("large.drawy");
+        try (OutputStream out = new FileOutputStream(file)) {
+            DrawyWriter writer = new DrawyWriter(out, layer.getGrid());
+            writer.writeLayer(layer, 255, LayerStack.MODE_NORMAL);
+            writer.finish();
+        }
+        // warmed up, so that only the reading is measured
+        open(file).getLayer(0).getPixels(new int[16], 0, 0, 4, 4);
+
+        long openStart = System.nanoTime();
+        DrawyFile drawy = open(file);
+        long openTime = System.nanoTime() - openStart;
+        assertEquals(0, drawy.getDecodedTileCount());
+        // a screen worth of tiles
+        int[] pixels = new int[1080 * 1920];
+        drawy.getLayer(0).getPixels(pixels, 0, 0, 1080, 1920);
+        assertEquals(5 * 8, drawy.getDecodedTileCount());
+
+        long decodeStart = System.nanoTime();
+        int[] all = new int[2048 * 2048];
+        drawy.getLayer(0).getPixels(all, 0, 0, 2048, 2048);
+        long decodeTime = System.nanoTime() - decodeStart;
+        assertArrayEquals(layer.pixels, all);
+        assertTrue("opened in " + openTime / 1000 + " us, decoded in " + decodeTime / 1000 + " us",
+                openTime < decodeTime);
+    }
+
+    @Test
+    public void corruptTile_failsItsCheckAlone() throws Exception {
+        IntSurface layer = sketch(new Random(5), 0xffffffff);
+        File file = write(layer);
+        DrawyFile drawy = open(file);
+        int tile = firstPaintedTile(drawy.getLayer(0));
+        // the data of the first painted tile follows the header
+        flipByte(file, DrawyFile.HEADER_SIZE + 10);
+
+        drawy = open(file);
+        DrawyFile.Surface surface = drawy.getLayer(0);
+        try {
+            surface.readTile(tile, new int[TILE_SIZE * TILE_SIZE]);
+            fail("Read a corrupt tile");
+        } catch (IOException e) {
+            // expected
+        }
+        int[] pixels = new int[WIDTH * HEIGHT];
+        surface.getPixels(pixels, 0, 0, WIDTH, HEIGHT);
+        assertEquals(1, surface.getCorruptTileCount());
+        TileGrid grid = surface.getGrid();
+        assertEquals(0, pixels[grid.tileTop(tile) * WIDTH + grid.tileLeft(tile)]);
+        for (int other = tile + 1; other < grid.getTileCount(); other++) {
+            int x = grid.tileLeft(other);
+            int y = grid.tileTop(other);
+            assertEquals(layer.pixels[y * WIDTH + x], pixels[y * WIDTH + x]);
+        }
+    }
+
+    @Test
+    public void corruptOrTruncatedIndex_isRejected() throws Exception {
+        File file = write(sketch(new Random(6), 0xffffffff));
+        long length = file.length();
+        // the trailer, then the last byte of the index
+        flipByte(file, length - DrawyFile.TRAILER_SIZE - 1);
+        assertUnreadable(file);
+        flipByte(file, length - DrawyFile.TRAILER_SIZE - 1);
+        open(file);
+        for (long truncated : new long[] {0, 4, 27, length / 2, length - 1}) {
+            try (RandomAccessFile access = new RandomAccessFile(file, "rw")) {
+                access.setLength(truncated);
+            }
+            assertUnreadable(file);
+        }
+    }
+
+    @Test
+    public void otherFiles_areNotDrawyFiles() throws Exception {
+        File file = folder.newFile("image.png");
+        try (OutputStream out = new FileOutputStream(file)) {
+            new PngWriter(out, 4, 4).writeRows(new int[16], 0, 4, 4);
+        }
+        try (RandomAccessFile access = new RandomAccessFile(file, "r")) {
+            assertFalse(DrawyFile.isDrawyFile(access.getChannel()));
+        }
+        assertUnreadable(file);
+
+        File drawy = write(sketch(new Random(7), 0));
+        try (RandomAccessFile access = new RandomAccessFile(drawy, "r")) {
+            FileChannel channel = access.getChannel();
+            channel.position(5);
+            assertTrue(DrawyFile.isDrawyFile(channel));
+            assertEquals(5, channel.position());
+        }
+    }
+
+    @Test
+    public void corruptLog_isRejected() throws Exception {
+        IntSurface layer = new IntSurface(WIDTH, HEIGHT, 0xffffffff, TILE_SIZE);
+        DrawingLog log = new DrawingLog();
+        log.clear(0xffffffff);
+        File file = folder.newFile("log.drawy");
+        try (OutputStream out = new FileOutputStream(file)) {
+            DrawyWriter writer = new DrawyWriter(out, layer.getGrid());
+            writer.writeLayer(layer, 255, LayerStack.MODE_NORMAL);
+            writer.writeLog(log);
+            writer.finish();
+        }
+        // every tile is uniform, the log comes first
+        flipByte(file, DrawyFile.HEADER_SIZE + 1);
+        try {
+            open(file).readLog(new DrawingLog());
+            fail("Read a corrupt log");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    // white or transparent tiles with a few colored rectangles
+    private static IntSurface sketch(Random random, int color) {
+        IntSurface surface = new IntSurface(WIDTH, HEIGHT, color, TILE_SIZE);
+        for (int i = 0; i < 12; i++) {
+            int left = random.nextInt(WIDTH - 80);
+            int top = random.nextInt(HEIGHT - 100);
+            surface.fillRect(left, top, left + random.nextInt(60), top + random.nextInt(60), random.nextInt());
+        }
+        return surface;
+    }
+
+    private File write(IntSurface layer) throws IOException {
+        File file = folder.newFile();
+        try (OutputStream out = new FileOutputStream(file)) {
+            DrawyWriter writer = new DrawyWriter(out, layer.getGrid());
+            writer.writeLayer(layer, 255, LayerStack.MODE_NORMAL);
+            writer.finish();
+        }
+        return file;
+    }
+
+    private static DrawyFile open(File file) throws IOException {
+        try (RandomAccessFile access = new RandomAccessFile(file, "r")) {
+            return DrawyFile.open(access.getChannel());
+        }
+    }
+
+    private static void assertUnreadable(File file) {
+        try {
+            open(file);
+            fail("Opened a corrupt file");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    private static void assertPixels(IntSurface expected, TileSource actual) {
+        int[] pixels = new int[WIDTH * HEIGHT];
+        actual.getPixels(pixels, 0, 0, WIDTH, HEIGHT);
+        assertArrayEquals(expected.pixels, pixels);
+        for (int tile = 0; tile < expected.getGrid().getTileCount(); tile++) {
+            if (actual.isUniform(tile)) {
+                assertTrue(expected.isUniform(tile));
+                assertEquals(expected.getUniformColor(tile), actual.getUniformColor(tile));
+            }
+        }
+    }
+
+    private static int firstPaintedTile(TileSource surface) {
+        for (int tile = 0; ; tile++) {
+            if (!surface.isUniform(tile)) {
+                return tile;
+            }
+        }
+    }
+
+    private static void flipByte(File file, long offset) throws IOException {
+        try (RandomAccessFile access = new RandomAccessFile(file, "rw")) {
+            access.seek(offset);
+            int value = access.read();
+            access.seek(offset);
+            access.write(value ^ 0x5a);
+        }
+    }
+}
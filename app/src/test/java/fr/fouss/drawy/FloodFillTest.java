@@ -0,0 +1,181 @@
+package fr.fouss.drawy;
+
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.*;
+
+public class FloodFillTest {
+
+    private static final int WHITE = 0xffffffff;
+    private static final int BLACK = 0xff000000;
+
+    // plain breadth first fill, one pixel at a time
+    private static boolean[] referenceFill(int[] pixels, int width, int height, int x, int y, int tolerance) {
+        boolean[] filled = new boolean[width * height];
+        int seed = pixels[y * width + x];
+        int[] queue = new int[width * height];
+        int head = 0;
+        int tail = 0;
+        queue[tail++] = y * width + x;
+        filled[y * width + x] = true;
+        while (head < tail) {
+            int i = queue[head++];
+            int px = i % width;
+            int py = i / width;
+            int[] neighbours = {px > 0 ? i - 1 : -1, px < width - 1 ? i + 1 : -1,
+                    py > 0 ? i - width : -1, py < height - 1 ? i + width : -1};
+            for (int n : neighbours) {
+                if (n >= 0 && !filled[n] && close(pixels[n], seed, tolerance)) {
+                    filled[n] = true;
+                    queue[tail++] = n;
+                }
+            }
+        }
+        return filled;
+    }
+
+    private static boolean close(int a, int b, int tolerance) {
+        for (int shift = 0; shift < 32; shift += 8) {
+            if (Math.abs((a >>> shift & 0xff) - (b >>> shift & 0xff)) > tolerance) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void assertSameFill(boolean[] expected, FloodFill fill, int width, int height) {
+        int count = 0;
+        int left = width;
+        int right = 0;
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                assertEquals("pixel " + x + ";" + y, expected[y * width + x], fill.isFilled(x, y));
+                if (expected[y * width + x]) {
+                    count++;
+                    left = Math.min(left, x);
+                    right = Math.max(right, x + 1);
+                }
+            }
+        }
+        assertEquals(count, fill.getCount());
+        assertEquals(left, fill.getLeft());
+        assertEquals(right, fill.getRight());
+    }
+
+    // random rectangles and lines of a few close shades over white
+    private static int[] blobs(long seed, int width, int height) {
+        Random random = new Random(seed);
+        IntSurface surface = new IntSurface(width, height, WHITE);
+        for (int i = 0; i < 60; i++) {
+            int x = random.nextInt(width);
+            int y = random.nextInt(height);
+            int shade = random.nextInt(4) * 10;
+            int color = random.nextBoolean() ? BLACK + shade : WHITE - shade * 0x010101;
+            if (random.nextBoolean()) {
+                surface.fillRect(x, y, x + 1 + random.nextInt(1 + width / 3), y + 1 + random.nextInt(2), color);
+            } else {
+                surface.fillRect(x, y, x + 1 + random.nextInt(2), y + 1 + random.nextInt(1 + height / 3), color);
+            }
+        }
+        return surface.pixels;
+    }
+
+    @Test
+    public void randomShapes_matchReference() throws Exception {
+        for (int width : new int[] {1, 63, 64, 65, 200}) {
+            int height = 97;
+            int[] pixels = blobs(width, width, height);
+            FloodFill fill = new FloodFill(width, height);
+            Random random = new Random(width);
+            for (int i = 0; i < 10; i++) {
+                int x = random.nextInt(width);
+                int y = random.nextInt(height);
+                int tolerance = new int[] {0, 15, 40}[i % 3];
+                fill.fill(pixels, x, y, tolerance);
+                assertSameFill(referenceFill(pixels, width, height, x, y, tolerance), fill, width, height);
+            }
+        }
+    }
+
+    @Test
+    public void spiral_isFollowedBackAndForth() throws Exception {
+        // a corridor winding inwards, each turn needs spans pushed above and below
+        int size = 101;
+        IntSurface surface = new IntSurface(size, size, WHITE);
+        for (int ring = 0; 4 * ring + 2 < size; ring++) {
+            int a = 2 * ring + 1;
+            int b = size - 2 * ring - 2;
+            surface.fillRect(a, a, b + 1, a + 1, BLACK);
+            surface.fillRect(b, a, b + 1, b + 1, BLACK);
+            surface.fillRect(a + 2, b, b + 1, b + 1, BLACK);
+            surface.fillRect(a + 2, a + 2, a + 3, b + 1, BLACK);
+        }
+        FloodFill fill = new FloodFill(size, size);
+        fill.fill(surface.pixels, 0, 0, 0);
+        assertSameFill(referenceFill(surface.pixels, size, size, 0, 0, 0), fill, size, size);
+        fill.fill(surface.pixels, 1, 1, 0);
+        assertSameFill(referenceFill(surface.pixels, size, size, 1, 1, 0), fill, size, size);
+    }
+
+    @Test
+    public void parallel_givesSameResult() throws Exception {
+        int width = 1080;
+        int height = 1920;
+        int[] pixels = blobs(3, width, height);
+        FloodFill sequential = new FloodFill(width, height);
+        FloodFill parallel = new FloodFill(width, height);
+        ExecutorService workers = Executors.newFixedThreadPool(4);
+        try {
+            parallel.setWorkers(workers, 4);
+            for (int tolerance : new int[] {0, 25}) {
+                sequential.fill(pixels, 500, 900, tolerance);
+                parallel.fill(pixels, 500, 900, tolerance);
+                assertEquals(sequential.getCount(), parallel.getCount());
+                assertSameFill(referenceFill(pixels, width, height, 500, 900, tolerance), parallel, width, height);
+            }
+        } finally {
+            workers.shutdown();
+        }
+    }
+
+    @Test
+    public void writeMaskBits_coversBounds() throws Exception {
+        IntSurface surface = new IntSurface(10, 10, WHITE);
+        surface.fillRect(0, 5, 10, 6, BLACK);
+        surface.fillRect(4, 0, 5, 10, BLACK);
+        FloodFill fill = new FloodFill(10, 10);
+        assertEquals(20, fill.fill(surface.pixels, 2, 2, 0));
+        assertEquals(0, fill.getLeft());
+        assertEquals(0, fill.getTop());
+        assertEquals(4, fill.getRight());
+        assertEquals(5, fill.getBottom());
+
+        // a row of 4 pixels fits a word, set bits left from a previous fill are cleared
+        int[] mask = {-1, -1, -1, -1, -1, -1};
+        fill.writeMaskBits(mask, 1);
+        assertEquals(-1, mask[0]);
+        for (int i = 1; i < mask.length; i++) {
+            assertEquals(0b1111, mask[i]);
+        }
+
+        assertEquals(19, fill.fill(surface.pixels, 4, 0, 0));
+        assertEquals(0, fill.getLeft());
+        assertEquals(10, fill.getBottom());
+        mask = new int[10];
+        fill.writeMaskBits(mask, 0);
+        assertEquals(1 << 4, mask[0]);
+        assertEquals(0b1111111111, mask[5]);
+    }
+
+    @Test
+    public void outsideSeed_fillsNothing() throws Exception {
+        FloodFill fill = new FloodFill(4, 4);
+        assertEquals(0, fill.fill(new int[16], 4, 0, 0));
+        assertEquals(0, fill.fill(new int[16], 0, -1, 0));
+        assertFalse(fill.isFilled(0, 0));
+    }
+}
@@ -0,0 +1,78 @@
+package fr.fouss.drawy;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+
+import static org.junit.Assert.*;
+
+public class ImageGestureTest {
+
+    private static final int FRAMES = 10000;
+
+    @Test
+    public void getAngle_quarterTurn() throws Exception {
+        ImageGesture gesture = new ImageGesture();
+        gesture.setPointer1(0, 0);
+        gesture.setPointer2(10, 0);
+        gesture.movePointers(0, 0, 0, 10);
+        assertEquals(Math.PI / 2, gesture.getAngle(), 1e-6);
+        gesture.movePointers(0, 0, 0, -10);
+        assertEquals(-Math.PI / 2, gesture.getAngle(), 1e-6);
+    }
+
+    @Test
+    public void getAngle_ignoresScaleAndTranslation() throws Exception {
+        ImageGesture gesture = new ImageGesture();
+        gesture.setPointer1(100, 100);
+        gesture.setPointer2(110, 110);
+        gesture.movePointers(300, 50, 300, 90);
+        assertEquals(Math.PI / 4, gesture.getAngle(), 1e-6);
+    }
+
+    @Test
+    public void getAngle_degeneratePointers() throws Exception {
+        ImageGesture gesture = new ImageGesture();
+        gesture.setPointer1(5, 5);
+        gesture.setPointer2(5, 5);
+        assertEquals(0, gesture.getAngle(), 0);
+    }
+
+    @Test
+    public void gestureFrame_doesNotAllocate() throws Exception {
+        Assume.assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(threads.isThreadAllocatedMemorySupported());
+        threads.setThreadAllocatedMemoryEnabled(true);
+        long thread = Thread.currentThread().getId();
+
+        ImageGesture gesture = new ImageGesture();
+        gesture.setPointer1(100, 100);
+        gesture.setPointer2(200, 100);
+        // warm up so the measured loop runs compiled code
+        float sink = runFrames(gesture, FRAMES * 10);
+
+        // cost of the measurement itself
+        long start = threads.getThreadAllocatedBytes(thread);
+        long baseline = threads.getThreadAllocatedBytes(thread) - start;
+
+        start = threads.getThreadAllocatedBytes(thread);
+        sink += runFrames(gesture, FRAMES);
+        long allocated = threads.getThreadAllocatedBytes(thread) - start - baseline;
+
+        assertFalse(Float.isNaN(sink));
+        // a single allocation over all the frames fails too
+        assertEquals(0, allocated);
+    }
+
+    private static float runFrames(ImageGesture gesture, int frames) {
+        float sum = 0;
+        for (int i = 0; i < frames; i++) {
+            gesture.movePointers(100 + i % 7, 100, 200, 100 + i % 13);
+            sum += gesture.getAngle();
+        }
+        return sum;
+    }
+}
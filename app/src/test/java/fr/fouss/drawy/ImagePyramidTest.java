@@ -0,0 +1,120 @@
+package fr.fouss.drawy;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class ImagePyramidTest {
+
+    @Test
+    public void levelCount_stopsAboveMinimumSize() throws Exception {
+        assertEquals(1, ImagePyramid.levelCount(63, 1000));
+        assertEquals(2, ImagePyramid.levelCount(64, 64));
+        // 1000 -> 500 -> 250 -> 125 -> 63
+        assertEquals(5, ImagePyramid.levelCount(1000, 4000));
+        assertEquals(1, ImagePyramid.levelCount(1, 1));
+    }
+
+    @Test
+    public void levelForScale_keepsOnePixelPerScreenPixel() throws Exception {
+        assertEquals(0, ImagePyramid.levelForScale(1, 6));
+        assertEquals(0, ImagePyramid.levelForScale(0.6f, 6));
+        assertEquals(1, ImagePyramid.levelForScale(0.5f, 6));
+        assertEquals(1, ImagePyramid.levelForScale(0.3f, 6));
+        assertEquals(3, ImagePyramid.levelForScale(0.1f, 6));
+        assertEquals(0, ImagePyramid.levelForScale(4, 6));
+    }
+
+    @Test
+    public void levelForScale_staysWithinLevels() throws Exception {
+        assertEquals(2, ImagePyramid.levelForScale(0.01f, 3));
+        assertEquals(0, ImagePyramid.levelForScale(0.01f, 1));
+    }
+
+    @Test
+    public void downsample_keepsUniformColor() throws Exception {
+        int[] src = new int[7 * 5];
+        Arrays.fill(src, 0x80123456);
+        int[] dst = new int[4 * 3];
+        ImagePyramid.downsample(src, 7, 5, dst);
+        for (int color : dst) {
+            assertEquals(0x80123456, color);
+        }
+    }
+
+    @Test
+    public void downsample_averagesBlocks() throws Exception {
+        int[] src = {
+                0xff000000, 0xffffffff, 0xff0000ff,
+                0xffffffff, 0xff000000, 0xff0000ff,
+        };
+        int[] dst = new int[2];
+        ImagePyramid.downsample(src, 3, 2, dst);
+        assertEquals(0xff808080, dst[0]);
+        // the odd column averages with itself
+        assertEquals(0xff0000ff, dst[1]);
+    }
+
+    @Test
+    public void downsample_ignoresTransparentColors() throws Exception {
+        // a transparent black pixel doesn't darken the red ones
+        int[] src = {0xffff0000, 0x00000000, 0xffff0000, 0xffff0000};
+        int[] dst = new int[1];
+        ImagePyramid.downsample(src, 2, 2, dst);
+        assertEquals(0xbfff0000, dst[0]);
+
+        int[] clear = {0, 0x00ffffff, 0, 0};
+        ImagePyramid.downsample(clear, 2, 2, dst);
+        assertEquals(0, dst[0]);
+    }
+
+    @Test
+    public void levelSize_roundsUp() throws Exception {
+        assertEquals(1000, ImagePyramid.levelSize(1000, 0));
+        assertEquals(125, ImagePyramid.levelSize(1000, 3));
+        assertEquals(126, ImagePyramid.levelSize(1001, 3));
+        int size = 1001;
+        for (int level = 0; level < 3; level++) {
+            size = ImagePyramid.halfSize(size);
+        }
+        assertEquals(size, ImagePyramid.levelSize(1001, 3));
+    }
+
+    @Test
+    public void downsampleRegion_matchesWholeDownsample() throws Exception {
+        Random random = new Random(7);
+        int width = 1300;
+        int height = 700;
+        IntSurface surface = new IntSurface(width, height, 0);
+        for (int i = 0; i < surface.pixels.length; i++) {
+            surface.pixels[i] = random.nextInt();
+        }
+        int[] block = new int[ImagePyramid.BLOCK_SIZE * ImagePyramid.BLOCK_SIZE];
+        int[] half = new int[block.length];
+        for (int level = 0; level <= 3; level++) {
+            // a region not aligned on the image
+            int x = 37;
+            int y = 5;
+            int w = width - x - 3;
+            int h = height - y;
+            int[] expected = new int[w * h];
+            surface.getPixels(expected, x, y, w, h);
+            int expectedWidth = w;
+            int expectedHeight = h;
+            for (int i = 0; i < level; i++) {
+                int[] next = new int[ImagePyramid.halfSize(expectedWidth) * ImagePyramid.halfSize(expectedHeight)];
+                ImagePyramid.downsample(expected, expectedWidth, expectedHeight, next);
+                expected = next;
+                expectedWidth = ImagePyramid.halfSize(expectedWidth);
+                expectedHeight = ImagePyramid.halfSize(expectedHeight);
+            }
+            int[] actual = new int[expected.length];
+            ImagePyramid.downsampleRegion(surface::getPixels, x, y, w, h, level, actual, block, half);
+            assertEquals(expectedWidth, ImagePyramid.levelSize(w, level));
+            assertArrayEquals("level " + level, expected, actual);
+        }
+    }
+}
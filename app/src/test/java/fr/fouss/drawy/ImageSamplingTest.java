@@ -0,0 +1,65 @@
+package fr.fouss.drawy;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ImageSamplingTest {
+
+    @Test
+    public void smallImage_isNotSampled() throws Exception {
+        assertEquals(1, ImageSampling.computeInSampleSize(800, 600, 1080, 1920, 1));
+        assertEquals(1, ImageSampling.computeInSampleSize(2000, 1000, 1080, 1920, 1));
+    }
+
+    @Test
+    public void cameraPhoto_isSampledToScreen() throws Exception {
+        // 48 MP, 8000x6000, on a 1080x1920 canvas: fitted width is 1080, 8000 / 1080 = 7.4
+        assertEquals(4, ImageSampling.computeInSampleSize(8000, 6000, 1080, 1920, 1));
+        // the decoded image still covers the fitted size
+        assertTrue(8000 / 4 >= 1080);
+    }
+
+    @Test
+    public void limitingSide_decides() throws Exception {
+        // panorama: width is the limiting side
+        assertEquals(16, ImageSampling.computeInSampleSize(20000, 2000, 1080, 1920, 1));
+        // tall image: height is the limiting side
+        assertEquals(2, ImageSampling.computeInSampleSize(1000, 4000, 1080, 1920, 1));
+    }
+
+    @Test
+    public void scale_keepsResolutionForZoomedImages() throws Exception {
+        assertEquals(4, ImageSampling.computeInSampleSize(8000, 6000, 1080, 1920, 1));
+        assertEquals(2, ImageSampling.computeInSampleSize(8000, 6000, 1080, 1920, 2));
+        assertEquals(16, ImageSampling.computeInSampleSize(8000, 6000, 1080, 1920, 0.25f));
+    }
+
+    @Test
+    public void exactPowerOfTwo_isUsed() throws Exception {
+        assertEquals(2, ImageSampling.computeInSampleSize(2160, 3840, 1080, 1920, 1));
+    }
+
+    @Test
+    public void unknownSizes_areNotSampled() throws Exception {
+        assertEquals(1, ImageSampling.computeInSampleSize(-1, -1, 1080, 1920, 1));
+        assertEquals(1, ImageSampling.computeInSampleSize(8000, 6000, 0, 0, 1));
+    }
+
+    @Test
+    public void shownSize_doesNotDependOnTheSampleSize() throws Exception {
+        // 2000 px is decoded whole, 2200 px halved, both are shown across the drawing
+        int sample = ImageSampling.computeInSampleSize(2000, 2000, 1080, 1920, 1);
+        assertEquals(1, sample);
+        assertEquals(1080, 2000 / sample * ImageSampling.fitScale(2000 / sample, 2000 / sample, 1080, 1920), 0.01);
+        sample = ImageSampling.computeInSampleSize(2200, 2200, 1080, 1920, 1);
+        assertEquals(2, sample);
+        assertEquals(1080, 2200 / sample * ImageSampling.fitScale(2200 / sample, 2200 / sample, 1080, 1920), 0.01);
+    }
+
+    @Test
+    public void smallImages_areNotEnlarged() throws Exception {
+        assertEquals(1, ImageSampling.fitScale(800, 600, 1080, 1920), 0);
+        assertEquals(1, ImageSampling.fitScale(-1, -1, 1080, 1920), 0);
+    }
+}
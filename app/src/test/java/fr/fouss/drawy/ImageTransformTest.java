@@ -0,0 +1,44 @@
+package fr.fouss.drawy;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ImageTransformTest {
+
+    private static final float EPSILON = 1e-3f;
+
+    @Test
+    public void identityPlacement_centersImageOnPoint() throws Exception {
+        ImageTransform transform = new ImageTransform();
+        transform.set(100, 50, 300, 200, 1, 0);
+        assertEquals(250, transform.mapX(0, 0), EPSILON);
+        assertEquals(175, transform.mapY(0, 0), EPSILON);
+        assertEquals(300, transform.mapX(50, 25), EPSILON);
+        assertEquals(200, transform.mapY(50, 25), EPSILON);
+    }
+
+    @Test
+    public void rotationAndScale_keepCenterFixed() throws Exception {
+        ImageTransform transform = new ImageTransform();
+        transform.set(100, 50, 300, 200, 2.5f, 37);
+        assertEquals(300, transform.mapX(50, 25), EPSILON);
+        assertEquals(200, transform.mapY(50, 25), EPSILON);
+    }
+
+    @Test
+    public void quarterTurn_rotatesClockwiseOnScreen() throws Exception {
+        ImageTransform transform = new ImageTransform();
+        transform.set(100, 50, 300, 200, 2, 90);
+        // top left corner is 50 left and 25 up from the center, after the turn it is 25 right and 50 up
+        assertEquals(350, transform.mapX(0, 0), EPSILON);
+        assertEquals(100, transform.mapY(0, 0), EPSILON);
+    }
+
+    @Test
+    public void values_matchMatrixLayout() throws Exception {
+        ImageTransform transform = new ImageTransform();
+        transform.set(10, 10, 0, 0, 1, 0);
+        assertArrayEquals(new float[] {1, 0, -5, 0, 1, -5, 0, 0, 1}, transform.values, EPSILON);
+    }
+}
@@ -0,0 +1,142 @@
+package fr.fouss.drawy;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class InputRingTest {
+
+    private static class Recorder implements InputRing.Sink {
+        final List<String> samples = new ArrayList<>();
+
+        @Override
+        public void sample(int action, float x, float y) {
+            samples.add(action + " " + x + " " + y);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void capacity_mustBePowerOfTwo() throws Exception {
+        new InputRing(100);
+    }
+
+    @Test
+    public void samples_areDrainedInOrder() throws Exception {
+        InputRing ring = new InputRing(8);
+        assertTrue(ring.isEmpty());
+        assertTrue(ring.offer(0, 1, 2));
+        assertTrue(ring.offer(1, 3, 4));
+        assertTrue(ring.offer(2, 5, 6));
+        assertEquals(3, ring.size());
+        Recorder recorder = new Recorder();
+        assertEquals(3, ring.drain(recorder));
+        assertEquals("[0 1.0 2.0, 1 3.0 4.0, 2 5.0 6.0]", recorder.samples.toString());
+        assertTrue(ring.isEmpty());
+        assertEquals(0, ring.drain(recorder));
+    }
+
+    @Test
+    public void offer_failsWhenFull() throws Exception {
+        InputRing ring = new InputRing(4);
+        for (int i = 0; i < 4; i++) {
+            assertTrue(ring.offer(1, i, i));
+        }
+        assertFalse(ring.offer(1, 4, 4));
+        assertEquals(4, ring.size());
+        // draining frees all the slots
+        assertEquals(4, ring.drain(new Recorder()));
+        for (int i = 0; i < 4; i++) {
+            assertTrue(ring.offer(1, i, i));
+        }
+    }
+
+    @Test
+    public void indices_wrapAround() throws Exception {
+        InputRing ring = new InputRing(4);
+        Recorder recorder = new Recorder();
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(ring.offer(i % 3, i, -i));
+            assertTrue(ring.offer(i % 3, i + 0.5f, -i));
+            assertEquals(2, ring.drain(recorder));
+        }
+        assertEquals(2000, recorder.samples.size());
+        assertEquals("0 999.5 -999.0", recorder.samples.get(1999));
+    }
+
+    @Test
+    public void push_keepsSamplesWhenFull() throws Exception {
+        InputRing ring = new InputRing(4);
+        for (int i = 0; i < 10; i++) {
+            ring.push(1, i, 0);
+        }
+        assertEquals(4, ring.size());
+        assertEquals(6, ring.getOverflowSize());
+
+        Recorder recorder = new Recorder();
+        ring.drain(recorder);
+        // the waiting samples go first, the new one waits behind them
+        ring.push(2, 10, 0);
+        assertEquals(4, ring.size());
+        assertEquals(3, ring.getOverflowSize());
+        ring.drain(recorder);
+        assertTrue(ring.flush());
+        assertEquals(0, ring.getOverflowSize());
+        ring.drain(recorder);
+
+        assertEquals(11, recorder.samples.size());
+        for (int i = 0; i < 10; i++) {
+            assertEquals("1 " + (float) i + " 0.0", recorder.samples.get(i));
+        }
+        assertEquals("2 10.0 0.0", recorder.samples.get(10));
+    }
+
+    @Test
+    public void flush_stopsWhenFull() throws Exception {
+        InputRing ring = new InputRing(2);
+        for (int i = 0; i < 5; i++) {
+            ring.push(0, i, i);
+        }
+        assertFalse(ring.flush());
+        assertEquals(3, ring.getOverflowSize());
+        ring.drain(new Recorder());
+        assertFalse(ring.flush());
+        assertEquals(1, ring.getOverflowSize());
+    }
+
+    @Test
+    public void concurrentProducer_deliversEverySampleInOrder() throws Exception {
+        final int count = 200000;
+        final InputRing ring = new InputRing(64);
+        final AtomicReference<String> error = new AtomicReference<>();
+        Thread consumer = new Thread(() -> {
+            int[] next = {0};
+            while (next[0] < count) {
+                int drained = ring.drain((action, x, y) -> {
+                    if (action != next[0] % 5 || x != next[0] || y != -next[0]) {
+                        error.compareAndSet(null, "sample " + next[0] + " was " + action + " " + x + " " + y);
+                    }
+                    next[0]++;
+                });
+                if (drained == 0) {
+                    Thread.yield();
+                }
+            }
+        });
+        consumer.start();
+        // the producer backs off through the overflow when the consumer is behind
+        for (int i = 0; i < count; i++) {
+            ring.push(i % 5, i, -i);
+        }
+        while (!ring.flush()) {
+            Thread.yield();
+        }
+        consumer.join(30000);
+        assertFalse(consumer.isAlive());
+        assertNull(error.get());
+        assertTrue(ring.isEmpty());
+    }
+}
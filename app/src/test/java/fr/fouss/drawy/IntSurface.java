@@ -0,0 +1,80 @@
+package fr.fouss.drawy;
+
+/**
+ * In-memory {@link PixelSurface} for tests, its tiles being uniform when all their pixels match.
+ */
+class IntSurface implements TiledSurface {
+
+    final int width;
+    final int height;
+    final int[] pixels;
+    private final TileGrid grid;
+
+    IntSurface(int width, int height, int color) {
+        this(width, height, color, 256);
+    }
+
+    IntSurface(int width, int height, int color, int tileSize) {
+        this.width = width;
+        this.height = height;
+        this.pixels = new int[width * height];
+        this.grid = new TileGrid(width, height, tileSize);
+        java.util.Arrays.fill(pixels, color);
+    }
+
+    void fillRect(int left, int top, int right, int bottom, int color) {
+        for (int y = Math.max(0, top); y < Math.min(height, bottom); y++) {
+            for (int x = Math.max(0, left); x < Math.min(width, right); x++) {
+                pixels[y * width + x] = color;
+            }
+        }
+    }
+
+    @Override
+    public int getWidth() {
+        return width;
+    }
+
+    @Override
+    public int getHeight() {
+        return height;
+    }
+
+    @Override
+    public TileGrid getGrid() {
+        return grid;
+    }
+
+    @Override
+    public boolean isUniform(int tile) {
+        int color = getUniformColor(tile);
+        int left = grid.tileLeft(tile);
+        for (int y = grid.tileTop(tile); y < grid.tileTop(tile) + grid.tileHeight(tile); y++) {
+            for (int x = left; x < left + grid.tileWidth(tile); x++) {
+                if (pixels[y * width + x] != color) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int getUniformColor(int tile) {
+        return pixels[grid.tileTop(tile) * width + grid.tileLeft(tile)];
+    }
+
+    @Override
+    public void getPixels(int[] dst, int x, int y, int w, int h) {
+        for (int row = 0; row < h; row++) {
+            System.arraycopy(pixels, (y + row) * width + x, dst, row * w, w);
+        }
+    }
+
+    @Override
+    public void setPixels(int[] src, int x, int y, int w, int h) {
+        for (int row = 0; row < h; row++) {
+            System.arraycopy(src, row * w, pixels, (y + row) * width + x, w);
+        }
+    }
+}
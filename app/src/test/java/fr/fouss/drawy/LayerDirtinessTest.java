@@ -0,0 +1,129 @@
+package fr.fouss.drawy;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class LayerDirtinessTest {
+
+    // records invalidations as "static:(l;t;r;b)" or "dynamic:all"
+    private static class RecordingTarget implements LayerDirtiness.Target {
+        final List<String> calls = new ArrayList<>();
+
+        @Override
+        public void invalidateStatic(DirtyRect rect) {
+            calls.add("static:" + (rect == null ? "all" : rect.toString()));
+        }
+
+        @Override
+        public void invalidateDynamic(DirtyRect rect) {
+            calls.add("dynamic:" + (rect == null ? "all" : rect.toString()));
+        }
+    }
+
+    private static DirtyRect rect(int left, int top, int right, int bottom) {
+        DirtyRect rect = new DirtyRect();
+        rect.set(left, top, right, bottom);
+        return rect;
+    }
+
+    @Test
+    public void singleLayer_routesDrawingChangesToDynamic() throws Exception {
+        LayerDirtiness layers = new LayerDirtiness();
+        RecordingTarget target = new RecordingTarget();
+        layers.drawingChanged(rect(0, 0, 10, 10));
+        layers.liveChanged(rect(5, 5, 20, 20));
+        layers.flush(target);
+        assertEquals(1, target.calls.size());
+        assertEquals("dynamic:(0;0;20;20)", target.calls.get(0));
+    }
+
+    @Test
+    public void layered_liveStrokeOnlyTouchesDynamic() throws Exception {
+        LayerDirtiness layers = new LayerDirtiness();
+        RecordingTarget target = new RecordingTarget();
+        layers.setLayered(true);
+        layers.flush(target);
+        target.calls.clear();
+
+        layers.liveChanged(rect(1, 2, 3, 4));
+        layers.flush(target);
+        assertEquals(1, target.calls.size());
+        assertEquals("dynamic:(1;2;3;4)", target.calls.get(0));
+    }
+
+    @Test
+    public void layered_commitTouchesBothLayers() throws Exception {
+        LayerDirtiness layers = new LayerDirtiness();
+        RecordingTarget target = new RecordingTarget();
+        layers.setLayered(true);
+        layers.flush(target);
+        target.calls.clear();
+
+        DirtyRect stroke = rect(10, 10, 50, 60);
+        layers.drawingChanged(stroke);
+        layers.liveChanged(stroke);
+        layers.flush(target);
+        assertEquals(2, target.calls.size());
+        assertEquals("static:(10;10;50;60)", target.calls.get(0));
+        assertEquals("dynamic:(10;10;50;60)", target.calls.get(1));
+    }
+
+    @Test
+    public void drawingReplaced_invalidatesWholeStaticLayer() throws Exception {
+        LayerDirtiness layers = new LayerDirtiness();
+        RecordingTarget target = new RecordingTarget();
+        layers.setLayered(true);
+        layers.flush(target);
+        target.calls.clear();
+
+        layers.drawingChanged(rect(0, 0, 10, 10));
+        layers.drawingReplaced();
+        layers.flush(target);
+        assertEquals(1, target.calls.size());
+        assertEquals("static:all", target.calls.get(0));
+    }
+
+    @Test
+    public void switchingLayers_redrawsEverything() throws Exception {
+        LayerDirtiness layers = new LayerDirtiness();
+        RecordingTarget target = new RecordingTarget();
+        layers.setLayered(true);
+        layers.flush(target);
+        assertEquals(2, target.calls.size());
+        assertEquals("static:all", target.calls.get(0));
+        assertEquals("dynamic:all", target.calls.get(1));
+
+        target.calls.clear();
+        layers.setLayered(false);
+        layers.flush(target);
+        assertEquals(1, target.calls.size());
+        assertEquals("dynamic:all", target.calls.get(0));
+    }
+
+    @Test
+    public void flush_forgetsPendingAreas() throws Exception {
+        LayerDirtiness layers = new LayerDirtiness();
+        RecordingTarget target = new RecordingTarget();
+        layers.liveChanged(rect(0, 0, 10, 10));
+        assertTrue(layers.isDirty());
+        layers.flush(target);
+        assertFalse(layers.isDirty());
+        target.calls.clear();
+        layers.flush(target);
+        assertTrue(target.calls.isEmpty());
+    }
+
+    @Test
+    public void emptyAreas_areIgnored() throws Exception {
+        LayerDirtiness layers = new LayerDirtiness();
+        layers.setLayered(true);
+        layers.flush(new RecordingTarget());
+        layers.drawingChanged(new DirtyRect());
+        layers.liveChanged(new DirtyRect());
+        assertFalse(layers.isDirty());
+    }
+}
@@ -0,0 +1,234 @@
+package fr.fouss.drawy;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class LayerStackTest {
+
+    private static final int WIDTH = 300;
+    private static final int HEIGHT = 200;
+    private static final int TILE_SIZE = 64;
+
+    @Test
+    public void blendModes_matchTheCompositingSpec() throws Exception {
+        Random random = new Random(42);
+        for (int mode = 0; mode < LayerStack.MODE_COUNT; mode++) {
+            for (int i = 0; i < 2000; i++) {
+                int dst = randomPremultiplied(random);
+                int src = randomPremultiplied(random);
+                int opacity = random.nextBoolean() ? 255 : random.nextInt(256);
+                int blended = LayerStack.blend(dst, src, opacity, mode);
+                double[] expected = reference(dst, src, opacity, mode);
+                for (int channel = 0; channel < 4; channel++) {
+                    int value = (blended >>> (24 - 8 * channel)) & 0xff;
+                    assertEquals("mode " + mode + " " + Integer.toHexString(dst) + " " + Integer.toHexString(src),
+                            expected[channel] * 255, value, 2);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void transparentSource_leavesBackdrop() throws Exception {
+        for (int mode = 0; mode < LayerStack.MODE_COUNT; mode++) {
+            assertEquals(0x80402010, LayerStack.blend(0x80402010, 0, 255, mode));
+            // and an opaque source over nothing is left as is
+            assertEquals(0xff123456, LayerStack.blend(0, 0xff123456, 255, mode));
+        }
+    }
+
+    @Test
+    public void flatStack_leavesCompositeAlone() throws Exception {
+        IntSurface composite = new IntSurface(WIDTH, HEIGHT, 0x12345678, TILE_SIZE);
+        LayerStack<IntSurface> stack = stack(composite);
+        IntSurface base = new IntSurface(WIDTH, HEIGHT, 0xffffffff, TILE_SIZE);
+        stack.addLayer(base);
+        assertTrue(stack.isFlat());
+        base.fillRect(10, 10, 20, 20, 0xff000000);
+        stack.markDirty(10, 10, 20, 20);
+        assertEquals(0, stack.update());
+        assertEquals(0x12345678, composite.pixels[0]);
+
+        // the whole composite is outdated once it differs from the first layer
+        stack.setOpacity(0, 128);
+        assertFalse(stack.isFlat());
+        assertEquals(20, stack.update());
+        assertEquals(0x80ffffff, composite.pixels[0]);
+        assertEquals(0x80000000, composite.pixels[15 * WIDTH + 15]);
+    }
+
+    @Test
+    public void update_blendsDirtyTilesOnly() throws Exception {
+        IntSurface composite = new IntSurface(WIDTH, HEIGHT, 0, TILE_SIZE);
+        LayerStack<IntSurface> stack = stack(composite);
+        IntSurface base = new IntSurface(WIDTH, HEIGHT, 0xffffffff, TILE_SIZE);
+        IntSurface sketch = new IntSurface(WIDTH, HEIGHT, 0, TILE_SIZE);
+        stack.addLayer(base);
+        stack.addLayer(sketch);
+        stack.setMode(1, LayerStack.MODE_MULTIPLY);
+        stack.update();
+        assertEquals(0, stack.getDirtyTileCount());
+
+        // a stroke across two tiles
+        sketch.fillRect(60, 10, 70, 20, 0xff808080);
+        stack.markDirty(60, 10, 70, 20);
+        assertEquals(2, stack.getDirtyTileCount());
+        assertEquals(2, stack.update());
+        assertEquals(0, stack.update());
+        assertEquals(0xff808080, composite.pixels[15 * WIDTH + 65]);
+        assertEquals(0xffffffff, composite.pixels[15 * WIDTH + 75]);
+    }
+
+    @Test
+    public void incrementalUpdates_matchAFullComposite() throws Exception {
+        Random random = new Random(7);
+        IntSurface composite = new IntSurface(WIDTH, HEIGHT, 0, TILE_SIZE);
+        LayerStack<IntSurface> stack = stack(composite);
+        stack.addLayer(new IntSurface(WIDTH, HEIGHT, 0xff3080c0, TILE_SIZE));
+        stack.addLayer(new IntSurface(WIDTH, HEIGHT, 0, TILE_SIZE));
+        stack.addLayer(new IntSurface(WIDTH, HEIGHT, 0, TILE_SIZE));
+        stack.setMode(1, LayerStack.MODE_SCREEN);
+        stack.setOpacity(2, 160);
+        stack.setMode(2, LayerStack.MODE_OVERLAY);
+        stack.update();
+        for (int i = 0; i < 50; i++) {
+            int left = random.nextInt(WIDTH);
+            int top = random.nextInt(HEIGHT);
+            int right = left + random.nextInt(80);
+            int bottom = top + random.nextInt(80);
+            stack.getLayer(random.nextInt(3)).fillRect(left, top, right, bottom, random.nextInt());
+            stack.markDirty(left, top, right, bottom);
+            if (random.nextInt(4) == 0) {
+                stack.update();
+            }
+        }
+        stack.update();
+
+        IntSurface full = new IntSurface(WIDTH, HEIGHT, 0, TILE_SIZE);
+        LayerStack<IntSurface> fresh = stack(full);
+        for (int layer = 0; layer < 3; layer++) {
+            fresh.addLayer(stack.getLayer(layer));
+            fresh.setOpacity(layer, stack.getOpacity(layer));
+            fresh.setMode(layer, stack.getMode(layer));
+        }
+        fresh.update();
+        assertArrayEquals(full.pixels, composite.pixels);
+    }
+
+    @Test
+    public void uniformTiles_blendLikeTheirPixels() throws Exception {
+        IntSurface uniformComposite = new IntSurface(WIDTH, HEIGHT, 0, TILE_SIZE);
+        IntSurface pixelComposite = new IntSurface(WIDTH, HEIGHT, 0, TILE_SIZE);
+        LayerStack<IntSurface> uniform = stack(uniformComposite);
+        LayerStack<IntSurface> pixels = stack(pixelComposite);
+        uniform.addLayer(new IntSurface(WIDTH, HEIGHT, 0xffc08040, TILE_SIZE));
+        uniform.addLayer(new IntSurface(WIDTH, HEIGHT, 0x90204060, TILE_SIZE));
+        pixels.addLayer(new IntSurface(WIDTH, HEIGHT, 0xffc08040, TILE_SIZE));
+        pixels.addLayer(new IntSurface(WIDTH, HEIGHT, 0x90204060, TILE_SIZE));
+        // the first tile isn't uniform anymore, its pixels are read
+        pixels.getLayer(0).pixels[1] = 0;
+        for (LayerStack<IntSurface> stack : Arrays.asList(uniform, pixels)) {
+            stack.setOpacity(1, 200);
+            stack.setMode(1, LayerStack.MODE_DARKEN);
+            stack.update();
+        }
+        assertEquals(pixelComposite.pixels[0], uniformComposite.pixels[0]);
+    }
+
+    @Test
+    public void droppedLayers_keepTheirPixelsUntilALayerIsAdded() throws Exception {
+        LayerStack<IntSurface> stack = stack(new IntSurface(WIDTH, HEIGHT, 0, TILE_SIZE));
+        IntSurface base = new IntSurface(WIDTH, HEIGHT, 0xffffffff, TILE_SIZE);
+        IntSurface top = new IntSurface(WIDTH, HEIGHT, 0, TILE_SIZE);
+        stack.addLayer(base);
+        stack.addLayer(top);
+        stack.setOpacity(1, 100);
+        stack.setLayerCount(1);
+        assertEquals(1, stack.getLayerCount());
+        assertEquals(1, stack.getDroppedLayerCount());
+        stack.setLayerCount(2);
+        assertSame(top, stack.getLayer(1));
+        assertEquals(255, stack.getOpacity(1));
+
+        stack.setLayerCount(1);
+        IntSurface other = new IntSurface(WIDTH, HEIGHT, 0, TILE_SIZE);
+        stack.addLayer(other);
+        assertEquals(0, stack.getDroppedLayerCount());
+        assertSame(other, stack.getLayer(1));
+    }
+
+    @Test
+    public void cleanStack_keepsItsComposite() throws Exception {
+        IntSurface composite = new IntSurface(WIDTH, HEIGHT, 0x12345678, TILE_SIZE);
+        LayerStack<IntSurface> stack = stack(composite);
+        stack.addLayer(new IntSurface(WIDTH, HEIGHT, 0xffffffff, TILE_SIZE));
+        stack.addLayer(new IntSurface(WIDTH, HEIGHT, 0x80000000, TILE_SIZE));
+        stack.markClean();
+        assertEquals(0, stack.update());
+        assertEquals(0x12345678, composite.pixels[0]);
+        stack.markDirty(0, 0, 1, 1);
+        assertEquals(1, stack.update());
+        assertEquals(0xff, composite.pixels[0] >>> 24);
+        assertEquals(0x80, composite.pixels[0] & 0xff, 1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void layersOfAnotherGrid_areRejected() throws Exception {
+        LayerStack<IntSurface> stack = stack(new IntSurface(WIDTH, HEIGHT, 0, TILE_SIZE));
+        stack.addLayer(new IntSurface(WIDTH, HEIGHT, 0, TILE_SIZE * 2));
+    }
+
+    private static LayerStack<IntSurface> stack(IntSurface composite) {
+        return new LayerStack<>(composite, composite.getGrid());
+    }
+
+    private static int randomPremultiplied(Random random) {
+        int a = random.nextInt(5) == 0 ? 255 : random.nextInt(256);
+        return a << 24 | random.nextInt(a + 1) << 16 | random.nextInt(a + 1) << 8 | random.nextInt(a + 1);
+    }
+
+    // alpha, red, green and blue of the blend, premultiplied in [0;1]
+    private static double[] reference(int dst, int src, int opacity, int mode) {
+        double sa = (src >>> 24) / 255.0 * opacity / 255;
+        double da = (dst >>> 24) / 255.0;
+        double[] result = new double[4];
+        result[0] = mode == LayerStack.MODE_ADD ? Math.min(1, sa + da) : sa + da - sa * da;
+        for (int channel = 1; channel < 4; channel++) {
+            int shift = 24 - 8 * channel;
+            double s = ((src >>> shift) & 0xff) / 255.0 * opacity / 255;
+            double d = ((dst >>> shift) & 0xff) / 255.0;
+            if (mode == LayerStack.MODE_ADD) {
+                result[channel] = Math.min(1, s + d);
+                continue;
+            }
+            double cs = sa == 0 ? 0 : s / sa;
+            double cb = da == 0 ? 0 : d / da;
+            double mixed;
+            switch (mode) {
+                case LayerStack.MODE_MULTIPLY:
+                    mixed = cs * cb;
+                    break;
+                case LayerStack.MODE_SCREEN:
+                    mixed = cs + cb - cs * cb;
+                    break;
+                case LayerStack.MODE_OVERLAY:
+                    mixed = cb <= 0.5 ? 2 * cs * cb : 1 - 2 * (1 - cs) * (1 - cb);
+                    break;
+                case LayerStack.MODE_DARKEN:
+                    mixed = Math.min(cs, cb);
+                    break;
+                case LayerStack.MODE_LIGHTEN:
+                    mixed = Math.max(cs, cb);
+                    break;
+                default:
+                    mixed = cs;
+            }
+            result[channel] = s * (1 - da) + d * (1 - sa) + sa * da * mixed;
+        }
+        return result;
+    }
+}
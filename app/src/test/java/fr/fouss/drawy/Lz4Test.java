@@ -0,0 +1,105 @@
+package fr.fouss.drawy;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class Lz4Test {
+
+    @Test
+    public void shortInputs_roundTrip() throws Exception {
+        Random random = new Random(1);
+        for (int length = 0; length <= 40; length++) {
+            byte[] data = new byte[length];
+            for (int i = 0; i < length; i++) {
+                data[i] = (byte) random.nextInt(3);
+            }
+            assertArrayEquals(data, roundTrip(data));
+        }
+    }
+
+    @Test
+    public void randomBytes_roundTripWithinTheBound() throws Exception {
+        byte[] data = new byte[100000];
+        new Random(2).nextBytes(data);
+        byte[] compressed = new byte[Lz4.maxCompressedLength(data.length)];
+        int length = new Lz4().compress(data, 0, data.length, compressed, 0);
+        assertTrue(length <= compressed.length);
+        byte[] decoded = new byte[data.length];
+        Lz4.decompress(compressed, 0, length, decoded, 0, data.length);
+        assertArrayEquals(data, decoded);
+    }
+
+    @Test
+    public void runsAndRepeats_compressWell() throws Exception {
+        // long runs need extra length bytes, short periods overlapping matches
+        byte[] data = new byte[65536 * 3];
+        Random random = new Random(3);
+        for (int i = 0; i < data.length; ) {
+            int run = random.nextInt(2000);
+            byte[] pattern = new byte[1 + random.nextInt(5)];
+            random.nextBytes(pattern);
+            for (int j = 0; j < run && i < data.length; j++, i++) {
+                data[i] = pattern[j % pattern.length];
+            }
+        }
+        byte[] compressed = new byte[Lz4.maxCompressedLength(data.length)];
+        int length = new Lz4().compress(data, 0, data.length, compressed, 0);
+        assertTrue("compressed to " + length, length < data.length / 20);
+        assertArrayEquals(data, roundTrip(data));
+    }
+
+    @Test
+    public void offsets_areHonored() throws Exception {
+        byte[] data = new byte[1000];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) (i % 17);
+        }
+        byte[] compressed = new byte[10 + Lz4.maxCompressedLength(500)];
+        int length = new Lz4().compress(data, 300, 500, compressed, 10);
+        byte[] decoded = new byte[520];
+        Lz4.decompress(compressed, 10, length, decoded, 20, 500);
+        assertArrayEquals(Arrays.copyOfRange(data, 300, 800), Arrays.copyOfRange(decoded, 20, 520));
+    }
+
+    @Test
+    public void malformedBlocks_areRejected() throws Exception {
+        byte[] data = new byte[5000];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) (i / 7);
+        }
+        byte[] compressed = new byte[Lz4.maxCompressedLength(data.length)];
+        int length = new Lz4().compress(data, 0, data.length, compressed, 0);
+        byte[] decoded = new byte[data.length];
+        for (int truncated = 0; truncated < length; truncated++) {
+            assertMalformed(compressed, truncated, decoded, data.length);
+        }
+        // decoding to another length
+        assertMalformed(compressed, length, decoded, data.length - 1);
+        assertMalformed(compressed, length, new byte[data.length + 1], data.length + 1);
+        // a match before the start
+        assertMalformed(new byte[] {0x10, 'a', 5, 0, 0x00}, 5, new byte[20], 9);
+        assertMalformed(new byte[] {0x10, 'a', 0, 0, 0x00}, 5, new byte[20], 9);
+    }
+
+    private static void assertMalformed(byte[] compressed, int length, byte[] decoded, int decodedLength) {
+        try {
+            Lz4.decompress(compressed, 0, length, decoded, 0, decodedLength);
+            fail("Decoded a malformed block of " + length + " bytes");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    private static byte[] roundTrip(byte[] data) throws IOException {
+        byte[] compressed = new byte[Lz4.maxCompressedLength(data.length)];
+        int length = new Lz4().compress(data, 0, data.length, compressed, 0);
+        byte[] decoded = new byte[data.length];
+        Lz4.decompress(compressed, 0, length, decoded, 0, data.length);
+        return decoded;
+    }
+}
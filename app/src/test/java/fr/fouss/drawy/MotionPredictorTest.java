@@ -0,0 +1,89 @@
+package fr.fouss.drawy;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class MotionPredictorTest {
+
+    @Test
+    public void noPrediction_untilVelocityIsKnown() throws Exception {
+        MotionPredictor predictor = new MotionPredictor();
+        predictor.begin(100, 10, 10);
+        assertFalse(predictor.predict(16));
+        // a sample at the same time gives no velocity either
+        predictor.add(100, 12, 10);
+        assertFalse(predictor.predict(16));
+        predictor.add(108, 20, 10);
+        assertTrue(predictor.predict(16));
+    }
+
+    @Test
+    public void constantVelocity_isExtrapolated() throws Exception {
+        MotionPredictor predictor = new MotionPredictor();
+        predictor.begin(0, 0, 0);
+        // 120 Hz samples, 1 px/ms right and 0.5 px/ms down
+        for (int t = 8; t <= 80; t += 8) {
+            predictor.add(t, t, t / 2f);
+        }
+        assertTrue(predictor.predict(16));
+        assertEquals(96, predictor.getPredictedX(), 1e-3);
+        assertEquals(48, predictor.getPredictedY(), 1e-3);
+    }
+
+    @Test
+    public void acceleration_reducesTheLag() throws Exception {
+        MotionPredictor predictor = new MotionPredictor();
+        predictor.begin(0, 0, 0);
+        float last = 0;
+        for (int t = 8; t <= 160; t += 8) {
+            last = t * t / 100f;
+            predictor.add(t, last, 0);
+        }
+        float actual = 176 * 176 / 100f;
+        assertTrue(predictor.predict(16));
+        assertTrue(Math.abs(predictor.getPredictedX() - actual) < (actual - last) / 4);
+    }
+
+    @Test
+    public void horizon_isCapped() throws Exception {
+        MotionPredictor predictor = new MotionPredictor();
+        predictor.begin(0, 0, 0);
+        predictor.add(8, 8, 0);
+        predictor.add(16, 16, 0);
+        predictor.predict(MotionPredictor.MAX_HORIZON_MS);
+        float capped = predictor.getPredictedX();
+        predictor.predict(1000);
+        assertEquals(capped, predictor.getPredictedX(), 0);
+        assertEquals(16 + MotionPredictor.MAX_HORIZON_MS, capped, 1e-3);
+    }
+
+    @Test
+    public void stoppingFinger_isNeverPredictedBackwards() throws Exception {
+        MotionPredictor predictor = new MotionPredictor();
+        predictor.begin(0, 0, 0);
+        for (int t = 8; t <= 80; t += 8) {
+            predictor.add(t, t * 1.25f, 0);
+        }
+        // the finger stops at once, the deceleration must not pull the prediction behind it
+        for (int t = 88; t <= 160; t += 8) {
+            predictor.add(t, 100, 0);
+            assertTrue(predictor.predict(MotionPredictor.MAX_HORIZON_MS));
+            assertTrue(predictor.getPredictedX() >= 100);
+        }
+    }
+
+    @Test
+    public void begin_forgetsThePreviousStroke() throws Exception {
+        MotionPredictor predictor = new MotionPredictor();
+        predictor.begin(0, 0, 0);
+        predictor.add(8, 80, 0);
+        predictor.add(16, 160, 0);
+        predictor.begin(1000, 500, 500);
+        assertFalse(predictor.predict(16));
+        predictor.add(1008, 500, 508);
+        assertTrue(predictor.predict(16));
+        assertEquals(500, predictor.getPredictedX(), 1e-3);
+        assertEquals(524, predictor.getPredictedY(), 1e-3);
+    }
+}
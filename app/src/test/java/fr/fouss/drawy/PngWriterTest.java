@@ -0,0 +1,192 @@
+package fr.fouss.drawy;
+
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.Adler32;
+import java.util.zip.Deflater;
+
+import javax.imageio.ImageIO;
+
+import static org.junit.Assert.*;
+
+public class PngWriterTest {
+
+    private static int[] gradient(int width, int height) {
+        int[] pixels = new int[width * height];
+        Random random = new Random(4);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int alpha = (x * 7 + y) % 256;
+                // mostly smooth with some noise, so every filter gets picked at some point
+                int noise = y % 5 == 0 ? random.nextInt(256) : 0;
+                pixels[y * width + x] = alpha << 24 | (x & 0xff) << 16 | (y & 0xff) << 8 | noise;
+            }
+        }
+        return pixels;
+    }
+
+    private static void assertDecodesTo(byte[] png, int[] pixels, int width, int height) throws Exception {
+        BufferedImage image = ImageIO.read(new ByteArrayInputStream(png));
+        assertEquals(width, image.getWidth());
+        assertEquals(height, image.getHeight());
+        int[] decoded = image.getRGB(0, 0, width, height, null, 0, width);
+        assertArrayEquals(pixels, decoded);
+    }
+
+    @Test
+    public void bands_decodeToSameImage() throws Exception {
+        int width = 300;
+        int height = 211;
+        int[] pixels = gradient(width, height);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        PngWriter png = new PngWriter(out, width, height);
+        // uneven bands, as when the last one is shorter
+        for (int top = 0; top < height; top += 64) {
+            png.writeRows(pixels, top * width, width, Math.min(64, height - top));
+        }
+        png.finish();
+        assertDecodesTo(out.toByteArray(), pixels, width, height);
+    }
+
+    @Test
+    public void largeOutput_spansSeveralChunks() throws Exception {
+        int width = 1000;
+        int height = 400;
+        int[] pixels = new int[width * height];
+        Random random = new Random(2);
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = random.nextInt();
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        PngWriter png = new PngWriter(out, width, height);
+        png.writeRows(pixels, 0, width, height);
+        png.finish();
+        assertTrue(out.size() > 64 * 1024);
+        assertDecodesTo(out.toByteArray(), pixels, width, height);
+    }
+
+    @Test
+    public void rowsReadWithStride() throws Exception {
+        // a 2x2 image inside a 3 wide buffer
+        int[] buffer = {0xff000001, 0xff000002, 0xdeadbeef, 0xff000003, 0xff000004, 0xdeadbeef};
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        PngWriter png = new PngWriter(out, 2, 2);
+        png.writeRows(buffer, 0, 3, 2);
+        png.finish();
+        assertDecodesTo(out.toByteArray(), new int[] {0xff000001, 0xff000002, 0xff000003, 0xff000004}, 2, 2);
+    }
+
+    private static byte[] encodeParallel(int[] pixels, int width, int height, int bandHeight, int parallelism)
+            throws Exception {
+        ExecutorService workers = Executors.newFixedThreadPool(parallelism);
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            PngWriter png = new PngWriter(out, width, height, Deflater.DEFAULT_COMPRESSION, workers, parallelism);
+            for (int top = 0; top < height; top += bandHeight) {
+                png.writeRows(pixels, top * width, width, Math.min(bandHeight, height - top));
+            }
+            png.finish();
+            return out.toByteArray();
+        } finally {
+            workers.shutdown();
+        }
+    }
+
+    @Test
+    public void parallel_decodesToSameImage() throws Exception {
+        int width = 700;
+        int height = 900;
+        int[] pixels = gradient(width, height);
+        // bands split in several slices, the last band and slices being shorter
+        byte[] png = encodeParallel(pixels, width, height, 400, 4);
+        assertDecodesTo(png, pixels, width, height);
+    }
+
+    @Test
+    public void parallel_smallBands() throws Exception {
+        // bands of a few rows, each one slice, and a dictionary made of several of them
+        int width = 33;
+        int height = 500;
+        int[] pixels = gradient(width, height);
+        assertDecodesTo(encodeParallel(pixels, width, height, 7, 3), pixels, width, height);
+        assertDecodesTo(encodeParallel(pixels, 1, 1, 1, 2), new int[] {pixels[0]}, 1, 1);
+    }
+
+    @Test
+    public void parallel_noiseAcrossChunks() throws Exception {
+        int width = 512;
+        int height = 600;
+        int[] pixels = new int[width * height];
+        Random random = new Random(6);
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = random.nextInt();
+        }
+        assertDecodesTo(encodeParallel(pixels, width, height, 256, 8), pixels, width, height);
+    }
+
+    @Test
+    public void parallel_keepsCompressionAcrossSlices() throws Exception {
+        // a pattern repeating every 20 rows, found again through the dictionary after each slice start
+        int width = 256;
+        int height = 2000;
+        int[] pixels = new int[width * height];
+        Random random = new Random(9);
+        for (int i = 0; i < width * 20; i++) {
+            pixels[i] = random.nextInt();
+        }
+        for (int i = width * 20; i < pixels.length; i++) {
+            pixels[i] = pixels[i - width * 20];
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        PngWriter sequential = new PngWriter(out, width, height);
+        sequential.writeRows(pixels, 0, width, height);
+        sequential.finish();
+
+        byte[] parallel = encodeParallel(pixels, width, height, height, 4);
+        assertDecodesTo(parallel, pixels, width, height);
+        assertTrue(parallel.length + " bytes against " + out.size(), parallel.length < out.size() * 1.1);
+    }
+
+    @Test
+    public void adler32Combine_matchesWholeChecksum() throws Exception {
+        Random random = new Random(1);
+        byte[] data = new byte[300000];
+        random.nextBytes(data);
+        for (int split : new int[] {0, 1, 65521, 100000, data.length}) {
+            Adler32 first = new Adler32();
+            first.update(data, 0, split);
+            Adler32 second = new Adler32();
+            second.update(data, split, data.length - split);
+            Adler32 whole = new Adler32();
+            whole.update(data, 0, data.length);
+            assertEquals(whole.getValue(),
+                    PngWriter.adler32Combine(first.getValue(), second.getValue(), data.length - split));
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void missingRows_throw() throws Exception {
+        PngWriter png = new PngWriter(new ByteArrayOutputStream(), 4, 4);
+        png.writeRows(new int[16], 0, 4, 3);
+        png.finish();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void extraRows_throw() throws Exception {
+        PngWriter png = new PngWriter(new ByteArrayOutputStream(), 4, 2);
+        png.writeRows(new int[16], 0, 4, 3);
+    }
+
+    @Test
+    public void paethPredictor_picksClosestNeighbour() throws Exception {
+        assertEquals(10, PngWriter.paethPredictor(10, 20, 20));
+        assertEquals(20, PngWriter.paethPredictor(10, 20, 10));
+        assertEquals(15, PngWriter.paethPredictor(20, 10, 15));
+    }
+}
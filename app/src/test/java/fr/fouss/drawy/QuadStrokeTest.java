@@ -0,0 +1,57 @@
+package fr.fouss.drawy;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static fr.fouss.drawy.DirtyRectTest.assertRect;
+import static org.junit.Assert.*;
+
+public class QuadStrokeTest {
+
+    private static final float HALF_WIDTH = 10;
+
+    @Test
+    public void scriptedStroke_dirtyRects() throws Exception {
+        // DOWN(100,100) MOVE(110,100) MOVE(120,130) UP(121,131), as DrawView.onTouchEventBrush feeds it
+        QuadStroke stroke = new QuadStroke();
+        List<float[]> quads = new ArrayList<>();
+        QuadStroke.Segments segments = (cx, cy, x, y) -> quads.add(new float[] {cx, cy, x, y});
+
+        stroke.begin(100, 100, HALF_WIDTH);
+        assertRect(89, 89, 111, 111, stroke.segmentDirty);
+
+        stroke.clearSegments();
+        stroke.add(110, 100, segments);
+        assertRect(89, 89, 116, 111, stroke.segmentDirty);
+
+        stroke.clearSegments();
+        stroke.add(120, 130, segments);
+        // only the new segment, not the whole stroke
+        assertRect(94, 89, 126, 126, stroke.segmentDirty);
+        assertRect(94, 89, 126, 126, stroke.quadDirty);
+
+        stroke.end(121, 131, segments);
+        assertRect(89, 89, 132, 142, stroke.strokeDirty);
+        assertEquals(3, stroke.getQuadCount());
+        assertArrayEquals(new float[] {100, 100, 105, 100}, quads.get(0), 0);
+        assertArrayEquals(new float[] {110, 100, 115, 115}, quads.get(1), 0);
+        assertArrayEquals(new float[] {120, 130, 120.5f, 130.5f}, quads.get(2), 0);
+        assertEquals(120.5f, stroke.getEndX(), 0);
+        assertEquals(131, stroke.getLastY(), 0);
+    }
+
+    @Test
+    public void begin_resetsTheStroke() throws Exception {
+        QuadStroke stroke = new QuadStroke();
+        QuadStroke.Segments ignored = (cx, cy, x, y) -> { };
+        stroke.begin(0, 0, 2);
+        stroke.add(100, 100, ignored);
+        stroke.begin(50, 50, 2);
+        assertEquals(0, stroke.getQuadCount());
+        assertRect(47, 47, 53, 53, stroke.strokeDirty);
+        stroke.add(50, 50, ignored);
+        assertRect(47, 47, 53, 53, stroke.strokeDirty);
+    }
+}
@@ -0,0 +1,86 @@
+package fr.fouss.drawy;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class SaveQueueTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static class RecordingListener implements SaveQueue.Listener {
+        final List<String> events = new ArrayList<>();
+
+        @Override
+        public synchronized void onSaveProgress(File file, long bytesWritten) {
+            events.add("progress " + file.getName() + " " + bytesWritten);
+        }
+
+        @Override
+        public synchronized void onSaveFinished(File file, boolean success) {
+            events.add("finished " + file.getName() + " " + success);
+        }
+    }
+
+    private static SaveQueue.Encoder bytes(int count, byte value) {
+        return out -> {
+            byte[] chunk = new byte[1024];
+            java.util.Arrays.fill(chunk, value);
+            for (int i = 0; i < count; i += chunk.length) {
+                out.write(chunk, 0, Math.min(chunk.length, count - i));
+            }
+        };
+    }
+
+    @Test
+    public void queuedSaves_runInOrderAndReportProgress() throws Exception {
+        ExecutorService worker = Executors.newSingleThreadExecutor();
+        SaveQueue queue = new SaveQueue(worker, Runnable::run);
+        RecordingListener listener = new RecordingListener();
+        File first = folder.newFile("first.png");
+        File second = new File(folder.getRoot(), "second.png");
+
+        queue.save(first, bytes(600 * 1024, (byte) 1), listener);
+        queue.save(second, bytes(10, (byte) 2), listener);
+        worker.shutdown();
+        assertTrue(worker.awaitTermination(10, TimeUnit.SECONDS));
+
+        assertEquals(0, queue.getPendingCount());
+        assertEquals(600 * 1024, first.length());
+        assertEquals(10, second.length());
+        assertEquals(2, Files.readAllBytes(second.toPath())[9]);
+        assertEquals("progress first.png 262144", listener.events.get(0));
+        assertEquals("progress first.png 524288", listener.events.get(1));
+        assertEquals("finished first.png true", listener.events.get(2));
+        assertEquals("finished second.png true", listener.events.get(3));
+        assertFalse(new File(first.getPath() + ".part").exists());
+    }
+
+    @Test
+    public void failedEncoder_reportsFailureAndLeavesNoFile() throws Exception {
+        SaveQueue queue = new SaveQueue(Runnable::run, Runnable::run);
+        RecordingListener listener = new RecordingListener();
+        File file = new File(folder.getRoot(), "broken.png");
+
+        queue.save(file, out -> {
+            out.write(new byte[100]);
+            throw new IOException("encoder failure");
+        }, listener);
+
+        assertEquals("finished broken.png false", listener.events.get(0));
+        assertFalse(file.exists());
+        assertFalse(new File(file.getPath() + ".part").exists());
+    }
+}
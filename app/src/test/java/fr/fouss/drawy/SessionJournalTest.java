@@ -0,0 +1,256 @@
+package fr.fouss.drawy;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import static org.junit.Assert.*;
+
+public class SessionJournalTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private ScheduledExecutorService worker;
+    private File directory;
+
+    @Before
+    public void setUp() throws Exception {
+        worker = Executors.newSingleThreadScheduledExecutor();
+        directory = new File(folder.getRoot(), "session");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        worker.shutdownNow();
+    }
+
+    // replays a log into readable lines
+    private static List<String> render(DrawingLog log) {
+        final List<String> lines = new ArrayList<>();
+        log.replay(new ReplayCanvas() {
+            @Override
+            public void clear(int color) {
+                lines.add("clear " + color);
+            }
+
+            @Override
+            public void drawBackground(int imageId) {
+                lines.add("background " + imageId);
+            }
+
+            @Override
+            public void drawStroke(float[] points, int pointCount, int color, float width, int cap, int join) {
+                lines.add("stroke " + color + " " + width + " " + pointCount + " " + points[2 * pointCount - 1]);
+            }
+
+            @Override
+            public void drawImage(int imageId, float x, float y, float scale, float degrees) {
+                lines.add("image " + imageId + " " + x + " " + scale);
+            }
+
+            @Override
+            public void drawStamps(float[] points, int pointCount, int color, float size) {
+                lines.add("stamps " + color + " " + size + " " + pointCount + " " + points[3 * pointCount - 1]);
+            }
+
+            @Override
+            public void drawFill(int[] mask, int offset, int left, int top, int width, int height, int color) {
+                lines.add("fill " + color + " " + left + " " + top + " " + width + " " + height
+                        + " " + mask[offset]);
+            }
+
+            @Override
+            public void selectLayer(int layer, int opacity, int mode) {
+                lines.add("layer " + layer + " " + opacity + " " + mode);
+            }
+        });
+        return lines;
+    }
+
+    private static void stroke(DrawingLog log, int color, int points) {
+        log.beginStroke(color, 12, 1, 1);
+        for (int p = 0; p < points; p++) {
+            log.addPoint(p, p * 2);
+        }
+        log.endStroke();
+    }
+
+    @Test
+    public void journal_replaysCommittedSession() throws Exception {
+        DrawingLog log = new DrawingLog();
+        SessionJournal journal = new SessionJournal(directory, worker, 50);
+        log.clear(-1);
+        journal.appendOp(log, log.size() - 1);
+        for (int i = 0; i < 20; i++) {
+            stroke(log, i, 10 + i);
+            journal.appendOp(log, log.size() - 1);
+        }
+        journal.appendImage(0, out -> out.write(new byte[]{1, 2, 3}));
+        log.image(0, 10, 20, 0.5f, 45);
+        journal.appendOp(log, log.size() - 1);
+        log.undo();
+        journal.appendUndo();
+        log.undo();
+        journal.appendUndo();
+        log.redo();
+        journal.appendRedo();
+        journal.close();
+
+        assertTrue(SessionJournal.exists(directory));
+        DrawingLog restored = new DrawingLog();
+        SessionJournal.read(directory, restored);
+        assertEquals(log.size(), restored.size());
+        assertEquals(render(log), render(restored));
+        assertTrue(restored.redo());
+        assertArrayEquals(new byte[]{1, 2, 3},
+                Files.readAllBytes(SessionJournal.getImageFile(directory, 0).toPath()));
+    }
+
+    @Test
+    public void stampStrokes_areReadBack() throws Exception {
+        DrawingLog log = new DrawingLog();
+        SessionJournal journal = new SessionJournal(directory, worker, 0);
+        log.beginStamps(0xff0000ff, 16);
+        for (int p = 0; p < 50; p++) {
+            log.addStampPoint(p, 2 * p, p / 50f);
+        }
+        log.endStroke();
+        journal.appendOp(log, 0);
+        journal.close();
+
+        DrawingLog restored = new DrawingLog();
+        SessionJournal.read(directory, restored);
+        assertEquals(render(log), render(restored));
+        assertEquals("[stamps -16776961 16.0 50 0.98]", render(restored).toString());
+    }
+
+    @Test
+    public void fills_areReadBack() throws Exception {
+        DrawingLog log = new DrawingLog();
+        SessionJournal journal = new SessionJournal(directory, worker, 0);
+        int[] mask = new int[100 * DrawingLog.maskWordsPerRow(70)];
+        mask[0] = 0b1011;
+        log.fill(0xff00ff00, 5, 6, 70, 100, mask, 0);
+        journal.appendOp(log, 0);
+        journal.close();
+
+        DrawingLog restored = new DrawingLog();
+        SessionJournal.read(directory, restored);
+        assertEquals("[fill -16711936 5 6 70 100 11]", render(restored).toString());
+    }
+
+    @Test
+    public void reopenedJournal_appends() throws Exception {
+        DrawingLog log = new DrawingLog();
+        SessionJournal journal = new SessionJournal(directory, worker, 0);
+        stroke(log, 1, 3);
+        journal.appendOp(log, 0);
+        journal.close();
+
+        journal = new SessionJournal(directory, worker, 0);
+        stroke(log, 2, 4);
+        journal.appendOp(log, 1);
+        journal.close();
+
+        DrawingLog restored = new DrawingLog();
+        SessionJournal.read(directory, restored);
+        assertEquals(render(log), render(restored));
+    }
+
+    @Test
+    public void asyncClose_isDoneBeforeLaterWorkerTasks() throws Exception {
+        DrawingLog log = new DrawingLog();
+        // flushed by the close alone
+        SessionJournal journal = new SessionJournal(directory, worker, 60000);
+        stroke(log, 1, 3);
+        journal.appendOp(log, 0);
+        journal.closeAsync();
+
+        // as a recreated activity reads it on the same worker
+        DrawingLog restored = new DrawingLog();
+        worker.submit(() -> {
+            SessionJournal.read(directory, restored);
+            return null;
+        }).get();
+        assertNull(journal.getFailure());
+        assertEquals(render(log), render(restored));
+    }
+
+    @Test
+    public void truncatedLastRecord_isIgnored() throws Exception {
+        DrawingLog log = new DrawingLog();
+        SessionJournal journal = new SessionJournal(directory, worker, 0);
+        stroke(log, 1, 5);
+        journal.appendOp(log, 0);
+        stroke(log, 2, 5);
+        journal.appendOp(log, 1);
+        journal.close();
+
+        File file = new File(directory, SessionJournal.JOURNAL_FILE);
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(raf.length() - 7);
+        }
+        DrawingLog restored = new DrawingLog();
+        SessionJournal.read(directory, restored);
+        assertEquals(1, restored.size());
+    }
+
+    @Test
+    public void appendAfterTruncatedRecord_isReadBack() throws Exception {
+        DrawingLog log = new DrawingLog();
+        SessionJournal journal = new SessionJournal(directory, worker, 0);
+        stroke(log, 1, 5);
+        journal.appendOp(log, 0);
+        stroke(log, 2, 5);
+        journal.appendOp(log, 1);
+        journal.close();
+
+        File file = new File(directory, SessionJournal.JOURNAL_FILE);
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(raf.length() - 7);
+        }
+        DrawingLog restored = new DrawingLog();
+        SessionJournal.read(directory, restored);
+
+        journal = new SessionJournal(directory, worker, 0);
+        stroke(restored, 3, 4);
+        journal.appendOp(restored, 1);
+        journal.close();
+
+        DrawingLog reread = new DrawingLog();
+        SessionJournal.read(directory, reread);
+        assertEquals(2, reread.size());
+        assertEquals(DrawingLog.OP_STROKE, reread.getType(1));
+    }
+
+    @Test(expected = IOException.class)
+    public void foreignFile_isRejected() throws Exception {
+        assertTrue(directory.mkdirs());
+        Files.write(new File(directory, SessionJournal.JOURNAL_FILE).toPath(), "not a journal".getBytes());
+        SessionJournal.read(directory, new DrawingLog());
+    }
+
+    @Test
+    public void delete_removesEverything() throws Exception {
+        SessionJournal journal = new SessionJournal(directory, worker, 0);
+        journal.appendImage(3, out -> out.write(1));
+        journal.appendUndo();
+        journal.close();
+        assertTrue(SessionJournal.exists(directory));
+        SessionJournal.delete(directory);
+        assertFalse(SessionJournal.exists(directory));
+        assertFalse(SessionJournal.getImageFile(directory, 3).exists());
+    }
+}
@@ -0,0 +1,173 @@
+package fr.fouss.drawy;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class StampBrushTest {
+
+    private static final int SIZE = 64;
+
+    @Test
+    public void div255_roundsExactly() throws Exception {
+        for (int value = 0; value <= 255 * 255; value++) {
+            assertEquals(Math.round(value / 255.0), StampBrush.div255(value));
+        }
+    }
+
+    @Test
+    public void opaqueDab_coversItsDiskAndBlendsItsEdge() throws Exception {
+        StampBrush brush = new StampBrush();
+        brush.begin(0xffff0000, 20);
+        // on a pixel center
+        brush.stampTo(32.5f, 32.5f, 1);
+        assertEquals(1, brush.getDabCount());
+        assertEquals(10, brush.getDabRadius(0), 0);
+        int[] pixels = filled(0xffffffff);
+        brush.rasterize(pixels, 0, 0, SIZE, SIZE);
+
+        assertEquals(0xffff0000, pixel(pixels, 32, 32));
+        assertEquals(0xffff0000, pixel(pixels, 23, 32));
+        assertEquals(0xffffffff, pixel(pixels, 43, 32));
+        assertEquals(0xffffffff, pixel(pixels, 40, 40));
+        // the pixels centered on the circle are half covered
+        assertEquals(0xffff7f7f, pixel(pixels, 42, 32));
+        assertEquals(0xffff7f7f, pixel(pixels, 32, 22));
+        assertEquals(0, brush.getDabCount());
+        assertTrue(brush.getBounds().isEmpty());
+    }
+
+    @Test
+    public void dabs_areEvenlySpaced() throws Exception {
+        StampBrush brush = new StampBrush();
+        brush.begin(0xff000000, 20);
+        brush.stampTo(0, 0, 1);
+        brush.stampTo(100, 0, 1);
+        // every 15% of the 20 px diameter
+        assertEquals(34, brush.getDabCount());
+        for (int i = 0; i < brush.getDabCount(); i++) {
+            assertEquals(3 * i, brush.getDabX(i), 1e-3);
+            assertEquals(0, brush.getDabY(i), 0);
+        }
+    }
+
+    @Test
+    public void spacing_carriesOverSegments() throws Exception {
+        StampBrush whole = new StampBrush();
+        whole.begin(0xff000000, 10);
+        whole.stampTo(0, 0, 0.5f);
+        whole.stampTo(70, 70, 0.5f);
+        StampBrush pieces = new StampBrush();
+        pieces.begin(0xff000000, 10);
+        pieces.stampTo(0, 0, 0.5f);
+        for (int i = 1; i <= 10; i++) {
+            pieces.stampTo(7 * i, 7 * i, 0.5f);
+        }
+        assertEquals(whole.getDabCount(), pieces.getDabCount());
+        for (int i = 0; i < whole.getDabCount(); i++) {
+            assertEquals(whole.getDabX(i), pieces.getDabX(i), 1e-3);
+            assertEquals(whole.getDabY(i), pieces.getDabY(i), 1e-3);
+        }
+    }
+
+    @Test
+    public void pressure_drivesSizeAndOpacity() throws Exception {
+        StampBrush brush = new StampBrush();
+        brush.begin(0xc0000000, 40);
+        brush.stampTo(0, 0, 0);
+        brush.stampTo(200, 0, 1);
+        // out of range pressures are clamped
+        brush.stampTo(300, 0, 5);
+        assertEquals(40 * StampBrush.MIN_SIZE / 2, brush.getDabRadius(0), 1e-3);
+        assertEquals(Math.round(0xc0 * StampBrush.MIN_OPACITY), brush.getDabAlpha(0));
+        for (int i = 1; i < brush.getDabCount(); i++) {
+            assertTrue(brush.getDabRadius(i) >= brush.getDabRadius(i - 1));
+            assertTrue(brush.getDabAlpha(i) >= brush.getDabAlpha(i - 1));
+        }
+        int last = brush.getDabCount() - 1;
+        assertEquals(20, brush.getDabRadius(last), 0);
+        assertEquals(0xc0, brush.getDabAlpha(last));
+    }
+
+    @Test
+    public void dabs_areClippedToTheBuffer() throws Exception {
+        StampBrush brush = new StampBrush();
+        brush.begin(0xff00ff00, 30);
+        brush.stampTo(100, 100, 1);
+        brush.stampTo(130, 100, 1);
+        // a buffer covering [110;126[ x [90;106[ only
+        int[] pixels = new int[16 * 16];
+        brush.rasterize(pixels, 110, 90, 16, 16);
+        for (int pixel : pixels) {
+            assertEquals(0xff00ff00, pixel);
+        }
+    }
+
+    @Test
+    public void blendingIntoLayer_matchesBlendingIntoDrawing() throws Exception {
+        // dabs are blended into a transparent layer drawn over the drawing, as if blended into it
+        int[] direct = filled(0xff3080c0);
+        int[] layer = new int[SIZE * SIZE];
+        for (int[] target : new int[][] {direct, layer}) {
+            StampBrush brush = new StampBrush();
+            brush.begin(0x99402010, 12);
+            brush.stampTo(5, 5, 0.2f);
+            brush.stampTo(60, 40, 1);
+            brush.stampTo(10, 58, 0.6f);
+            brush.rasterize(target, 0, 0, SIZE, SIZE);
+        }
+        for (int i = 0; i < direct.length; i++) {
+            int src = layer[i];
+            int inverse = 255 - (src >>> 24);
+            for (int shift = 0; shift < 32; shift += 8) {
+                int composed = ((src >> shift) & 0xff) + StampBrush.div255(((0xff3080c0 >> shift) & 0xff) * inverse);
+                assertEquals(composed, (direct[i] >> shift) & 0xff, 2);
+            }
+        }
+    }
+
+    @Test
+    public void scaledRasterizing_matchesScaledStroke() throws Exception {
+        int[] scaled = new int[SIZE * SIZE];
+        StampBrush brush = new StampBrush();
+        brush.begin(0xcc204080, 6);
+        brush.stampTo(8, 12, 1);
+        brush.stampTo(30, 25, 1);
+        brush.rasterize(scaled, 0, 0, SIZE, SIZE, 2, -4, -8);
+
+        int[] expected = new int[SIZE * SIZE];
+        brush.begin(0xcc204080, 12);
+        brush.stampTo(12, 16, 1);
+        brush.stampTo(56, 42, 1);
+        brush.rasterize(expected, 0, 0, SIZE, SIZE);
+        for (int i = 0; i < expected.length; i++) {
+            for (int shift = 0; shift < 32; shift += 8) {
+                assertEquals((expected[i] >> shift) & 0xff, (scaled[i] >> shift) & 0xff, 1);
+            }
+        }
+    }
+
+    @Test
+    public void premultiply_roundTrips() throws Exception {
+        int[] pixels = {0xff123456, 0x00abcdef, 0x80ff8000, 0x40ffffff};
+        StampBrush.premultiply(pixels, pixels.length);
+        assertEquals(0xff123456, pixels[0]);
+        assertEquals(0x00000000, pixels[1]);
+        assertEquals(0x80804000, pixels[2]);
+        assertEquals(0x40404040, pixels[3]);
+        StampBrush.unpremultiply(pixels, pixels.length);
+        assertArrayEquals(new int[] {0xff123456, 0, 0x80ff8000, 0x40ffffff}, pixels);
+    }
+
+    private static int[] filled(int color) {
+        int[] pixels = new int[SIZE * SIZE];
+        Arrays.fill(pixels, color);
+        return pixels;
+    }
+
+    private static int pixel(int[] pixels, int x, int y) {
+        return pixels[y * SIZE + x];
+    }
+}
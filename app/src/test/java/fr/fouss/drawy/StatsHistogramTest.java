@@ -0,0 +1,76 @@
+package fr.fouss.drawy;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class StatsHistogramTest {
+
+    @Test
+    public void capacity_isRoundedUpToPowerOfTwo() throws Exception {
+        StatsHistogram histogram = new StatsHistogram("test", "ms", 1, 100);
+        for (int i = 0; i < 1000; i++) {
+            histogram.record(i);
+        }
+        assertEquals(1000, histogram.getCount());
+        assertEquals(128, histogram.getSortedSamples().length);
+    }
+
+    @Test
+    public void ringBuffer_keepsLatestSamples() throws Exception {
+        StatsHistogram histogram = new StatsHistogram("test", "ms", 1, 4);
+        for (int i = 1; i <= 6; i++) {
+            histogram.record(i * 10);
+        }
+        assertArrayEquals(new long[] {30, 40, 50, 60}, histogram.getSortedSamples());
+    }
+
+    @Test
+    public void percentile_nearestRank() throws Exception {
+        long[] sorted = new long[100];
+        for (int i = 0; i < sorted.length; i++) {
+            sorted[i] = i + 1;
+        }
+        assertEquals(50, StatsHistogram.percentile(sorted, 50));
+        assertEquals(99, StatsHistogram.percentile(sorted, 99));
+        assertEquals(100, StatsHistogram.percentile(sorted, 100));
+        assertEquals(1, StatsHistogram.percentile(sorted, 0));
+        assertEquals(0, StatsHistogram.percentile(new long[0], 50));
+    }
+
+    @Test
+    public void reset_dropsSamples() throws Exception {
+        StatsHistogram histogram = new StatsHistogram("test", "ms", 1, 8);
+        histogram.record(5);
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getSortedSamples().length);
+    }
+
+    @Test
+    public void summary_isScaled() throws Exception {
+        StatsHistogram histogram = new StatsHistogram("draw", "ms", 1e6, 8);
+        histogram.record(2000000);
+        StringBuilder out = new StringBuilder();
+        histogram.appendSummary(out);
+        assertEquals("draw (ms): n=1 p50=2.00 p90=2.00 p99=2.00 max=2.00\n", out.toString());
+    }
+
+    @Test
+    public void concurrentReader_seesOnlyRecordedValues() throws Exception {
+        StatsHistogram histogram = new StatsHistogram("test", "ms", 1, 64);
+        Thread writer = new Thread(() -> {
+            for (int i = 0; i < 200000; i++) {
+                histogram.record(7);
+            }
+        });
+        writer.start();
+        while (writer.isAlive()) {
+            for (long sample : histogram.getSortedSamples()) {
+                assertEquals(7, sample);
+            }
+        }
+        writer.join();
+        assertEquals(200000, histogram.getCount());
+    }
+}
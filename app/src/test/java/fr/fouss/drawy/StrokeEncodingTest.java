@@ -0,0 +1,78 @@
+package fr.fouss.drawy;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class StrokeEncodingTest {
+
+    private static final float MAX_ERROR = 0.5f / StrokeEncoding.STEPS_PER_PIXEL;
+
+    @Test
+    public void roundTrip_isWithinQuantization() throws Exception {
+        Random random = new Random(5);
+        float[] points = new float[2 * 1000];
+        for (int i = 0; i < points.length; i++) {
+            points[i] = random.nextFloat() * 4000 - 1000;
+        }
+        VarintBuffer buffer = new VarintBuffer();
+        StrokeEncoding.encode(points, 1000, buffer);
+        float[] decoded = new float[points.length];
+        StrokeEncoding.decode(buffer, 1000, decoded);
+        for (int i = 0; i < points.length; i++) {
+            assertEquals(points[i], decoded[i], MAX_ERROR);
+        }
+        assertFalse(buffer.hasRemaining());
+    }
+
+    @Test
+    public void longStroke_doesNotDrift() throws Exception {
+        // every step would lose a bit if deltas were taken between raw values
+        float[] points = new float[2 * 10000];
+        for (int i = 0; i < 10000; i++) {
+            points[2 * i] = i * 1.06f;
+            points[2 * i + 1] = i * 0.53f;
+        }
+        VarintBuffer buffer = new VarintBuffer();
+        StrokeEncoding.encode(points, 10000, buffer);
+        float[] decoded = new float[points.length];
+        StrokeEncoding.decode(buffer, 10000, decoded);
+        assertEquals(points[points.length - 2], decoded[points.length - 2], MAX_ERROR);
+        assertEquals(points[points.length - 1], decoded[points.length - 1], MAX_ERROR);
+    }
+
+    @Test
+    public void touchSamples_takeFewBytesPerPoint() throws Exception {
+        Random random = new Random(8);
+        int count = 5000;
+        float[] points = new float[2 * count];
+        float x = 540;
+        float y = 960;
+        for (int i = 0; i < count; i++) {
+            x += random.nextFloat() * 16 - 8;
+            y += random.nextFloat() * 16 - 8;
+            points[2 * i] = x;
+            points[2 * i + 1] = y;
+        }
+        VarintBuffer buffer = new VarintBuffer();
+        StrokeEncoding.encode(points, count, buffer);
+        double bytesPerPoint = (double) buffer.size() / count;
+        // deltas of up to 8 px are 64 steps, zigzagged they fit in one or two bytes per axis
+        assertTrue("bytes per point " + bytesPerPoint, bytesPerPoint <= 4);
+    }
+
+    @Test
+    public void hugeCoordinates_areClamped() throws Exception {
+        float[] points = {Float.MAX_VALUE, -Float.MAX_VALUE, 1, 1};
+        VarintBuffer buffer = new VarintBuffer();
+        StrokeEncoding.encode(points, 2, buffer);
+        float[] decoded = new float[4];
+        StrokeEncoding.decode(buffer, 2, decoded);
+        assertTrue(decoded[0] > 1000000);
+        assertTrue(decoded[1] < -1000000);
+        assertEquals(1, decoded[2], MAX_ERROR);
+        assertEquals(1, decoded[3], MAX_ERROR);
+    }
+}
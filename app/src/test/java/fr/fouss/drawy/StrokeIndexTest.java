@@ -0,0 +1,160 @@
+package fr.fouss.drawy;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class StrokeIndexTest {
+
+    private static List<Integer> query(StrokeIndex index, int left, int top, int right, int bottom, int opLimit) {
+        List<Integer> ops = new ArrayList<>();
+        int count = index.query(left, top, right, bottom, opLimit);
+        for (int i = 0; i < count; i++) {
+            ops.add(index.getResult(i));
+        }
+        return ops;
+    }
+
+    @Test
+    public void query_findsOverlappingOpsOnceInOrder() throws Exception {
+        StrokeIndex index = new StrokeIndex(256, 256, 64);
+        index.add(1, 0, 0, 200, 200);
+        index.add(2, 10, 10, 20, 20);
+        index.add(3, 150, 150, 160, 160);
+        // op 1 is in the 9 cells of the query but reported once
+        assertEquals(Arrays.asList(1, 2), query(index, 0, 0, 100, 100, 10));
+        assertEquals(Arrays.asList(1, 3), query(index, 155, 155, 156, 156, 10));
+        assertTrue(query(index, 210, 210, 256, 256, 10).isEmpty());
+    }
+
+    @Test
+    public void query_boundsAreExclusive() throws Exception {
+        StrokeIndex index = new StrokeIndex(256, 256, 64);
+        index.add(0, 10, 10, 20, 20);
+        assertTrue(query(index, 20, 10, 30, 20, 10).isEmpty());
+        assertEquals(1, query(index, 19, 19, 30, 30, 10).size());
+    }
+
+    @Test
+    public void query_skipsOpsFromLimit() throws Exception {
+        StrokeIndex index = new StrokeIndex(256, 256, 64);
+        index.add(1, 0, 0, 10, 10);
+        index.add(2, 0, 0, 10, 10);
+        assertEquals(Collections.singletonList(1), query(index, 0, 0, 10, 10, 2));
+    }
+
+    @Test
+    public void truncate_dropsReplacedOps() throws Exception {
+        StrokeIndex index = new StrokeIndex(256, 256, 64);
+        index.add(1, 0, 0, 100, 100);
+        index.add(2, 50, 50, 250, 250);
+        index.add(3, 0, 0, 10, 10);
+        index.truncate(2);
+        assertEquals(1, index.size());
+        assertEquals(Collections.singletonList(1), query(index, 0, 0, 256, 256, 10));
+        index.add(2, 200, 200, 210, 210);
+        assertEquals(Collections.singletonList(2), query(index, 200, 200, 256, 256, 10));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void add_outOfOrder_throws() throws Exception {
+        StrokeIndex index = new StrokeIndex(256, 256, 64);
+        index.add(5, 0, 0, 10, 10);
+        index.add(5, 0, 0, 10, 10);
+    }
+
+    @Test
+    public void offCanvasBounds_areClampedToGrid() throws Exception {
+        StrokeIndex index = new StrokeIndex(256, 256, 64);
+        index.add(0, -50, -50, 5, 5);
+        index.add(1, 300, 300, 400, 400);
+        assertEquals(Collections.singletonList(0), query(index, -100, -100, 300, 300, 10));
+    }
+
+    @Test
+    public void randomOps_matchBruteForce() throws Exception {
+        Random random = new Random(42);
+        int size = 500;
+        StrokeIndex index = new StrokeIndex(size, size, 32);
+        int[][] bounds = new int[2000][];
+        for (int op = 0; op < bounds.length; op++) {
+            int x = random.nextInt(size);
+            int y = random.nextInt(size);
+            bounds[op] = new int[] {x, y, x + 1 + random.nextInt(80), y + 1 + random.nextInt(80)};
+            index.add(op, bounds[op][0], bounds[op][1], bounds[op][2], bounds[op][3]);
+        }
+        for (int q = 0; q < 300; q++) {
+            int l = random.nextInt(size);
+            int t = random.nextInt(size);
+            int r = l + 1 + random.nextInt(100);
+            int b = t + 1 + random.nextInt(100);
+            int limit = random.nextInt(bounds.length + 1);
+            List<Integer> expected = new ArrayList<>();
+            for (int op = 0; op < limit; op++) {
+                if (bounds[op][0] < r && bounds[op][2] > l && bounds[op][1] < b && bounds[op][3] > t) {
+                    expected.add(op);
+                }
+            }
+            assertEquals(expected, query(index, l, t, r, b, limit));
+        }
+    }
+
+    @Test
+    public void rebuild_indexesLogAfterLastClear() throws Exception {
+        DrawingLog log = new DrawingLog();
+        log.clear(0xffffffff);
+        log.beginStroke(0xff000000, 4, 1, 1);
+        log.addPoint(10, 10);
+        log.addPoint(20, 20);
+        log.endStroke();
+        log.clear(0xff00ff00);
+        log.background(0);
+        log.beginStroke(0xff000000, 4, 1, 1);
+        log.addPoint(100, 100);
+        log.endStroke();
+        log.image(0, 200, 200, 1, 90);
+
+        StrokeIndex index = new StrokeIndex(512, 512, 64);
+        index.rebuild(log, new StrokeIndex.ImageSizes() {
+            @Override
+            public int getImageWidth(int imageId) {
+                return 40;
+            }
+
+            @Override
+            public int getImageHeight(int imageId) {
+                return 20;
+            }
+        });
+        assertEquals(2, index.getBaseFrom());
+        assertEquals(4, index.getBaseTo());
+        assertEquals(2, index.size());
+        assertTrue(query(index, 0, 0, 50, 50, log.size()).isEmpty());
+        assertEquals(Collections.singletonList(4), query(index, 95, 95, 105, 105, log.size()));
+        // the 40x20 image turned by 90 degrees is 20 wide and 40 high
+        assertEquals(Collections.singletonList(5), query(index, 195, 182, 205, 183, log.size()));
+        assertTrue(query(index, 180, 195, 185, 205, log.size()).isEmpty());
+    }
+
+    @Test
+    public void layerSelections_areFoundEverywhere() throws Exception {
+        DrawingLog log = new DrawingLog();
+        log.clear(0xffffffff);
+        log.layer(1, 128, LayerStack.MODE_MULTIPLY);
+        log.beginStroke(0xff000000, 4, 1, 1);
+        log.addPoint(10, 10);
+        log.endStroke();
+        log.layer(0, 255, LayerStack.MODE_NORMAL);
+
+        StrokeIndex index = new StrokeIndex(512, 512, 64);
+        index.rebuild(log, null);
+        assertEquals(Arrays.asList(1, 3), query(index, 400, 400, 410, 410, log.size()));
+        assertEquals(Arrays.asList(1, 2, 3), query(index, 0, 0, 20, 20, log.size()));
+    }
+}
@@ -0,0 +1,68 @@
+package fr.fouss.drawy;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class StrokeInputTest {
+
+    @Test
+    public void withoutSmoothing_keepsToleranceFilter() throws Exception {
+        StrokeInput input = new StrokeInput(4, 0);
+        input.begin(0, 0);
+        assertFalse(input.add(3, 3));
+        assertTrue(input.add(4, 0));
+        assertFalse(input.add(7, 3));
+        assertTrue(input.add(4, 4));
+        assertEquals(2, input.size());
+        assertEquals(4, input.getX(0), 0);
+        assertEquals(0, input.getY(0), 0);
+        assertEquals(4, input.getX(1), 0);
+        assertEquals(4, input.getY(1), 0);
+    }
+
+    @Test
+    public void historicalBatch_keepsEverySampleAboveTolerance() throws Exception {
+        StrokeInput input = new StrokeInput(4, 0);
+        input.begin(0, 0);
+        // a fast 240 Hz batch, 10 px apart
+        for (int i = 1; i <= 8; i++) {
+            input.add(i * 10, 0);
+        }
+        assertEquals(8, input.size());
+        for (int i = 0; i < 8; i++) {
+            assertEquals((i + 1) * 10, input.getX(i), 0);
+        }
+        input.clear();
+        assertEquals(0, input.size());
+        assertEquals(80, input.getLastX(), 0);
+    }
+
+    @Test
+    public void smoothing_dampsJitter() throws Exception {
+        StrokeInput input = new StrokeInput(0, 0.5f);
+        input.begin(0, 0);
+        input.add(10, 0);
+        input.add(-10, 0);
+        assertEquals(5, input.getX(0), 1e-6);
+        assertEquals(-2.5, input.getX(1), 1e-6);
+    }
+
+    @Test
+    public void batchLargerThanCapacity_grows() throws Exception {
+        StrokeInput input = new StrokeInput(1, 0);
+        input.begin(0, 0);
+        input.ensureCapacity(100);
+        for (int i = 1; i <= 100; i++) {
+            input.add(i * 2, i);
+        }
+        assertEquals(100, input.size());
+        assertEquals(200, input.getX(99), 0);
+        assertEquals(100, input.getY(99), 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidSmoothing_throws() throws Exception {
+        new StrokeInput(4, 1);
+    }
+}
@@ -0,0 +1,127 @@
+package fr.fouss.drawy;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class StrokeSimplifierTest {
+
+    // feeds points and returns the kept ones, interleaved
+    private static float[] simplify(float[] points, float tolerance) {
+        StrokeSimplifier simplifier = new StrokeSimplifier();
+        simplifier.begin(points[0], points[1], tolerance);
+        for (int i = 2; i < points.length; i += 2) {
+            simplifier.add(points[i], points[i + 1]);
+        }
+        int count = simplifier.finish();
+        float[] kept = new float[2 * count];
+        for (int i = 0; i < count; i++) {
+            kept[2 * i] = simplifier.getX(i);
+            kept[2 * i + 1] = simplifier.getY(i);
+        }
+        return kept;
+    }
+
+    // jittery hand-drawn like walk, a few pixels between samples
+    private static float[] randomWalk(long seed, int count) {
+        Random random = new Random(seed);
+        float[] points = new float[2 * count];
+        float x = 500;
+        float y = 500;
+        double heading = 0;
+        for (int i = 0; i < count; i++) {
+            heading += (random.nextDouble() - 0.5) * 0.8;
+            x += (float) (Math.cos(heading) * (2 + random.nextDouble() * 6) + random.nextGaussian() * 0.3);
+            y += (float) (Math.sin(heading) * (2 + random.nextDouble() * 6) + random.nextGaussian() * 0.3);
+            points[2 * i] = x;
+            points[2 * i + 1] = y;
+        }
+        return points;
+    }
+
+    @Test
+    public void straightLine_keepsEnds() throws Exception {
+        float[] points = new float[2 * 100];
+        for (int i = 0; i < 100; i++) {
+            points[2 * i] = i * 3;
+            points[2 * i + 1] = i * 4;
+        }
+        float[] kept = simplify(points, 0.5f);
+        // runs are cut every MAX_RUN points
+        assertTrue(kept.length / 2 <= 2 + 100 / StrokeSimplifier.MAX_RUN);
+        assertEquals(0, kept[0], 0);
+        assertEquals(297, kept[kept.length - 2], 0);
+        assertEquals(396, kept[kept.length - 1], 0);
+    }
+
+    @Test
+    public void corner_isKept() throws Exception {
+        float[] points = {0, 0, 10, 0, 20, 0, 30, 0, 30, 10, 30, 20, 30, 30};
+        float[] kept = simplify(points, 0.5f);
+        assertArrayEquals(new float[] {0, 0, 30, 0, 30, 30}, kept, 0);
+    }
+
+    @Test
+    public void singlePoint_isKept() throws Exception {
+        float[] kept = simplify(new float[] {5, 6}, 1);
+        assertArrayEquals(new float[] {5, 6}, kept, 0);
+    }
+
+    @Test
+    public void droppedPoints_stayWithinTolerance() throws Exception {
+        for (float width : new float[] {2, 10, 40, 120}) {
+            float tolerance = StrokeSimplifier.toleranceForWidth(width);
+            float[] points = randomWalk((long) width, 5000);
+            float[] kept = simplify(points, tolerance);
+            // every input point lies close to the segment between the kept points around it
+            int segment = 0;
+            for (int i = 0; i < points.length; i += 2) {
+                float best = Float.MAX_VALUE;
+                for (int s = segment; s < kept.length / 2 - 1; s++) {
+                    float d = StrokeSimplifier.segmentDistanceSquared(points[i], points[i + 1],
+                            kept[2 * s], kept[2 * s + 1], kept[2 * s + 2], kept[2 * s + 3]);
+                    if (d < best) {
+                        best = d;
+                    }
+                    if (points[i] == kept[2 * s + 2] && points[i + 1] == kept[2 * s + 3]) {
+                        segment = s + 1;
+                        break;
+                    }
+                }
+                assertTrue("width " + width + " point " + i / 2 + " is " + Math.sqrt(best) + " away",
+                        best <= tolerance * tolerance * 1.0001f);
+            }
+        }
+    }
+
+    @Test
+    public void handDrawnStroke_dropsMostPoints() throws Exception {
+        float[] points = randomWalk(3, 5000);
+        float[] kept = simplify(points, StrokeSimplifier.toleranceForWidth(20));
+        assertTrue("kept " + kept.length / 2, kept.length / 2 < 5000 * 0.6);
+    }
+
+    @Test
+    public void toleranceForWidth_hasFloor() throws Exception {
+        assertEquals(StrokeSimplifier.MIN_TOLERANCE, StrokeSimplifier.toleranceForWidth(0), 0);
+        assertEquals(1, StrokeSimplifier.toleranceForWidth(20), 1e-6);
+    }
+
+    @Test
+    public void keptPoints_canBeConsumedIncrementally() throws Exception {
+        StrokeSimplifier simplifier = new StrokeSimplifier();
+        simplifier.begin(0, 0, 0.5f);
+        assertEquals(1, simplifier.size());
+        simplifier.clear();
+        simplifier.add(10, 0);
+        simplifier.add(10, 10);
+        assertEquals(1, simplifier.size());
+        assertEquals(10, simplifier.getX(0), 0);
+        assertEquals(0, simplifier.getY(0), 0);
+        simplifier.clear();
+        assertEquals(1, simplifier.finish());
+        assertEquals(10, simplifier.getY(0), 0);
+    }
+}
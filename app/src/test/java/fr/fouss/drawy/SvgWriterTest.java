@@ -0,0 +1,200 @@
+package fr.fouss.drawy;
+
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+import org.xml.sax.InputSource;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.Base64;
+
+import javax.imageio.ImageIO;
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import static org.junit.Assert.*;
+
+public class SvgWriterTest {
+
+    private static final byte[] IMAGE_BYTES = {1, 2, 3, 4, (byte) 0xff};
+
+    private static class FakeImages implements SvgWriter.Images {
+        @Override
+        public int getImageWidth(int imageId) {
+            return 40;
+        }
+
+        @Override
+        public int getImageHeight(int imageId) {
+            return 20;
+        }
+
+        @Override
+        public void writePng(int imageId, OutputStream out) throws IOException {
+            out.write(IMAGE_BYTES, 0, imageId + 1);
+        }
+    }
+
+    private static Document write(DrawingLog log) throws Exception {
+        StringWriter out = new StringWriter();
+        SvgWriter svg = new SvgWriter(out, 200, 100, new FakeImages());
+        log.replay(svg);
+        svg.finish();
+        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+        factory.setNamespaceAware(true);
+        return factory.newDocumentBuilder().parse(new InputSource(new StringReader(out.toString())));
+    }
+
+    @Test
+    public void strokes_becomeQuadraticPaths() throws Exception {
+        DrawingLog log = new DrawingLog();
+        log.clear(0xffffffff);
+        log.beginStroke(0x80ff0000, 6, 1, 2);
+        log.addPoint(10, 10);
+        log.addPoint(20, 10);
+        log.addPoint(20.25f, 30);
+        log.endStroke();
+
+        Document document = write(log);
+        Element root = document.getDocumentElement();
+        assertEquals("svg", root.getLocalName());
+        assertEquals("0 0 200 100", root.getAttribute("viewBox"));
+
+        Element background = (Element) root.getElementsByTagName("rect").item(0);
+        assertEquals("#ffffff", background.getAttribute("fill"));
+        assertEquals("", background.getAttribute("fill-opacity"));
+
+        Element path = (Element) root.getElementsByTagName("path").item(0);
+        assertEquals("M10 10Q10 10 15 10 20 10 20.13 20", path.getAttribute("d"));
+        assertEquals("#ff0000", path.getAttribute("stroke"));
+        assertEquals("0.5", path.getAttribute("stroke-opacity"));
+        assertEquals("6", path.getAttribute("stroke-width"));
+        assertEquals("round", path.getAttribute("stroke-linecap"));
+        assertEquals("bevel", path.getAttribute("stroke-linejoin"));
+        assertEquals("none", path.getAttribute("fill"));
+    }
+
+    @Test
+    public void singlePoints_becomeDots() throws Exception {
+        DrawingLog log = new DrawingLog();
+        log.beginStroke(0xff00000f, 4, 1, 0);
+        log.addPoint(-3, 5);
+        log.endStroke();
+        log.beginStroke(0xff000000, 4, 0, 0);
+        log.addPoint(8, 8);
+        log.endStroke();
+
+        Element root = write(log).getDocumentElement();
+        Element circle = (Element) root.getElementsByTagName("circle").item(0);
+        assertEquals("-3", circle.getAttribute("cx"));
+        assertEquals("2", circle.getAttribute("r"));
+        assertEquals("#00000f", circle.getAttribute("fill"));
+        Element square = (Element) root.getElementsByTagName("rect").item(0);
+        assertEquals("6", square.getAttribute("x"));
+        assertEquals("4", square.getAttribute("width"));
+    }
+
+    @Test
+    public void images_areEmbeddedWithTheirTransform() throws Exception {
+        DrawingLog log = new DrawingLog();
+        log.background(0);
+        log.image(1, 100, 50, 2, 90);
+        log.image(2, 100, 50, 1, 0);
+        log.image(3, 100, 50, 1, 0);
+
+        NodeList images = write(log).getDocumentElement().getElementsByTagName("image");
+        assertEquals(4, images.getLength());
+        String xlink = "http://www.w3.org/1999/xlink";
+        for (int i = 0; i < 4; i++) {
+            byte[] bytes = new byte[i + 1];
+            System.arraycopy(IMAGE_BYTES, 0, bytes, 0, i + 1);
+            assertEquals("data:image/png;base64," + Base64.getEncoder().encodeToString(bytes),
+                    ((Element) images.item(i)).getAttributeNS(xlink, "href"));
+        }
+        Element background = (Element) images.item(0);
+        assertEquals("", background.getAttribute("transform"));
+        assertEquals("40", background.getAttribute("width"));
+
+        ImageTransform transform = new ImageTransform();
+        transform.set(40, 20, 100, 50, 2, 90);
+        float[] v = transform.values;
+        String[] matrix = ((Element) images.item(1)).getAttribute("transform")
+                .replace("matrix(", "").replace(")", "").split(" ");
+        float[] expected = {v[0], v[3], v[1], v[4], v[2], v[5]};
+        for (int i = 0; i < 6; i++) {
+            assertEquals(expected[i], Float.parseFloat(matrix[i]), 0.01f);
+        }
+    }
+
+    @Test
+    public void fills_areEmbeddedAsTheirMask() throws Exception {
+        DrawingLog log = new DrawingLog();
+        log.fill(0x80ff0000, 7, 9, 3, 2, new int[] {0b101, 0b010}, 0);
+
+        Element image = (Element) write(log).getDocumentElement().getElementsByTagName("image").item(0);
+        assertEquals("7", image.getAttribute("x"));
+        assertEquals("9", image.getAttribute("y"));
+        String href = image.getAttributeNS("http://www.w3.org/1999/xlink", "href");
+        byte[] png = Base64.getDecoder().decode(href.substring("data:image/png;base64,".length()));
+        BufferedImage decoded = ImageIO.read(new ByteArrayInputStream(png));
+        assertArrayEquals(new int[] {0x80ff0000, 0, 0x80ff0000, 0, 0x80ff0000, 0},
+                decoded.getRGB(0, 0, 3, 2, null, 0, 3));
+    }
+
+    @Test(expected = IOException.class)
+    public void writerErrors_areThrownByFinish() throws Exception {
+        Writer broken = new Writer() {
+            @Override
+            public void write(char[] buffer, int offset, int length) throws IOException {
+                throw new IOException("disk full");
+            }
+
+            @Override
+            public void flush() throws IOException {
+                throw new IOException("disk full");
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        SvgWriter svg = new SvgWriter(broken, 10, 10, new FakeImages());
+        svg.clear(0);
+        svg.finish();
+    }
+
+    @Test
+    public void layers_becomeGroupsOverTheFirstOne() throws Exception {
+        DrawingLog log = new DrawingLog();
+        log.clear(0xffffffff);
+        log.layer(1, 128, LayerStack.MODE_MULTIPLY);
+        log.beginStroke(0xff0000ff, 4, 1, 1);
+        log.addPoint(10, 10);
+        log.addPoint(20, 20);
+        log.endStroke();
+        // drawn under the layer, written before it
+        log.layer(0, 255, LayerStack.MODE_NORMAL);
+        log.image(0, 50, 50, 1, 0);
+
+        Element root = write(log).getDocumentElement();
+        NodeList children = root.getChildNodes();
+        Element last = null;
+        for (int i = 0; i < children.getLength(); i++) {
+            if (children.item(i) instanceof Element) {
+                last = (Element) children.item(i);
+            }
+        }
+        assertEquals("g", last.getLocalName());
+        assertEquals("0.5", last.getAttribute("opacity"));
+        assertEquals("mix-blend-mode:multiply", last.getAttribute("style"));
+        assertEquals(1, last.getElementsByTagName("path").getLength());
+        assertEquals(0, last.getElementsByTagName("image").getLength());
+        assertEquals(1, root.getElementsByTagName("image").getLength());
+    }
+}
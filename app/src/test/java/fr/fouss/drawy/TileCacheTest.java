@@ -0,0 +1,128 @@
+package fr.fouss.drawy;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class TileCacheTest {
+
+    private static final int TILE_BYTES = 256 * 256 * 4;
+
+    private static void fill(TileCache<String> cache, long key) {
+        assertTrue(cache.request(key));
+        assertTrue(cache.put(key, "tile " + key, TILE_BYTES));
+    }
+
+    @Test
+    public void key_roundTrips() throws Exception {
+        long key = TileCache.key(3, 1000, 77);
+        assertEquals(3, TileCache.level(key));
+        assertEquals(1000, TileCache.column(key));
+        assertEquals(77, TileCache.row(key));
+        assertNotEquals(key, TileCache.key(2, 1000, 77));
+    }
+
+    @Test
+    public void request_isMadeOnce() throws Exception {
+        TileCache<String> cache = new TileCache<>(256, 10 * TILE_BYTES);
+        long key = TileCache.key(1, 0, 0);
+        assertNull(cache.get(key));
+        assertTrue(cache.request(key));
+        assertFalse(cache.request(key));
+        assertTrue(cache.put(key, "tile", TILE_BYTES));
+        assertFalse(cache.request(key));
+        assertEquals("tile", cache.get(key));
+        assertEquals(TILE_BYTES, cache.getBytes());
+    }
+
+    @Test
+    public void put_withoutRequest_isDropped() throws Exception {
+        TileCache<String> cache = new TileCache<>(256, 10 * TILE_BYTES);
+        assertFalse(cache.put(TileCache.key(1, 0, 0), "tile", TILE_BYTES));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void budget_evictsLeastRecentlyUsed() throws Exception {
+        TileCache<String> cache = new TileCache<>(256, 3 * TILE_BYTES);
+        fill(cache, TileCache.key(1, 0, 0));
+        fill(cache, TileCache.key(1, 1, 0));
+        fill(cache, TileCache.key(1, 2, 0));
+        cache.get(TileCache.key(1, 0, 0));
+        fill(cache, TileCache.key(1, 3, 0));
+        assertEquals(3, cache.size());
+        assertNull(cache.get(TileCache.key(1, 1, 0)));
+        assertNotNull(cache.get(TileCache.key(1, 0, 0)));
+        assertEquals(3 * TILE_BYTES, cache.getBytes());
+    }
+
+    @Test
+    public void budget_keepsTilesOnScreen() throws Exception {
+        TileCache<String> cache = new TileCache<>(256, 2 * TILE_BYTES);
+        // at level 1 tiles cover 512 drawing pixels, the screen covers the first 3 columns
+        cache.setVisible(1, 0, 0, 1500, 500);
+        fill(cache, TileCache.key(1, 0, 0));
+        fill(cache, TileCache.key(1, 1, 0));
+        fill(cache, TileCache.key(1, 2, 0));
+        assertEquals(3, cache.size());
+
+        // panning right lets the first column go
+        cache.setVisible(1, 600, 0, 2000, 500);
+        assertEquals(2, cache.size());
+        assertNull(cache.get(TileCache.key(1, 0, 0)));
+
+        // zooming to another level frees the ones over the budget
+        cache.setVisible(2, 0, 0, 1024, 1024);
+        fill(cache, TileCache.key(2, 0, 0));
+        assertEquals(2, cache.size());
+        assertNotNull(cache.get(TileCache.key(2, 0, 0)));
+    }
+
+    @Test
+    public void invalidate_dropsOverlappingTilesAtAllLevels() throws Exception {
+        TileCache<String> cache = new TileCache<>(256, 100 * TILE_BYTES);
+        fill(cache, TileCache.key(1, 0, 0));
+        fill(cache, TileCache.key(1, 1, 0));
+        fill(cache, TileCache.key(2, 0, 0));
+        fill(cache, TileCache.key(3, 1, 1));
+        cache.invalidate(600, 10, 620, 20);
+        assertNotNull(cache.get(TileCache.key(1, 0, 0)));
+        assertNull(cache.get(TileCache.key(1, 1, 0)));
+        assertNull(cache.get(TileCache.key(2, 0, 0)));
+        assertNotNull(cache.get(TileCache.key(3, 1, 1)));
+        assertEquals(2 * TILE_BYTES, cache.getBytes());
+    }
+
+    @Test
+    public void invalidate_dropsFillInProgress() throws Exception {
+        TileCache<String> cache = new TileCache<>(256, 100 * TILE_BYTES);
+        long key = TileCache.key(1, 0, 0);
+        assertTrue(cache.request(key));
+        cache.invalidate(0, 0, 10, 10);
+        assertFalse(cache.put(key, "outdated", TILE_BYTES));
+        assertNull(cache.get(key));
+        // the tile can be requested again
+        assertTrue(cache.request(key));
+    }
+
+    @Test
+    public void cancel_allowsRequestingAgain() throws Exception {
+        TileCache<String> cache = new TileCache<>(256, 100 * TILE_BYTES);
+        long key = TileCache.key(2, 3, 4);
+        assertTrue(cache.request(key));
+        cache.cancel(key);
+        assertTrue(cache.request(key));
+    }
+
+    @Test
+    public void clear_dropsEverything() throws Exception {
+        TileCache<String> cache = new TileCache<>(256, 100 * TILE_BYTES);
+        fill(cache, TileCache.key(1, 0, 0));
+        long pending = TileCache.key(1, 1, 0);
+        cache.request(pending);
+        cache.clear();
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.getBytes());
+        assertFalse(cache.put(pending, "outdated", TILE_BYTES));
+    }
+}
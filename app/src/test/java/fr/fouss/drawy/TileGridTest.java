@@ -0,0 +1,46 @@
+package fr.fouss.drawy;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class TileGridTest {
+
+    @Test
+    public void edgeTiles_areClipped() throws Exception {
+        TileGrid grid = new TileGrid(600, 300, 256);
+        assertEquals(3, grid.columns);
+        assertEquals(2, grid.rows);
+        assertEquals(6, grid.getTileCount());
+        int last = grid.tile(2, 1);
+        assertEquals(512, grid.tileLeft(last));
+        assertEquals(256, grid.tileTop(last));
+        assertEquals(88, grid.tileWidth(last));
+        assertEquals(44, grid.tileHeight(last));
+        assertEquals(256, grid.tileWidth(0));
+    }
+
+    @Test
+    public void ranges_coverOverlappedTiles() throws Exception {
+        TileGrid grid = new TileGrid(1024, 1024, 256);
+        assertEquals(0, grid.firstColumn(0));
+        assertEquals(0, grid.lastColumn(256));
+        assertEquals(1, grid.lastColumn(257));
+        assertEquals(1, grid.firstRow(256));
+        assertEquals(3, grid.lastRow(5000));
+    }
+
+    @Test
+    public void ranges_outsideGrid_areEmpty() throws Exception {
+        TileGrid grid = new TileGrid(512, 512, 256);
+        assertTrue(grid.firstColumn(-300) > grid.lastColumn(-10));
+        assertTrue(grid.firstRow(600) > grid.lastRow(700));
+        assertEquals(0, grid.firstColumn(-10));
+        assertEquals(-1, grid.lastColumn(0));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void emptyGrid_throws() throws Exception {
+        new TileGrid(0, 10, 256);
+    }
+}
@@ -0,0 +1,216 @@
+package fr.fouss.drawy;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class UndoHistoryTest {
+
+    private static final int WHITE = 0xffffffff;
+
+    private static void drawRect(UndoHistory history, IntSurface surface,
+                                 int left, int top, int right, int bottom, int color) {
+        history.beginChange();
+        history.capture(left, top, right, bottom);
+        surface.fillRect(left, top, right, bottom, color);
+        history.endChange();
+    }
+
+    @Test
+    public void undoRedo_restoresPixels() throws Exception {
+        IntSurface surface = new IntSurface(200, 150, WHITE);
+        UndoHistory history = new UndoHistory(surface, 64, Long.MAX_VALUE, false);
+        int[] blank = surface.pixels.clone();
+
+        drawRect(history, surface, 10, 10, 100, 100, 0xff000000);
+        int[] first = surface.pixels.clone();
+        drawRect(history, surface, 50, 50, 190, 140, 0xffff0000);
+        int[] second = surface.pixels.clone();
+
+        assertTrue(history.undo());
+        assertArrayEquals(first, surface.pixels);
+        assertTrue(history.undo());
+        assertArrayEquals(blank, surface.pixels);
+        assertFalse(history.undo());
+
+        assertTrue(history.redo());
+        assertArrayEquals(first, surface.pixels);
+        assertTrue(history.redo());
+        assertArrayEquals(second, surface.pixels);
+        assertFalse(history.redo());
+    }
+
+    @Test
+    public void newChange_dropsRedo() throws Exception {
+        IntSurface surface = new IntSurface(100, 100, WHITE);
+        UndoHistory history = new UndoHistory(surface, 32, Long.MAX_VALUE, false);
+        drawRect(history, surface, 0, 0, 10, 10, 0xff000000);
+        history.undo();
+        assertTrue(history.canRedo());
+        drawRect(history, surface, 20, 20, 30, 30, 0xff000000);
+        assertFalse(history.canRedo());
+    }
+
+    @Test
+    public void interruptedStroke_afterUndo_leavesNothingToRedo() throws Exception {
+        IntSurface surface = new IntSurface(100, 100, WHITE);
+        UndoHistory history = new UndoHistory(surface, 32, Long.MAX_VALUE, false);
+        DrawingLog log = new DrawingLog();
+        log.beginStroke(0xff000000, 5, 0, 0);
+        log.addPoint(5, 5);
+        log.endStroke();
+        drawRect(history, surface, 0, 0, 10, 10, 0xff000000);
+        assertTrue(history.undo());
+        assertTrue(log.undo());
+
+        // a short stroke cut by a second finger, in the order the view does it
+        log.beginStroke(0xffff0000, 5, 0, 0);
+        history.beginChange();
+        log.addPoint(20, 20);
+        log.cancelStroke();
+        history.cancelChange();
+
+        assertFalse(history.canRedo());
+        assertFalse(history.redo());
+        assertFalse(log.redo());
+        assertEquals(0, log.size());
+    }
+
+    @Test
+    public void cancel_dropsRedo_inHistoryAndLogAlike() throws Exception {
+        IntSurface surface = new IntSurface(100, 100, WHITE);
+        UndoHistory history = new UndoHistory(surface, 32, Long.MAX_VALUE, false);
+        DrawingLog log = new DrawingLog();
+        Random random = new Random(6);
+        for (int i = 0; i < 2000; i++) {
+            int action = random.nextInt(4);
+            if (action == 0) {
+                assertEquals(log.undo(), history.undo());
+            } else if (action == 1) {
+                assertEquals(log.redo(), history.redo());
+            } else {
+                int x = random.nextInt(90);
+                log.beginStroke(0xff000000, 5, 0, 0);
+                history.beginChange();
+                history.capture(x, x, x + 10, x + 10);
+                log.addPoint(x, x);
+                if (action == 2) {
+                    surface.fillRect(x, x, x + 10, x + 10, 0xff000000 | i);
+                    log.endStroke();
+                    history.endChange();
+                } else {
+                    log.cancelStroke();
+                    history.cancelChange();
+                }
+            }
+            assertEquals(log.canRedo(), history.canRedo());
+            assertEquals(log.size(), history.getUndoCount());
+        }
+    }
+
+    @Test
+    public void capture_isCopyOnWrite() throws Exception {
+        IntSurface surface = new IntSurface(128, 128, WHITE);
+        UndoHistory history = new UndoHistory(surface, 64, Long.MAX_VALUE, false);
+        int[] blank = surface.pixels.clone();
+
+        // a stroke baked in two chunks over the same tile
+        history.beginChange();
+        history.capture(0, 0, 10, 10);
+        surface.fillRect(0, 0, 10, 10, 0xff000000);
+        history.capture(0, 0, 20, 20);
+        surface.fillRect(10, 10, 20, 20, 0xff000000);
+        history.endChange();
+
+        // only one tile saved, with its content from before the first chunk
+        assertEquals(64 + 24 + 64 * 64 * 4, history.getByteSize());
+        history.undo();
+        assertArrayEquals(blank, surface.pixels);
+    }
+
+    @Test
+    public void changes_areRestoredOnTheirSurface() throws Exception {
+        IntSurface base = new IntSurface(128, 128, WHITE);
+        IntSurface layer = new IntSurface(128, 128, 0);
+        UndoHistory history = new UndoHistory(base, 64, Long.MAX_VALUE, false);
+        drawRect(history, base, 0, 0, 10, 10, 0xff000000);
+        history.setSurface(layer);
+        drawRect(history, layer, 70, 10, 80, 20, 0xff00ff00);
+        // an empty change, e.g. selecting a layer
+        history.beginChange();
+        history.endChange();
+
+        assertTrue(history.undo());
+        assertTrue(history.getRestored().isEmpty());
+        assertTrue(history.undo());
+        assertEquals(0, layer.pixels[15 * 128 + 75]);
+        assertEquals(64, history.getRestored().left);
+        assertEquals(0, history.getRestored().top);
+        assertEquals(128, history.getRestored().right);
+        assertEquals(64, history.getRestored().bottom);
+        assertTrue(history.undo());
+        assertEquals(WHITE, base.pixels[0]);
+        assertTrue(history.redo());
+        assertEquals(0xff000000, base.pixels[0]);
+        assertEquals(0, layer.pixels[15 * 128 + 75]);
+    }
+
+    @Test
+    public void edgeTiles_areClipped() throws Exception {
+        IntSurface surface = new IntSurface(70, 70, WHITE);
+        UndoHistory history = new UndoHistory(surface, 64, Long.MAX_VALUE, false);
+        int[] blank = surface.pixels.clone();
+        drawRect(history, surface, -20, 60, 200, 200, 0xff00ff00);
+        history.undo();
+        assertArrayEquals(blank, surface.pixels);
+    }
+
+    @Test
+    public void thousandsOfStrokes_stayUnderBudget() throws Exception {
+        IntSurface surface = new IntSurface(1080, 1920, WHITE);
+        long budget = 4 * 1024 * 1024;
+        UndoHistory history = new UndoHistory(surface, 64, budget, false);
+        Random random = new Random(42);
+        for (int i = 0; i < 5000; i++) {
+            int x = random.nextInt(1000);
+            int y = random.nextInt(1800);
+            drawRect(history, surface, x, y, x + 20 + random.nextInt(200), y + 20 + random.nextInt(200),
+                    random.nextInt());
+            assertTrue(history.getByteSize() <= budget);
+        }
+        assertTrue(history.canUndo());
+        while (history.undo()) {
+            assertTrue(history.getByteSize() <= budget);
+        }
+    }
+
+    @Test
+    public void compressedHistory_keepsMoreEntriesAndStillUndoes() throws Exception {
+        long budget = 512 * 1024;
+        IntSurface plainSurface = new IntSurface(1024, 1024, WHITE);
+        IntSurface compressedSurface = new IntSurface(1024, 1024, WHITE);
+        UndoHistory plain = new UndoHistory(plainSurface, 64, budget, false);
+        UndoHistory compressed = new UndoHistory(compressedSurface, 64, budget, true);
+        int[] states = new int[2000];
+        Random random = new Random(7);
+        for (int i = 0; i < 2000; i++) {
+            int x = random.nextInt(900);
+            int y = random.nextInt(900);
+            int color = 0xff000000 | random.nextInt(4) * 0x3f3f3f;
+            drawRect(plain, plainSurface, x, y, x + 100, y + 100, color);
+            states[i] = Arrays.hashCode(compressedSurface.pixels);
+            drawRect(compressed, compressedSurface, x, y, x + 100, y + 100, color);
+            assertTrue(compressed.getByteSize() <= budget);
+        }
+        assertTrue(compressed.getUndoCount() > plain.getUndoCount());
+
+        int undone = 0;
+        while (compressed.undo()) {
+            undone++;
+            assertEquals(states[2000 - undone], Arrays.hashCode(compressedSurface.pixels));
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package fr.fouss.drawy;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class VarintBufferTest {
+
+    @Test
+    public void varints_roundTrip() throws Exception {
+        int[] values = {0, 1, 127, 128, 300, 16383, 16384, Integer.MAX_VALUE, -1, Integer.MIN_VALUE};
+        VarintBuffer buffer = new VarintBuffer(16);
+        for (int value : values) {
+            buffer.writeVarint(value);
+            buffer.writeSignedVarint(value);
+        }
+        buffer.wrap(buffer.getBytes(), 0, buffer.size());
+        for (int value : values) {
+            assertEquals(value, buffer.readVarint());
+            assertEquals(value, buffer.readSignedVarint());
+        }
+        assertFalse(buffer.hasRemaining());
+    }
+
+    @Test
+    public void sizes_followMagnitude() throws Exception {
+        VarintBuffer buffer = new VarintBuffer();
+        buffer.writeVarint(127);
+        assertEquals(1, buffer.size());
+        buffer.writeVarint(128);
+        assertEquals(3, buffer.size());
+        buffer.writeVarint(-1);
+        assertEquals(8, buffer.size());
+        buffer.clear();
+        // zigzag keeps small negative values short
+        buffer.writeSignedVarint(-64);
+        assertEquals(1, buffer.size());
+        buffer.writeSignedVarint(64);
+        assertEquals(3, buffer.size());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void truncatedVarint_throws() throws Exception {
+        VarintBuffer buffer = new VarintBuffer();
+        buffer.wrap(new byte[] {(byte) 0x80, (byte) 0x80}, 0, 2);
+        buffer.readVarint();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void overlongVarint_throws() throws Exception {
+        VarintBuffer buffer = new VarintBuffer();
+        byte[] bytes = {(byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff, 1};
+        buffer.wrap(bytes, 0, bytes.length);
+        buffer.readVarint();
+    }
+}
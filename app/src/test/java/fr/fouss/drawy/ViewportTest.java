@@ -0,0 +1,123 @@
+package fr.fouss.drawy;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ViewportTest {
+
+    private static final float EPSILON = 1e-3f;
+
+    private static Viewport viewport() {
+        Viewport viewport = new Viewport(1080, 1920);
+        viewport.setViewSize(1080, 1700);
+        return viewport;
+    }
+
+    @Test
+    public void identity_mapsTouchesAsIs() throws Exception {
+        Viewport viewport = viewport();
+        assertTrue(viewport.isIdentity());
+        assertEquals(120, viewport.toDrawingX(120), EPSILON);
+        assertEquals(340, viewport.toDrawingY(340), EPSILON);
+        assertEquals(0, viewport.getLevel());
+    }
+
+    @Test
+    public void zoom_keepsFocusOnSameDrawingPoint() throws Exception {
+        Viewport viewport = viewport();
+        float x = viewport.toDrawingX(400);
+        float y = viewport.toDrawingY(600);
+        viewport.zoom(3, 400, 600);
+        assertEquals(3, viewport.getScale(), EPSILON);
+        assertEquals(x, viewport.toDrawingX(400), EPSILON);
+        assertEquals(y, viewport.toDrawingY(600), EPSILON);
+        assertEquals(400, viewport.toScreenX(x), EPSILON);
+        assertEquals(600, viewport.toScreenY(y), EPSILON);
+    }
+
+    @Test
+    public void zoom_isBounded() throws Exception {
+        Viewport viewport = viewport();
+        viewport.zoom(1000, 0, 0);
+        assertEquals(Viewport.MAX_SCALE, viewport.getScale(), EPSILON);
+        viewport.zoom(0.00001f, 0, 0);
+        assertEquals(Viewport.MIN_SCALE, viewport.getScale(), EPSILON);
+        assertEquals(Viewport.LEVEL_COUNT - 1, viewport.getLevel());
+    }
+
+    @Test
+    public void pan_keepsDrawingCoveringView() throws Exception {
+        Viewport viewport = viewport();
+        viewport.zoom(2, 0, 0);
+        viewport.pan(500, 500);
+        assertEquals(0, viewport.getOffsetX(), EPSILON);
+        assertEquals(0, viewport.getOffsetY(), EPSILON);
+        viewport.pan(-100000, -100000);
+        // the drawing bottom right corner stays on the view's
+        assertEquals(1080, viewport.toScreenX(1080), EPSILON);
+        assertEquals(1700, viewport.toScreenY(1920), EPSILON);
+    }
+
+    @Test
+    public void pan_keepsSmallDrawingVisible() throws Exception {
+        Viewport viewport = viewport();
+        viewport.zoom(0.25f, 0, 0);
+        viewport.pan(100000, 100000);
+        assertEquals(1080, viewport.toScreenX(1080), EPSILON);
+        assertEquals(1700, viewport.toScreenY(1920), EPSILON);
+        viewport.pan(-100000, -100000);
+        assertEquals(0, viewport.getOffsetX(), EPSILON);
+        assertEquals(0, viewport.getOffsetY(), EPSILON);
+    }
+
+    @Test
+    public void levels_followScale() throws Exception {
+        Viewport viewport = viewport();
+        viewport.zoom(0.6f, 0, 0);
+        assertEquals(0, viewport.getLevel());
+        viewport.reset();
+        viewport.zoom(0.5f, 0, 0);
+        assertEquals(1, viewport.getLevel());
+        viewport.reset();
+        viewport.zoom(0.2f, 0, 0);
+        assertEquals(2, viewport.getLevel());
+    }
+
+    @Test
+    public void reset_isIdentity() throws Exception {
+        Viewport viewport = viewport();
+        viewport.zoom(4, 300, 300);
+        viewport.pan(-50, -70);
+        viewport.reset();
+        assertTrue(viewport.isIdentity());
+    }
+
+    @Test
+    public void rects_coverTheirPixels() throws Exception {
+        Viewport viewport = viewport();
+        viewport.zoom(2, 0, 0);
+        viewport.pan(-101, -51);
+        DirtyRect rect = new DirtyRect();
+        rect.set(100, 50, 110, 60);
+        DirtyRect screen = new DirtyRect();
+        viewport.toScreen(rect, screen);
+        assertEquals(99, screen.left);
+        assertEquals(49, screen.top);
+        assertEquals(119, screen.right);
+        assertEquals(69, screen.bottom);
+
+        DirtyRect drawing = new DirtyRect();
+        viewport.toDrawing(screen.left, screen.top, screen.right, screen.bottom, drawing);
+        assertTrue(drawing.left <= 100 && drawing.right >= 110);
+        assertTrue(drawing.top <= 50 && drawing.bottom >= 60);
+
+        // clipped to the drawing
+        viewport.reset();
+        viewport.toDrawing(-10, -10, 5000, 5000, drawing);
+        assertEquals(0, drawing.left);
+        assertEquals(0, drawing.top);
+        assertEquals(1080, drawing.right);
+        assertEquals(1920, drawing.bottom);
+    }
+}
@@ -0,0 +1,101 @@
+package fr.fouss.drawy;
+
+/**
+ * Feeds a touch trace through the stroke building of DrawView.onTouchEventBrush, minus the
+ * android Path and Canvas calls: smoothing, the {@link QuadStroke} segments and dirty bounds,
+ * simplification and the log, with the same classes as the app.
+ * Move events are batched per 16 ms frame the way MotionEvent history delivers them.
+ */
+class BrushReplay {
+
+    private static final long FRAME_MS = 16;
+
+    private final StrokeInput strokeInput = new StrokeInput(4, 0.2f);
+    private final StrokeSimplifier simplifier = new StrokeSimplifier();
+    private final QuadStroke quadStroke = new QuadStroke();
+    int quadCount;
+    // the segments an android.graphics.Path would receive
+    private final QuadStroke.Segments segments = (controlX, controlY, x, y) -> quadCount++;
+    private final float halfWidth;
+
+    BrushReplay(float width) {
+        halfWidth = width / 2;
+    }
+
+    /**
+     * Replays the trace into log, calling listener with the bounds of each finished stroke.
+     */
+    void replay(TouchTrace trace, DrawingLog log, StrokeListener listener) {
+        int i = 0;
+        while (i < trace.size()) {
+            float x = trace.getX(i, 0);
+            float y = trace.getY(i, 0);
+            switch (trace.getAction(i)) {
+                case TouchTrace.DOWN:
+                    down(log, x, y);
+                    i++;
+                    break;
+                case TouchTrace.MOVE:
+                    // every move of the frame arrives in one event
+                    long frame = trace.getTime(i) / FRAME_MS;
+                    int end = i;
+                    while (end < trace.size() && trace.getAction(end) == TouchTrace.MOVE
+                            && trace.getTime(end) / FRAME_MS == frame) {
+                        end++;
+                    }
+                    strokeInput.ensureCapacity(end - i);
+                    for (; i < end; i++) {
+                        strokeInput.add(trace.getX(i, 0), trace.getY(i, 0));
+                    }
+                    move(log);
+                    break;
+                default:
+                    up(log, x, y);
+                    if (listener != null) {
+                        listener.onStroke(quadStroke.strokeDirty);
+                    }
+                    i++;
+                    break;
+            }
+        }
+    }
+
+    private void down(DrawingLog log, float x, float y) {
+        quadStroke.begin(x, y, halfWidth);
+        strokeInput.begin(x, y);
+        log.beginStroke(0xff000000, 2 * halfWidth, 1, 1);
+        simplifier.begin(x, y, StrokeSimplifier.toleranceForWidth(2 * halfWidth));
+        logKeptPoints(log);
+    }
+
+    private void move(DrawingLog log) {
+        quadStroke.clearSegments();
+        for (int i = 0; i < strokeInput.size(); i++) {
+            float x = strokeInput.getX(i);
+            float y = strokeInput.getY(i);
+            quadStroke.add(x, y, segments);
+            simplifier.add(x, y);
+        }
+        strokeInput.clear();
+        logKeptPoints(log);
+    }
+
+    private void up(DrawingLog log, float x, float y) {
+        quadStroke.end(x, y, segments);
+        simplifier.add(x, y);
+        simplifier.finish();
+        logKeptPoints(log);
+        log.endStroke();
+    }
+
+    private void logKeptPoints(DrawingLog log) {
+        for (int i = 0; i < simplifier.size(); i++) {
+            log.addPoint(simplifier.getX(i), simplifier.getY(i));
+        }
+        simplifier.clear();
+    }
+
+    interface StrokeListener {
+        void onStroke(DirtyRect bounds);
+    }
+}
@@ -0,0 +1,100 @@
+package fr.fouss.drawy;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reopening a drawing twice the screen size: the .drawy project is mapped and only the tiles of
+ * a screen are decoded, where the flattened PNG has to be decoded whole.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class DrawyFileBenchmark {
+
+    private static final int SCREEN_WIDTH = 1080;
+    private static final int SCREEN_HEIGHT = 1920;
+
+    private File project;
+    private File png;
+    private int[] screen;
+    private int[] all;
+
+    @Setup(Level.Trial)
+    public void writeFiles() throws IOException {
+        // in tiles of TiledDrawing.TILE_SIZE
+        IntSurface layer = ExportBenchmark.drawScribble(2, new DrawingLog());
+
+        project = File.createTempFile("drawy", "." + DrawyFile.EXTENSION);
+        try (OutputStream out = new FileOutputStream(project)) {
+            DrawyWriter writer = new DrawyWriter(out, layer.getGrid());
+            writer.writeLayer(layer, 255, LayerStack.MODE_NORMAL);
+            writer.finish();
+        }
+        png = File.createTempFile("drawy", ".png");
+        try (OutputStream out = new FileOutputStream(png)) {
+            PngWriter writer = new PngWriter(out, layer.width, layer.height);
+            writer.writeRows(layer.pixels, 0, layer.width, layer.height);
+            writer.finish();
+        }
+        screen = new int[SCREEN_WIDTH * SCREEN_HEIGHT];
+        all = new int[layer.pixels.length];
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteFiles() {
+        project.delete();
+        png.delete();
+    }
+
+    private DrawyFile open() throws IOException {
+        try (RandomAccessFile access = new RandomAccessFile(project, "r")) {
+            return DrawyFile.open(access.getChannel());
+        }
+    }
+
+    @Benchmark
+    public int openProject() throws IOException {
+        return open().getLayerCount();
+    }
+
+    @Benchmark
+    public int[] openProjectScreen() throws IOException {
+        open().getLayer(0).getPixels(screen, 0, 0, SCREEN_WIDTH, SCREEN_HEIGHT);
+        return screen;
+    }
+
+    @Benchmark
+    public int[] openProjectWhole() throws IOException {
+        DrawyFile file = open();
+        file.getLayer(0).getPixels(all, 0, 0, file.getGrid().width, file.getGrid().height);
+        return all;
+    }
+
+    @Benchmark
+    public BufferedImage openPng() throws IOException {
+        return ImageIO.read(png);
+    }
+}
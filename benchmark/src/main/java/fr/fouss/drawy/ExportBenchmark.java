@@ -0,0 +1,108 @@
+package fr.fouss.drawy;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encoding side of the export: a drawing-like image streamed to a PNG in bands, and a trace
+ * replayed into an SVG. Rendering the bands needs android.graphics and isn't measured here.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class ExportBenchmark {
+
+    private static final int WIDTH = 1080;
+    private static final int HEIGHT = 1920;
+    // rows of a band, as DrawingExport renders about a million pixels at once
+    static final int BAND_PIXELS = 1 << 20;
+
+    @Param({"1", "2"})
+    public int scale;
+
+    private IntSurface image;
+    private int[] band;
+    private final DrawingLog log = new DrawingLog();
+    private final CountingStream out = new CountingStream();
+
+    private static class CountingStream extends OutputStream {
+        long count;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void drawTrace() throws IOException {
+        log.clear(0xffffffff);
+        image = drawScribble(scale, log);
+        band = new int[BAND_PIXELS];
+    }
+
+    // stroke bounds of the trace filled over a white page, flat areas and hard edges as in drawings
+    static IntSurface drawScribble(int scale, DrawingLog log) throws IOException {
+        IntSurface image = new IntSurface(WIDTH * scale, HEIGHT * scale, 0xffffffff);
+        int[] colors = {0xff000000, 0xffe53935, 0xff1e88e5, 0x8043a047};
+        int[] strokes = {0};
+        new BrushReplay(12).replay(TouchTrace.load("scribble"), log, bounds -> {
+            image.fillRect(bounds.left * scale, bounds.top * scale,
+                    bounds.left * scale + 12 * scale, bounds.bottom * scale, colors[strokes[0] % 4]);
+            image.fillRect(bounds.left * scale, bounds.top * scale,
+                    bounds.right * scale, bounds.top * scale + 12 * scale, colors[strokes[0] % 4]);
+            strokes[0]++;
+        });
+        return image;
+    }
+
+    @Benchmark
+    public long png() throws IOException {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int bandHeight = BAND_PIXELS / width;
+        out.count = 0;
+        PngWriter png = new PngWriter(out, width, height);
+        for (int top = 0; top < height; top += bandHeight) {
+            int rows = Math.min(bandHeight, height - top);
+            image.getPixels(band, 0, top, width, rows);
+            png.writeRows(band, 0, width, rows);
+        }
+        png.finish();
+        return out.count;
+    }
+
+    @Benchmark
+    public long svg() throws IOException {
+        out.count = 0;
+        Writer writer = new OutputStreamWriter(out, "UTF-8");
+        SvgWriter svg = new SvgWriter(writer, WIDTH, HEIGHT, null);
+        log.replay(svg);
+        svg.finish();
+        return out.count;
+    }
+}
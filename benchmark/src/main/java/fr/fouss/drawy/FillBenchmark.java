@@ -0,0 +1,115 @@
+package fr.fouss.drawy;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Full screen fills, of a blank page and of the white around the scribble trace, by the span
+ * fill against a breadth first fill visiting one boxed pixel index at a time.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class FillBenchmark {
+
+    private static final int WIDTH = 1080;
+    private static final int HEIGHT = 1920;
+    private static final int TOLERANCE = 32;
+
+    @Param({"blank", "scribble"})
+    public String page;
+
+    // 0 fills on the calling thread only
+    @Param({"0", "4"})
+    public int threads;
+
+    private int[] pixels;
+    private FloodFill fill;
+    private ExecutorService workers;
+
+    @Setup(Level.Trial)
+    public void drawPage() throws IOException {
+        pixels = page.equals("blank") ? new IntSurface(WIDTH, HEIGHT, 0xffffffff).pixels
+                : ExportBenchmark.drawScribble(1, new DrawingLog()).pixels;
+        fill = new FloodFill(WIDTH, HEIGHT);
+        if (threads > 0) {
+            workers = Executors.newFixedThreadPool(threads);
+            fill.setWorkers(workers, threads);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void stopWorkers() {
+        if (workers != null) {
+            workers.shutdown();
+        }
+    }
+
+    @Benchmark
+    public int spanFill() {
+        return fill.fill(pixels, 0, 0, TOLERANCE);
+    }
+
+    @Benchmark
+    public int naiveBfs() {
+        boolean[] visited = new boolean[WIDTH * HEIGHT];
+        ArrayDeque<Integer> queue = new ArrayDeque<>();
+        int seed = pixels[0];
+        queue.add(0);
+        visited[0] = true;
+        int count = 0;
+        while (!queue.isEmpty()) {
+            int i = queue.poll();
+            count++;
+            int x = i % WIDTH;
+            int y = i / WIDTH;
+            if (x > 0) {
+                visit(i - 1, seed, visited, queue);
+            }
+            if (x < WIDTH - 1) {
+                visit(i + 1, seed, visited, queue);
+            }
+            if (y > 0) {
+                visit(i - WIDTH, seed, visited, queue);
+            }
+            if (y < HEIGHT - 1) {
+                visit(i + WIDTH, seed, visited, queue);
+            }
+        }
+        return count;
+    }
+
+    private void visit(int i, int seed, boolean[] visited, ArrayDeque<Integer> queue) {
+        if (visited[i]) {
+            return;
+        }
+        int color = pixels[i];
+        for (int shift = 0; shift < 32; shift += 8) {
+            if (Math.abs((color >>> shift & 0xff) - (seed >>> shift & 0xff)) > TOLERANCE) {
+                return;
+            }
+        }
+        visited[i] = true;
+        queue.add(i);
+    }
+}
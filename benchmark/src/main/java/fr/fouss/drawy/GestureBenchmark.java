@@ -0,0 +1,73 @@
+package fr.fouss.drawy;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per frame work of moving a floating image with two fingers: the rotation angle, then the
+ * transform and bounds drawImage and anchorImage compute from it.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(2)
+@State(Scope.Thread)
+public class GestureBenchmark {
+
+    @Param({"rotate"})
+    public String trace;
+
+    private TouchTrace touchTrace;
+    private final ImageGesture gesture = new ImageGesture();
+    private final ImageTransform transform = new ImageTransform();
+    private final DirtyRect imageBounds = new DirtyRect();
+
+    @Setup(Level.Trial)
+    public void loadTrace() throws IOException {
+        touchTrace = TouchTrace.load(trace);
+    }
+
+    @Benchmark
+    public float rotateImage() {
+        float sum = 0;
+        for (int i = 0; i < touchTrace.size(); i++) {
+            float x1 = touchTrace.getX(i, 0);
+            float y1 = touchTrace.getY(i, 0);
+            float x2 = touchTrace.getX(i, 1);
+            float y2 = touchTrace.getY(i, 1);
+            if (touchTrace.getAction(i) == TouchTrace.DOWN) {
+                gesture.setPointer1(x1, y1);
+                gesture.setPointer2(x2, y2);
+                continue;
+            }
+            gesture.movePointers(x1, y1, x2, y2);
+            float degrees = (float) Math.toDegrees(gesture.getAngle());
+            transform.set(1024, 768, (x1 + x2)/2, (y1 + y2)/2, 0.75f, degrees);
+            imageBounds.setEmpty();
+            unionCorner(0, 0);
+            unionCorner(1024, 0);
+            unionCorner(0, 768);
+            unionCorner(1024, 768);
+            sum += imageBounds.right - imageBounds.left;
+        }
+        return sum;
+    }
+
+    private void unionCorner(float x, float y) {
+        imageBounds.unionPoint(transform.mapX(x, y), transform.mapY(x, y), 0);
+    }
+}
@@ -0,0 +1,166 @@
+package fr.fouss.drawy;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One frame of a scaled and rotated photo drawn over the screen, sampled from the full image
+ * or from the pyramid level DrawView would pick, and building the pyramid once per image.
+ * The Canvas can't run on the desktop JVM, so frames go through a software affine sampler
+ * fetching pixels the way bitmap filtering does.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ImagePyramidBenchmark {
+
+    private static final int SCREEN_WIDTH = 1080;
+    private static final int SCREEN_HEIGHT = 1920;
+    // a 12 MP photo
+    private static final int IMAGE_WIDTH = 4000;
+    private static final int IMAGE_HEIGHT = 3000;
+    private static final float DEGREES = 15;
+
+    @Param({"0.1", "0.25", "0.5", "1"})
+    public float scale;
+
+    private int[][] levels;
+    private int[] levelWidths;
+    private int[] levelHeights;
+    private int level;
+    private final int[] screen = new int[SCREEN_WIDTH * SCREEN_HEIGHT];
+
+    @Setup(Level.Trial)
+    public void buildPyramid() {
+        int count = ImagePyramid.levelCount(IMAGE_WIDTH, IMAGE_HEIGHT);
+        levels = new int[count][];
+        levelWidths = new int[count];
+        levelHeights = new int[count];
+        levels[0] = photo();
+        levelWidths[0] = IMAGE_WIDTH;
+        levelHeights[0] = IMAGE_HEIGHT;
+        for (int i = 1; i < count; i++) {
+            levelWidths[i] = ImagePyramid.halfSize(levelWidths[i - 1]);
+            levelHeights[i] = ImagePyramid.halfSize(levelHeights[i - 1]);
+            levels[i] = new int[levelWidths[i] * levelHeights[i]];
+            ImagePyramid.downsample(levels[i - 1], levelWidths[i - 1], levelHeights[i - 1], levels[i]);
+        }
+        level = ImagePyramid.levelForScale(scale, count);
+    }
+
+    // smooth gradients with grain, so that skipped pixels show as they would on a photo
+    private static int[] photo() {
+        Random random = new Random(42);
+        int[] pixels = new int[IMAGE_WIDTH * IMAGE_HEIGHT];
+        for (int y = 0; y < IMAGE_HEIGHT; y++) {
+            for (int x = 0; x < IMAGE_WIDTH; x++) {
+                int grain = random.nextInt(32);
+                pixels[y * IMAGE_WIDTH + x] = 0xff000000
+                        | (x * 200 / IMAGE_WIDTH + grain) << 16
+                        | (y * 200 / IMAGE_HEIGHT + grain) << 8
+                        | ((x + y) * 100 / (IMAGE_WIDTH + IMAGE_HEIGHT) + grain);
+            }
+        }
+        return pixels;
+    }
+
+    @Benchmark
+    public int fullNearest() {
+        return drawFrame(0, false);
+    }
+
+    @Benchmark
+    public int fullBilinear() {
+        return drawFrame(0, true);
+    }
+
+    @Benchmark
+    public int pyramidBilinear() {
+        return drawFrame(level, true);
+    }
+
+    @Benchmark
+    public int[] buildLevels() {
+        int[] src = levels[0];
+        int width = IMAGE_WIDTH;
+        int height = IMAGE_HEIGHT;
+        int[] dst = null;
+        for (int i = 1; i < levels.length; i++) {
+            dst = new int[ImagePyramid.halfSize(width) * ImagePyramid.halfSize(height)];
+            ImagePyramid.downsample(src, width, height, dst);
+            width = ImagePyramid.halfSize(width);
+            height = ImagePyramid.halfSize(height);
+            src = dst;
+        }
+        return dst;
+    }
+
+    // draws the chosen level centered on the screen, returns the number of pixels covered
+    private int drawFrame(int level, boolean filter) {
+        int[] src = levels[level];
+        int width = levelWidths[level];
+        int height = levelHeights[level];
+        ImageTransform transform = new ImageTransform();
+        transform.set(width, height, SCREEN_WIDTH / 2f, SCREEN_HEIGHT / 2f,
+                scale * (1 << level), DEGREES);
+        float[] v = transform.values;
+        // inverse of the affine part, screen to image
+        float det = v[0] * v[4] - v[1] * v[3];
+        float ia = v[4] / det;
+        float ib = -v[1] / det;
+        float ic = -v[3] / det;
+        float id = v[0] / det;
+        int covered = 0;
+        for (int y = 0; y < SCREEN_HEIGHT; y++) {
+            float dy = y + 0.5f - v[5];
+            for (int x = 0; x < SCREEN_WIDTH; x++) {
+                float dx = x + 0.5f - v[2];
+                float u = ia * dx + ib * dy;
+                float w = ic * dx + id * dy;
+                if (u < 0 || w < 0 || u >= width || w >= height) {
+                    continue;
+                }
+                screen[y * SCREEN_WIDTH + x] = filter ? bilinear(src, width, height, u - 0.5f, w - 0.5f)
+                        : src[(int) w * width + (int) u];
+                covered++;
+            }
+        }
+        return covered;
+    }
+
+    private static int bilinear(int[] src, int width, int height, float u, float v) {
+        int x0 = Math.max(0, (int) Math.floor(u));
+        int y0 = Math.max(0, (int) Math.floor(v));
+        int x1 = Math.min(width - 1, x0 + 1);
+        int y1 = Math.min(height - 1, y0 + 1);
+        int fx = (int) ((u - (float) Math.floor(u)) * 256);
+        int fy = (int) ((v - (float) Math.floor(v)) * 256);
+        int c00 = src[y0 * width + x0];
+        int c01 = src[y0 * width + x1];
+        int c10 = src[y1 * width + x0];
+        int c11 = src[y1 * width + x1];
+        int result = 0;
+        for (int shift = 0; shift < 32; shift += 8) {
+            int top = (c00 >>> shift & 0xff) * (256 - fx) + (c01 >>> shift & 0xff) * fx;
+            int bottom = (c10 >>> shift & 0xff) * (256 - fx) + (c11 >>> shift & 0xff) * fx;
+            result |= (top * (256 - fy) + bottom * fy) >>> 16 << shift;
+        }
+        return result;
+    }
+}
@@ -0,0 +1,75 @@
+package fr.fouss.drawy;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A touch event batch of samples queued then drained, through the primitive ring and through
+ * a blocking queue of sample objects, the usual way to hand work to another thread.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class InputRingBenchmark {
+
+    // samples of a MotionEvent batch at 240 Hz input over a 60 Hz frame
+    private static final int BATCH = 4;
+    private static final int FRAMES = 64;
+
+    private static class Sample {
+        final int action;
+        final float x;
+        final float y;
+
+        Sample(int action, float x, float y) {
+            this.action = action;
+            this.x = x;
+            this.y = y;
+        }
+    }
+
+    private final InputRing ring = new InputRing(1024);
+    private final ArrayBlockingQueue<Sample> queue = new ArrayBlockingQueue<>(1024);
+    private float sum;
+    private final InputRing.Sink sink = (action, x, y) -> sum += x + y + action;
+
+    @Benchmark
+    public float ring() {
+        sum = 0;
+        for (int frame = 0; frame < FRAMES; frame++) {
+            for (int i = 0; i < BATCH; i++) {
+                ring.push(1, frame, i);
+            }
+            ring.drain(sink);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public float blockingQueue() throws InterruptedException {
+        sum = 0;
+        for (int frame = 0; frame < FRAMES; frame++) {
+            for (int i = 0; i < BATCH; i++) {
+                queue.put(new Sample(1, frame, i));
+            }
+            Sample sample;
+            while ((sample = queue.poll()) != null) {
+                sum += sample.x + sample.y + sample.action;
+            }
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,67 @@
+package fr.fouss.drawy;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encoding a trace worth of strokes into the session journal, fsync included.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(2)
+@State(Scope.Thread)
+public class JournalBenchmark {
+
+    @Param({"scribble"})
+    public String trace;
+
+    private DrawingLog log;
+    private ScheduledExecutorService journalWorker;
+    private File journalDirectory;
+
+    @Setup(Level.Trial)
+    public void loadTrace() throws IOException {
+        log = new DrawingLog();
+        new BrushReplay(12).replay(TouchTrace.load(trace), log, null);
+        journalWorker = Executors.newSingleThreadScheduledExecutor();
+        journalDirectory = Files.createTempDirectory("drawy-journal").toFile();
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteJournal() {
+        journalWorker.shutdown();
+        SessionJournal.delete(journalDirectory);
+        journalDirectory.delete();
+    }
+
+    @Benchmark
+    public long journalStrokes() throws IOException {
+        SessionJournal.delete(journalDirectory);
+        SessionJournal journal = new SessionJournal(journalDirectory, journalWorker, 0);
+        for (int op = 0; op < log.size(); op++) {
+            journal.appendOp(log, op);
+        }
+        journal.close();
+        return new File(journalDirectory, SessionJournal.JOURNAL_FILE).length();
+    }
+}
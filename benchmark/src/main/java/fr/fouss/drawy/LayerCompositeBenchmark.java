@@ -0,0 +1,84 @@
+package fr.fouss.drawy;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A stroke segment drawn on the top layer of a stack over a photo, then the composite brought
+ * up to date: only the tiles under the segment, as DrawView does, against every tile, as
+ * flattening each frame would. The layers under the top one are half transparent sketches.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class LayerCompositeBenchmark {
+
+    private static final int WIDTH = 1080;
+    private static final int HEIGHT = 1920;
+    private static final int SEGMENT = 40;
+
+    @Param({"2", "4", "8"})
+    public int layerCount;
+
+    private LayerStack<IntSurface> stack;
+    private int x = 0;
+    private int y = 0;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        IntSurface composite = new IntSurface(WIDTH, HEIGHT, 0);
+        stack = new LayerStack<>(composite, composite.getGrid());
+        IntSurface photo = new IntSurface(WIDTH, HEIGHT, 0xff000000);
+        // no uniform tile
+        for (int i = 0; i < photo.pixels.length; i++) {
+            photo.pixels[i] = 0xff000000 | i * 0x9e3779b1 >>> 8;
+        }
+        stack.addLayer(photo);
+        for (int layer = 1; layer < layerCount; layer++) {
+            IntSurface sketch = new IntSurface(WIDTH, HEIGHT, 0);
+            for (int line = 0; line < HEIGHT; line += 16) {
+                sketch.fillRect(0, line, WIDTH, line + 4, 0x80204080 + layer);
+            }
+            stack.addLayer(sketch);
+            stack.setMode(layer, layer % LayerStack.MODE_COUNT);
+            stack.setOpacity(layer, 200);
+        }
+        stack.update();
+    }
+
+    @Benchmark
+    public int dirtyTiles() {
+        drawSegment();
+        return stack.update();
+    }
+
+    @Benchmark
+    public int allTiles() {
+        drawSegment();
+        stack.markAllDirty();
+        return stack.update();
+    }
+
+    // a segment on the top layer, marked dirty
+    private void drawSegment() {
+        x = (x + SEGMENT) % (WIDTH - SEGMENT);
+        y = (y + SEGMENT / 4) % (HEIGHT - SEGMENT);
+        stack.getLayer(layerCount - 1).fillRect(x, y, x + SEGMENT, y + 8, 0xff102030);
+        stack.markDirty(x, y, x + SEGMENT, y + 8);
+    }
+}
@@ -0,0 +1,78 @@
+package fr.fouss.drawy;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+
+/**
+ * PNG encoding of a 2x export with the bands split over a growing number of threads, against
+ * ExportBenchmark.png for the sequential writer. Scaling stops at the core count of the machine.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class ParallelPngBenchmark {
+
+    @Param({"1", "2", "4", "8"})
+    public int threads;
+
+    private IntSurface image;
+    private int[] band;
+    private ExecutorService workers;
+    private final OutputStream out = new OutputStream() {
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+        }
+    };
+
+    @Setup(Level.Trial)
+    public void drawTrace() throws IOException {
+        image = ExportBenchmark.drawScribble(2, new DrawingLog());
+        band = new int[ExportBenchmark.BAND_PIXELS];
+        workers = Executors.newFixedThreadPool(threads);
+    }
+
+    @TearDown(Level.Trial)
+    public void stopWorkers() {
+        workers.shutdown();
+    }
+
+    @Benchmark
+    public int png() throws IOException {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int bandHeight = ExportBenchmark.BAND_PIXELS / width;
+        PngWriter png = new PngWriter(out, width, height, Deflater.DEFAULT_COMPRESSION, workers, threads);
+        for (int top = 0; top < height; top += bandHeight) {
+            int rows = Math.min(bandHeight, height - top);
+            image.getPixels(band, 0, top, width, rows);
+            png.writeRows(band, 0, width, rows);
+        }
+        png.finish();
+        return height;
+    }
+}
@@ -0,0 +1,104 @@
+package fr.fouss.drawy;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Measures how far the positions predicted by {@link MotionPredictor} land from where the finger
+ * actually was, over the single finger strokes of touch traces and a range of horizons. The
+ * "none" columns are the distance from the last sample instead, the lag of a stroke drawn
+ * without prediction. Errors are in pixels.
+ * <pre>java fr.fouss.drawy.PredictionError [trace...]</pre>
+ */
+final class PredictionError {
+
+    private static final float[] HORIZONS_MS = {8, 16, 24, 32, 48};
+    private static final String[] DEFAULT_TRACES = {"scribble", "long-stroke"};
+
+    private PredictionError() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        String[] names = args.length > 0 ? args : DEFAULT_TRACES;
+        for (String name : names) {
+            TouchTrace trace = TouchTrace.load(name);
+            System.out.println(name);
+            System.out.println(String.format(Locale.US, "  %-8s %8s | %-17s | %s",
+                    "horizon", "samples", "none: mean   p95", "predicted: mean    p50    p95    max"));
+            for (float horizon : HORIZONS_MS) {
+                Errors lag = new Errors();
+                Errors predicted = new Errors();
+                measure(trace, horizon, lag, predicted);
+                System.out.println(String.format(Locale.US, "  %5.0f ms %8d | %10.2f %6.2f | %15.2f %6.2f %6.2f %6.2f",
+                        horizon, predicted.size, lag.mean(), lag.percentile(95),
+                        predicted.mean(), predicted.percentile(50), predicted.percentile(95), predicted.percentile(100)));
+            }
+        }
+    }
+
+    static void measure(TouchTrace trace, float horizon, Errors lag, Errors predicted) {
+        MotionPredictor predictor = new MotionPredictor();
+        int strokeEnd = 0;
+        for (int i = 0; i < trace.size(); i++) {
+            if (trace.getPointerCount(i) != 1) {
+                continue;
+            }
+            if (trace.getAction(i) == TouchTrace.DOWN) {
+                predictor.begin(trace.getTime(i), trace.getX(i, 0), trace.getY(i, 0));
+                strokeEnd = i;
+                while (strokeEnd + 1 < trace.size() && trace.getAction(strokeEnd) != TouchTrace.UP) {
+                    strokeEnd++;
+                }
+                continue;
+            }
+            predictor.add(trace.getTime(i), trace.getX(i, 0), trace.getY(i, 0));
+            float target = trace.getTime(i) + horizon;
+            int next = i + 1;
+            while (next <= strokeEnd && trace.getTime(next) < target) {
+                next++;
+            }
+            // the finger is lifted before the horizon, nothing to compare with
+            if (next > strokeEnd || !predictor.predict(horizon)) {
+                continue;
+            }
+            // the actual position, linear between the samples around the target time
+            int previous = next - 1;
+            long span = trace.getTime(next) - trace.getTime(previous);
+            float t = span == 0 ? 1 : (target - trace.getTime(previous)) / span;
+            float x = trace.getX(previous, 0) + (trace.getX(next, 0) - trace.getX(previous, 0)) * t;
+            float y = trace.getY(previous, 0) + (trace.getY(next, 0) - trace.getY(previous, 0)) * t;
+            lag.add((float) Math.hypot(x - trace.getX(i, 0), y - trace.getY(i, 0)));
+            predicted.add((float) Math.hypot(x - predictor.getPredictedX(), y - predictor.getPredictedY()));
+        }
+    }
+
+    static final class Errors {
+        private float[] values = new float[1024];
+        private int size = 0;
+
+        void add(float error) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = error;
+        }
+
+        double mean() {
+            double sum = 0;
+            for (int i = 0; i < size; i++) {
+                sum += values[i];
+            }
+            return size == 0 ? 0 : sum / size;
+        }
+
+        float percentile(double percent) {
+            if (size == 0) {
+                return 0;
+            }
+            float[] sorted = Arrays.copyOf(values, size);
+            Arrays.sort(sorted);
+            return sorted[(int) Math.min(size - 1, Math.round(size * percent / 100))];
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package fr.fouss.drawy;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The stored stroke pipeline over all the points of a trace: simplification, then encoding
+ * and decoding of the kept points.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(2)
+@State(Scope.Thread)
+public class SimplifyBenchmark {
+
+    @Param({"scribble", "long-stroke"})
+    public String trace;
+
+    @Param({"4", "20"})
+    public float width;
+
+    private float[] rawPoints;
+    private int rawCount;
+    private float[] keptPoints;
+    private int keptCount;
+    private final StrokeSimplifier simplifier = new StrokeSimplifier();
+    private final VarintBuffer buffer = new VarintBuffer();
+    private byte[] encoded;
+    private float[] decoded;
+
+    // the trace as one long stroke, the way points reach the simplifier
+    @Setup(Level.Trial)
+    public void loadTrace() throws IOException {
+        TouchTrace touchTrace = TouchTrace.load(trace);
+        StrokeInput input = new StrokeInput(4, 0.2f);
+        input.begin(touchTrace.getX(0, 0), touchTrace.getY(0, 0));
+        input.ensureCapacity(touchTrace.size());
+        for (int i = 1; i < touchTrace.size(); i++) {
+            input.add(touchTrace.getX(i, 0), touchTrace.getY(i, 0));
+        }
+        rawCount = input.size();
+        rawPoints = new float[2 * rawCount];
+        for (int i = 0; i < rawCount; i++) {
+            rawPoints[2 * i] = input.getX(i);
+            rawPoints[2 * i + 1] = input.getY(i);
+        }
+        keptCount = simplify();
+        keptPoints = new float[2 * keptCount];
+        for (int i = 0; i < keptCount; i++) {
+            keptPoints[2 * i] = simplifier.getX(i);
+            keptPoints[2 * i + 1] = simplifier.getY(i);
+        }
+        decoded = new float[2 * keptCount];
+        encoded = Arrays.copyOf(buffer.getBytes(), encodeKept());
+    }
+
+    @Benchmark
+    public int simplify() {
+        simplifier.begin(rawPoints[0], rawPoints[1], StrokeSimplifier.toleranceForWidth(width));
+        for (int i = 1; i < rawCount; i++) {
+            simplifier.add(rawPoints[2 * i], rawPoints[2 * i + 1]);
+        }
+        return simplifier.finish();
+    }
+
+    @Benchmark
+    public int encodeKept() {
+        buffer.clear();
+        StrokeEncoding.encode(keptPoints, keptCount, buffer);
+        return buffer.size();
+    }
+
+    @Benchmark
+    public float decodeKept() {
+        buffer.wrap(encoded, 0, encoded.length);
+        StrokeEncoding.decode(buffer, keptCount, decoded);
+        return decoded[0];
+    }
+}
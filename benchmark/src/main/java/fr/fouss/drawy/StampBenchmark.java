@@ -0,0 +1,102 @@
+package fr.fouss.drawy;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The stamp brush fed at 240 Hz by a fast stroke, 3 px/ms circling over the page with a varying
+ * pressure. A sample is the work DrawView does for it: placing the dabs, reading the pixels under
+ * them premultiplied, blending and writing them back, to be done well within the 4.2 ms between
+ * samples. The blending alone is measured on a whole stroke of dabs.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class StampBenchmark {
+
+    private static final int WIDTH = 1080;
+    private static final int HEIGHT = 1920;
+    private static final float SAMPLE_INTERVAL_MS = 1000 / 240f;
+    private static final float SPEED = 3;
+    private static final int STROKE_DABS = 200;
+
+    @Param({"8", "32", "96"})
+    public float size;
+
+    private IntSurface drawing;
+    private final StampBrush brush = new StampBrush();
+    private int[] pixels = new int[0];
+    private int[] strokePixels;
+    private int strokeWidth;
+    private int strokeHeight;
+    private final StampBrush strokeBrush = new StampBrush();
+    private float[] strokePoints;
+    private float angle = 0;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        drawing = new IntSurface(WIDTH, HEIGHT, 0xffffffff);
+        brush.begin(0xcc204080, size);
+        brush.stampTo(WIDTH / 2 + 400, HEIGHT / 2, 0.5f);
+        brush.clearDabs();
+
+        // a straight stroke long enough for STROKE_DABS dabs at full pressure
+        float length = STROKE_DABS * size * StampBrush.SPACING;
+        strokePoints = new float[] {size, size, 0.5f, size + length, size + length / 4, 1};
+        strokeWidth = (int) (2 * size + length) + 2;
+        strokeHeight = (int) (2 * size + length / 4) + 2;
+        strokePixels = new int[strokeWidth * strokeHeight];
+    }
+
+    @Benchmark
+    public int sample() {
+        angle += SAMPLE_INTERVAL_MS * SPEED / 400;
+        float x = WIDTH / 2 + 400 * (float) Math.cos(angle);
+        float y = HEIGHT / 2 + 400 * (float) Math.sin(angle);
+        brush.stampTo(x, y, 0.5f + 0.5f * (float) Math.sin(angle * 7));
+        DirtyRect bounds = brush.getBounds();
+        int left = Math.max(0, bounds.left);
+        int top = Math.max(0, bounds.top);
+        int width = Math.min(WIDTH, bounds.right) - left;
+        int height = Math.min(HEIGHT, bounds.bottom) - top;
+        if (width <= 0 || height <= 0) {
+            brush.clearDabs();
+            return 0;
+        }
+        if (pixels.length < width * height) {
+            pixels = new int[width * height];
+        }
+        drawing.getPixels(pixels, left, top, width, height);
+        StampBrush.premultiply(pixels, width * height);
+        brush.rasterize(pixels, left, top, width, height);
+        StampBrush.unpremultiply(pixels, width * height);
+        drawing.setPixels(pixels, left, top, width, height);
+        return width * height;
+    }
+
+    @Benchmark
+    public int blendStroke() {
+        strokeBrush.begin(0xcc204080, size);
+        for (int p = 0; p < strokePoints.length; p += 3) {
+            strokeBrush.stampTo(strokePoints[p], strokePoints[p + 1], strokePoints[p + 2]);
+        }
+        int dabs = strokeBrush.getDabCount();
+        strokeBrush.rasterize(strokePixels, 0, 0, strokeWidth, strokeHeight);
+        return dabs;
+    }
+}
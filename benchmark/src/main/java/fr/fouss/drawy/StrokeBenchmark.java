@@ -0,0 +1,104 @@
+package fr.fouss.drawy;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Stroke building while the finger moves, and replaying the resulting log as a rebuild does.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(2)
+@State(Scope.Thread)
+public class StrokeBenchmark {
+
+    @Param({"scribble", "long-stroke"})
+    public String trace;
+
+    private TouchTrace touchTrace;
+    private DrawingLog recordedLog;
+    private DrawingLog log;
+    private final BoundsCanvas boundsCanvas = new BoundsCanvas();
+
+    @Setup(Level.Trial)
+    public void loadTrace() throws IOException {
+        touchTrace = TouchTrace.load(trace);
+        recordedLog = new DrawingLog();
+        new BrushReplay(12).replay(touchTrace, recordedLog, null);
+    }
+
+    // the log grows during a run, start every replay from an empty one like a new drawing
+    @Setup(Level.Invocation)
+    public void newLog() {
+        log = new DrawingLog();
+    }
+
+    @Benchmark
+    public int buildStrokes() {
+        BrushReplay replay = new BrushReplay(12);
+        replay.replay(touchTrace, log, null);
+        return replay.quadCount;
+    }
+
+    @Benchmark
+    public int replayLog() {
+        boundsCanvas.bounds.setEmpty();
+        recordedLog.replay(boundsCanvas);
+        return boundsCanvas.bounds.right;
+    }
+
+    // walks every stroke point like the Path building of CanvasReplayTarget
+    private static class BoundsCanvas implements ReplayCanvas {
+
+        final DirtyRect bounds = new DirtyRect();
+
+        @Override
+        public void clear(int color) {
+        }
+
+        @Override
+        public void drawBackground(int imageId) {
+        }
+
+        @Override
+        public void drawStroke(float[] points, int pointCount, int color, float width, int cap, int join) {
+            for (int p = 0; p < pointCount; p++) {
+                bounds.unionPoint(points[2 * p], points[2 * p + 1], width / 2);
+            }
+        }
+
+        @Override
+        public void drawImage(int imageId, float x, float y, float scale, float degrees) {
+        }
+
+        @Override
+        public void drawStamps(float[] points, int pointCount, int color, float size) {
+            for (int p = 0; p < pointCount; p++) {
+                bounds.unionPoint(points[3 * p], points[3 * p + 1], size / 2);
+            }
+        }
+
+        @Override
+        public void drawFill(int[] mask, int offset, int left, int top, int width, int height, int color) {
+        }
+
+        @Override
+        public void selectLayer(int layer, int opacity, int mode) {
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package fr.fouss.drawy;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Region queries over many committed strokes: an eraser sized probe and a lasso sized region,
+ * against a scan of every stroke bounds, plus indexing them all.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(2)
+@State(Scope.Thread)
+public class StrokeIndexBenchmark {
+
+    private static final int WIDTH = 1080;
+    private static final int HEIGHT = 1920;
+    private static final int QUERIES = 1024;
+
+    @Param({"100000", "500000"})
+    public int strokes;
+
+    private int[] bounds;
+    private int[] queries;
+    private StrokeIndex index;
+    private int next = 0;
+
+    // short strokes mostly, a few long ones across the canvas
+    @Setup(Level.Trial)
+    public void createStrokes() {
+        Random random = new Random(7);
+        bounds = new int[4 * strokes];
+        for (int i = 0; i < strokes; i++) {
+            int size = random.nextInt(100) < 95 ? 10 + random.nextInt(120) : 200 + random.nextInt(800);
+            int left = random.nextInt(WIDTH);
+            int top = random.nextInt(HEIGHT);
+            bounds[4 * i] = left;
+            bounds[4 * i + 1] = top;
+            bounds[4 * i + 2] = left + size;
+            bounds[4 * i + 3] = top + size;
+        }
+        queries = new int[2 * QUERIES];
+        for (int i = 0; i < QUERIES; i++) {
+            queries[2 * i] = random.nextInt(WIDTH);
+            queries[2 * i + 1] = random.nextInt(HEIGHT);
+        }
+        index = buildIndex();
+    }
+
+    private StrokeIndex buildIndex() {
+        StrokeIndex index = new StrokeIndex(WIDTH, HEIGHT, StrokeIndex.DEFAULT_CELL_SIZE);
+        for (int i = 0; i < strokes; i++) {
+            index.add(i, bounds[4 * i], bounds[4 * i + 1], bounds[4 * i + 2], bounds[4 * i + 3]);
+        }
+        return index;
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public int build() {
+        return buildIndex().size();
+    }
+
+    @Benchmark
+    public int eraserQuery() {
+        int q = next++ & (QUERIES - 1);
+        int x = queries[2 * q];
+        int y = queries[2 * q + 1];
+        return index.query(x - 20, y - 20, x + 20, y + 20, strokes);
+    }
+
+    @Benchmark
+    public int lassoQuery() {
+        int q = next++ & (QUERIES - 1);
+        int x = queries[2 * q];
+        int y = queries[2 * q + 1];
+        return index.query(x, y, x + 300, y + 300, strokes);
+    }
+
+    @Benchmark
+    public int eraserScan() {
+        int q = next++ & (QUERIES - 1);
+        int left = queries[2 * q] - 20;
+        int top = queries[2 * q + 1] - 20;
+        int right = left + 40;
+        int bottom = top + 40;
+        int count = 0;
+        for (int i = 0; i < strokes; i++) {
+            int b = 4 * i;
+            if (bounds[b] < right && bounds[b + 2] > left && bounds[b + 1] < bottom && bounds[b + 3] > top) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,127 @@
+package fr.fouss.drawy;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Touch events read from a trace file, one event per line:
+ * <pre>time_ms action x1 y1 [x2 y2]</pre>
+ * where action is down, move or up and the second pointer is only given for two-finger gestures.
+ * Lines starting with # are comments.
+ */
+final class TouchTrace {
+
+    static final int DOWN = 0;
+    static final int MOVE = 1;
+    static final int UP = 2;
+
+    private static final String[] ACTIONS = {"down", "move", "up"};
+
+    private int size;
+    private long[] times = new long[256];
+    private int[] actions = new int[256];
+    private int[] pointerCounts = new int[256];
+    private float[] points = new float[4 * 256];
+
+    static TouchTrace load(String name) throws IOException {
+        InputStream in = TouchTrace.class.getResourceAsStream("/traces/" + name + ".trace");
+        if (in == null) {
+            throw new IOException("No trace named " + name);
+        }
+        try (Reader reader = new InputStreamReader(in, StandardCharsets.UTF_8)) {
+            return read(reader);
+        }
+    }
+
+    static TouchTrace read(Reader reader) throws IOException {
+        TouchTrace trace = new TouchTrace();
+        BufferedReader lines = new BufferedReader(reader);
+        int lineNumber = 0;
+        String line;
+        while ((line = lines.readLine()) != null) {
+            lineNumber++;
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            String[] fields = line.split("\\s+");
+            int action = indexOf(fields[1]);
+            if (action < 0 || (fields.length != 4 && fields.length != 6)) {
+                throw new IOException("Malformed trace line " + lineNumber + ": " + line);
+            }
+            try {
+                if (fields.length == 4) {
+                    trace.add(Long.parseLong(fields[0]), action, 1,
+                            Float.parseFloat(fields[2]), Float.parseFloat(fields[3]), 0, 0);
+                } else {
+                    trace.add(Long.parseLong(fields[0]), action, 2,
+                            Float.parseFloat(fields[2]), Float.parseFloat(fields[3]),
+                            Float.parseFloat(fields[4]), Float.parseFloat(fields[5]));
+                }
+            } catch (NumberFormatException e) {
+                throw new IOException("Malformed trace line " + lineNumber + ": " + line, e);
+            }
+        }
+        return trace;
+    }
+
+    private static int indexOf(String action) {
+        for (int i = 0; i < ACTIONS.length; i++) {
+            if (ACTIONS[i].equals(action)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    static String actionName(int action) {
+        return ACTIONS[action];
+    }
+
+    void add(long time, int action, int pointerCount, float x1, float y1, float x2, float y2) {
+        if (size == times.length) {
+            int capacity = size * 2;
+            times = Arrays.copyOf(times, capacity);
+            actions = Arrays.copyOf(actions, capacity);
+            pointerCounts = Arrays.copyOf(pointerCounts, capacity);
+            points = Arrays.copyOf(points, 4 * capacity);
+        }
+        times[size] = time;
+        actions[size] = action;
+        pointerCounts[size] = pointerCount;
+        points[4 * size] = x1;
+        points[4 * size + 1] = y1;
+        points[4 * size + 2] = x2;
+        points[4 * size + 3] = y2;
+        size++;
+    }
+
+    int size() {
+        return size;
+    }
+
+    long getTime(int i) {
+        return times[i];
+    }
+
+    int getAction(int i) {
+        return actions[i];
+    }
+
+    int getPointerCount(int i) {
+        return pointerCounts[i];
+    }
+
+    float getX(int i, int pointer) {
+        return points[4 * i + 2 * pointer];
+    }
+
+    float getY(int i, int pointer) {
+        return points[4 * i + 2 * pointer + 1];
+    }
+}
@@ -0,0 +1,98 @@
+package fr.fouss.drawy;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Writes the synthetic traces shipped in src/main/resources/traces, sampled every 8 ms (125 Hz),
+ * about the rate of most touch screens. Traces recorded on a device in the same format can be dropped next to them.
+ * <pre>java fr.fouss.drawy.TraceGenerator benchmark/src/main/resources/traces</pre>
+ */
+final class TraceGenerator {
+
+    private static final int SAMPLE_INTERVAL_MS = 8;
+
+    private TraceGenerator() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        File directory = new File(args.length > 0 ? args[0] : ".");
+        write(scribble(new Random(1)), new File(directory, "scribble.trace"),
+                "40 short strokes with jittery wrist motion");
+        write(longStroke(new Random(2)), new File(directory, "long-stroke.trace"),
+                "a single 4000 sample stroke spiralling over the canvas");
+        write(rotate(new Random(3)), new File(directory, "rotate.trace"),
+                "two fingers twisting and pinching a floating image");
+    }
+
+    static TouchTrace scribble(Random random) {
+        TouchTrace trace = new TouchTrace();
+        long time = 0;
+        for (int stroke = 0; stroke < 40; stroke++) {
+            float x = 100 + random.nextFloat() * 880;
+            float y = 100 + random.nextFloat() * 1500;
+            float heading = random.nextFloat() * 6.28f;
+            int samples = 60 + random.nextInt(140);
+            trace.add(time, TouchTrace.DOWN, 1, x, y, 0, 0);
+            for (int i = 0; i < samples; i++) {
+                time += SAMPLE_INTERVAL_MS;
+                heading += (random.nextFloat() - 0.5f) * 0.6f;
+                float speed = 4 + random.nextFloat() * 12;
+                x += (float) Math.cos(heading) * speed + (float) random.nextGaussian() * 0.7f;
+                y += (float) Math.sin(heading) * speed + (float) random.nextGaussian() * 0.7f;
+                trace.add(time, i == samples - 1 ? TouchTrace.UP : TouchTrace.MOVE, 1, x, y, 0, 0);
+            }
+            time += 150 + random.nextInt(300);
+        }
+        return trace;
+    }
+
+    static TouchTrace longStroke(Random random) {
+        TouchTrace trace = new TouchTrace();
+        int samples = 4000;
+        for (int i = 0; i <= samples; i++) {
+            double t = (double) i / samples;
+            double radius = 50 + 450 * t;
+            double angle = t * 40 * Math.PI;
+            float x = (float) (540 + radius * Math.cos(angle) + random.nextGaussian() * 0.5);
+            float y = (float) (900 + radius * Math.sin(angle) + random.nextGaussian() * 0.5);
+            int action = i == 0 ? TouchTrace.DOWN : i == samples ? TouchTrace.UP : TouchTrace.MOVE;
+            trace.add(i * SAMPLE_INTERVAL_MS, action, 1, x, y, 0, 0);
+        }
+        return trace;
+    }
+
+    static TouchTrace rotate(Random random) {
+        TouchTrace trace = new TouchTrace();
+        int samples = 1200;
+        for (int i = 0; i <= samples; i++) {
+            double t = (double) i / samples;
+            double angle = Math.sin(t * 6 * Math.PI) * 2;
+            double spread = 150 + 100 * Math.sin(t * 4 * Math.PI);
+            float dx = (float) (Math.cos(angle) * spread);
+            float dy = (float) (Math.sin(angle) * spread);
+            float cx = 540 + (float) random.nextGaussian();
+            float cy = 900 + (float) random.nextGaussian();
+            int action = i == 0 ? TouchTrace.DOWN : i == samples ? TouchTrace.UP : TouchTrace.MOVE;
+            trace.add(i * SAMPLE_INTERVAL_MS, action, 2, cx - dx, cy - dy, cx + dx, cy + dy);
+        }
+        return trace;
+    }
+
+    static void write(TouchTrace trace, File file, String description) throws IOException {
+        try (PrintWriter out = new PrintWriter(file, "UTF-8")) {
+            out.println("# synthetic trace: " + description);
+            out.println("# time_ms action x1 y1 [x2 y2]");
+            for (int i = 0; i < trace.size(); i++) {
+                out.print(trace.getTime(i) + " " + TouchTrace.actionName(trace.getAction(i)));
+                for (int p = 0; p < trace.getPointerCount(i); p++) {
+                    out.print(String.format(Locale.US, " %.2f %.2f", trace.getX(i, p), trace.getY(i, p)));
+                }
+                out.println();
+            }
+        }
+    }
+}
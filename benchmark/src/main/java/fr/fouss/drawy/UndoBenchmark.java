@@ -0,0 +1,70 @@
+package fr.fouss.drawy;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Undo capture of finished strokes, with and without deflating the entries evicted by the budget.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(2)
+@State(Scope.Thread)
+public class UndoBenchmark {
+
+    private static final int WIDTH = 1080;
+    private static final int HEIGHT = 1920;
+
+    @Param({"scribble"})
+    public String trace;
+
+    @Param({"false", "true"})
+    public boolean compressEvicted;
+
+    private final List<int[]> strokeBounds = new ArrayList<>();
+    private IntSurface surface;
+    private UndoHistory history;
+
+    @Setup(Level.Trial)
+    public void loadTrace() throws IOException {
+        new BrushReplay(12).replay(TouchTrace.load(trace), new DrawingLog(), bounds ->
+                strokeBounds.add(new int[] {bounds.left, bounds.top, bounds.right, bounds.bottom}));
+        surface = new IntSurface(WIDTH, HEIGHT, 0xffffffff);
+    }
+
+    // a budget of a few strokes so that eviction runs all along
+    @Setup(Level.Iteration)
+    public void newHistory() {
+        history = new UndoHistory(surface, UndoHistory.DEFAULT_TILE_SIZE, 4L << 20, compressEvicted);
+    }
+
+    @Benchmark
+    public long captureStrokes() {
+        int color = 0xff000000;
+        for (int[] bounds : strokeBounds) {
+            history.beginChange();
+            history.capture(bounds[0], bounds[1], bounds[2], bounds[3]);
+            // stands for the stroke being drawn, so the next capture sees new pixels
+            surface.fillRect(bounds[0], bounds[1], bounds[2], bounds[3], color++);
+            history.endChange();
+        }
+        return history.getByteSize();
+    }
+}
@@ -0,0 +1,126 @@
+package fr.fouss.drawy;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A zoomed out frame of a 4096x4096 drawing, sampled from the drawing itself or from the
+ * pre-scaled level the viewport picks, the bookkeeping of the tile cache while panning, and
+ * rendering one tile of that level on the worker. The Canvas can't run on the desktop JVM, so
+ * frames go through a software nearest sampler.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ViewportBenchmark {
+
+    private static final int DRAWING_SIZE = 4096;
+    private static final int SCREEN_WIDTH = 1080;
+    private static final int SCREEN_HEIGHT = 1920;
+    private static final int TILE_SIZE = 256;
+
+    @Param({"0.125", "0.25", "0.5"})
+    public float scale;
+
+    private IntSurface drawing;
+    private int level;
+    private int[] levelPixels;
+    private int levelWidth;
+    private final int[] screen = new int[SCREEN_WIDTH * SCREEN_HEIGHT];
+    private final int[] tile = new int[TILE_SIZE * TILE_SIZE];
+    private final int[] block = new int[ImagePyramid.BLOCK_SIZE * ImagePyramid.BLOCK_SIZE];
+    private final int[] half = new int[ImagePyramid.BLOCK_SIZE * ImagePyramid.BLOCK_SIZE];
+    private final Viewport viewport = new Viewport(DRAWING_SIZE, DRAWING_SIZE);
+    private final TileCache<int[]> cache = new TileCache<>(TILE_SIZE, 32L << 20);
+    private final DirtyRect visible = new DirtyRect();
+    private float panX = 0;
+
+    @Setup(Level.Trial)
+    public void drawPage() {
+        // flat rectangles over white, as strokes leave most of a drawing uniform
+        drawing = new IntSurface(DRAWING_SIZE, DRAWING_SIZE, 0xffffffff);
+        Random random = new Random(42);
+        for (int i = 0; i < 2000; i++) {
+            int x = random.nextInt(DRAWING_SIZE);
+            int y = random.nextInt(DRAWING_SIZE);
+            drawing.fillRect(x, y, x + 8 + random.nextInt(200), y + 8 + random.nextInt(20),
+                    0xff000000 | random.nextInt(0xffffff));
+        }
+        viewport.setViewSize(SCREEN_WIDTH, SCREEN_HEIGHT);
+        viewport.zoom(scale, 0, 0);
+        level = viewport.getLevel();
+        levelWidth = ImagePyramid.levelSize(DRAWING_SIZE, level);
+        levelPixels = new int[levelWidth * levelWidth];
+        ImagePyramid.downsampleRegion(drawing::getPixels, 0, 0, DRAWING_SIZE, DRAWING_SIZE, level,
+                levelPixels, block, half);
+    }
+
+    @Benchmark
+    public int frameFromDrawing() {
+        return drawFrame(drawing.pixels, DRAWING_SIZE, viewport.getScale());
+    }
+
+    @Benchmark
+    public int frameFromLevel() {
+        return drawFrame(levelPixels, levelWidth, viewport.getScale() * (1 << level));
+    }
+
+    @Benchmark
+    public int renderTile() {
+        int span = TILE_SIZE << level;
+        ImagePyramid.downsampleRegion(drawing::getPixels, span, span, span, span, level, tile, block, half);
+        return tile[0];
+    }
+
+    // the cache side of a frame while panning: tiles on screen looked up, missing ones filled
+    @Benchmark
+    public int panFrame() {
+        panX = panX < -DRAWING_SIZE ? 0 : panX - 7;
+        viewport.pan(panX - viewport.getOffsetX(), 0);
+        viewport.toDrawing(0, 0, SCREEN_WIDTH, SCREEN_HEIGHT, visible);
+        cache.setVisible(level, visible.left, visible.top, visible.right, visible.bottom);
+        int span = cache.getTileSpan(level);
+        int found = 0;
+        for (int row = visible.top / span; row * span < visible.bottom; row++) {
+            for (int column = visible.left / span; column * span < visible.right; column++) {
+                long key = TileCache.key(level, column, row);
+                if (cache.get(key) != null) {
+                    found++;
+                } else if (cache.request(key)) {
+                    cache.put(key, tile, tile.length * 4);
+                }
+            }
+        }
+        return found;
+    }
+
+    // the top left of the drawing at the given scale, one source pixel per screen pixel
+    private int drawFrame(int[] src, int srcWidth, float srcScale) {
+        int width = Math.min(SCREEN_WIDTH, (int) (srcWidth * srcScale));
+        int height = Math.min(SCREEN_HEIGHT, (int) (srcWidth * srcScale));
+        float step = 1 / srcScale;
+        for (int y = 0; y < height; y++) {
+            int row = (int) (y * step) * srcWidth;
+            for (int x = 0; x < width; x++) {
+                screen[y * SCREEN_WIDTH + x] = src[row + (int) (x * step)];
+            }
+        }
+        return width * height;
+    }
+}